@@ -18,11 +18,52 @@
 
 package com.pmeade.arya;
 
+import com.google.common.io.CharStreams;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.pmeade.arya.gson.codec.ClassCodec;
+import com.pmeade.arya.gson.codec.ClassCodecs;
 import com.pmeade.arya.gson.deserialize.AryaDeserializer;
 import com.pmeade.arya.gson.serialize.AryaSerializer;
+import com.pmeade.arya.gson.stream.AryaTypeAdapterFactory;
+import com.pmeade.arya.identity.ConcurrentIdentityMap;
+import com.pmeade.arya.identity.IdGenerator;
+import com.pmeade.arya.identity.IdentityRegistry;
+import com.pmeade.arya.identity.IdentityMap;
+import com.pmeade.arya.identity.IdentityTable;
+import com.pmeade.arya.identity.RandomIdGenerator;
+import com.pmeade.arya.identity.UuidCache;
+import com.pmeade.arya.identity.UuidCodec;
+import com.pmeade.arya.io.JsonPatch;
+import com.pmeade.arya.io.RecordHashes;
+import com.pmeade.arya.io.Utf8Reader;
+import com.pmeade.arya.io.Utf8Writer;
+import com.pmeade.arya.reflect.ClassPlan;
+import com.pmeade.arya.reflect.FieldKind;
+import com.pmeade.arya.reflect.FieldPlan;
+import com.pmeade.arya.reflect.Fingerprint;
+import com.pmeade.arya.reflect.SubgraphHash;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,13 +73,14 @@ import org.slf4j.LoggerFactory;
  * an "extension" to gson.
  * 
  * IMPORTANT: Google's Gson class is immutable and thread-safe; references may
- *            be passed around safely. Arya is STATEFUL and NOT thread-safe.
+ *            be passed around safely. Arya is STATEFUL and, unless it has
+ *            been configured with setConcurrent(true), NOT thread-safe.
  *            Don't treat Arya references like Gson references; it probably
  *            won't work out very well.
  * 
  * @author pmeade
  */
-public class Arya
+public class Arya implements Closeable
 {
     /** SLF4J Logging Service */
     private static final Logger log = LoggerFactory.getLogger(Arya.class);
@@ -61,6 +103,42 @@ public class Arya
      */
     public static final boolean PRETTY_PRINTING = true;
 
+    /**
+     * Constant that indicates we want saveParallel() to inform the output
+     * listeners of each record from the calling thread, in the order in
+     * which the graph was walked.
+     */
+    public static final boolean ORDERED_OUTPUT = true;
+
+    /**
+     * Constant that indicates we want saveParallel() to inform the output
+     * listeners of each record as soon as it is serialized, from the threads
+     * of the pool, in no particular order. The listeners must be thread-safe.
+     */
+    public static final boolean UNORDERED_OUTPUT = false;
+
+    /**
+     * Default maximum number of records in a batch given to the batch
+     * output listeners.
+     */
+    private static final int DEFAULT_OUTPUT_BATCH_SIZE = 1000;
+
+    /**
+     * Default maximum number of characters of JSON in a batch given to the
+     * batch output listeners.
+     */
+    private static final int DEFAULT_OUTPUT_BATCH_CHARS = 1 << 20;
+
+    /**
+     * Maximum number of Utf8Writer buffers kept in the pool.
+     */
+    private static final int MAX_POOLED_BUFFERS = 16;
+
+    /**
+     * Maximum capacity (in bytes) of a Utf8Writer buffer kept in the pool.
+     */
+    private static final int MAX_POOLED_CAPACITY = 1 << 20;
+
     /**
      * Construct an Arya object to provide (de)serialization services. Arya
      * defaults to PRETTY_PRINTING when this constructor is called.
@@ -93,194 +171,2934 @@ public class Arya
      */
     public UUID getIdentity(Object t)
     {
-        return objUuidMap.get(t);
+        if(sessions != null) {
+            return sessions.current().getIdentity(t);
+        }
+        return identities.getId(t);
     }
 
     /**
-     * Load (deserialize) an Object from the Arya persistence store.
-     * @param uuid UUID identity of the Object to be restored
-     * @param type the Class of the Object to be restored
-     * @return the requested Object, if and only if Arya has a specification
-     *         for the object under the provided UUID identity, otherwise null
+     * Convert a UUID identity into the String form that appears in the
+     * JSON. If Arya was configured for compact identities, a 64-bit
+     * identity is written as a decimal number.
+     * @param uuid UUID identity
+     * @return String form of the UUID identity
      */
-    public <T> T load(UUID uuid, Class<T> type)
+    public String formatIdentity(UUID uuid)
     {
-        // if we don't already have this object in the identity->object map
-        if(uuidObjMap.containsKey(uuid) == false) {
-            // then, for each input provider registered with Arya
-            for(AryaInput provider : providers) {
-                // ask the provider if it has JSON for the provided identity
-                String json = provider.input(uuid, type);
-                // if we got some (not null) JSON back from the provider 
-                if(json != null) {
-                    // save the UUID identity for the deserializer
-                    loadStack.push(uuid);
-                    // deserialze the object from the JSON
-                    // (this implicitly adds it to the identity->object map)
-                    getGson().fromJson(json, type);
-                    // and stop asking further providers for JSON
-                    break;
-                }
-            }
+        if(sessions != null) {
+            return sessions.current().formatIdentity(uuid);
         }
-        // return the object (if any) from the identity map
-        return (T) uuidObjMap.get(uuid);
+        return compactIdentities ? UuidCodec.formatCompact(uuid) : UuidCodec.format(uuid);
     }
-    
+
     /**
-     * Save (serialize) an Object to the Arya persistence store.
-     * @param t the Object to be saved (serialized) to the persistence store
+     * Determine the UUID identity under which the provided object is to be
+     * serialized. This is called by the serializer. In order:
+     * 
+     * 1. If the object has a field marked with @Id that contains an
+     *    identity, that identity is used.
+     * 2. If the object already has an identity in this session (i.e.: it
+     *    is being saved again because it changed), that identity is used.
+     * 3. If the class has a field marked with @Id, but it is empty, a new
+     *    identity is generated; if Arya was configured to write identities
+     *    back, the new identity is also written into the field.
+     * 4. If the class has no field marked with @Id, and Arya was configured
+     *    with an IdentityRegistry, the identity under which the object was
+     *    registered is used (a new identity is generated and registered if
+     *    the object isn't registered yet).
+     * 5. Otherwise, a new identity is generated.
+     * 
+     * If Arya is concurrent, an identity chosen by step 3, 4, or 5 is put
+     * into the identity map atomically, unless another thread has given
+     * the object an identity in the meantime; in that case, the identity
+     * given by the other thread is used.
+     * @param t Object to be serialized
+     * @return UUID identity of the object
      */
-    public <T> void save(T t)
+    public UUID assignIdentity(Object t)
     {
-        // if the object->identity map does not already contain this object
-        if(objUuidMap.containsKey(t) == false) {
-            // obtain the JSON representation of this Object
-            // (this implicitly adds it to the object->identity map)
-            String json = getGson().toJson(t);
-            // for each output listener registered with Arya
-            for(AryaOutput listener : listeners) {
-                // inform the listener of the object that has been
-                // serialized, its UUID identity, and the JSON to
-                // which it was serialized
-                listener.output(t, objUuidMap.get(t), json);
+        if(sessions != null) {
+            return sessions.current().assignIdentity(t);
+        }
+        ClassPlan plan = ClassPlan.of(t.getClass());
+        // if the object has an identity of its own, use it
+        UUID uuid = plan.getId(t);
+        if(uuid != null) {
+            return uuid;
+        }
+        // if the object is being saved again, keep its identity
+        uuid = identities.getId(t);
+        if(uuid != null) {
+            return uuid;
+        }
+        // if we share a registry with other sessions, and the class has no
+        // identity field, ask the registry
+        if(plan.getIdField() == null && identityRegistry != null) {
+            uuid = identityRegistry.get(t);
+            if(uuid == null) {
+                uuid = identityRegistry.putIfAbsent(t, nextIdentity());
+            }
+        }
+        // otherwise, generate a new identity
+        else {
+            uuid = nextIdentity();
+        }
+        // if other threads share this Arya, one of them may be saving the
+        // same object; whichever thread gets there first decides
+        Transaction tx = context().transaction;
+        boolean mine = true;
+        if(concurrent) {
+            UUID claimed = identities.putObjectIfAbsent(uuid, t);
+            // if this thread claimed it in a transaction, remember that
+            mine = claimed.equals(uuid);
+            if(tx != null && mine) {
+                tx.identities.add(uuid);
             }
+            uuid = claimed;
         }
+        // if the class has an (empty) identity field, write the new
+        // identity back, if so configured (in a transaction, remember
+        // that, so a rollback can empty the field again)
+        if(plan.getIdField() != null && idWriteBack
+        && plan.setId(t, uuid) && tx != null && mine) {
+            tx.writtenBack.add(t);
+        }
+        return uuid;
     }
 
     /**
-     * Obtain the UUID identity saved by Arya during the call to load().
-     * This is called by the AryaDeserializer object because there is no
-     * good way to pass the UUID through Google's Gson library.
-     * @return the UUID identity of the object, previously saved during
-     *         a call to the load() method
+     * Create a UUID identity for an object that doesn't have one of its
+     * own. This delegates to the configured IdGenerator.
+     * @return new UUID identity
      */
-    public UUID pop()
+    public UUID nextIdentity()
     {
-        return loadStack.pop();
+        return idGenerator.next();
     }
 
     /**
-     * Add the provided Object with the provided UUID identity to the
-     * idenity->object and object->identity maps.
-     * @param uuid UUID identity for the provided Object
-     * @param t Object to add to the identity<->object maps
+     * Convert the String form of a UUID identity (as it appears in the
+     * JSON) into a UUID. Arya remembers recently parsed identities, so a
+     * reference that appears in many records is only parsed once.
+     * @param s String form of the UUID identity
+     * @return UUID identity
+     * @throws IllegalArgumentException if the String is not a UUID
      */
-    public void populate(UUID uuid, Object t)
+    public UUID parseIdentity(String s)
     {
-        // log the low level detail of an object getting added to the map
-        log.trace("{}:{}", uuid, t);
-        // add the object and identity to the object->identity map
-        objUuidMap.put(t, uuid);
-        // add the identity and object to the identity->object map
-        uuidObjMap.put(uuid, t);
+        if(sessions != null) {
+            return sessions.current().parseIdentity(s);
+        }
+        return context().uuidCache.parse(s);
     }
 
     /**
-     * Register an input provider with Arya.
-     * @param aryaInput reference to object implementing the AryaInput service
-     *                  interface; it will provide JSON when queried with a
-     *                  UUID identity for an object
+     * Determine if Arya writes 64-bit identities in compact form.
+     * @return true, if 64-bit identities are written as decimal numbers
      */
-    public void register(AryaInput aryaInput)
-    {
-        providers.add(aryaInput);
+    public boolean isCompactIdentities() {
+        return compactIdentities;
     }
 
     /**
-     * Register an output listener with Arya.
-     * @param aryaOutput reference to object implementing the AryaOutput service
-     *                   interface; Arya will call it with a reference to the
-     *                   object, the object's UUID identity, and the JSON to
-     *                   which that object was serialized
+     * Configure Arya to write 64-bit identities (UUID identities whose most
+     * significant bits are zero, such as those created by the default
+     * SequentialIdGenerator) in compact form. A reference such as
+     * "00000000-0000-0000-0000-00000000002a" is written as "42" instead.
+     * Arya always reads both forms, so this setting only affects output.
+     * @param compactIdentities true, if 64-bit identities should be written
+     *                          as decimal numbers; false, if every identity
+     *                          should be written in canonical UUID form
      */
-    public void register(AryaOutput aryaOutput)
-    {
-        listeners.add(aryaOutput);
+    public void setCompactIdentities(boolean compactIdentities) {
+        this.compactIdentities = compactIdentities;
     }
-    
-    //-----------------------------------------------------------------------
-    
+
     /**
-     * Obtain the Google Gson singleton. If the singleton does not exist,
-     * it will be created on the first call to this method.
-     * @return Gson object, properly configured for JSON (de)serialization
+     * Obtain the IdGenerator that creates identities for objects that
+     * don't have one of their own.
+     * @return IdGenerator used by Arya
      */
-    private Gson getGson() {
-        // if we don't have a Gson singleton yet
-        if(gson == null) {
-            // create a builder object to generate a customized Gson object
-            GsonBuilder gsonBuilder = new GsonBuilder();
-            // register Arya's serializer to handle serialization of every
-            // object that derives from Object (i.e.: all objects)
-            gsonBuilder.registerTypeHierarchyAdapter(Object.class, new AryaSerializer(this));
-            // register Arya's deserializer to handle deserialization of every
-            // object that derives from Object (i.e.: all objects)
-            gsonBuilder.registerTypeHierarchyAdapter(Object.class, new AryaDeserializer(this));
-            // if Arya was configured for pretty printing
-            if(prettyPrinting) {
-                // then, configure our Gson singleton for pretty printing
-                gsonBuilder.setPrettyPrinting();
+    public IdGenerator getIdGenerator() {
+        return idGenerator;
+    }
+
+    /**
+     * Configure the IdGenerator that creates identities for objects that
+     * don't have one of their own. The default is a RandomIdGenerator.
+     * @param idGenerator IdGenerator to be used by Arya
+     */
+    public void setIdGenerator(IdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * Determine if Arya tracks changes to the objects it saves and loads.
+     * @return true, if Arya is tracking changes
+     */
+    public boolean isChangeTracking() {
+        return changeTracking;
+    }
+
+    /**
+     * Configure Arya to track changes to the objects it saves and loads.
+     * When tracking changes, Arya remembers a 64-bit fingerprint of the
+     * fields of each object. Saving an object again (or calling flush())
+     * then saves each object whose fingerprint has changed, and only
+     * those objects. Without change tracking, an object that has already
+     * been saved is never saved again by the same Arya. This setting
+     * should be made before the first call to load() or save().
+     * @param changeTracking true, if Arya should track changes; false, if
+     *                       it should not (the default)
+     */
+    public void setChangeTracking(boolean changeTracking) {
+        this.changeTracking = changeTracking;
+    }
+
+    /**
+     * Obtain the IdentityRegistry shared with other Arya sessions.
+     * @return IdentityRegistry, or null if Arya doesn't use one
+     */
+    public IdentityRegistry getIdentityRegistry() {
+        return identityRegistry;
+    }
+
+    /**
+     * Configure the IdentityRegistry that remembers the identities of
+     * objects without a field marked with @Id. Arya objects that share a
+     * registry give such an object the same identity, so saving it again
+     * in a later session overwrites it (instead of storing a second copy).
+     * Objects loaded by Arya are registered under the identity from which
+     * they were loaded.
+     * @param identityRegistry IdentityRegistry to be used by Arya, or null
+     *                         if Arya shouldn't use one (the default)
+     */
+    public void setIdentityRegistry(IdentityRegistry identityRegistry) {
+        this.identityRegistry = identityRegistry;
+    }
+
+    /**
+     * Obtain the IdentityMap that pairs objects and UUID identities in
+     * this session. Its size() and getEvictionCount() may be used to size
+     * a bounded map.
+     * @return IdentityMap used by Arya
+     */
+    public IdentityMap getIdentityMap() {
+        return identities;
+    }
+
+    /**
+     * Configure the IdentityMap that pairs objects and UUID identities in
+     * this session. By default, Arya uses an IdentityTable, which holds
+     * every object it has saved or loaded until clear() is called. A
+     * long-lived Arya may use a ReferenceIdentityMap instead, which can
+     * hold weak or soft references, and evict entries beyond a bound.
+     * 
+     * IMPORTANT: This should be configured before the first save() or
+     *            load(); the objects in the old map are not carried over.
+     * 
+     * @param identityMap IdentityMap to be used by Arya
+     */
+    public void setIdentityMap(IdentityMap identityMap) {
+        this.identities = identityMap;
+    }
+
+    /**
+     * Obtain the RecordHashes used to skip unchanged records.
+     * @return RecordHashes, or null if Arya doesn't use one
+     */
+    public RecordHashes getRecordHashes() {
+        return recordHashes;
+    }
+
+    /**
+     * Configure the RecordHashes used to skip unchanged records. Before
+     * calling the output listeners, Arya hashes each record; if it has the
+     * same hash as the last record written under the same UUID identity,
+     * the listeners are not called. Share one RecordHashes between Arya
+     * objects, or seed it from the store, so that records saved again by
+     * a later session are only written if they have changed.
+     * @param recordHashes RecordHashes to be used by Arya, or null if every
+     *                     record should be written (the default)
+     */
+    public void setRecordHashes(RecordHashes recordHashes) {
+        this.recordHashes = recordHashes;
+    }
+
+    /**
+     * Obtain the table of subgraph hashes used to skip unchanged subgraphs.
+     * @return RecordHashes holding subgraph hashes, or null if Arya doesn't
+     *         hash subgraphs
+     */
+    public RecordHashes getSubgraphHashes() {
+        return subgraphHashes;
+    }
+
+    /**
+     * Configure Arya to hash subgraphs. When hashing subgraphs, save()
+     * first computes a Merkle-style hash of every object reachable from
+     * the saved object (see SubgraphHash); the hash of an object covers
+     * its fields and the hashes of the objects it refers to. Then it walks
+     * the graph again from the saved object, and stops at every object
+     * whose hash is the same as the one in the provided table: nothing
+     * reachable from that object has changed. Of the objects it does
+     * reach, only those whose own fields have changed (or that are new)
+     * are serialized and written, so a changed object doesn't drag the
+     * objects above it along. Computing the hashes still visits every
+     * reachable object, since nothing tells Arya which objects have been
+     * modified, but it uses reflection only, and no JSON.
+     * 
+     * Subgraph hashes are the same in every session (even for sets and
+     * maps, whose iteration order isn't; see SubgraphHash for the one
+     * exception), so the table may be shared between Arya objects.
+     * Objects must have stable identities (see setIdWriteBack and
+     * setIdentityRegistry) for a later session to benefit. The table must
+     * not be the same one passed to setRecordHashes(). Subgraph hashing
+     * takes precedence over change tracking.
+     * @param subgraphHashes RecordHashes in which to keep subgraph hashes,
+     *                       or null if Arya shouldn't hash subgraphs (the
+     *                       default)
+     */
+    public void setSubgraphHashes(RecordHashes subgraphHashes) {
+        this.subgraphHashes = subgraphHashes;
+    }
+
+    /**
+     * Determine if Arya writes generated identities back into empty fields
+     * marked with @Id.
+     * @return true, if generated identities are written back
+     */
+    public boolean isIdWriteBack() {
+        return idWriteBack;
+    }
+
+    /**
+     * Configure Arya to write generated identities back into empty fields
+     * marked with @Id. Once written back, the identity is part of the
+     * object, so the object keeps it in every later session. A generated
+     * identity that doesn't fit into the field (a full UUID and a long
+     * field) is not written back.
+     * @param idWriteBack true, if generated identities should be written
+     *                    back; false, if the object should be left
+     *                    unmodified (the default)
+     */
+    public void setIdWriteBack(boolean idWriteBack) {
+        this.idWriteBack = idWriteBack;
+    }
+
+    /**
+     * Determine if Arya uses the streaming engine.
+     * @return true, if objects are (de)serialized with Gson's streaming API
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Configure Arya to use the streaming engine. The streaming engine
+     * writes each field straight to Gson's JsonWriter and sets each field
+     * as it is read from Gson's JsonReader, instead of building a tree of
+     * JsonObject and JsonPrimitive objects for every record. It produces
+     * the same JSON as the default engine. When streaming, fields are
+     * always accessed through method handles; a generated ClassCodec is
+     * only used to create instances. This setting must be made before the
+     * first call to load() or save().
+     * @param streaming true, if objects should be (de)serialized with
+     *                  Gson's streaming API; false, if they should be
+     *                  (de)serialized through Gson's tree model
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Determine if Arya may be shared by many threads.
+     * @return true, if Arya is thread-safe
+     */
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
+    /**
+     * Configure Arya to be shared by many threads. A concurrent Arya keeps
+     * the state of each call to load() and save() (the worklists, and the
+     * object being deserialized) per thread, and tracks identities in a
+     * ConcurrentIdentityMap, which replaces the current IdentityMap. Any
+     * IdentityMap configured afterwards must be thread-safe, as must the
+     * IdGenerator, and the input providers and output listeners.
+     * 
+     * Threads that race to save the same object agree on one UUID identity,
+     * and threads that race to load the same UUID identity agree on one
+     * object. However:
+     * 
+     * 1. An object saved by two threads at once may be written twice.
+     * 2. An object being loaded by one thread may be returned to another
+     *    thread (by load(), or as a reference) before its fields have been
+     *    filled in.
+     * 3. clear() forgets the pending work of the calling thread only.
+     * 
+     * Applications should arrange for one thread at a time to work on any
+     * given part of the graph. This setting must be made before the first
+     * call to load() or save(), and before Arya is shared.
+     * @param concurrent true, if Arya may be shared by many threads; false,
+     *                   if it will be used by one thread at a time (the
+     *                   default)
+     */
+    public void setConcurrent(boolean concurrent) {
+        if(concurrent) {
+            if((identities instanceof ConcurrentIdentityMap) == false) {
+                identities = new ConcurrentIdentityMap();
             }
-            // create the Gson singleton
-            gson = gsonBuilder.create();
+            setConcurrentContexts();
+        } else {
+            contexts = null;
+            context = new Context();
         }
-        // return the Gson singleton to the caller
-        return gson;
+        this.concurrent = concurrent;
     }
 
     /**
-     * List of output listeners. This list is used to register output listeners
-     * who are interested in receiving Arya serialization events.
+     * Obtain the maximum number of records in a batch given to the batch
+     * output listeners.
+     * @return maximum number of records in a batch
      */
-    private List<AryaOutput> listeners = new ArrayList();
-    
+    public int getOutputBatchSize() {
+        return outputBatchSize;
+    }
+
     /**
-     * List of input providers. This list is used to register input providers
-     * who will provide JSON when queried with UUID identities of objects.
+     * Configure the maximum number of records in a batch given to the
+     * batch output listeners. When a call to save() writes more records
+     * than this, the listeners receive them in several batches.
+     * @param outputBatchSize maximum number of records in a batch; the
+     *                        default is 1000
+     * @throws IllegalArgumentException if outputBatchSize is less than one
      */
-    private List<AryaInput> providers = new ArrayList();
-    
+    public void setOutputBatchSize(int outputBatchSize) {
+        if(outputBatchSize < 1) {
+            throw new IllegalArgumentException("outputBatchSize < 1");
+        }
+        this.outputBatchSize = outputBatchSize;
+    }
+
     /**
-     * Object->Identity map. This map tracks the progress of serialization over
-     * complex object graphs.
+     * Obtain the maximum number of characters of JSON in a batch given to
+     * the batch output listeners.
+     * @return maximum number of characters of JSON in a batch
      */
-    private Map<Object,UUID> objUuidMap = new HashMap();
-    
+    public int getOutputBatchChars() {
+        return outputBatchChars;
+    }
+
+    /**
+     * Configure the maximum number of characters of JSON in a batch given
+     * to the batch output listeners. A batch is given to the listeners as
+     * soon as it reaches this length, so a batch holds at least one record,
+     * even if the record is longer than this.
+     * @param outputBatchChars maximum number of characters of JSON in a
+     *                         batch; the default is 1048576
+     * @throws IllegalArgumentException if outputBatchChars is less than one
+     */
+    public void setOutputBatchChars(int outputBatchChars) {
+        if(outputBatchChars < 1) {
+            throw new IllegalArgumentException("outputBatchChars < 1");
+        }
+        this.outputBatchChars = outputBatchChars;
+    }
+
+    /**
+     * Load (deserialize) an Object from the Arya persistence store.
+     * 
+     * The graph is loaded with a worklist, not by recursion. When the
+     * object refers to another object that hasn't been loaded yet, Arya
+     * creates the referenced object right away (so the reference can be
+     * set), but fills in its fields later, after the referring object is
+     * complete. This keeps the depth of the Java stack constant, no matter
+     * how deep the graph is. All of the objects in the graph are complete
+     * when the outermost call to load() returns.
+     * @param uuid UUID identity of the Object to be restored
+     * @param type the Class of the Object to be restored
+     * @return the requested Object, if and only if Arya has a specification
+     *         for the object under the provided UUID identity, otherwise null
+     */
+    public <T> T load(UUID uuid, Class<T> type)
+    {
+        if(sessions != null) {
+            return sessions.current().load(uuid, type);
+        }
+        // if this is a session opened by an AryaFactory, tell the shared
+        // serializers which session they are working for
+        Arya previous = bind();
+        try {
+            // if we don't already have this object in the identity->object map
+            if(identities.containsId(uuid) == false) {
+                // if loadParallel() has already fetched the record, use it
+                Context c = context();
+                PendingLoad prefetched = (c.prefetched != null) ? c.prefetched.remove(uuid) : null;
+                if(prefetched != null) {
+                    defer(uuid, type, prefetched.json, prefetched.instance);
+                    return (T) identities.get(uuid);
+                }
+                // then, for each input provider registered with Arya
+                for(JsonSource provider : providers) {
+                    // ask the provider if it has JSON for the provided identity
+                    Reader json = provider.input(uuid, type);
+                    // if we got some (not null) JSON back from the provider 
+                    if(json != null) {
+                        try {
+                            // if another object is being deserialized, create
+                            // this one now, but fill it in later
+                            if(c.loadDepth > 0) {
+                                defer(uuid, type, read(json), null);
+                            }
+                            // otherwise, deserialize it, and everything that
+                            // it refers to
+                            else {
+                                loadAll(uuid, type, json);
+                            }
+                        } finally {
+                            close(json);
+                        }
+                        // and stop asking further providers for JSON
+                        break;
+                    }
+                }
+            }
+            // return the object (if any) from the identity map
+            return (T) identities.get(uuid);
+        } finally {
+            unbind(previous);
+        }
+    }
+
     /**
-     * Identity->Object map. This map tracks the progress of deserialization
-     * over complex object graphs.
+     * Ensure that the provided object, returned by a call to load() made
+     * while another object was being deserialized, has been completely
+     * deserialized. Normally, its fields are filled in later; this fills
+     * them in now. This is needed for objects that are used as map keys or
+     * set elements, whose hashCode() may depend on their fields.
+     * @param t Object returned by load(); may be null
+     * @return the provided Object, complete
      */
-    private Map<UUID,Object> uuidObjMap = new HashMap();
+    public Object complete(Object t)
+    {
+        if(sessions != null) {
+            return sessions.current().complete(t);
+        }
+        PendingLoad pending = (t != null) ? context().pendingLoads.remove(t) : null;
+        if(pending != null) {
+            fill(pending);
+        }
+        return t;
+    }
     
     /**
-     * LinkedList implementing a storage stack of UUID identity objects.
-     * Calls to load() store the requested UUID identities here so that
-     * AryaDeserializer can retrieve it when the Google Gson library
-     * instructs it to do so.
+     * Fetch the records of the objects identified by the provided UUID
+     * identities from the batch input providers, in as few calls as
+     * possible, so that the calls to load() that follow don't have to ask
+     * for them one at a time. The deserializers call this before loading
+     * the elements of a collection, array, or map.
      * 
-     * NOTE: This probably doesn't need to be a LinkedList object.
-     *       At the time, I thought the load() calls would happen
-     *       recursively and build up on the stack, necessitating
-     *       a stack of UUID identities ready to be retrieved. I'm
-     *       not so sure about that now. It is a TODO point to
-     *       convince myself that this stack arrangement is
-     *       unnecessary and change this to a simple UUID reference
-     *       field.
+     * The batch providers are asked in the order in which they were
+     * registered, up to the first provider that can't provide batches;
+     * whatever they don't have is left for load() to find, so that a
+     * provider registered earlier still takes precedence.
+     * 
+     * This has no effect unless a call to load() is in progress.
+     * @param uuids UUID identities of the objects about to be loaded
+     * @param type the Class of the objects about to be loaded
      */
-    private LinkedList<UUID> loadStack = new LinkedList();
+    public void prefetch(Collection<UUID> uuids, Class type)
+    {
+        if(sessions != null) {
+            sessions.current().prefetch(uuids, type);
+            return;
+        }
+        Context c = context();
+        if(c.loadDepth == 0) {
+            return;
+        }
+        // find the objects that are neither loaded nor fetched already
+        Set<UUID> wanted = new LinkedHashSet();
+        for(UUID uuid : uuids) {
+            if(uuid != null && identities.containsId(uuid) == false
+            && (c.prefetched == null || c.prefetched.containsKey(uuid) == false)) {
+                wanted.add(uuid);
+            }
+        }
+        // a single object is fetched just as quickly by load()
+        if(wanted.size() < 2) {
+            return;
+        }
+        // ask each batch provider for whatever is still wanted
+        for(JsonSource provider : providers) {
+            if(wanted.isEmpty() || (provider instanceof BatchSource) == false) {
+                break;
+            }
+            Map<UUID,String> found = ((BatchSource) provider).inputAll(new ArrayList(wanted), type);
+            if(found == null) {
+                continue;
+            }
+            for(Map.Entry<UUID,String> entry : found.entrySet()) {
+                if(entry.getValue() != null && wanted.remove(entry.getKey())) {
+                    if(c.prefetched == null) {
+                        c.prefetched = new HashMap();
+                    }
+                    c.prefetched.put(entry.getKey(), new PendingLoad(entry.getKey(), entry.getValue(), null));
+                }
+            }
+        }
+    }
 
     /**
-     * Gson singleton. This reference to Google's Gson object does the grunt
-     * work with the JSON. The method getGson() creates the singleton, properly
-     * configured with an AryaSerializer and AryaDeserializer to do the
-     * smart work.
+     * Load (deserialize) an Object, and the graph of objects reachable from
+     * it, fetching and parsing the records on the threads of the provided
+     * pool.
      * 
-     * NOTE: Gson references are immutable and thread-safe. Constructing a
-     *       single reference and reusing it is safe and efficient. Arya is
-     *       stateful and NOT thread-safe. Don't mistake one for the other.
+     * Loading happens in two phases. First, the records are fetched from
+     * the input providers in parallel; the fields of each record that hold
+     * references (as described by the ClassPlan of its class) are read for
+     * the UUID identities it refers to, which are fetched in the next
+     * round, and so on, one level of the graph at a time. Where a record
+     * names its class, the object is created right away, on the same
+     * thread. Then, the calling thread fills in the fields of the objects
+     * and links their references, in a single pass, exactly as load()
+     * does. A reference that wasn't fetched ahead of time is loaded from
+     * the providers then.
+     * 
+     * The input providers are called from the threads of the pool, so they
+     * must be thread-safe. They are asked for referenced records with the
+     * declared type of the reference: the type of the field, or the
+     * component, element, key, or value type of the array, collection, or
+     * map that holds it.
+     * 
+     * A wide graph of many records is loaded in a fraction of the time;
+     * a long chain of references gains little, since each level has to
+     * be parsed before the next one is known.
+     * @param uuid UUID identity of the Object to be restored
+     * @param type the Class of the Object to be restored
+     * @param pool ForkJoinPool on which to fetch and parse the records
+     * @return the requested Object, if and only if Arya has a specification
+     *         for the object under the provided UUID identity, otherwise null
+     */
+    public <T> T loadParallel(UUID uuid, Class<T> type, ForkJoinPool pool)
+    {
+        Context c = context();
+        // if we already have the object, or this is a nested call, then
+        // there is nothing to be done in parallel
+        if(identities.containsId(uuid) || c.loadDepth > 0) {
+            return load(uuid, type);
+        }
+        Arya previous = bind();
+        try {
+            // fetch the records one level of the graph at a time; each
+            // level maps the identities to be fetched to their types
+            Map<UUID,PendingLoad> records = new ConcurrentHashMap();
+            Set<UUID> seen = new HashSet();
+            Map<UUID,Class> level = new LinkedHashMap();
+            level.put(uuid, type);
+            seen.add(uuid);
+            while(level.isEmpty() == false) {
+                Map<UUID,Class> found = new ConcurrentHashMap();
+                UUID[] uuids = level.keySet().toArray(new UUID[level.size()]);
+                Class[] types = level.values().toArray(new Class[level.size()]);
+                int threshold = Math.max(1, uuids.length / (pool.getParallelism() * 8));
+                pool.invoke(new FetchTask(uuids, types, records, found, 0, uuids.length, threshold));
+                // the next level is every reference not seen (or loaded) yet
+                Map<UUID,Class> next = new LinkedHashMap();
+                for(Map.Entry<UUID,Class> reference : found.entrySet()) {
+                    if(seen.add(reference.getKey())
+                    && identities.containsId(reference.getKey()) == false) {
+                        next.put(reference.getKey(), reference.getValue());
+                    }
+                }
+                level = next;
+            }
+            // fill in the objects and link their references
+            c.loadDepth++;
+            c.prefetched = records;
+            try {
+                load(uuid, type);
+                while(c.pendingLoadQueue.isEmpty() == false) {
+                    complete(c.pendingLoadQueue.poll());
+                }
+            } finally {
+                c.loadDepth--;
+                c.prefetched = null;
+                c.pendingLoads.clear();
+                c.pendingLoadQueue.clear();
+            }
+            return (T) identities.get(uuid);
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    /**
+     * Save (serialize) an Object to the Arya persistence store.
+     * 
+     * If Arya is tracking changes, and the object has already been saved
+     * (or loaded), Arya walks the graph of objects reachable from it, and
+     * saves again only those objects that have changed (and any objects
+     * that are new).
+     * 
+     * If Arya is hashing subgraphs, it hashes the graph of objects
+     * reachable from the object, and saves only those objects whose
+     * subgraph hash has changed since it was last saved.
+     * 
+     * The graph is saved with a worklist, not by recursion. When this is
+     * called (by a serializer) for an object that is referred to by the
+     * object being serialized, the object is given its UUID identity right
+     * away, but is serialized later, after the referring object has been
+     * written. All of the objects in the graph have been written when the
+     * outermost call to save() returns.
+     * @param t the Object to be saved (serialized) to the persistence store
+     */
+    public <T> void save(T t)
+    {
+        if(sessions != null) {
+            sessions.current().save(t);
+            return;
+        }
+        // if this is a session opened by an AryaFactory, tell the shared
+        // serializers which session they are working for
+        Arya previous = bind();
+        try {
+            // if this is a nested call made while serializing some other object
+            Context c = context();
+            if(c.saveDepth > 0) {
+                // give a new object its identity now, and save it later
+                if(t != null && identities.containsObject(t) == false) {
+                    populate(assignIdentity(t), t);
+                    c.pendingSaves.add(t);
+                }
+                return;
+            }
+            try {
+                // if we're hashing subgraphs
+                if(subgraphHashes != null && t != null) {
+                    // save whatever subgraphs have changed
+                    saveSubgraphs(t);
+                }
+                // if we're tracking changes
+                else if(changeTracking && t != null) {
+                    // save the object if it is new, and whatever has
+                    // changed in the graph below it
+                    saveChanges(t);
+                }
+                // if the object->identity map does not already contain this object
+                else if(identities.containsObject(t) == false) {
+                    // serialize it, and inform the output listeners
+                    emit(t);
+                }
+            } finally {
+                // give the batch output listeners what is left
+                deliverBatch(c);
+            }
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    /**
+     * Save (serialize) every object known to Arya that has changed since it
+     * was last saved or loaded. This requires Arya to be tracking changes;
+     * otherwise, this method does nothing.
+     */
+    public void flush()
+    {
+        // if this is a session opened by an AryaFactory, tell the shared
+        // serializers which session they are working for
+        Arya previous = bind();
+        try {
+            // if we're not tracking changes, we don't know what has changed
+            if(changeTracking == false) {
+                return;
+            }
+            // for each object that has been saved or loaded
+            try {
+                for(Object o : identities.getObjects()) {
+                    // if its fingerprint has changed, save it again
+                    if(Fingerprint.of(o, null, identities) != identities.getFingerprint(o)) {
+                        emit(o);
+                    }
+                }
+            } finally {
+                // give the batch output listeners what is left
+                deliverBatch(context());
+            }
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    /**
+     * Save (serialize) the graph of objects reachable from the provided
+     * object, serializing the records on the threads of the provided pool.
+     * 
+     * First, the calling thread walks the graph, finds the objects that
+     * need to be saved, and gives each new object its UUID identity. An
+     * object needs to be saved if it is new, or (if Arya is tracking
+     * changes) if it has changed; if Arya is hashing subgraphs, an object
+     * needs to be saved if it has changed, and is found below the saved
+     * object by a walk that stops at unchanged subgraphs. Then the objects
+     * are divided among the threads of the pool, and serialized; since
+     * every object already has its identity, serializing one object never
+     * serializes another, and the threads never update the identity map.
+     * 
+     * A graph with many independent parts (such as a model with many
+     * polygons, each with many points) is serialized in a fraction of the
+     * time. A small graph is better saved with save().
+     * @param root the Object from which to start
+     * @param pool ForkJoinPool on which to serialize the records
+     * @param ordered ORDERED_OUTPUT, if the output listeners should be
+     *                informed on the calling thread in the order in which
+     *                the graph was walked; UNORDERED_OUTPUT, if they should
+     *                be informed on the threads of the pool, as soon as
+     *                each record is serialized (unless this is called
+     *                within a transaction; then the output is ordered)
+     */
+    public void saveParallel(Object root, ForkJoinPool pool, boolean ordered)
+    {
+        // the records of a transaction are delivered on the calling thread,
+        // where the transaction is
+        ordered |= (context().transaction != null);
+        Arya previous = bind();
+        try {
+            // find the objects that need to be saved, and give each new
+            // object its identity
+            SubgraphHash graph = (subgraphHashes != null) ? new SubgraphHash(root) : null;
+            Map<UUID,Long> hashes = new HashMap();
+            List<Object> changed = (graph != null) ? findChangedSubgraphs(graph, hashes) : findChanges(root);
+            int size = changed.size();
+            Object[] objects = changed.toArray();
+            UUID[] uuids = new UUID[size];
+            for(int i=0; i<size; i++) {
+                uuids[i] = identities.getId(objects[i]);
+            }
+            JsonRecord[] records = ordered ? new JsonRecord[size] : null;
+            long[] fingerprints = isFingerprinting() ? new long[size] : null;
+            // serialize the objects, dividing them among the threads; each
+            // task works in a Context of its own
+            int threshold = Math.max(1, size / (pool.getParallelism() * 8));
+            int delivered = 0;
+            try {
+                saveTasks.incrementAndGet();
+                try {
+                    pool.invoke(new SaveTask(objects, uuids, records, fingerprints, 0, size, threshold));
+                } finally {
+                    saveTasks.decrementAndGet();
+                }
+                // inform the listeners of the records, in order (if so asked)
+                if(ordered) {
+                    try {
+                        for(; delivered<size; delivered++) {
+                            deliver(objects[delivered], uuids[delivered], records[delivered]);
+                            releaseBuffer(records[delivered].utf8);
+                        }
+                    } finally {
+                        deliverBatch(context());
+                    }
+                }
+            } finally {
+                // if a task or a listener failed, the records that were
+                // never delivered still hold pooled buffers; return them
+                if(records != null) {
+                    for(int i=delivered; i<size; i++) {
+                        if(records[i] != null) {
+                            releaseBuffer(records[i].utf8);
+                        }
+                    }
+                }
+            }
+            // if we're tracking changes, remember the saved state
+            if(fingerprints != null) {
+                for(int i=0; i<size; i++) {
+                    setFingerprint(objects[i], fingerprints[i]);
+                }
+            }
+            // if we're hashing subgraphs, remember the new hashes
+            if(graph != null) {
+                rememberSubgraphs(graph, hashes);
+            }
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    /**
+     * Run the provided work as a transaction. The records written by the
+     * calls to save() (and flush()) made by the work are delivered to the
+     * output listeners as a single unit:
+     * 
+     * 1. Each AryaTransactionOutput listener is told that the transaction
+     *    has begun before the work starts, and that it has ended after the
+     *    work completes.
+     * 2. The batch output listeners receive all of the records of the
+     *    transaction in a single batch, when the work completes, whatever
+     *    the configured batch limits.
+     * 
+     * If the work throws an exception, the transaction is rolled back: the
+     * AryaTransactionOutput listeners are told to throw away the records,
+     * the batch output listeners receive nothing, and Arya forgets what
+     * the work did to this session. Objects given identities by the work
+     * lose them again; fingerprints (if Arya is tracking changes) and
+     * record and subgraph hashes go back to what they were, so the next
+     * save writes those objects again (unless they are back in the state
+     * that was last written before the transaction). Identities written
+     * back into fields marked with @Id are taken out of them again. Then
+     * the exception is rethrown.
+     * 
+     * Some things can't be taken back. Listeners that aren't transactional
+     * have already received their records. An IdentityRegistry shared
+     * with other sessions keeps the identities registered by the work, so
+     * that every session goes on agreeing on them; the next save uses the
+     * same identities again. If a listener throws from transactionEnd(),
+     * the listeners that had already ended the transaction keep its
+     * records; only the others are told to roll it back. Either way, Arya
+     * forgets the transaction, and the next save writes its objects again.
+     * 
+     * A transaction within a transaction is part of the outer one. If Arya
+     * is concurrent, each thread has its own transactions, and a
+     * transactional listener must keep track of them per thread.
+     * @param work the work to be done in the transaction
+     */
+    public void transaction(Runnable work)
+    {
+        Context c = context();
+        // if a transaction is already in progress, this is part of it
+        if(c.transaction != null) {
+            work.run();
+            return;
+        }
+        Transaction tx = new Transaction();
+        c.transaction = tx;
+        boolean committed = false;
+        // the listeners that have begun the transaction, but not ended it
+        List<AryaTransactionOutput> open = new ArrayList();
+        try {
+            for(AryaTransactionOutput listener : transactionListeners) {
+                listener.transactionBegin();
+                open.add(listener);
+            }
+            work.run();
+            // deliver the batch, and then end the transaction; the hashes
+            // that the batch replaces are noted, so a rollback can put
+            // them back
+            c.transaction = null;
+            if(recordHashes != null) {
+                for(UUID uuid : c.outputBatchHashes.keySet()) {
+                    journal(tx.recordHashes, recordHashes, uuid);
+                }
+            }
+            deliverBatch(c);
+            for(AryaTransactionOutput listener : transactionListeners) {
+                listener.transactionEnd();
+                open.remove(listener);
+            }
+            committed = true;
+        } finally {
+            c.transaction = null;
+            if(committed == false) {
+                rollback(c, tx, open);
+            }
+        }
+    }
+
+    /**
+     * Undo what a failed transaction did to this session, and tell the
+     * transactional listeners that haven't ended it to throw away its
+     * records.
+     * @param c Context in which the transaction ran
+     * @param tx journal of the transaction
+     * @param open listeners that have begun the transaction, but not
+     *             ended it
+     */
+    private void rollback(Context c, Transaction tx, List<AryaTransactionOutput> open)
+    {
+        // throw away the records that haven't been delivered
+        c.outputBatch = new ArrayList();
+        c.outputBatchChars = 0;
+        c.outputBatchHashes = new HashMap();
+        c.pendingSaves.clear();
+        // forget the new identities, and restore the old fingerprints
+        for(UUID uuid : tx.identities) {
+            identities.remove(uuid);
+        }
+        for(Object t : tx.writtenBack) {
+            ClassPlan.of(t.getClass()).clearId(t);
+        }
+        for(Map.Entry<Object,Long> entry : tx.fingerprints.entrySet()) {
+            if(identities.containsObject(entry.getKey())) {
+                identities.setFingerprint(entry.getKey(), entry.getValue());
+            }
+        }
+        // put back the hashes of the records that were thrown away
+        restore(tx.recordHashes, recordHashes);
+        restore(tx.subgraphHashes, subgraphHashes);
+        // the delta listeners get full records for what was thrown away
+        for(UUID uuid : tx.lastRecords) {
+            forgetLastRecords(uuid);
+        }
+        // tell the listeners; if one fails, the others still hear of it
+        for(AryaTransactionOutput listener : open) {
+            try {
+                listener.transactionRollback();
+            } catch(RuntimeException e) {
+                log.error("Unable to roll back transaction:", e);
+            }
+        }
+    }
+
+    /**
+     * Remember the fingerprint of the provided object. If a transaction is
+     * in progress, the old fingerprint is kept, so a rollback can restore
+     * it.
+     * @param t Object whose fingerprint is to be remembered
+     * @param fingerprint fingerprint of the object
+     */
+    private void setFingerprint(Object t, long fingerprint)
+    {
+        Transaction tx = context().transaction;
+        if(tx != null && tx.fingerprints.containsKey(t) == false) {
+            tx.fingerprints.put(t, identities.getFingerprint(t));
+        }
+        identities.setFingerprint(t, fingerprint);
+    }
+
+    /**
+     * Determine if Arya remembers the fingerprint of each object that it
+     * saves or loads. It does if it is tracking changes, and if it is
+     * hashing subgraphs, to tell an object that has changed from one with
+     * a change somewhere below it.
+     * @return true, if Arya remembers fingerprints
+     */
+    private boolean isFingerprinting()
+    {
+        return changeTracking || (subgraphHashes != null);
+    }
+
+    /**
+     * Forget every object that Arya has saved or loaded. Afterwards, the
+     * Arya object behaves as if it were new: saving an object serializes
+     * it again, and loading an identity deserializes a new object.
+     * 
+     * Configuration (listeners, providers, and settings) is kept, as are
+     * any shared IdentityRegistry, RecordHashes, and subgraph hashes.
+     */
+    public void clear()
+    {
+        identities.clear();
+        Context c = context();
+        c.pendingLoads.clear();
+        c.pendingSaves.clear();
+        // the delta listeners get full records again
+        for(JsonSink listener : listeners) {
+            if(listener instanceof DeltaSink) {
+                ((DeltaSink) listener).lastRecords.clear();
+            }
+        }
+    }
+
+    /**
+     * Close this Arya. If it is a session opened by an AryaFactory, it is
+     * cleared, and returned to the factory, which may hand it out again
+     * (with the configuration of the factory) from open(). Until then, the
+     * session can't be used: save() and load() throw IllegalStateException.
+     * Otherwise, this is the same as clear(), and the Arya may still be
+     * used.
+     */
+    public void close()
+    {
+        clear();
+        if(factory != null) {
+            closed = true;
+            factory.release(this);
+        }
+    }
+
+    /**
+     * Forget the object with the provided UUID identity. A later load() of
+     * the identity deserializes a new object.
+     * @param uuid UUID identity of the object to be forgotten
+     * @return true, if Arya forgot an object; false, if Arya had no object
+     *         with the provided UUID identity
+     */
+    public boolean evict(UUID uuid)
+    {
+        forgetLastRecords(uuid);
+        return identities.remove(uuid);
+    }
+
+    /**
+     * Forget the provided object. A later save() of the object serializes
+     * it again; unless the object carries its own identity (or Arya uses
+     * an IdentityRegistry), it will be given a new UUID identity.
+     * @param t Object to be forgotten
+     * @return true, if Arya forgot the object; false, if Arya didn't know it
+     */
+    public boolean evict(Object t)
+    {
+        UUID uuid = identities.getId(t);
+        if(uuid != null) {
+            forgetLastRecords(uuid);
+        }
+        return identities.remove(t);
+    }
+
+    /**
+     * Forget the last record given to each delta listener for the provided
+     * UUID identity, so that the next record is given to it in full.
+     * @param uuid UUID identity of the record
+     */
+    private void forgetLastRecords(UUID uuid)
+    {
+        for(JsonSink listener : listeners) {
+            if(listener instanceof DeltaSink) {
+                ((DeltaSink) listener).lastRecords.remove(uuid);
+            }
+        }
+    }
+
+    /**
+     * Obtain the UUID identity saved by Arya during the call to load().
+     * This is called by the AryaDeserializer object because there is no
+     * good way to pass the UUID through Google's Gson library.
+     * @return the UUID identity of the object, previously saved during
+     *         a call to the load() method
+     */
+    public UUID pop()
+    {
+        if(sessions != null) {
+            return sessions.current().pop();
+        }
+        Context c = context();
+        UUID uuid = c.loadIdentity;
+        c.loadIdentity = null;
+        return uuid;
+    }
+
+    /**
+     * Obtain the object that Arya created ahead of time for the record
+     * being deserialized, if any. This is called by the AryaDeserializer
+     * object, which fills in the fields of that object instead of creating
+     * a new one.
+     * @return the Object to be filled in, or null if the deserializer
+     *         should create a new Object
+     */
+    public Object popInstance()
+    {
+        if(sessions != null) {
+            return sessions.current().popInstance();
+        }
+        Context c = context();
+        Object t = c.loadInstance;
+        c.loadInstance = null;
+        return t;
+    }
+
+    /**
+     * Add the provided Object with the provided UUID identity to the
+     * idenity->object and object->identity maps. If Arya is concurrent,
+     * and another thread has already loaded an object with the provided
+     * UUID identity, the provided Object is left out of the maps.
+     * @param uuid UUID identity for the provided Object
+     * @param t Object to add to the identity<->object maps
+     */
+    public void populate(UUID uuid, Object t)
+    {
+        if(sessions != null) {
+            sessions.current().populate(uuid, t);
+            return;
+        }
+        // log the low level detail of an object getting added to the map
+        log.trace("{}:{}", uuid, t);
+        // while saveParallel() serializes records, every object already
+        // has its identity, and the identity map must not change
+        if(context().parallelSave) {
+            return;
+        }
+        // if a transaction is in progress, note whether the identity is new
+        Transaction tx = context().transaction;
+        boolean known = (tx != null) && identities.containsId(uuid);
+        // if other threads share this Arya, and one of them has loaded the
+        // same identity first, then its object is the one that we keep
+        if(concurrent && context().loadDepth > 0) {
+            if(identities.putIdIfAbsent(uuid, t) != t) {
+                return;
+            }
+        }
+        // add the object and identity to the object<->identity table
+        else {
+            identities.put(uuid, t);
+        }
+        // remember a new identity, so a rollback can forget it
+        if(tx != null && known == false) {
+            tx.identities.add(uuid);
+        }
+        // if we share a registry with other sessions, and the object has
+        // no identity field of its own, register it there as well
+        if(identityRegistry != null
+        && ClassPlan.of(t.getClass()).getIdField() == null) {
+            identityRegistry.put(t, uuid);
+        }
+    }
+
+    /**
+     * Register an input provider with Arya.
+     * @param aryaInput reference to object implementing the AryaInput service
+     *                  interface; it will provide JSON when queried with a
+     *                  UUID identity for an object
+     */
+    public void register(final AryaInput aryaInput)
+    {
+        // if the provider can also provide JSON in batches, remember that
+        if(aryaInput instanceof AryaBatchInput) {
+            providers.add(new BatchSource() {
+                public Reader input(UUID uuid, Class type) {
+                    String json = aryaInput.input(uuid, type);
+                    return (json != null) ? new StringReader(json) : null;
+                }
+                public Map<UUID,String> inputAll(Collection<UUID> uuids, Class type) {
+                    return ((AryaBatchInput) aryaInput).inputAll(uuids, type);
+                }
+            });
+            return;
+        }
+        providers.add(new JsonSource() {
+            public Reader input(UUID uuid, Class type) {
+                String json = aryaInput.input(uuid, type);
+                return (json != null) ? new StringReader(json) : null;
+            }
+        });
+    }
+
+    /**
+     * Register a byte-oriented input provider with Arya.
+     * @param aryaByteInput reference to object implementing the AryaByteInput
+     *                      service interface; it will provide UTF-8 JSON
+     *                      when queried with a UUID identity for an object
+     */
+    public void registerBytes(final AryaByteInput aryaByteInput)
+    {
+        providers.add(new JsonSource() {
+            public Reader input(UUID uuid, Class type) {
+                ByteBuffer json = aryaByteInput.input(uuid, type);
+                return (json != null) ? new Utf8Reader(json) : null;
+            }
+        });
+    }
+
+    /**
+     * Register a stream-oriented input provider with Arya.
+     * @param aryaStreamInput reference to object implementing the
+     *                        AryaStreamInput service interface; it will
+     *                        provide UTF-8 JSON when queried with a UUID
+     *                        identity for an object
+     */
+    public void registerStream(final AryaStreamInput aryaStreamInput)
+    {
+        providers.add(new JsonSource() {
+            public Reader input(UUID uuid, Class type) {
+                InputStream json = aryaStreamInput.input(uuid, type);
+                return (json != null) ? new InputStreamReader(json, Utf8Writer.UTF_8) : null;
+            }
+        });
+    }
+
+    /**
+     * Register a patch-oriented input provider with Arya. Arya applies the
+     * patches for an object to its full record before deserializing it.
+     * @param aryaDeltaInput reference to object implementing the
+     *                       AryaDeltaInput service interface; it will
+     *                       provide a JSON record and any patches to it
+     *                       when queried with a UUID identity for an object
+     */
+    public void register(final AryaDeltaInput aryaDeltaInput)
+    {
+        providers.add(new JsonSource() {
+            public Reader input(UUID uuid, Class type) {
+                String json = aryaDeltaInput.input(uuid, type);
+                if(json == null) {
+                    return null;
+                }
+                // if there are no patches, the record is used as it is
+                List<String> patches = aryaDeltaInput.patches(uuid, type);
+                if(patches == null || patches.isEmpty()) {
+                    return new StringReader(json);
+                }
+                // otherwise, apply each patch to the record, in order
+                JsonParser parser = new JsonParser();
+                JsonObject record = parser.parse(json).getAsJsonObject();
+                for(String patch : patches) {
+                    JsonPatch.apply(record, parser.parse(patch).getAsJsonObject());
+                }
+                return new StringReader(record.toString());
+            }
+        });
+    }
+
+    /**
+     * Register an output listener with Arya.
+     * @param aryaOutput reference to object implementing the AryaOutput service
+     *                   interface; Arya will call it with a reference to the
+     *                   object, the object's UUID identity, and the JSON to
+     *                   which that object was serialized
+     */
+    public void register(final AryaOutput aryaOutput)
+    {
+        // if the listener takes part in transactions, remember that
+        if(aryaOutput instanceof AryaTransactionOutput) {
+            transactionListeners.add((AryaTransactionOutput) aryaOutput);
+        }
+        listeners.add(new JsonSink() {
+            public void output(Object t, UUID uuid, JsonRecord record) {
+                aryaOutput.output(t, uuid, record.asString());
+            }
+        });
+        stringListeners.incrementAndGet();
+    }
+
+    /**
+     * Register a batch output listener with Arya.
+     * @param aryaBatchOutput reference to object implementing the
+     *                        AryaBatchOutput service interface; Arya will
+     *                        call it with batches of records (the object,
+     *                        the object's UUID identity, and the JSON to
+     *                        which that object was serialized)
+     */
+    public void register(AryaBatchOutput aryaBatchOutput)
+    {
+        // if the listener takes part in transactions, remember that
+        if(aryaBatchOutput instanceof AryaTransactionOutput) {
+            transactionListeners.add((AryaTransactionOutput) aryaBatchOutput);
+        }
+        batchListeners.add(aryaBatchOutput);
+        stringListeners.incrementAndGet();
+    }
+
+    /**
+     * Register a byte-oriented output listener with Arya.
+     * @param aryaByteOutput reference to object implementing the
+     *                       AryaByteOutput service interface; Arya will call
+     *                       it with a reference to the object, the object's
+     *                       UUID identity, and the UTF-8 JSON to which that
+     *                       object was serialized
+     */
+    public void registerBytes(final AryaByteOutput aryaByteOutput)
+    {
+        listeners.add(new JsonSink() {
+            public void output(Object t, UUID uuid, JsonRecord record) {
+                aryaByteOutput.output(t, uuid, record.asBytes());
+            }
+        });
+    }
+    
+    /**
+     * Register a patch-oriented output listener with Arya. The first time
+     * an object is saved, the listener receives the full JSON record; after
+     * that, it receives a patch with only the fields that have changed.
+     * 
+     * IMPORTANT: To compute the patches, Arya keeps the last record given to
+     *            the listener for each object (as JSON text, parsed only
+     *            when the record has changed), until the object is evicted,
+     *            or this Arya object is cleared. A new Arya object (or
+     *            another session of the same AryaFactory) starts over with
+     *            full records, as does an object whose last record was
+     *            thrown away by a rollback.
+     * 
+     * @param aryaDeltaOutput reference to object implementing the
+     *                        AryaDeltaOutput service interface; Arya will
+     *                        call it with a reference to the object, the
+     *                        object's UUID identity, and the JSON record
+     *                        (or patch) to which that object was serialized
+     */
+    public void register(AryaDeltaOutput aryaDeltaOutput)
+    {
+        listeners.add(new DeltaSink(aryaDeltaOutput));
+        stringListeners.incrementAndGet();
+    }
+    
+    //-----------------------------------------------------------------------
+    
+    /**
+     * Copy the configuration of the provided Arya: settings, shared
+     * registries and tables, input providers, and output listeners. This
+     * is used by AryaFactory, to configure itself and its sessions. The
+     * identity map is not copied.
+     * @param template Arya from which to copy the configuration
+     * @param factory AryaFactory that opened this session, or null
+     * @param gson Gson singleton shared with other sessions, or null if
+     *             this Arya should create its own
+     */
+    void configure(Arya template, AryaFactory factory, Gson gson) {
+        this.prettyPrinting = template.prettyPrinting;
+        this.streaming = template.streaming;
+        this.compactIdentities = template.compactIdentities;
+        this.changeTracking = template.changeTracking;
+        this.idWriteBack = template.idWriteBack;
+        this.idGenerator = template.idGenerator;
+        this.identityRegistry = template.identityRegistry;
+        this.recordHashes = template.recordHashes;
+        this.subgraphHashes = template.subgraphHashes;
+        // copy the lists, so that a listener registered with one session
+        // isn't registered with the others; each session keeps its own
+        // last records for the delta listeners
+        List<JsonSink> sinks = new ArrayList();
+        for(JsonSink sink : template.listeners) {
+            sinks.add((sink instanceof DeltaSink) ? new DeltaSink(((DeltaSink) sink).aryaDeltaOutput) : sink);
+        }
+        this.listeners = new CopyOnWriteArrayList(sinks);
+        this.batchListeners = new CopyOnWriteArrayList(template.batchListeners);
+        this.transactionListeners = new CopyOnWriteArrayList(template.transactionListeners);
+        this.outputBatchSize = template.outputBatchSize;
+        this.outputBatchChars = template.outputBatchChars;
+        this.providers = new CopyOnWriteArrayList(template.providers);
+        this.stringListeners.set(template.stringListeners.get());
+        if(template.concurrent != concurrent) {
+            setConcurrent(template.concurrent);
+        }
+        this.factory = factory;
+        this.gson = gson;
+        this.closed = false;
+    }
+
+    /**
+     * Make this the Arya with which an AryaFactory builds the serializers
+     * that its sessions share. From then on, each call that the serializers
+     * make into this Arya is passed on to the session that is saving or
+     * loading on the calling thread.
+     * @param sessions AryaFactory whose sessions share the serializers
+     */
+    void dispatchTo(AryaFactory sessions) {
+        this.sessions = sessions;
+    }
+
+    /**
+     * Tell the serializers shared by the sessions of an AryaFactory that
+     * they are working for this session, until unbind() is called.
+     * @return session they were working for before, or null
+     * @throws IllegalStateException if this session has been closed
+     */
+    private Arya bind() {
+        if(closed) {
+            throw new IllegalStateException("Arya session has been closed");
+        }
+        return (factory != null) ? factory.bind(this) : null;
+    }
+
+    /**
+     * Tell the serializers shared by the sessions of an AryaFactory that
+     * they are working for the session they were working for before bind()
+     * was called.
+     * @param previous session returned by bind()
+     */
+    private void unbind(Arya previous) {
+        if(factory != null) {
+            factory.unbind(this, previous);
+        }
+    }
+
+    /**
+     * Obtain the Google Gson singleton. If the singleton does not exist,
+     * it will be created on the first call to this method.
+     * @return Gson object, properly configured for JSON (de)serialization
+     */
+    Gson getGson() {
+        Gson g = gson;
+        // if we don't have a Gson singleton yet
+        if(g == null) {
+            // a concurrent Arya may be asked by many threads at once
+            synchronized(this) {
+                g = gson;
+                if(g == null) {
+                    g = gson = createGson();
+                }
+            }
+        }
+        // return the Gson singleton to the caller
+        return g;
+    }
+
+    /**
+     * Create the Google Gson singleton.
+     * @return Gson object, properly configured for JSON (de)serialization
+     */
+    private Gson createGson() {
+        // create a builder object to generate a customized Gson object
+        GsonBuilder gsonBuilder = new GsonBuilder();
+        // if Arya was configured to use the streaming engine
+        if(streaming) {
+            // register Arya's streaming adapters to handle every object
+            gsonBuilder.registerTypeAdapterFactory(new AryaTypeAdapterFactory(this));
+        } else {
+            // register Arya's serializer to handle serialization of every
+            // object that derives from Object (i.e.: all objects)
+            gsonBuilder.registerTypeHierarchyAdapter(Object.class, new AryaSerializer(this));
+            // register Arya's deserializer to handle deserialization of
+            // every object that derives from Object (i.e.: all objects)
+            gsonBuilder.registerTypeHierarchyAdapter(Object.class, new AryaDeserializer(this));
+        }
+        // if Arya was configured for pretty printing
+        if(prettyPrinting) {
+            // then, configure our Gson singleton for pretty printing
+            gsonBuilder.setPrettyPrinting();
+        }
+        // create the Gson singleton
+        return gsonBuilder.create();
+    }
+
+    /**
+     * Serialize the provided object, and then each of the new objects that
+     * it refers to (and that they refer to, and so on), informing the
+     * output listeners of each one.
+     * @param t the Object to be serialized
+     */
+    private void emit(Object t)
+    {
+        Context c = context();
+        write(t);
+        // serialize each object that was found along the way
+        while(c.pendingSaves.isEmpty() == false) {
+            write(c.pendingSaves.poll());
+        }
+    }
+
+    /**
+     * Serialize the provided object, and inform each output listener of
+     * the object, its UUID identity, and the JSON. New objects that it
+     * refers to are added to the worklist of pending saves.
+     * @param t the Object to be serialized
+     */
+    private void write(Object t)
+    {
+        Context c = context();
+        JsonRecord record = new JsonRecord();
+        c.saveDepth++;
+        try {
+            // serialize the object
+            // (this implicitly adds it to the object->identity map)
+            serialize(t, record);
+            // inform the output listeners
+            deliver(t, identities.getId(t), record);
+            // if we're tracking changes, remember the saved state (a null
+            // object has none)
+            if(isFingerprinting() && t != null) {
+                setFingerprint(t, Fingerprint.of(t, null, identities));
+            }
+        } finally {
+            c.saveDepth--;
+            // return the buffer (if any) to the pool
+            releaseBuffer(record.utf8);
+        }
+    }
+
+    /**
+     * Serialize the provided object into the provided JsonRecord.
+     * @param t the Object to be serialized
+     * @param record JsonRecord to hold the JSON
+     */
+    private void serialize(Object t, JsonRecord record)
+    {
+        // if every listener wants UTF-8 bytes, then write the JSON
+        // straight into a pooled buffer without creating a String
+        if(stringListeners.get() == 0 && listeners.isEmpty() == false
+        && batchListeners.isEmpty()) {
+            record.utf8 = acquireBuffer();
+            getGson().toJson(t, record.utf8);
+        }
+        // otherwise, obtain the JSON representation of this Object
+        else {
+            record.json = getGson().toJson(t);
+        }
+    }
+
+    /**
+     * Inform each output listener of the provided object, its UUID
+     * identity, and the JSON to which it was serialized.
+     * @param t the Object that was serialized
+     * @param uuid UUID identity of the object
+     * @param record JsonRecord holding the JSON
+     */
+    private void deliver(Object t, UUID uuid, JsonRecord record)
+    {
+        Context c = context();
+        // if the record is identical to the last one written under
+        // this identity (or to one already waiting in the batch), then
+        // the listeners already have it
+        long hash = 0L;
+        if(recordHashes != null) {
+            hash = RecordHashes.hash(record.asBytes());
+            Long batched = c.outputBatchHashes.get(uuid);
+            if(recordHashes.isChanged(uuid, hash) == false
+            || (batched != null && batched == hash)) {
+                return;
+            }
+        }
+        // for each output listener registered with Arya
+        for(JsonSink listener : listeners) {
+            // inform the listener of the object that has been
+            // serialized, its UUID identity, and the JSON to
+            // which it was serialized
+            listener.output(t, uuid, record);
+        }
+        // if there are batch output listeners, add the record to the
+        // batch, and give them the batch once it is full; the hash is
+        // remembered when the batch has been delivered
+        if(batchListeners.isEmpty() == false) {
+            String json = record.asString();
+            c.outputBatch.add(new AryaRecord(t, uuid, json));
+            c.outputBatchChars += json.length();
+            if(recordHashes != null) {
+                c.outputBatchHashes.put(uuid, hash);
+            }
+            if(c.outputBatch.size() >= outputBatchSize
+            || c.outputBatchChars >= outputBatchChars) {
+                deliverBatch(c);
+            }
+        }
+        // otherwise, every listener has accepted the record, so remember
+        // its hash
+        else if(recordHashes != null) {
+            putRecordHash(c, uuid, hash);
+        }
+    }
+
+    /**
+     * Remember the hash of a record that every output listener has
+     * accepted. If a transaction is in progress, the hash it replaces is
+     * noted, so a rollback can put it back.
+     * @param c Context in which the record was written
+     * @param uuid UUID identity of the record
+     * @param hash hash of the record
+     */
+    private void putRecordHash(Context c, UUID uuid, long hash)
+    {
+        Transaction tx = c.transaction;
+        if(tx != null) {
+            journal(tx.recordHashes, recordHashes, uuid);
+        }
+        recordHashes.put(uuid, hash);
+    }
+
+    /**
+     * Note the hash that a table holds for the provided UUID identity,
+     * unless the transaction has already noted one; that is the hash from
+     * before the transaction.
+     * @param journal hash of each UUID identity before the transaction
+     *                (null, if there was none)
+     * @param table RecordHashes whose hash is about to be replaced
+     * @param uuid UUID identity of the hash
+     */
+    private static void journal(Map<UUID,Long> journal, RecordHashes table, UUID uuid)
+    {
+        if(journal.containsKey(uuid) == false) {
+            journal.put(uuid, table.get(uuid));
+        }
+    }
+
+    /**
+     * Put back the hashes that a table held before a transaction.
+     * @param journal hash of each UUID identity before the transaction
+     *                (null, if there was none)
+     * @param table RecordHashes whose hashes are to be put back
+     */
+    private static void restore(Map<UUID,Long> journal, RecordHashes table)
+    {
+        for(Map.Entry<UUID,Long> entry : journal.entrySet()) {
+            if(entry.getValue() == null) {
+                table.remove(entry.getKey());
+            } else {
+                table.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Give the batch of records in the provided Context (if any) to each
+     * batch output listener, and start a new batch. During a transaction,
+     * the records are kept until the transaction ends.
+     * @param c Context holding the batch
+     */
+    private void deliverBatch(Context c)
+    {
+        // during a transaction, the batch is delivered when it ends
+        if(c.outputBatch.isEmpty() || c.transaction != null) {
+            return;
+        }
+        List<AryaRecord> batch = Collections.unmodifiableList(c.outputBatch);
+        Map<UUID,Long> hashes = c.outputBatchHashes;
+        c.outputBatch = new ArrayList();
+        c.outputBatchChars = 0;
+        c.outputBatchHashes = new HashMap();
+        for(AryaBatchOutput listener : batchListeners) {
+            listener.outputBatch(batch);
+        }
+        // every batch output listener has accepted the records, so
+        // remember their hashes
+        for(Map.Entry<UUID,Long> entry : hashes.entrySet()) {
+            putRecordHash(c, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Deserialize the root object of a graph from the provided JSON, and
+     * then fill in each object that was created along the way.
+     * @param uuid UUID identity of the root object
+     * @param type the Class of the root object
+     * @param json Reader providing the JSON of the root object
+     */
+    private void loadAll(UUID uuid, Class type, Reader json)
+    {
+        Context c = context();
+        c.loadDepth++;
+        try {
+            // save the UUID identity for the deserializer
+            c.loadIdentity = uuid;
+            c.loadInstance = null;
+            // deserialze the object from the JSON
+            // (this implicitly adds it to the identity->object map)
+            Object t = getGson().fromJson(json, type);
+            // if we're tracking changes, remember the loaded state
+            if(isFingerprinting() && t != null) {
+                setFingerprint(t, Fingerprint.of(t, null, identities));
+            }
+            // fill in each object that was created along the way
+            while(c.pendingLoadQueue.isEmpty() == false) {
+                complete(c.pendingLoadQueue.poll());
+            }
+        } finally {
+            c.loadDepth--;
+            c.pendingLoads.clear();
+            c.pendingLoadQueue.clear();
+            c.prefetched = null;
+        }
+    }
+
+    /**
+     * Create the object described by the provided JSON, and add it to the
+     * identity->object map, but leave its fields to be filled in later.
+     * Only the text of the record is kept until then; it is parsed by the
+     * active deserializer when the object is filled in.
+     * @param uuid UUID identity of the object
+     * @param type the Class of the object, if the JSON doesn't specify one
+     * @param record JSON of the object
+     * @param instance the object, if it has already been created from
+     *                 the JSON, or null if it should be created now
+     */
+    private void defer(UUID uuid, Class type, String record, Object instance)
+    {
+        Context c = context();
+        // if the record is not a JSON object, there are no fields to fill
+        // in later, so deserialize it now
+        if(isObject(record) == false) {
+            c.loadIdentity = uuid;
+            c.loadInstance = null;
+            getGson().fromJson(record, type);
+            return;
+        }
+        // if the record has a type encoded by Arya, use that type
+        Class typeClass = (instance != null) ? instance.getClass() : typeOf(record, type);
+        // create the object (unless it has been), and remember to fill it
+        // in later
+        Object t = (instance != null) ? instance : newInstance(typeClass);
+        if(t != null) {
+            populate(uuid, t);
+            // (unless another thread loaded the same identity first; then
+            // that thread fills in its own object)
+            if(identities.get(uuid) == t) {
+                c.pendingLoads.put(t, new PendingLoad(uuid, record, t));
+                c.pendingLoadQueue.add(t);
+            }
+        }
+    }
+
+    /**
+     * Determine the Class of the object described by the provided JSON.
+     * @param json JSON of the object
+     * @param type the Class of the object, if the JSON doesn't specify one
+     * @return the Class encoded in the JSON by Arya, if any (and if it can
+     *         be found), otherwise the provided Class
+     */
+    private static Class typeOf(String json, Class type)
+    {
+        String typeClassName = typeNameOf(json);
+        if(typeClassName != null) {
+            try {
+                return Class.forName(typeClassName);
+            } catch(ClassNotFoundException e) {
+                log.error("Unable to find class " + typeClassName + ":", e);
+            }
+        }
+        return type;
+    }
+
+    /**
+     * Find the name of the Class encoded by Arya in the provided JSON
+     * object. The JSON is read as a stream, one top-level field at a time,
+     * without building a tree; Arya writes the type first, so normally
+     * only the first field is read.
+     * @param json JSON of the object
+     * @return name of the Class encoded in the JSON, or null if the JSON
+     *         does not encode one (or can't be read)
+     */
+    private static String typeNameOf(String json)
+    {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        try {
+            reader.beginObject();
+            while(reader.hasNext()) {
+                if(TYPE.equals(reader.nextName())) {
+                    return reader.nextString();
+                }
+                reader.skipValue();
+            }
+        } catch(IOException e) {
+            // the deserializer will report the malformed JSON
+        } catch(IllegalStateException e) {
+            // the deserializer will report the unexpected JSON
+        }
+        return null;
+    }
+
+    /**
+     * Determine if the provided JSON is an object, by looking at its first
+     * character that isn't whitespace.
+     * @param json JSON to be examined
+     * @return true, if the JSON is an object, otherwise false
+     */
+    private static boolean isObject(String json)
+    {
+        for(int i=0; i<json.length(); i++) {
+            char ch = json.charAt(i);
+            if(Character.isWhitespace(ch) == false) {
+                return ch == '{';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the provided Reader to its end.
+     * @param reader Reader to be read
+     * @return text read from the Reader
+     */
+    private static String read(Reader reader)
+    {
+        try {
+            return CharStreams.toString(reader);
+        } catch(IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Add the UUID identity of every object that the provided record refers
+     * to to the provided Map, along with the declared type of the reference.
+     * The record is read as a stream; only the fields that the ClassPlan of
+     * its class says hold references (complex objects, and arrays,
+     * collections, and maps of them) are read for identities, so a string
+     * that merely looks like an identity is never taken for one.
+     * @param json JSON of the record
+     * @param type the Class of the record, if the JSON doesn't specify one
+     * @param found Map to which the UUID identities are added
+     */
+    private static void findReferences(String json, Class type, Map<UUID,Class> found)
+    {
+        if(isObject(json) == false) {
+            return;
+        }
+        ClassPlan plan = ClassPlan.of(typeOf(json, type));
+        JsonReader reader = new JsonReader(new StringReader(json));
+        try {
+            reader.beginObject();
+            while(reader.hasNext()) {
+                FieldPlan fieldPlan = findField(plan, reader.nextName());
+                // skip the type, and any field that can't hold a reference
+                if(fieldPlan == null) {
+                    reader.skipValue();
+                    continue;
+                }
+                switch(fieldPlan.getKind()) {
+                    case OBJECT:
+                    case ARRAY:
+                    case PARAMETERIZED:
+                        findReferences(reader, fieldPlan.getField().getGenericType(), found);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+        } catch(IOException e) {
+            // the deserializer will report the malformed JSON
+        } catch(IllegalStateException e) {
+            // the deserializer will report the unexpected JSON
+        }
+    }
+
+    /**
+     * Add the UUID identity of every object referred to by the provided
+     * JSON value to the provided Map, along with its declared type.
+     * @param reader JsonReader positioned at the value
+     * @param type the declared type of the value
+     * @param found Map to which the UUID identities are added
+     * @throws IOException if the JsonReader is unable to read
+     */
+    private static void findReferences(JsonReader reader, Type type, Map<UUID,Class> found) throws IOException
+    {
+        // a JSON null refers to nothing
+        if(reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return;
+        }
+        // a collection is a JSON array of its elements, and a map is a JSON
+        // object whose keys (if complex) are references, too
+        if(type instanceof ParameterizedType) {
+            ParameterizedType paraType = (ParameterizedType) type;
+            Class rawType = (Class) paraType.getRawType();
+            Type[] actualTypes = paraType.getActualTypeArguments();
+            if(Collection.class.isAssignableFrom(rawType)
+            && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while(reader.hasNext()) {
+                    findReferences(reader, actualTypes[0], found);
+                }
+                reader.endArray();
+                return;
+            }
+            if(Map.class.isAssignableFrom(rawType)
+            && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while(reader.hasNext()) {
+                    String key = reader.nextName();
+                    if(isReference(actualTypes[0])) {
+                        addReference(key, (Class) actualTypes[0], found);
+                    }
+                    findReferences(reader, actualTypes[1], found);
+                }
+                reader.endObject();
+                return;
+            }
+        }
+        // an array is a JSON array of its components
+        else if(type instanceof Class && ((Class) type).isArray()
+        && reader.peek() == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            while(reader.hasNext()) {
+                findReferences(reader, ((Class) type).getComponentType(), found);
+            }
+            reader.endArray();
+            return;
+        }
+        // a complex object is the string form of its UUID identity
+        else if(isReference(type) && reader.peek() == JsonToken.STRING) {
+            addReference(reader.nextString(), (Class) type, found);
+            return;
+        }
+        // anything else refers to nothing
+        reader.skipValue();
+    }
+
+    /**
+     * Determine if a value of the provided declared type is written as a
+     * reference (the UUID identity of a complex object).
+     * @param type the declared type of the value
+     * @return true, if the type is a Class of complex objects, otherwise
+     *         false (for simple types, arrays, collections, and maps)
+     */
+    private static boolean isReference(Type type)
+    {
+        return (type instanceof Class)
+            && FieldKind.isSimple((Class) type) == false
+            && ((Class) type).isArray() == false;
+    }
+
+    /**
+     * Add the UUID identity in the provided string to the provided Map.
+     * @param s String form of the UUID identity
+     * @param type the declared type of the reference
+     * @param found Map to which the UUID identity is added
+     */
+    private static void addReference(String s, Class type, Map<UUID,Class> found)
+    {
+        UUID uuid = UuidCodec.tryParse(s, true);
+        if(uuid != null && found.containsKey(uuid) == false) {
+            found.put(uuid, type);
+        }
+    }
+
+    /**
+     * Find the plan for the field with the provided name in the JSON.
+     * @param plan ClassPlan of the record's class
+     * @param name name of a field in the JSON
+     * @return FieldPlan for the field, or null if the class has no such
+     *         field (such as the type encoded by Arya)
+     */
+    private static FieldPlan findField(ClassPlan plan, String name)
+    {
+        for(FieldPlan fieldPlan : plan.getFields()) {
+            if(fieldPlan.getName().equals(name)) {
+                return fieldPlan;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fill in the fields of an object that was created by defer().
+     * @param pending PendingLoad describing the object
+     */
+    private void fill(PendingLoad pending)
+    {
+        Object t = identities.get(pending.uuid);
+        // save the UUID identity and the object for the deserializer
+        Context c = context();
+        c.loadIdentity = pending.uuid;
+        c.loadInstance = t;
+        getGson().fromJson(pending.json, t.getClass());
+        // if we're tracking changes, remember the loaded state
+        if(isFingerprinting()) {
+            setFingerprint(t, Fingerprint.of(t, null, identities));
+        }
+    }
+
+    /**
+     * Create an instance of the provided class.
+     * @param type Class to be instantiated
+     * @return new instance of the class, or null if it can't be created
+     */
+    private static Object newInstance(Class type)
+    {
+        // if we have a codec, it can create the instance without reflection
+        ClassCodec codec = ClassCodecs.of(type);
+        if(codec != null) {
+            return codec.newInstance();
+        }
+        try {
+            // attempt to instantiate the object
+            return type.newInstance();
+        } catch(InstantiationException e) {
+            // if it doesn't have a no-arg constructor ... oops
+            log.error("Unable to instantiate type " + type + ":", e);
+        } catch(IllegalAccessException e) {
+            // if the no-arg constructor isn't accessible
+            log.error("Unable to instantiate type " + type + ":", e);
+        }
+        return null;
+    }
+
+    /**
+     * Walk the graph of objects reachable from the provided object, and
+     * save each object that is new, or has changed since it was last saved
+     * or loaded.
+     * @param root the Object from which to start the walk
+     */
+    private void saveChanges(Object root)
+    {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+        ArrayDeque<Object> worklist = new ArrayDeque();
+        List<Object> references = new ArrayList();
+        worklist.push(root);
+        while(worklist.isEmpty() == false) {
+            Object o = worklist.pop();
+            if(visited.add(o) == false) {
+                continue;
+            }
+            // compute the fingerprint of the object, and find the objects
+            // that it refers to
+            references.clear();
+            long fingerprint = Fingerprint.of(o, references, identities);
+            // if the object is new, or its fingerprint has changed, save it
+            if(identities.containsObject(o) == false
+            || fingerprint != identities.getFingerprint(o)) {
+                emit(o);
+            }
+            // continue the walk with the objects that it refers to
+            for(Object reference : references) {
+                worklist.push(reference);
+            }
+        }
+    }
+
+    /**
+     * Hash the graph of objects reachable from the provided object, and
+     * save each object that has changed (or is new) below the unchanged
+     * subgraphs. Every object in the graph is given its identity before
+     * any object is serialized, so serializing one object never serializes
+     * another one as a side effect.
+     * @param root the Object from which to start
+     */
+    private void saveSubgraphs(Object root)
+    {
+        SubgraphHash graph = new SubgraphHash(root);
+        Map<UUID,Long> hashes = new HashMap();
+        // save the objects that need to be saved
+        for(Object o : findChangedSubgraphs(graph, hashes)) {
+            emit(o);
+        }
+        // every one of them has been written, so remember the new hashes
+        rememberSubgraphs(graph, hashes);
+    }
+
+    /**
+     * Give each object in the provided graph its identity, and find the
+     * objects that need to be saved. The graph is walked from its root,
+     * and the walk stops at every object whose subgraph hash is the same
+     * as the one last saved, since nothing reachable from it has changed.
+     * An object that the walk does reach is saved if it is new, or if its
+     * own fingerprint has changed; an object whose subgraph changed only
+     * below it is not.
+     * @param graph SubgraphHash of the graph to be saved
+     * @param hashes Map to which the new subgraph hash of each object that
+     *               the walk reached is added, by UUID identity
+     * @return List of the objects that need to be saved
+     */
+    private List<Object> findChangedSubgraphs(SubgraphHash graph, Map<UUID,Long> hashes)
+    {
+        // make sure every object reachable from the root has an identity
+        // in this session
+        Set<Object> fresh = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+        for(Object o : graph.getObjects()) {
+            if(identities.containsObject(o) == false) {
+                populate(assignIdentity(o), o);
+                fresh.add(o);
+            }
+        }
+        // walk down from the root, as far as the subgraphs have changed
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+        ArrayDeque<Object> worklist = new ArrayDeque();
+        List<Object> changed = new ArrayList();
+        worklist.push(graph.getObjects().get(0));
+        while(worklist.isEmpty() == false) {
+            Object o = worklist.pop();
+            if(visited.add(o) == false) {
+                continue;
+            }
+            // if the subgraph below this object hasn't changed, then
+            // there's nothing to save down here
+            UUID uuid = identities.getId(o);
+            long hash = graph.getHash(o);
+            if(subgraphHashes.isChanged(uuid, hash) == false) {
+                continue;
+            }
+            hashes.put(uuid, hash);
+            // save the object if it is new, or if it has changed itself;
+            // an object without a fingerprint hasn't been saved or loaded
+            // in this session, so Arya can't tell
+            long fingerprint = identities.getFingerprint(o);
+            if(fresh.contains(o) || fingerprint == 0L
+            || fingerprint != Fingerprint.of(o, null, identities)) {
+                changed.add(o);
+            }
+            // continue the walk with the objects that it refers to
+            for(Object reference : graph.getReferences(o)) {
+                worklist.push(reference);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Remember the subgraph hashes of a graph whose changed objects have
+     * all been written. Each object that has no fingerprint in this session
+     * is now known to be in the state last saved (it sits in an unchanged
+     * subgraph), so it gets one, and a later change to the object can be
+     * told apart from a change below it.
+     * @param graph SubgraphHash of the graph that was saved
+     * @param hashes new subgraph hash of each object, by UUID identity
+     */
+    private void rememberSubgraphs(SubgraphHash graph, Map<UUID,Long> hashes)
+    {
+        Transaction tx = context().transaction;
+        for(Map.Entry<UUID,Long> entry : hashes.entrySet()) {
+            // if a transaction is in progress, note the old hash, so a
+            // rollback can put it back
+            if(tx != null) {
+                journal(tx.subgraphHashes, subgraphHashes, entry.getKey());
+            }
+            subgraphHashes.put(entry.getKey(), entry.getValue());
+        }
+        for(Object o : graph.getObjects()) {
+            if(identities.getFingerprint(o) == 0L) {
+                setFingerprint(o, Fingerprint.of(o, null, identities));
+            }
+        }
+    }
+
+    /**
+     * Walk the graph of objects reachable from the provided object, give
+     * each new object its identity, and find the objects that are new, or
+     * (if Arya is tracking changes) have changed since they were last
+     * saved or loaded.
+     * @param root the Object from which to start the walk
+     * @return List of the objects that need to be saved, in the order in
+     *         which they were found
+     */
+    private List<Object> findChanges(Object root)
+    {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+        ArrayDeque<Object> worklist = new ArrayDeque();
+        List<Object> references = new ArrayList();
+        List<Object> changed = new ArrayList();
+        worklist.push(root);
+        while(worklist.isEmpty() == false) {
+            Object o = worklist.pop();
+            if(visited.add(o) == false) {
+                continue;
+            }
+            // compute the fingerprint of the object, and find the objects
+            // that it refers to
+            references.clear();
+            long fingerprint = Fingerprint.of(o, references, identities);
+            // if the object is new, give it its identity, and save it
+            if(identities.containsObject(o) == false) {
+                populate(assignIdentity(o), o);
+                changed.add(o);
+            }
+            // if its fingerprint has changed, save it again
+            else if(changeTracking && fingerprint != identities.getFingerprint(o)) {
+                changed.add(o);
+            }
+            // continue the walk with the objects that it refers to
+            for(Object reference : references) {
+                worklist.push(reference);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Obtain a Utf8Writer from the pool, or create a new one if the pool
+     * is empty. Calls to save() nest, so each call needs its own buffer.
+     * @return empty Utf8Writer
+     */
+    private Utf8Writer acquireBuffer() {
+        Utf8Writer buffer = context().bufferPool.poll();
+        return (buffer != null) ? buffer : new Utf8Writer();
+    }
+
+    /**
+     * Return a Utf8Writer to the pool. Unusually large buffers are left for
+     * the garbage collector, so one huge record doesn't pin its memory.
+     * @param buffer Utf8Writer to be returned; may be null
+     */
+    private void releaseBuffer(Utf8Writer buffer) {
+        ArrayDeque<Utf8Writer> bufferPool = context().bufferPool;
+        if(buffer != null && buffer.capacity() <= MAX_POOLED_CAPACITY
+        && bufferPool.size() < MAX_POOLED_BUFFERS) {
+            buffer.reset();
+            bufferPool.push(buffer);
+        }
+    }
+
+    /**
+     * Give each thread its own Context.
+     */
+    private void setConcurrentContexts() {
+        contexts = new ThreadLocal<Context>() {
+            protected Context initialValue() {
+                return new Context();
+            }
+        };
+        context = null;
+    }
+
+    /**
+     * Obtain the state of the calls to load() and save() in progress on
+     * the calling thread.
+     * @return Context of the calling thread
+     */
+    private Context context() {
+        // if the calling thread is running a SaveTask, use its Context
+        if(saveTasks.get() > 0) {
+            Context task = taskContexts.get();
+            if(task != null) {
+                return task;
+            }
+        }
+        Context c = context;
+        return (c != null) ? c : contexts.get();
+    }
+
+    /**
+     * Close the provided Reader, logging (but otherwise ignoring) any error.
+     * @param reader Reader to be closed
+     */
+    private static void close(Reader reader) {
+        try {
+            reader.close();
+        } catch(IOException e) {
+            log.warn("Unable to close input:", e);
+        }
+    }
+
+    /**
+     * JsonSource adapts each kind of input provider (String, ByteBuffer,
+     * InputStream) to a Reader that Gson can parse.
+     */
+    private interface JsonSource {
+        Reader input(UUID uuid, Class type);
+    }
+
+    /**
+     * BatchSource adapts an input provider that can also provide the JSON
+     * of many objects in a single call.
+     */
+    private interface BatchSource extends JsonSource {
+        Map<UUID,String> inputAll(Collection<UUID> uuids, Class type);
+    }
+
+    /**
+     * JsonSink adapts each kind of output listener (String, ByteBuffer) so
+     * that it can take the form of the JSON it wants from a JsonRecord.
+     */
+    private interface JsonSink {
+        void output(Object t, UUID uuid, JsonRecord record);
+    }
+
+    /**
+     * DeltaSink adapts an AryaDeltaOutput listener. It keeps the last record
+     * that the listener accepted for each object, and gives the listener
+     * a patch against it the next time the object is saved.
+     */
+    private class DeltaSink implements JsonSink
+    {
+        /**
+         * Construct a DeltaSink for the provided listener.
+         * @param aryaDeltaOutput listener to be given records and patches
+         */
+        DeltaSink(AryaDeltaOutput aryaDeltaOutput) {
+            this.aryaDeltaOutput = aryaDeltaOutput;
+        }
+
+        @Override // implements JsonSink
+        public void output(Object t, UUID uuid, JsonRecord record) {
+            String json = record.asString();
+            String last = lastRecords.get(uuid);
+            // if the listener doesn't have a record for this object yet,
+            // then give it the full record
+            if(last == null) {
+                aryaDeltaOutput.output(t, uuid, json);
+            }
+            // if the record hasn't changed at all, there is nothing to give
+            else if(last.equals(json)) {
+                return;
+            }
+            // otherwise, parse both records, and give it only what has
+            // changed (if anything)
+            else {
+                JsonElement previous = parser.parse(last);
+                JsonElement current = parser.parse(json);
+                if(previous.isJsonObject() && current.isJsonObject()) {
+                    JsonObject patch = JsonPatch.diff(previous.getAsJsonObject(), current.getAsJsonObject());
+                    if(patch.entrySet().isEmpty()) {
+                        return;
+                    }
+                    aryaDeltaOutput.patch(t, uuid, patch.toString());
+                } else {
+                    aryaDeltaOutput.output(t, uuid, json);
+                }
+            }
+            // the listener accepted the record, so the next patch is
+            // computed against it
+            lastRecords.put(uuid, json);
+            // if a transaction is in progress, note the identity, so a
+            // rollback can forget the record
+            Transaction tx = context().transaction;
+            if(tx != null) {
+                tx.lastRecords.add(uuid);
+            }
+        }
+
+        /**
+         * Listener to be given records and patches.
+         */
+        final AryaDeltaOutput aryaDeltaOutput;
+
+        /**
+         * Last record accepted by the listener, by UUID identity. The
+         * records are kept as JSON text, which takes much less memory than
+         * a parsed tree; they are parsed only when a patch is computed.
+         */
+        final Map<UUID,String> lastRecords = new ConcurrentHashMap();
+
+        /**
+         * Parser for the records.
+         */
+        private final JsonParser parser = new JsonParser();
+    }
+
+    /**
+     * Transaction is the journal of a transaction in progress: what it has
+     * changed in the session, so that a rollback can undo it.
+     */
+    private static class Transaction
+    {
+        /**
+         * UUID identities added to the identity map.
+         */
+        final List<UUID> identities = new ArrayList();
+
+        /**
+         * Objects into whose @Id field a new identity was written back.
+         */
+        final List<Object> writtenBack = new ArrayList();
+
+        /**
+         * Fingerprint of each object before the transaction changed it.
+         */
+        final Map<Object,Long> fingerprints = new IdentityHashMap();
+
+        /**
+         * Record hash of each UUID identity before the transaction changed
+         * it (null, if there was none).
+         */
+        final Map<UUID,Long> recordHashes = new HashMap();
+
+        /**
+         * Subgraph hash of each UUID identity before the transaction
+         * changed it (null, if there was none).
+         */
+        final Map<UUID,Long> subgraphHashes = new HashMap();
+
+        /**
+         * UUID identities whose last record (for a delta listener) was
+         * changed.
+         */
+        final List<UUID> lastRecords = new ArrayList();
+    }
+
+    /**
+     * Context holds the state of the calls to load() and save() in progress
+     * on a single thread. Arya has a single Context, unless it is concurrent;
+     * then each thread has its own.
+     */
+    private static class Context
+    {
+        /**
+         * UUID identity of the object being deserialized. Calls to load()
+         * store the requested UUID identity here so that AryaDeserializer
+         * can retrieve it when the Google Gson library instructs it to do so.
+         * 
+         * NOTE: This used to be a stack, because calls to load() nested. Now
+         *       that nested objects are deserialized from a worklist, only
+         *       one record is being deserialized at a time.
+         */
+        UUID loadIdentity;
+
+        /**
+         * Object created ahead of time for the record being deserialized, or
+         * null if the deserializer should create a new object.
+         */
+        Object loadInstance;
+
+        /**
+         * Objects that have been created, but whose fields have yet to be
+         * filled in, with the JSON from which to fill them in.
+         */
+        final Map<Object,PendingLoad> pendingLoads = new IdentityHashMap();
+
+        /**
+         * Worklist of objects to be filled in, in the order they were
+         * created. An object whose fields have already been filled in (by
+         * complete()) is skipped.
+         */
+        final ArrayDeque<Object> pendingLoadQueue = new ArrayDeque();
+
+        /**
+         * Worklist of objects that have been given their UUID identity, but
+         * have yet to be serialized.
+         */
+        final ArrayDeque<Object> pendingSaves = new ArrayDeque();
+
+        /**
+         * Pool of Utf8Writer buffers for byte-oriented output listeners.
+         */
+        final ArrayDeque<Utf8Writer> bufferPool = new ArrayDeque();
+
+        /**
+         * Cache of recently parsed UUID identities.
+         */
+        final UuidCache uuidCache = new UuidCache();
+
+        /**
+         * Number of calls to write() in progress. Calls to save() made while
+         * another object is being serialized add it to the worklist.
+         */
+        int saveDepth;
+
+        /**
+         * Number of calls to loadAll() in progress. Calls to load() made
+         * while another object is being deserialized add it to the worklist.
+         */
+        int loadDepth;
+
+        /**
+         * Flag: this thread is serializing records for saveParallel(), so
+         * the identity map must not change.
+         */
+        boolean parallelSave;
+
+        /**
+         * Records fetched (and objects created) by loadParallel() or
+         * prefetch(), which load() uses instead of asking the input
+         * providers, or null.
+         */
+        Map<UUID,PendingLoad> prefetched;
+
+        /**
+         * Records written, but not yet given to the batch output listeners.
+         */
+        List<AryaRecord> outputBatch = new ArrayList();
+
+        /**
+         * Number of characters of JSON in the batch.
+         */
+        int outputBatchChars;
+
+        /**
+         * Hash of each record in the batch, by UUID identity; remembered
+         * in the RecordHashes once the batch has been delivered.
+         */
+        Map<UUID,Long> outputBatchHashes = new HashMap();
+
+        /**
+         * Journal of the transaction in progress, or null.
+         */
+        Transaction transaction;
+    }
+
+    /**
+     * FetchTask fetches and parses a range of the records of one level of
+     * the graph for loadParallel(), and creates the objects that they
+     * describe. A large range is split in two, and the halves are fetched
+     * in parallel.
+     */
+    private class FetchTask extends RecursiveAction
+    {
+        FetchTask(UUID[] uuids, Class[] types, Map<UUID,PendingLoad> records,
+                Map<UUID,Class> found, int from, int to, int threshold) {
+            this.uuids = uuids;
+            this.types = types;
+            this.records = records;
+            this.found = found;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            // if the range is large, split it in two
+            if(to - from > threshold) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new FetchTask(uuids, types, records, found, from, mid, threshold),
+                          new FetchTask(uuids, types, records, found, mid, to, threshold));
+                return;
+            }
+            // otherwise, fetch each record in the range
+            Map<UUID,Class> references = new HashMap();
+            for(int i=from; i<to; i++) {
+                String json = fetch(uuids[i], types[i]);
+                if(json == null) {
+                    continue;
+                }
+                // if the record names its class, create the object now
+                Object t = null;
+                if(isObject(json) && typeNameOf(json) != null) {
+                    t = newInstance(typeOf(json, types[i]));
+                }
+                records.put(uuids[i], new PendingLoad(uuids[i], json, t));
+                findReferences(json, types[i], references);
+            }
+            found.putAll(references);
+        }
+
+        /**
+         * Fetch the record with the provided UUID identity.
+         * @param uuid UUID identity of the record
+         * @param type the Class with which to ask the providers
+         * @return JSON of the record, or null if no provider has it
+         */
+        private String fetch(UUID uuid, Class type) {
+            for(JsonSource provider : providers) {
+                Reader json = provider.input(uuid, type);
+                if(json != null) {
+                    try {
+                        return read(json);
+                    } finally {
+                        close(json);
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * UUID identities of the records of the level.
+         */
+        private final UUID[] uuids;
+
+        /**
+         * Class with which to ask the providers for each record.
+         */
+        private final Class[] types;
+
+        /**
+         * Records fetched so far, by UUID identity.
+         */
+        private final Map<UUID,PendingLoad> records;
+
+        /**
+         * UUID identities referred to by the records of the level, and
+         * their declared types.
+         */
+        private final Map<UUID,Class> found;
+
+        /**
+         * Index of the first record in the range.
+         */
+        private final int from;
+
+        /**
+         * Index one past the last record in the range.
+         */
+        private final int to;
+
+        /**
+         * Largest range that is fetched without being split.
+         */
+        private final int threshold;
+    }
+
+    /**
+     * SaveTask serializes a range of the objects found by saveParallel().
+     * A large range is split in two, and the halves are serialized in
+     * parallel.
+     */
+    private class SaveTask extends RecursiveAction
+    {
+        SaveTask(Object[] objects, UUID[] uuids, JsonRecord[] records,
+                long[] fingerprints, int from, int to, int threshold) {
+            this.objects = objects;
+            this.uuids = uuids;
+            this.records = records;
+            this.fingerprints = fingerprints;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            // if the range is large, split it in two
+            if(to - from > threshold) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SaveTask(objects, uuids, records, fingerprints, from, mid, threshold),
+                          new SaveTask(objects, uuids, records, fingerprints, mid, to, threshold));
+                return;
+            }
+            // otherwise, serialize each object in the range, in a Context
+            // of this task's own (whether or not Arya is concurrent)
+            Arya previous = bind();
+            Context outer = taskContexts.get();
+            Context c = new Context();
+            taskContexts.set(c);
+            c.saveDepth++;
+            c.parallelSave = true;
+            try {
+                for(int i=from; i<to; i++) {
+                    JsonRecord record = new JsonRecord();
+                    serialize(objects[i], record);
+                    // if the records are to be delivered in order, keep it
+                    if(records != null) {
+                        records[i] = record;
+                    }
+                    // otherwise, deliver it now
+                    else {
+                        deliver(objects[i], uuids[i], record);
+                        releaseBuffer(record.utf8);
+                    }
+                    // if we're tracking changes, note the saved state
+                    if(fingerprints != null) {
+                        fingerprints[i] = Fingerprint.of(objects[i], null, identities);
+                    }
+                }
+            } finally {
+                c.saveDepth--;
+                c.parallelSave = false;
+                c.pendingSaves.clear();
+                // give the batch output listeners what this task wrote
+                try {
+                    deliverBatch(c);
+                } finally {
+                    if(outer != null) {
+                        taskContexts.set(outer);
+                    } else {
+                        taskContexts.remove();
+                    }
+                    unbind(previous);
+                }
+            }
+        }
+
+        /**
+         * Objects found by saveParallel().
+         */
+        private final Object[] objects;
+
+        /**
+         * UUID identity of each object.
+         */
+        private final UUID[] uuids;
+
+        /**
+         * Record of each object, or null if records are delivered as soon
+         * as they are serialized.
+         */
+        private final JsonRecord[] records;
+
+        /**
+         * Fingerprint of each object, or null if Arya isn't tracking changes.
+         */
+        private final long[] fingerprints;
+
+        /**
+         * Index of the first object in the range.
+         */
+        private final int from;
+
+        /**
+         * Index one past the last object in the range.
+         */
+        private final int to;
+
+        /**
+         * Largest range that is serialized without being split.
+         */
+        private final int threshold;
+    }
+
+    /**
+     * PendingLoad holds the JSON of an object that has been created, but
+     * whose fields have yet to be filled in.
+     */
+    private static class PendingLoad
+    {
+        PendingLoad(UUID uuid, String json, Object instance) {
+            this.uuid = uuid;
+            this.json = json;
+            this.instance = instance;
+        }
+
+        /**
+         * UUID identity of the object.
+         */
+        final UUID uuid;
+
+        /**
+         * JSON of the object, as text; it is parsed when the object is
+         * filled in.
+         */
+        final String json;
+
+        /**
+         * The object, or null if a record fetched by loadParallel() could
+         * not be instantiated ahead of time.
+         */
+        final Object instance;
+    }
+
+    /**
+     * JsonRecord holds the JSON of a single serialized object, as a String,
+     * as UTF-8 bytes, or both. Each form is created at most once, and only
+     * if some listener asks for it.
+     */
+    private class JsonRecord
+    {
+        String asString() {
+            if(json == null) {
+                json = utf8.toString();
+            }
+            return json;
+        }
+
+        ByteBuffer asBytes() {
+            if(utf8 == null) {
+                utf8 = acquireBuffer();
+                utf8.write(json);
+            }
+            return utf8.toByteBuffer();
+        }
+
+        /**
+         * JSON as a String, or null if it hasn't been created.
+         */
+        String json;
+
+        /**
+         * JSON as UTF-8 bytes, or null if they haven't been created.
+         */
+        Utf8Writer utf8;
+    }
+
+    /**
+     * List of output listeners. This list is used to register output listeners
+     * who are interested in receiving Arya serialization events. The list is
+     * copy-on-write, so that threads saving objects never see it change
+     * while they iterate over it.
+     */
+    private List<JsonSink> listeners = new CopyOnWriteArrayList();
+    
+    /**
+     * List of batch output listeners, which receive the records written by
+     * each call to save() in batches. Like the list of output listeners, it
+     * is copy-on-write.
+     */
+    private List<AryaBatchOutput> batchListeners = new CopyOnWriteArrayList();
+    
+    /**
+     * List of output listeners that take part in transactions. Each one is
+     * also in the list of output listeners (or batch output listeners).
+     */
+    private List<AryaTransactionOutput> transactionListeners = new CopyOnWriteArrayList();
+    
+    /**
+     * Maximum number of records in a batch given to the batch output
+     * listeners.
+     */
+    private int outputBatchSize = DEFAULT_OUTPUT_BATCH_SIZE;
+    
+    /**
+     * Maximum number of characters of JSON in a batch given to the batch
+     * output listeners.
+     */
+    private int outputBatchChars = DEFAULT_OUTPUT_BATCH_CHARS;
+    
+    /**
+     * Number of output listeners that want the JSON as a String. If there
+     * are none, save() writes the JSON directly as UTF-8 bytes.
+     */
+    private final AtomicInteger stringListeners = new AtomicInteger();
+    
+    /**
+     * List of input providers. This list is used to register input providers
+     * who will provide JSON when queried with UUID identities of objects.
+     * Like the list of output listeners, it is copy-on-write.
+     */
+    private List<JsonSource> providers = new CopyOnWriteArrayList();
+    
+    /**
+     * Object<->Identity table. This table tracks the progress of
+     * serialization and deserialization over complex object graphs.
+     * Objects are tracked by identity (==), not by equals().
+     */
+    private IdentityMap identities = new IdentityTable();
+    
+    /**
+     * Generator of UUID identities for objects without an identity of
+     * their own.
+     */
+    private IdGenerator idGenerator = new RandomIdGenerator();
+    
+    /**
+     * Registry of identities shared with other Arya sessions, or null.
+     */
+    private IdentityRegistry identityRegistry;
+    
+    /**
+     * Hashes of the last record written under each identity, or null.
+     */
+    private RecordHashes recordHashes;
+    
+    /**
+     * Hashes of the subgraph last saved under each identity, or null.
+     */
+    private RecordHashes subgraphHashes;
+    
+    /**
+     * State of the calls to load() and save() in progress, or null if Arya
+     * is concurrent.
+     */
+    private Context context = new Context();
+
+    /**
+     * State of the calls to load() and save() in progress on each thread,
+     * or null if Arya is not concurrent.
+     */
+    private ThreadLocal<Context> contexts;
+
+    /**
+     * State of the SaveTask running on each thread, if any. A SaveTask
+     * works in a Context of its own, so the threads of saveParallel()
+     * never share one, even if Arya is not concurrent.
+     */
+    private final ThreadLocal<Context> taskContexts = new ThreadLocal();
+
+    /**
+     * Number of calls to saveParallel() in progress; unless there are
+     * some, context() doesn't look for the Context of a SaveTask.
+     */
+    private final AtomicInteger saveTasks = new AtomicInteger();
+
+    /**
+     * Gson singleton. This reference to Google's Gson object does the grunt
+     * work with the JSON. The method getGson() creates the singleton, properly
+     * configured with an AryaSerializer and AryaDeserializer to do the
+     * smart work.
+     * 
+     * NOTE: Gson references are immutable and thread-safe. Constructing a
+     *       single reference and reusing it is safe and efficient. Arya is
+     *       stateful and NOT thread-safe. Don't mistake one for the other.
+     */
+    private volatile Gson gson;
+    
+    /**
+     * Flag: Gson singleton is constructed to use the streaming engine.
+     * This flag is baked into the Gson singleton when getGson() is
+     * first called.
+     */
+    private boolean streaming;
+    
+    /**
+     * Flag: Arya may be shared by many threads.
+     */
+    private boolean concurrent;
+    
+    /**
+     * AryaFactory that opened this session, or null if this Arya was
+     * constructed on its own.
+     */
+    private AryaFactory factory;
+
+    /**
+     * AryaFactory whose sessions share the serializers built with this
+     * Arya, or null. If set, the calls the serializers make into this Arya
+     * are passed on to the session working on the calling thread.
+     */
+    private AryaFactory sessions;
+
+    /**
+     * Flag: this is a session that has been closed, and not opened again.
+     */
+    private volatile boolean closed;
+    
+    /**
+     * Flag: Arya tracks changes with a fingerprint of each object.
+     */
+    private boolean changeTracking;
+    
+    /**
+     * Flag: generated identities are written back into empty @Id fields.
+     */
+    private boolean idWriteBack;
+    
+    /**
+     * Flag: 64-bit identities are written as decimal numbers.
      */
-    private Gson gson;
+    private boolean compactIdentities;
     
     /**
      * Flag: Gson singleton is constructed to use pretty-printing.
@@ -0,0 +1,52 @@
+/*
+ * AryaBatchInput.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pmeade.arya;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * AryaBatchInput is the batch input provider service interface. It is like
+ * AryaInput, except that it can also provide the JSON of many objects in a
+ * single call. When Arya deserializes a collection, array, or map of
+ * objects, it asks for all of the elements it hasn't loaded yet at once,
+ * instead of calling input() once per element. A persistence store with a
+ * cost per call (a database, a remote service) should implement this
+ * interface.
+ * @see AryaInput
+ * @author pmeade
+ */
+public interface AryaBatchInput extends AryaInput
+{
+    /**
+     * Obtain the JSON representations of the objects identified by the
+     * provided UUID identities.
+     * @param uuids UUID identities of the objects for which to obtain JSON
+     * @param type Class of the Java objects to be deserialized; this is the
+     *             declared type of the elements, so some of the objects
+     *             may be of a subclass
+     * @return Map from UUID identity to JSON representation, for each of the
+     *         objects that can be found in this persistence store. Objects
+     *         that can't be found should be left out of the Map. This
+     *         function may also return null if none can be found.
+     */
+    public <T> Map<UUID,String> inputAll(Collection<UUID> uuids, Class<T> type);
+}
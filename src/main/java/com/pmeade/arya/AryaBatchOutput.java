@@ -0,0 +1,43 @@
+/*
+ * AryaBatchOutput.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pmeade.arya;
+
+import java.util.List;
+
+/**
+ * AryaBatchOutput is the batch output listener service interface. Instead
+ * of being called once for each object that Arya serializes, like
+ * AryaOutput, it is called once with all of the records written by a call
+ * to save() (or flush()), so that a persistence store can write them
+ * together (in one transaction, or one write to a file). A large save is
+ * delivered in several batches; see Arya.setOutputBatchSize() and
+ * Arya.setOutputBatchChars().
+ * @see AryaOutput
+ * @author pmeade
+ */
+public interface AryaBatchOutput
+{
+    /**
+     * Arya has serialized a batch of Java objects.
+     * @param records the serialized objects, in the order in which they
+     *                were serialized; the List may not be modified
+     */
+    public void outputBatch(List<AryaRecord> records);
+}
@@ -0,0 +1,46 @@
+/*
+ * AryaByteInput.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * AryaByteInput is the byte-oriented input provider service interface. It
+ * is like AryaInput, except that the JSON is provided as UTF-8 bytes in a
+ * ByteBuffer instead of a String. Arya parses the bytes directly, without
+ * creating a String. The ByteBuffer may be a heap buffer, a direct buffer,
+ * or a memory-mapped file.
+ * @see AryaInput
+ * @author pmeade
+ */
+public interface AryaByteInput
+{
+    /**
+     * Obtain the JSON representation of the object identified by the provided
+     * UUID identity. Arya reads the bytes between the position and the limit
+     * of the buffer, and does not change the position of the buffer.
+     * @param uuid UUID identity of the object for which to obtain the JSON
+     * @param type Class of the Java object to be deserialized
+     * @return JSON representation (encoded as UTF-8) of the object indicated
+     *         by the provided UUID identity, if it can be found in this
+     *         persistence store. Otherwise this function should return null.
+     */
+    public <T> ByteBuffer input(UUID uuid, Class<T> type);
+}
@@ -0,0 +1,48 @@
+/*
+ * AryaByteOutput.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * AryaByteOutput is the byte-oriented output listener service interface.
+ * It is like AryaOutput, except that the JSON is provided as UTF-8 bytes
+ * instead of a String. Listeners that write to files, sockets, or off-heap
+ * stores can use the bytes directly, without encoding a String themselves.
+ * @see AryaOutput
+ * @author pmeade
+ */
+public interface AryaByteOutput
+{
+    /**
+     * Notify about an Arya serialization event. This method is called when
+     * Arya is asked to serialize a Java object into JSON format.
+     * 
+     * IMPORTANT: The ByteBuffer is read-only and comes from a pool that
+     *            Arya reuses. It is only valid for the duration of this
+     *            call; a listener that needs the bytes later must copy them.
+     * 
+     * @param t Object that Arya serialized into JSON format
+     * @param uuid UUID identity of the Object that was serialized
+     * @param json JSON representation of the serialized Object, encoded
+     *             as UTF-8, between the position and limit of the buffer
+     */
+    public <T> void output(T t, UUID uuid, ByteBuffer json);
+}
@@ -0,0 +1,45 @@
+/*
+ * AryaDeltaInput.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * AryaDeltaInput is the patch-oriented input provider service interface.
+ * It is like AryaInput, except that the persistence store may hold a full
+ * JSON record for an object followed by any number of patches, as written
+ * by an AryaDeltaOutput listener. Arya applies the patches to the record,
+ * in order, before deserializing the object.
+ * @see AryaInput
+ * @see AryaDeltaOutput
+ * @author pmeade
+ */
+public interface AryaDeltaInput extends AryaInput
+{
+    /**
+     * Obtain the patches written for the object identified by the provided
+     * UUID identity, since its full record was written.
+     * @param uuid UUID identity of the object for which to obtain patches
+     * @param type Class of the Java object to be deserialized
+     * @return List of JSON patches, oldest first; if there are no patches
+     *         for the object, this function may return an empty list or null
+     */
+    public <T> List<String> patches(UUID uuid, Class<T> type);
+}
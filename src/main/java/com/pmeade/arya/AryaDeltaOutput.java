@@ -0,0 +1,47 @@
+/*
+ * AryaDeltaOutput.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya;
+
+import java.util.UUID;
+
+/**
+ * AryaDeltaOutput is the patch-oriented output listener service interface.
+ * The first time an object is saved, Arya calls the output() method with
+ * the full JSON record, as it would for any AryaOutput. When the same
+ * object is saved again, Arya compares the new record with the last one it
+ * gave to this listener, and calls the patch() method with only the fields
+ * that have changed. If nothing has changed, Arya calls neither method.
+ * @see AryaOutput
+ * @see AryaDeltaInput
+ * @author pmeade
+ */
+public interface AryaDeltaOutput extends AryaOutput
+{
+    /**
+     * Notify about an Arya serialization event for an object that has been
+     * written before. The patch is a JSON object that contains each field
+     * whose value was added or changed, with its new value, and each field
+     * that was removed, with the value null.
+     * @param t Object that Arya serialized into JSON format
+     * @param uuid UUID identity of the Object that was serialized
+     * @param patch JSON patch to be applied to the last record (or patch)
+     *              written for the Object
+     */
+    public <T> void patch(T t, UUID uuid, String patch);
+}
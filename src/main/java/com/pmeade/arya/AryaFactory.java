@@ -0,0 +1,209 @@
+/*
+ * AryaFactory.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya;
+
+import com.google.gson.Gson;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * AryaFactory opens lightweight Arya sessions that share one configuration.
+ * 
+ * A new Arya builds its own Gson singleton, with its own serializers and
+ * deserializers, the first time it is used. An application that creates
+ * an Arya for each request pays for that every time. An AryaFactory builds
+ * the Gson singleton once, and every session that it opens shares it; a
+ * session only needs its own identity map (and its own worklists). The
+ * shared serializers work for whichever session is saving or loading on
+ * the calling thread.
+ * 
+ * The factory doesn't own the plans of the classes: ClassPlan keeps them
+ * in a global ClassValue, shared by every Arya whether it came from a
+ * factory or not. Only the caches held by the serializers themselves,
+ * such as the StreamPlan of each class, are shared through the factory.
+ * 
+ * The factory takes its configuration from an Arya object when it is
+ * constructed: settings, IdGenerator, IdentityRegistry, RecordHashes,
+ * subgraph hashes, input providers, and output listeners. Later changes to
+ * that Arya don't affect the factory. Everything shared by the sessions
+ * must be thread-safe, since the sessions may be used by many threads.
+ * 
+ * An AryaFactory is immutable and thread-safe. Each session is an Arya,
+ * and (unless the factory was configured from a concurrent Arya) should be
+ * used by one thread at a time. Listeners registered with a session are
+ * registered with that session only.
+ * 
+ * A factory may keep a pool of sessions. Closing a session clears it and
+ * returns it to the pool, and open() hands it out again, reconfigured.
+ * A closed session throws IllegalStateException from save() and load()
+ * until open() hands it out again; after closing a session, don't use it
+ * any more.
+ * @author pmeade
+ */
+public final class AryaFactory
+{
+    /**
+     * Construct an AryaFactory that opens a new session every time.
+     * @param template Arya from which to take the configuration
+     */
+    public AryaFactory(Arya template)
+    {
+        this(template, 0);
+    }
+
+    /**
+     * Construct an AryaFactory.
+     * @param template Arya from which to take the configuration
+     * @param poolSize maximum number of closed sessions to keep for reuse;
+     *                 zero means that sessions are never reused
+     */
+    public AryaFactory(Arya template, int poolSize)
+    {
+        if(poolSize < 0) {
+            throw new IllegalArgumentException("poolSize < 0");
+        }
+        // take a copy of the configuration, so later changes don't leak in
+        this.template = new Arya();
+        this.template.configure(template, null, null);
+        // build the Gson singleton that the sessions share, against an Arya
+        // that passes each call of the serializers on to the session
+        // working on the calling thread
+        Arya shared = new Arya();
+        shared.configure(this.template, null, null);
+        shared.dispatchTo(this);
+        this.gson = shared.getGson();
+        this.pool = (poolSize > 0) ? new ArrayBlockingQueue<Arya>(poolSize) : null;
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Obtain the number of closed sessions waiting in the pool.
+     * @return number of sessions that open() can reuse
+     */
+    public int getIdleCount() {
+        return (pool != null) ? pool.size() : 0;
+    }
+
+    /**
+     * Obtain the maximum number of closed sessions kept for reuse.
+     * @return size of the pool, or zero if sessions are never reused
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Open a session. The session is an Arya with the configuration of the
+     * factory, and an empty identity map. Close the session when done with
+     * it, so that it can be reused.
+     * @return Arya session
+     */
+    public Arya open()
+    {
+        Arya session = (pool != null) ? pool.poll() : null;
+        if(session == null) {
+            session = new Arya();
+        }
+        session.configure(template, this, gson);
+        return session;
+    }
+
+    /**
+     * Return a closed session to the pool, if there is room for it.
+     * @param session Arya session that has been closed
+     */
+    void release(Arya session)
+    {
+        if(pool != null && pool.contains(session) == false) {
+            pool.offer(session);
+        }
+    }
+
+    /**
+     * Make the provided session the one that the shared serializers work
+     * for on the calling thread.
+     * @param session Arya session that is about to save or load
+     * @return session that they worked for before, or null
+     */
+    Arya bind(Arya session)
+    {
+        Arya previous = current.get();
+        if(previous != session) {
+            current.set(session);
+        }
+        return previous;
+    }
+
+    /**
+     * Make the session returned by bind() the one that the shared
+     * serializers work for on the calling thread again.
+     * @param session Arya session that has finished saving or loading
+     * @param previous session returned by bind()
+     */
+    void unbind(Arya session, Arya previous)
+    {
+        if(previous == null) {
+            current.remove();
+        } else if(previous != session) {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Obtain the session that the shared serializers work for on the
+     * calling thread.
+     * @return Arya session
+     * @throws IllegalStateException if no session is saving or loading
+     */
+    Arya current()
+    {
+        Arya session = current.get();
+        if(session == null) {
+            throw new IllegalStateException("No Arya session is active on this thread");
+        }
+        return session;
+    }
+
+    /**
+     * Session that the shared serializers work for on each thread.
+     */
+    private final ThreadLocal<Arya> current = new ThreadLocal<Arya>();
+
+    /**
+     * Copy of the configuration of the Arya from which the factory was
+     * constructed.
+     */
+    private final Arya template;
+
+    /**
+     * Gson singleton shared by every session.
+     */
+    private final Gson gson;
+
+    /**
+     * Closed sessions waiting to be reused, or null if sessions are never
+     * reused.
+     */
+    private final BlockingQueue<Arya> pool;
+
+    /**
+     * Maximum number of closed sessions kept for reuse.
+     */
+    private final int poolSize;
+}
@@ -0,0 +1,83 @@
+/*
+ * AryaRecord.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pmeade.arya;
+
+import java.util.UUID;
+
+/**
+ * AryaRecord is a single serialized object, as given to an AryaBatchOutput
+ * listener: the object, its UUID identity, and the JSON to which it was
+ * serialized.
+ * @see AryaBatchOutput
+ * @author pmeade
+ */
+public final class AryaRecord
+{
+    /**
+     * Construct an AryaRecord.
+     * @param object the Object that was serialized
+     * @param identity UUID identity of the object
+     * @param json JSON to which the object was serialized
+     */
+    public AryaRecord(Object object, UUID identity, String json) {
+        this.object = object;
+        this.identity = identity;
+        this.json = json;
+    }
+
+    /**
+     * Obtain the object that was serialized.
+     * @return the Object that was serialized
+     */
+    public Object getObject() {
+        return object;
+    }
+
+    /**
+     * Obtain the UUID identity of the object.
+     * @return UUID identity of the object
+     */
+    public UUID getIdentity() {
+        return identity;
+    }
+
+    /**
+     * Obtain the JSON to which the object was serialized.
+     * @return JSON representation of the object
+     */
+    public String getJson() {
+        return json;
+    }
+
+    /**
+     * The object that was serialized.
+     */
+    private final Object object;
+
+    /**
+     * UUID identity of the object.
+     */
+    private final UUID identity;
+
+    /**
+     * JSON to which the object was serialized.
+     */
+    private final String json;
+}
@@ -0,0 +1,55 @@
+/*
+ * AryaTransactionOutput.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pmeade.arya;
+
+/**
+ * AryaTransactionOutput is the transactional output listener service
+ * interface. It is like AryaOutput, except that Arya also tells it where
+ * each transaction begins and ends, so that a persistence store can write
+ * the records of a transaction as a single unit (one database transaction,
+ * one sync of a file to disk), and readers never see half of a graph.
+ * Transactions are made with Arya.transaction().
+ * 
+ * A listener that is also an AryaBatchOutput (registered as such) receives
+ * all of the records of a transaction in a single batch, between
+ * transactionBegin() and transactionEnd().
+ * @see AryaOutput
+ * @author pmeade
+ */
+public interface AryaTransactionOutput extends AryaOutput
+{
+    /**
+     * A transaction has begun. The records that follow, up to the call to
+     * transactionEnd() or transactionRollback(), belong to it.
+     */
+    public void transactionBegin();
+
+    /**
+     * The transaction has completed. The records given to the listener
+     * since transactionBegin() should be committed.
+     */
+    public void transactionEnd();
+
+    /**
+     * The transaction has failed. The records given to the listener since
+     * transactionBegin() should be thrown away.
+     */
+    public void transactionRollback();
+}
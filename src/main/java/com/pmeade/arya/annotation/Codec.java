@@ -0,0 +1,43 @@
+/*
+ * Codec.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * @Codec asks Arya's annotation processor to generate a ClassCodec for the
+ * annotated class at compile time. The generated codec reads and writes
+ * the fields of the class directly (or through its getters and setters)
+ * and is registered with ServiceLoader, so Arya will use it instead of
+ * reflection. The annotated class must have an accessible no-arg
+ * constructor. If the processor can't reach every field of the class, it
+ * will emit a warning and Arya will continue to use reflection. With the
+ * streaming engine (see Arya.setStreaming), the codec is only used to
+ * create instances of the class; fields are streamed without it.
+ * @see com.pmeade.arya.gson.codec.ClassCodec
+ * @author pmeade
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Codec
+{
+}
@@ -30,6 +30,10 @@ import java.util.UUID;
  * in the class. If Arya finds the @Id annotation, it will adopt the content
  * of the UUID field as the canonical identity of the object. If no field has
  * the @Id annotation, Arya will create a UUID identity for the object.
+ * 
+ * The annotation may also be added to a field of type long (or Long) that
+ * contains a 64-bit identity, such as one created by SequentialIdGenerator.
+ * A value of zero (or null) means the object has no identity of its own.
  * @see UUID
  * @author pmeade
  */
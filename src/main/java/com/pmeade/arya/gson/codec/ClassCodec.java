@@ -0,0 +1,68 @@
+/*
+ * ClassCodec.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.gson.codec;
+
+import com.google.gson.JsonObject;
+import com.pmeade.arya.gson.deserialize.AryaDeserializer;
+import com.pmeade.arya.gson.serialize.AryaSerializer;
+
+/**
+ * ClassCodec is the service interface for codecs that (de)serialize every
+ * field of a single class. Implementations are normally generated at
+ * compile time by the CodecProcessor for classes annotated with @Codec,
+ * and are discovered at runtime through ServiceLoader. When a ClassCodec
+ * exists for a class, Arya uses it instead of reflection. The codec works
+ * on Gson's tree model, so the streaming engine only uses newInstance();
+ * it streams the fields through its own method handle accessors.
+ * @see com.pmeade.arya.annotation.Codec
+ * @author pmeade
+ */
+public interface ClassCodec<T>
+{
+    /**
+     * Obtain the class handled by this codec.
+     * @return Class handled by this codec
+     */
+    public Class<T> getType();
+
+    /**
+     * Create a new, empty instance of the class handled by this codec.
+     * @return new instance of the class
+     */
+    public T newInstance();
+
+    /**
+     * Serialize the fields of the provided object into the provided JsonObject.
+     * @param jo JsonObject into which the JSON data should be populated
+     * @param t Object that should be serialized into JSON
+     * @param aryaSerializer AryaSerializer to serialize referenced objects
+     *                       and fields that the codec doesn't handle itself
+     */
+    public void serialize(JsonObject jo, T t, AryaSerializer aryaSerializer);
+
+    /**
+     * Deserialize the fields of the provided object from the provided JsonObject.
+     * @param jo the JSON, as wrapped into objects by Gson
+     * @param t the Object in which the fields are to be deserialized
+     * @param aryaDeserializer AryaDeserializer to deserialize referenced
+     *                         objects and fields that the codec doesn't
+     *                         handle itself
+     */
+    public void deserialize(JsonObject jo, T t, AryaDeserializer aryaDeserializer);
+}
@@ -0,0 +1,93 @@
+/*
+ * ClassCodecs.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.gson.codec;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ClassCodecs is the registry of ClassCodec implementations that were
+ * found with ServiceLoader. The registry is loaded once, on first use.
+ * @author pmeade
+ */
+public final class ClassCodecs
+{
+    /** SLF4J Logging Service */
+    private static final Logger log = LoggerFactory.getLogger(ClassCodecs.class);
+
+    /**
+     * Obtain the ClassCodec registered for the provided class.
+     * @param type Class for which to obtain the codec
+     * @return ClassCodec for the class, or null if there isn't one
+     */
+    public static ClassCodec of(Class type)
+    {
+        return Registry.codecs.get(type);
+    }
+
+    /**
+     * Static utility class; no instances.
+     */
+    private ClassCodecs() {
+    }
+
+    /**
+     * Holder for the registry, so that ServiceLoader isn't consulted
+     * until a codec is actually requested.
+     */
+    private static class Registry
+    {
+        /**
+         * Map of each class to the ClassCodec that handles it.
+         */
+        static final Map<Class,ClassCodec> codecs = load();
+
+        /**
+         * Load the registered ClassCodec implementations with ServiceLoader.
+         * @return immutable Map of each class to the ClassCodec that handles it
+         */
+        private static Map<Class,ClassCodec> load()
+        {
+            Map<Class,ClassCodec> map = new HashMap();
+            // for each ClassCodec registered with ServiceLoader
+            Iterator<ClassCodec> i = ServiceLoader.load(ClassCodec.class).iterator();
+            while(true) {
+                try {
+                    if(i.hasNext() == false) {
+                        break;
+                    }
+                    ClassCodec codec = i.next();
+                    // map the codec to the class that it handles
+                    map.put(codec.getType(), codec);
+                } catch(ServiceConfigurationError e) {
+                    // a broken codec shouldn't stop the others from loading;
+                    // Arya will just use reflection for that class
+                    log.error("Unable to load ClassCodec:", e);
+                }
+            }
+            return ImmutableMap.copyOf(map);
+        }
+    }
+}
@@ -21,9 +21,13 @@ package com.pmeade.arya.gson.deserialize;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.pmeade.arya.Arya;
+import com.pmeade.arya.identity.UuidCodec;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * ArrayFieldDeserializer deserializes JSON arrays into Java arrays. The
@@ -95,6 +99,17 @@ public class ArrayFieldDeserializer implements FieldDeserializer
         Class componentType = objType.getComponentType();
         // instantiate an instance of the array of the component type
         Object array = Array.newInstance(componentType, jsonArray.size());
+        // if this array holds complex objects, ask Arya to fetch them all
+        // at once, before we load them one by one below
+        if(loadRequired && componentType.isArray() == false) {
+            List<UUID> uuids = new ArrayList(jsonArray.size());
+            for(int i=0; i<jsonArray.size(); i++) {
+                if(jsonArray.get(i).isJsonNull() == false) {
+                    uuids.add(arya.parseIdentity(jsonArray.get(i).getAsString()));
+                }
+            }
+            arya.prefetch(uuids, componentType);
+        }
         // for each item in the JsonArray data
         for(int i=0; i<jsonArray.size(); i++)
         {
@@ -120,7 +135,7 @@ public class ArrayFieldDeserializer implements FieldDeserializer
                 {
                     // then, get the UUID identity of the object from the JSON
                     String sUuid = jsonArray.get(i).getAsString();
-                    java.util.UUID uuid = java.util.UUID.fromString(sUuid);
+                    java.util.UUID uuid = arya.parseIdentity(sUuid);
                     // ask Arya to load the object, so it can go in the array
                     value = arya.load(uuid, componentType);
                 }
@@ -151,7 +166,7 @@ public class ArrayFieldDeserializer implements FieldDeserializer
                     else if(componentType.equals(Double.class)) { value = jsonArray.get(i).getAsDouble(); }
                     else if(componentType.equals(Date.class)) { value = new Date(jsonArray.get(i).getAsLong()); }
                     else if(componentType.equals(String.class)) { value = jsonArray.get(i).getAsString(); }
-                    else if(componentType.equals(java.util.UUID.class)) { value = java.util.UUID.fromString(jsonArray.get(i).getAsString()); }
+                    else if(componentType.equals(java.util.UUID.class)) { value = UuidCodec.parse(jsonArray.get(i).getAsString()); }
                     else { throw new UnsupportedOperationException(); }
                 }
             }
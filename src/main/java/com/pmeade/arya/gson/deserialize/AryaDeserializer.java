@@ -18,14 +18,15 @@
 
 package com.pmeade.arya.gson.deserialize;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.gson.*;
 import com.pmeade.arya.Arya;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.lang.reflect.ParameterizedType;
+import com.pmeade.arya.gson.codec.ClassCodec;
+import com.pmeade.arya.gson.codec.ClassCodecs;
+import com.pmeade.arya.reflect.ClassPlan;
+import com.pmeade.arya.reflect.FieldKind;
+import com.pmeade.arya.reflect.FieldPlan;
 import java.lang.reflect.Type;
-import java.util.Date;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.UUID;
 import org.slf4j.Logger;
@@ -42,34 +43,6 @@ public class AryaDeserializer implements JsonDeserializer<Object>
     /** SLF4J Logging Service */
     private static final Logger log = LoggerFactory.getLogger(AryaDeserializer.class);
 
-    /**
-     * Handy map from a Java type to a deserialization object that can
-     * deserialize that type.
-     */
-    private static final Map<Type,FieldDeserializer> typeMap =
-        // Guava's ImmutableMap.Builder provides handy syntatic sugar
-        new ImmutableMap.Builder<Type,FieldDeserializer>()
-            .put(boolean.class,   FieldDeserializer.BOOLEAN)
-            .put(Boolean.class,   FieldDeserializer.BOOLEAN)
-            .put(byte.class,      FieldDeserializer.BYTE)
-            .put(Byte.class,      FieldDeserializer.BYTE)
-            .put(char.class,      FieldDeserializer.CHAR)
-            .put(Character.class, FieldDeserializer.CHAR)
-            .put(short.class,     FieldDeserializer.SHORT)
-            .put(Short.class,     FieldDeserializer.SHORT)
-            .put(int.class,       FieldDeserializer.INT)
-            .put(Integer.class,   FieldDeserializer.INT)
-            .put(long.class,      FieldDeserializer.LONG)
-            .put(Long.class,      FieldDeserializer.LONG)
-            .put(float.class,     FieldDeserializer.FLOAT)
-            .put(Float.class,     FieldDeserializer.FLOAT)
-            .put(double.class,    FieldDeserializer.DOUBLE)
-            .put(Double.class,    FieldDeserializer.DOUBLE)
-            .put(Date.class,      FieldDeserializer.DATE)
-            .put(String.class,    FieldDeserializer.STRING)
-            .put(UUID.class,      FieldDeserializer.UUID)
-            .build();
-
     /**
      * Construct an AryaDeserializer for registration with Gson.
      * @param arya Arya reference to populate during deserialization
@@ -80,6 +53,23 @@ public class AryaDeserializer implements JsonDeserializer<Object>
         this.enumFieldDeserializer = new EnumFieldDeserializer();
         this.objectFieldDeserializer = new ObjectFieldDeserializer(arya);
         this.parameterizedFieldDeserializer = new ParameterizedFieldDeserializer(arya, this);
+        // map each kind of field to the FieldDeserializer that handles it
+        this.kindMap = new EnumMap<FieldKind,FieldDeserializer>(FieldKind.class);
+        kindMap.put(FieldKind.BOOLEAN,       FieldDeserializer.BOOLEAN);
+        kindMap.put(FieldKind.BYTE,          FieldDeserializer.BYTE);
+        kindMap.put(FieldKind.CHAR,          FieldDeserializer.CHAR);
+        kindMap.put(FieldKind.SHORT,         FieldDeserializer.SHORT);
+        kindMap.put(FieldKind.INT,           FieldDeserializer.INT);
+        kindMap.put(FieldKind.LONG,          FieldDeserializer.LONG);
+        kindMap.put(FieldKind.FLOAT,         FieldDeserializer.FLOAT);
+        kindMap.put(FieldKind.DOUBLE,        FieldDeserializer.DOUBLE);
+        kindMap.put(FieldKind.DATE,          FieldDeserializer.DATE);
+        kindMap.put(FieldKind.STRING,        FieldDeserializer.STRING);
+        kindMap.put(FieldKind.UUID,          FieldDeserializer.UUID);
+        kindMap.put(FieldKind.ENUM,          enumFieldDeserializer);
+        kindMap.put(FieldKind.ARRAY,         arrayFieldDeserializer);
+        kindMap.put(FieldKind.PARAMETERIZED, parameterizedFieldDeserializer);
+        kindMap.put(FieldKind.OBJECT,        objectFieldDeserializer);
     }
 
     /**
@@ -111,9 +101,19 @@ public class AryaDeserializer implements JsonDeserializer<Object>
                 log.error("Unable to find class " + typeClassName + ":", e);
             }
         }
-        // create an instance of the class to be deserialized
-        Object o = null;
-        try {
+        // if Arya created the object ahead of time, we fill in its fields;
+        // otherwise, we create an instance of the class to be deserialized
+        Object o = arya.popInstance();
+        if(o != null) {
+            typeClass = o.getClass();
+        }
+        // find out if a ClassCodec was generated for the class
+        ClassCodec codec = ClassCodecs.of(typeClass);
+        // if we have a codec, it can create the instance without reflection
+        if(o == null && codec != null) {
+            o = codec.newInstance();
+        }
+        else if(o == null) try {
             // attempt to instantiate the object
             o = typeClass.newInstance();
         } catch (InstantiationException ex) {
@@ -127,58 +127,30 @@ public class AryaDeserializer implements JsonDeserializer<Object>
         //                deserialized
         // arya.populate() --> tell Arya to add this object to its map
         //                     with the provided UUID identity
-        arya.populate(arya.pop(), o);
-        // while we haven't reached the top of the inheritance hierarchy 
-        while(typeClass != Object.class)
-        {
-            // obtain all of the fields for the current class
-            Field[] fields = typeClass.getDeclaredFields();
-            // for each field of the current class
-            for(Field field : fields) {
-                // skip all fields that are final, static, transient, or volatile
-                if(Modifier.isFinal(field.getModifiers())) continue;
-                if(Modifier.isStatic(field.getModifiers())) continue;
-                if(Modifier.isTransient(field.getModifiers())) continue;
-                if(Modifier.isVolatile(field.getModifiers())) continue;
-                // make sure the field is accessible to our deserializers
-                field.setAccessible(true);
-                // attempt to obtain an appropriate deserialization object
-                // from our type map
-                FieldDeserializer fieldDeserializer = typeMap.get(field.getType());
-                // if the field is a parameterized type; that is, it
-                // is like List<X>, Map<Y,Z>, etc.
-                Type genericType = field.getGenericType();
-                if(genericType instanceof ParameterizedType) {
-                    // then we'll use a ParameterizedFieldDeserializer
-                    fieldDeserializer = parameterizedFieldDeserializer;
-                }
-                // otherwise, if the field is an enumerated type
-                if(field.getType().isEnum()) {
-                    // then we'll use an EnumFieldDeserializer
-                    fieldDeserializer = enumFieldDeserializer;
-                }
-                // otherwise, if the field is an array
-                if(field.getType().isArray()) {
-                    // then we'll use an ArrayFieldDeserializer
-                    fieldDeserializer = arrayFieldDeserializer;
-                }
-                // if after all of this, we still haven't found an applicable
-                // deserializer to deserialize this field
-                if(fieldDeserializer == null) {
-                    // then we'll use the default ObjectFieldDeserializer
-                    fieldDeserializer = objectFieldDeserializer;
-                }
-                // attempt to deserialize from the JSON to the object's field
-                try {
-                    fieldDeserializer.deserialize(jo, o, field);
-                } catch(IllegalAccessException e) {
-                    log.error("Unable to access field '" + field.getName() + "':", e);
-                }
+        UUID uuid = arya.pop();
+        // if we couldn't create the object, there is nothing to map or fill
+        if(o == null) {
+            return null;
+        }
+        arya.populate(uuid, o);
+        // if we have a codec
+        if(codec != null) {
+            // then let the codec deserialize the fields without reflection
+            codec.deserialize(jo, o, this);
+            return o;
+        }
+        // for each field in the plan for the class (the plan has already
+        // walked up the inheritance hierarchy and skipped anything that is
+        // final, static, transient, or volatile)
+        for(FieldPlan fieldPlan : ClassPlan.of(typeClass).getFields()) {
+            // obtain the FieldDeserializer that handles fields of this kind
+            FieldDeserializer fieldDeserializer = kindMap.get(fieldPlan.getKind());
+            // attempt to deserialize from the JSON to the object's field
+            try {
+                fieldDeserializer.deserialize(jo, o, fieldPlan.getField());
+            } catch(IllegalAccessException e) {
+                log.error("Unable to access field '" + fieldPlan.getName() + "':", e);
             }
-            // after we've handled every field in the class, we'll move up
-            // inheritance hierarchy to the superclass, so we can get all
-            // of those fields as well
-            typeClass = typeClass.getSuperclass();
         }
         // return the object to the caller
         return o;
@@ -194,7 +166,50 @@ public class AryaDeserializer implements JsonDeserializer<Object>
      *         directly without further recourse to the Arya object
      */
     public boolean isLoadRequired(Class clazz) {
-        return !typeMap.containsKey(clazz);
+        return !FieldKind.isSimple(clazz);
+    }
+
+    /**
+     * Deserialize a referenced object from the UUID identity in the provided
+     * JSON. This is used by generated ClassCodec objects to handle fields
+     * that refer to complex objects.
+     * @param je JsonElement containing the UUID identity (in String form)
+     *           of the object; may be null
+     * @param type Class of the object to be deserialized
+     * @return the deserialized object, or null if the provided JsonElement
+     *         was null
+     */
+    public Object resolve(JsonElement je, Class type)
+    {
+        // if there is no identity, there is no object
+        if(je == null || je.isJsonNull()) {
+            return null;
+        }
+        // convert the String form into an actual UUID object
+        UUID uuid = arya.parseIdentity(je.getAsString());
+        // use the UUID to request that Arya deserialize the complex object
+        return arya.load(uuid, type);
+    }
+
+    /**
+     * Deserialize a single field of the provided object with reflection.
+     * This is used by generated ClassCodec objects to handle fields (arrays,
+     * collections, maps) that they don't handle themselves.
+     * @param jo the JSON, as wrapped into objects by Gson
+     * @param t the Object in which the field is to be deserialized
+     * @param declaringClass Class that declares the field
+     * @param name name of the field
+     */
+    public void deserializeField(JsonObject jo, Object t, Class declaringClass, String name)
+    {
+        // find the field in the plan of the object's class
+        FieldPlan fieldPlan = ClassPlan.of(t.getClass()).getField(declaringClass, name);
+        try {
+            // attempt to deserialize from the JSON to the object's field
+            kindMap.get(fieldPlan.getKind()).deserialize(jo, t, fieldPlan.getField());
+        } catch(IllegalAccessException e) {
+            log.error("Unable to access field '" + name + "':", e);
+        }
     }
 
     /**
@@ -216,6 +231,12 @@ public class AryaDeserializer implements JsonDeserializer<Object>
      */
     private EnumFieldDeserializer enumFieldDeserializer;
     
+    /**
+     * Map of each FieldKind to the FieldDeserializer that handles fields
+     * of that kind.
+     */
+    private Map<FieldKind,FieldDeserializer> kindMap;
+    
     /**
      * ObjectFieldDeserializer handles the deserialization details of
      * object fields. This deserializer is used by default for any "complex"
@@ -19,6 +19,7 @@
 package com.pmeade.arya.gson.deserialize;
 
 import com.google.gson.JsonObject;
+import com.pmeade.arya.identity.UuidCodec;
 import java.lang.reflect.Field;
 import java.util.Date;
 
@@ -155,7 +156,7 @@ public interface FieldDeserializer
         public void deserialize(JsonObject jo, Object t, Field field) throws IllegalAccessException {
             if(jo.has(field.getName())) {
                 String s = jo.getAsJsonPrimitive(field.getName()).getAsString();
-                java.util.UUID u = java.util.UUID.fromString(s);
+                java.util.UUID u = UuidCodec.parse(s);
                 field.set(t, u);
             }
         }
@@ -54,7 +54,7 @@ public class ObjectFieldDeserializer implements FieldDeserializer
             // obtain the UUID identity of the obejct (in String form)
             String sUuid = jo.getAsJsonPrimitive(field.getName()).getAsString();
             // convert the String form into an actual UUID object
-            java.util.UUID uuid = java.util.UUID.fromString(sUuid);
+            java.util.UUID uuid = arya.parseIdentity(sUuid);
             // use the UUID to request that Arya deserialize the complex object
             Object o = arya.load(uuid, field.getType());
             // set the deserialized object in the provided field on the
@@ -22,6 +22,7 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.pmeade.arya.Arya;
+import com.pmeade.arya.identity.UuidCodec;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
@@ -184,15 +185,20 @@ public class ParameterizedFieldDeserializer implements FieldDeserializer
             Class actualType = (Class) actualTypes[0];
             // if the AryaDeserializer indicates that this is a complex type
             if(aryaDeserializer.isLoadRequired((Class)actualTypes[0])) {
+                // obtain the UUID identity of each object to be deserialized,
+                // and ask Arya to fetch them all at once
+                List<UUID> uuids = toIdentities(ja);
+                arya.prefetch(uuids, actualType);
                 // then for each element in the JSON array
-                for(int i=0; i<ja.size(); i++) {
-                    // obtain the UUID identity of the object to be deserialized
-                    String sUuid = ja.get(i).getAsString();
-                    // convert it to an actual UUID object
-                    java.util.UUID uuid = java.util.UUID.fromString(sUuid);
+                for(UUID uuid : uuids) {
                     // ask Arya to deserialize the object, then add it to
                     // our collection
-                    c.add(arya.load(uuid, (Class)actualTypes[0]));
+                    Object o = arya.load(uuid, (Class)actualTypes[0]);
+                    // a set may hash the object, so it must be complete
+                    if(c instanceof Set) {
+                        arya.complete(o);
+                    }
+                    c.add(o);
                 }
             }
             // otherwise, AryaDeserializer has indicated this is a simple type
@@ -228,7 +234,7 @@ public class ParameterizedFieldDeserializer implements FieldDeserializer
                         c.add(ja.get(i).getAsString());
                     }
                     else if(actualType.equals(UUID.class)) {
-                        c.add(java.util.UUID.fromString(ja.get(i).getAsString()));
+                        c.add(UuidCodec.parse(ja.get(i).getAsString()));
                     }
                     else {
                         throw new UnsupportedOperationException();
@@ -324,6 +330,22 @@ public class ParameterizedFieldDeserializer implements FieldDeserializer
             // determine the actual types of the key and value of the map
             Class keyType = (Class) actualTypes[0];
             Class valueType = (Class) actualTypes[1];
+            // if the keys or values are complex objects, ask Arya to fetch
+            // them all at once
+            if(aryaDeserializer.isLoadRequired(keyType)) {
+                List<UUID> uuids = new ArrayList();
+                for(Entry<String,JsonElement> entry : jo.entrySet()) {
+                    uuids.add(arya.parseIdentity(entry.getKey()));
+                }
+                arya.prefetch(uuids, keyType);
+            }
+            if(aryaDeserializer.isLoadRequired(valueType)) {
+                List<UUID> uuids = new ArrayList();
+                for(Entry<String,JsonElement> entry : jo.entrySet()) {
+                    uuids.add(arya.parseIdentity(entry.getValue().getAsString()));
+                }
+                arya.prefetch(uuids, valueType);
+            }
             // for each entry in the provided JsonObject data
             for(Entry<String,JsonElement> entry : jo.entrySet())
             {
@@ -340,6 +362,20 @@ public class ParameterizedFieldDeserializer implements FieldDeserializer
         return map;
     }
     
+    /**
+     * Convert each element of a JSON array into a UUID identity.
+     * @param ja JSON array of UUID identities (in string form)
+     * @return List of UUID identities, in the same order as the JSON array
+     */
+    private List<UUID> toIdentities(JsonArray ja)
+    {
+        List<UUID> uuids = new ArrayList(ja.size());
+        for(int i=0; i<ja.size(); i++) {
+            uuids.add(arya.parseIdentity(ja.get(i).getAsString()));
+        }
+        return uuids;
+    }
+
     /**
      * Convert a string (from JSON) into an object of the provided type.
      * @param jsonKey string provided from the key side of a JsonObject
@@ -352,9 +388,10 @@ public class ParameterizedFieldDeserializer implements FieldDeserializer
         if(aryaDeserializer.isLoadRequired(actualType)) {
             // then convert the string into a UUID identity that defines the
             // object to be deserialized
-            java.util.UUID uuid = java.util.UUID.fromString(jsonKey);
-            // ask Arya to deserialize the identified object and return it
-            return arya.load(uuid, actualType);
+            java.util.UUID uuid = arya.parseIdentity(jsonKey);
+            // ask Arya to deserialize the identified object and return it;
+            // the map may hash the key, so it must be complete
+            return arya.complete(arya.load(uuid, actualType));
         }
         else {
             // TODO: Refactor this huge if-else block into something
@@ -380,7 +417,7 @@ public class ParameterizedFieldDeserializer implements FieldDeserializer
             else if(actualType.equals(Double.class)) { return Double.valueOf(jsonKey); }
             else if(actualType.equals(Date.class)) { return new Date(Long.valueOf(jsonKey)); }
             else if(actualType.equals(String.class)) { return jsonKey; }
-            else if(actualType.equals(UUID.class)) { return java.util.UUID.fromString(jsonKey); }
+            else if(actualType.equals(UUID.class)) { return UuidCodec.parse(jsonKey); }
         }
         // we don't know how to convert to an object of the requested type...
         throw new UnsupportedOperationException();
@@ -395,7 +432,7 @@ public class ParameterizedFieldDeserializer implements FieldDeserializer
             String sUuid = jsonElement.getAsString();
             // then convert the string into a UUID identity that defines the
             // object to be deserialized
-            java.util.UUID uuid = java.util.UUID.fromString(sUuid);
+            java.util.UUID uuid = arya.parseIdentity(sUuid);
             // ask Arya to deserialize the identified object and return it
             return arya.load(uuid, actualType);
         } else {
@@ -424,7 +461,7 @@ public class ParameterizedFieldDeserializer implements FieldDeserializer
             else if(actualType.equals(Double.class)) { return Double.valueOf(strJsonElement); }
             else if(actualType.equals(Date.class)) { return new Date(Long.valueOf(strJsonElement)); }
             else if(actualType.equals(String.class)) { return strJsonElement; }
-            else if(actualType.equals(UUID.class)) { return java.util.UUID.fromString(strJsonElement); }
+            else if(actualType.equals(UUID.class)) { return UuidCodec.parse(strJsonElement); }
         }
         // we don't know how to convert to an object of the requested type...
         throw new UnsupportedOperationException();
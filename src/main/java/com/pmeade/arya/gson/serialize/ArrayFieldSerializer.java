@@ -22,6 +22,7 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.pmeade.arya.Arya;
+import com.pmeade.arya.identity.UuidCodec;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.util.Date;
@@ -119,7 +120,7 @@ public class ArrayFieldSerializer implements FieldSerializer
                     // obtain the UUID identity of the recently saved object
                     UUID id = arya.getIdentity(Array.get(array, i));
                     // add the UUID (in string form) to the JSON array
-                    jsonArray.add(new JsonPrimitive(id.toString()));
+                    jsonArray.add(new JsonPrimitive(arya.formatIdentity(id)));
                 } else {
                     // TODO: Refactor this huge if-else block into something
                     //       a little nicer; perhaps FieldSerializer could
@@ -157,7 +158,7 @@ public class ArrayFieldSerializer implements FieldSerializer
                     else if(componentType.equals(UUID.class)) {
                         UUID[] u = (UUID[]) array;
                         if(u[i] != null) {
-                            jsonArray.add(new JsonPrimitive(u[i].toString()));
+                            jsonArray.add(new JsonPrimitive(UuidCodec.format(u[i])));
                         }
                     }
                 }
@@ -18,18 +18,18 @@
 
 package com.pmeade.arya.gson.serialize;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 import com.pmeade.arya.Arya;
-import com.pmeade.arya.annotation.Id;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.lang.reflect.ParameterizedType;
+import com.pmeade.arya.gson.codec.ClassCodec;
+import com.pmeade.arya.gson.codec.ClassCodecs;
+import com.pmeade.arya.reflect.ClassPlan;
+import com.pmeade.arya.reflect.FieldKind;
+import com.pmeade.arya.reflect.FieldPlan;
 import java.lang.reflect.Type;
-import java.util.Date;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.UUID;
 import org.slf4j.Logger;
@@ -46,33 +46,6 @@ public class AryaSerializer implements JsonSerializer<Object>
     /** SLF4J Logging Service */
     private static final Logger log = LoggerFactory.getLogger(AryaSerializer.class);
 
-    /**
-     * Handy map of types to instances of FieldSerializer to handle
-     * serialization of that type.
-     */
-    private static final Map<Type,FieldSerializer> typeMap =
-        new ImmutableMap.Builder<Type,FieldSerializer>()
-            .put(boolean.class,   FieldSerializer.BOOLEAN)
-            .put(Boolean.class,   FieldSerializer.BOOLEAN)
-            .put(byte.class,      FieldSerializer.BYTE)
-            .put(Byte.class,      FieldSerializer.BYTE)
-            .put(char.class,      FieldSerializer.CHAR)
-            .put(Character.class, FieldSerializer.CHAR)
-            .put(short.class,     FieldSerializer.SHORT)
-            .put(Short.class,     FieldSerializer.SHORT)
-            .put(int.class,       FieldSerializer.INT)
-            .put(Integer.class,   FieldSerializer.INT)
-            .put(long.class,      FieldSerializer.LONG)
-            .put(Long.class,      FieldSerializer.LONG)
-            .put(float.class,     FieldSerializer.FLOAT)
-            .put(Float.class,     FieldSerializer.FLOAT)
-            .put(double.class,    FieldSerializer.DOUBLE)
-            .put(Double.class,    FieldSerializer.DOUBLE)
-            .put(Date.class,      FieldSerializer.DATE)
-            .put(String.class,    FieldSerializer.STRING)
-            .put(UUID.class,      FieldSerializer.UUID)
-            .build();
-    
     /**
      * Construct an AryaSerializer.
      * @param arya Arya reference to populate with UUID identities as provided
@@ -84,6 +57,23 @@ public class AryaSerializer implements JsonSerializer<Object>
         this.enumFieldSerializer = new EnumFieldSerializer();
         this.objectFieldSerializer = new ObjectFieldSerializer(arya);
         this.parameterizedFieldSerializer = new ParameterizedFieldSerializer(arya, this);
+        // map each kind of field to the FieldSerializer that handles it
+        this.kindMap = new EnumMap<FieldKind,FieldSerializer>(FieldKind.class);
+        kindMap.put(FieldKind.BOOLEAN,       FieldSerializer.BOOLEAN);
+        kindMap.put(FieldKind.BYTE,          FieldSerializer.BYTE);
+        kindMap.put(FieldKind.CHAR,          FieldSerializer.CHAR);
+        kindMap.put(FieldKind.SHORT,         FieldSerializer.SHORT);
+        kindMap.put(FieldKind.INT,           FieldSerializer.INT);
+        kindMap.put(FieldKind.LONG,          FieldSerializer.LONG);
+        kindMap.put(FieldKind.FLOAT,         FieldSerializer.FLOAT);
+        kindMap.put(FieldKind.DOUBLE,        FieldSerializer.DOUBLE);
+        kindMap.put(FieldKind.DATE,          FieldSerializer.DATE);
+        kindMap.put(FieldKind.STRING,        FieldSerializer.STRING);
+        kindMap.put(FieldKind.UUID,          FieldSerializer.UUID);
+        kindMap.put(FieldKind.ENUM,          enumFieldSerializer);
+        kindMap.put(FieldKind.ARRAY,         arrayFieldSerializer);
+        kindMap.put(FieldKind.PARAMETERIZED, parameterizedFieldSerializer);
+        kindMap.put(FieldKind.OBJECT,        objectFieldSerializer);
     }
 
     /**
@@ -96,7 +86,7 @@ public class AryaSerializer implements JsonSerializer<Object>
      *         simple and can be directly represented in JSON
      */
     public boolean isSaveRequired(Class clazz) {
-        return !typeMap.containsKey(clazz);
+        return !FieldKind.isSimple(clazz);
     }
     
     /**
@@ -111,14 +101,12 @@ public class AryaSerializer implements JsonSerializer<Object>
     @Override // implements JsonSerializer<Object>
     public JsonElement serialize(Object t, Type type, JsonSerializationContext jsc)
     {
+        // obtain the (memoized) plan for the actual type of the object
+        ClassPlan plan = ClassPlan.of(t.getClass());
         // find the UUID identity of this object; this would be a UUID field
-        // marked with the @Id annotation, if it exists on the provided object
-        UUID uuid = findUuid(t);
-        // if we couldn't locate a UUID identity for the provided object
-        if(uuid == null) {
-            // generate a random UUID identity for the provided object
-            uuid = UUID.randomUUID();
-        }
+        // marked with the @Id annotation, if it exists on the provided object,
+        // otherwise Arya will find or generate one
+        UUID uuid = arya.assignIdentity(t);
         // tell Arya to populate its serialization map with the UUID identity
         // of the object and the object itself
         arya.populate(uuid, t);
@@ -130,122 +118,72 @@ public class AryaSerializer implements JsonSerializer<Object>
         // deserialization; we typically need this when the object has a
         // field of the supertype but contains a reference to a subtype
         jo.addProperty(Arya.TYPE, t.getClass().getName());
-        // start with the actual type of the provided object
-        Class tClazz = t.getClass();
-        // while we haven't reached the top the inheritance hierarchy
-        while(tClazz != Object.class)
-        {
-            // obtain the fields on this class
-            Field[] fields = tClazz.getDeclaredFields();
-            // for each field in the class
-            for(Field field : fields) {
-                // skip anything that is final, static, transient, or volatile
-                if(Modifier.isFinal(field.getModifiers())) continue;
-                if(Modifier.isStatic(field.getModifiers())) continue;
-                if(Modifier.isTransient(field.getModifiers())) continue;
-                if(Modifier.isVolatile(field.getModifiers())) continue;
-                // ensure that we can access the data contained in the field
-                field.setAccessible(true);
-                // request a FieldSerializer object that understands how to
-                // serialize fields of the provided type
-                FieldSerializer fieldSerializer = typeMap.get(field.getType());
-                // if the type is a parameterized type (i.e.: Collection or Map)
-                Type genericType = field.getGenericType();
-                if(genericType instanceof ParameterizedType) {
-                    // use a ParameterizedFieldSerializer to handle serialization
-                    fieldSerializer = parameterizedFieldSerializer;
-                }
-                // if the type is an enumerated type
-                if(field.getType().isEnum()) {
-                    // use a EnumFieldSerializer to handle serialization
-                    fieldSerializer = enumFieldSerializer;
-                }
-                // if the type is an array
-                if(field.getType().isArray()) {
-                    // use an ArrayFieldSerializer to handle serialization
-                    fieldSerializer = arrayFieldSerializer;
-                }
-                // if we still haven't found an appropriate FieldSerializer
-                if(fieldSerializer == null) {
-                    // default to the ObjectFieldSerializer to handle
-                    // serialization of complex types
-                    fieldSerializer = objectFieldSerializer;
-                }
-                try {
-                    // attempt to serialize the field to JSON
-                    fieldSerializer.serialize(jo, t, field);
-                } catch(IllegalAccessException e) {
-                    // if we failed to serialize, log the error
-                    log.error("Unable to access field '" + field.getName() + "':", e);
-                }
+        // if a ClassCodec was generated for this class
+        ClassCodec codec = ClassCodecs.of(t.getClass());
+        if(codec != null) {
+            // then let the codec serialize the fields without reflection
+            codec.serialize(jo, t, this);
+            return jo;
+        }
+        // for each field in the plan (the plan has already walked up the
+        // inheritance hierarchy and skipped anything that is final, static,
+        // transient, or volatile)
+        for(FieldPlan fieldPlan : plan.getFields()) {
+            // request the FieldSerializer object that understands how to
+            // serialize fields of this kind
+            FieldSerializer fieldSerializer = kindMap.get(fieldPlan.getKind());
+            try {
+                // attempt to serialize the field to JSON
+                fieldSerializer.serialize(jo, t, fieldPlan.getField());
+            } catch(IllegalAccessException e) {
+                // if we failed to serialize, log the error
+                log.error("Unable to access field '" + fieldPlan.getName() + "':", e);
             }
-            // after handling all the fields on the class, we move up the
-            // inheritance hierarchy and handle the fields of the superclass
-            tClazz = tClazz.getSuperclass();
         }
         // return the JsonObject that contains the data serialized to JSON
         return jo;
     }
 
     /**
-     * Find the UUID identity of the provided object.
-     * @param t Object for which to find the UUID identity
-     * @return UUID identity of the provided object, if the object has a UUID
-     *         field with the @Id annotation that contains a non-null value;
-     *         otherwise this method returns null
+     * Serialize a referenced object, and obtain its UUID identity in the
+     * String form used by the JSON. This is used by generated ClassCodec
+     * objects to handle fields that refer to complex objects.
+     * @param o Object to be serialized
+     * @return UUID identity of the object as a String, or null if the
+     *         provided object was null
      */
-    private UUID findUuid(Object t)
+    public String reference(Object o)
     {
-        // reference to a UUID, we'll populate it if we happen to find one
-        UUID uuid = null;
-        // start with the actual type of the provided object
-        Class tClazz = t.getClass();
-        // while we haven't reached the top of the inheritance hierarchy
-        while(tClazz != Object.class)
-        {
-            // obtain the fields in this class
-            Field[] fields = tClazz.getDeclaredFields();
-            // for each field in the class
-            for(Field field : fields) {
-                // ensure we can access the data of the field
-                field.setAccessible(true);
-                // see if the field has an @Id annotation
-                Id id = field.getAnnotation(Id.class);
-                // if it does have an @Id annotation
-                if(id != null) {
-                    // and this field has the type UUID
-                    if(field.getType().equals(UUID.class)) {
-                        // and if we haven't previously found a UUID identity
-                        if(uuid == null) {
-                            try {
-                                // obtain the UUID identity of the object,
-                                // if it has one in the field
-                                uuid = (UUID) field.get(t);
-                            } catch(IllegalAccessException e) {
-                                // if we weren't able to access the field,
-                                // then log the error
-                                log.error("Unable to access field marked with @Id:", e);
-                            }
-                        }
-                        // otherwise, if we have previously found a UUID
-                        // identity for this object
-                        else {
-                            // log the error
-                            log.error("Multiple fields marked with @Id");
-                            // return null; there is no way to tell which UUID
-                            // identity we should be using or not
-                            return null;
-                        }
-                    }
-                }
-            }
-            // after handling all the fields in this class, we move up a level
-            // in the inheritance hierarchy and work on the superclass
-            tClazz = tClazz.getSuperclass();
+        // a null reference has no identity
+        if(o == null) {
+            return null;
+        }
+        // ask Arya to serialize the object for us
+        arya.save(o);
+        // obtain the UUID identity of the object we just serialized
+        return arya.formatIdentity(arya.getIdentity(o));
+    }
+
+    /**
+     * Serialize a single field of the provided object with reflection. This
+     * is used by generated ClassCodec objects to handle fields (arrays,
+     * collections, maps) that they don't handle themselves.
+     * @param jo JsonObject into which the JSON data should be populated
+     * @param t Object that contains the field to be serialized
+     * @param declaringClass Class that declares the field
+     * @param name name of the field
+     */
+    public void serializeField(JsonObject jo, Object t, Class declaringClass, String name)
+    {
+        // find the field in the plan of the object's class
+        FieldPlan fieldPlan = ClassPlan.of(t.getClass()).getField(declaringClass, name);
+        try {
+            // attempt to serialize the field to JSON
+            kindMap.get(fieldPlan.getKind()).serialize(jo, t, fieldPlan.getField());
+        } catch(IllegalAccessException e) {
+            // if we failed to serialize, log the error
+            log.error("Unable to access field '" + name + "':", e);
         }
-        // if we found one (and only one) UUID identity, return it, otherwise
-        // return the null value that we were unable to populate
-        return uuid;
     }
 
     /**
@@ -265,6 +203,12 @@ public class AryaSerializer implements JsonSerializer<Object>
      */
     private EnumFieldSerializer enumFieldSerializer;
     
+    /**
+     * Map of each FieldKind to the FieldSerializer that handles fields of
+     * that kind.
+     */
+    private Map<FieldKind,FieldSerializer> kindMap;
+    
     /**
      * ObjectFieldSerializer is used to serialize reference fields. If we
      * aren't able to represent the field directly in JSON, and it isn't an
@@ -19,6 +19,7 @@
 package com.pmeade.arya.gson.serialize;
 
 import com.google.gson.JsonObject;
+import com.pmeade.arya.identity.UuidCodec;
 import java.lang.reflect.Field;
 import java.util.Date;
 
@@ -137,7 +138,7 @@ public interface FieldSerializer
         public void serialize(JsonObject jo, Object t, Field field) throws IllegalAccessException {
             java.util.UUID u = (java.util.UUID) field.get(t);
             if(u != null) {
-                jo.addProperty(field.getName(), u.toString());
+                jo.addProperty(field.getName(), UuidCodec.format(u));
             }
         }
     };
@@ -60,7 +60,7 @@ public class ObjectFieldSerializer implements FieldSerializer
         // an appropriate UUID, or Arya generated a random UUID identity)
         UUID uuid = arya.getIdentity(o);
         // add the UUID identity (in string form) to the JsonObject
-        jo.addProperty(field.getName(), uuid.toString());
+        jo.addProperty(field.getName(), arya.formatIdentity(uuid));
     }
 
     /**
@@ -23,6 +23,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.pmeade.arya.Arya;
+import com.pmeade.arya.identity.UuidCodec;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.util.*;
@@ -136,7 +137,7 @@ public class ParameterizedFieldSerializer implements FieldSerializer
                 // obtain the UUID identity of the saved object
                 UUID id = arya.getIdentity(o);
                 // convert the UUID to JSON and populate the JsonArray
-                jsonArray.add(new JsonPrimitive(id.toString()));
+                jsonArray.add(new JsonPrimitive(arya.formatIdentity(id)));
             }
             // otherwise, the raw type is a simple object that can be directly
             // represented in JSON
@@ -180,7 +181,7 @@ public class ParameterizedFieldSerializer implements FieldSerializer
                 else if(componentType.equals(UUID.class)) {
                     UUID u = (UUID) o;
                     if(u != null) {
-                        jsonArray.add(new JsonPrimitive(u.toString()));
+                        jsonArray.add(new JsonPrimitive(UuidCodec.format(u)));
                     }
                 }
             }
@@ -228,7 +229,7 @@ public class ParameterizedFieldSerializer implements FieldSerializer
             // obtain the UUID identity of the object
             UUID id = arya.getIdentity(o);
             // return the UUID (in String form) as the JSON object key
-            return id.toString();
+            return arya.formatIdentity(id);
         }
         // otherwise, if this is a simple object that can be represented
         // directly in JSON format
@@ -258,7 +259,7 @@ public class ParameterizedFieldSerializer implements FieldSerializer
             else if(componentType.equals(Double.class)) { return String.valueOf((Double)o); }
             else if(componentType.equals(Date.class)) { return String.valueOf(((Date)o).getTime()); }
             else if(componentType.equals(String.class)) { return (String)o; }
-            else if(componentType.equals(UUID.class)) { return ((UUID)o).toString(); }
+            else if(componentType.equals(UUID.class)) { return UuidCodec.format((UUID)o); }
         }
         // we weren't able to represent the provided object as a JSON object key
         throw new UnsupportedOperationException();
@@ -300,7 +301,7 @@ public class ParameterizedFieldSerializer implements FieldSerializer
             // obtain the UUID identity of the saved object
             UUID id = arya.getIdentity(o);
             // return the UUID wrapped in a JsonPrimitive as the map value
-            return new JsonPrimitive(id.toString());
+            return new JsonPrimitive(arya.formatIdentity(id));
         } 
         // otherwise, the type is a simple type that can be represented
         // directly in the JSON
@@ -331,7 +332,7 @@ public class ParameterizedFieldSerializer implements FieldSerializer
             else if(componentType.equals(Double.class)) { return new JsonPrimitive((Double)o); }
             else if(componentType.equals(Date.class)) { return new JsonPrimitive(((Date)o).getTime()); }
             else if(componentType.equals(String.class)) { return new JsonPrimitive((String)o); }
-            else if(componentType.equals(UUID.class)) { return new JsonPrimitive(((UUID)o).toString()); }
+            else if(componentType.equals(UUID.class)) { return new JsonPrimitive(UuidCodec.format((UUID)o)); }
         }
         // we weren't able to represent the provided object as a JsonElement
         throw new UnsupportedOperationException();
@@ -0,0 +1,213 @@
+/*
+ * ArrayFieldStreamer.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.gson.stream;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.pmeade.arya.Arya;
+import com.pmeade.arya.reflect.FieldKind;
+import com.pmeade.arya.reflect.FieldPlan;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * ArrayFieldStreamer streams array-typed fields as JSON arrays. Arrays of
+ * primitives are written element by element without boxing; arrays of
+ * complex objects are written as arrays of UUID identities. This streamer
+ * also handles multi-dimensional arrays like int[][][].
+ * @author pmeade
+ */
+public class ArrayFieldStreamer implements FieldStreamer
+{
+    /**
+     * Construct an ArrayFieldStreamer.
+     * @param arya Arya reference for further (de)serialization (if needed)
+     */
+    public ArrayFieldStreamer(Arya arya) {
+        this.arya = arya;
+    }
+
+    /**
+     * Write the provided array field of the provided object as a JSON array.
+     * @param out JsonWriter to which the field should be written
+     * @param t Object in which the array exists
+     * @param fieldPlan FieldPlan of the array field
+     * @throws IOException if the JsonWriter is unable to write
+     */
+    public void write(JsonWriter out, Object t, FieldPlan fieldPlan) throws IOException
+    {
+        // obtain the Java array from the Java object
+        Object array = fieldPlan.getAccessor().get(t);
+        // a null array is left out of the JSON
+        if(array == null) {
+            return;
+        }
+        // write the name of the field, then the contents of the array
+        out.name(fieldPlan.getName());
+        writeArray(out, array);
+    }
+
+    /**
+     * Read a JSON array into the provided array field of the provided object.
+     * @param in JsonReader positioned at the JSON array
+     * @param t Object to be populated with the array content
+     * @param fieldPlan FieldPlan of the array field
+     * @throws IOException if the JsonReader is unable to read
+     */
+    public void read(JsonReader in, Object t, FieldPlan fieldPlan) throws IOException
+    {
+        // determine the base component type of the array
+        // example: int[][][] -> int[][] -> int[] -> int
+        Class baseType = fieldPlan.getField().getType();
+        while(baseType.isArray()) {
+            baseType = baseType.getComponentType();
+        }
+        // determine if we need to load whatever the array contains
+        // or if we can just read the values directly
+        boolean loadRequired = (FieldKind.isSimple(baseType) == false);
+        // read the array and populate the field on the provided object
+        Object array = readArray(in, fieldPlan.getField().getType(), loadRequired);
+        if(array != null) {
+            fieldPlan.getAccessor().set(t, array);
+        }
+    }
+
+    /**
+     * Write the contents of the provided Java array as a JSON array.
+     * @param out JsonWriter to which the array should be written
+     * @param array Java array containing the data to be written
+     * @throws IOException if the JsonWriter is unable to write
+     */
+    private void writeArray(JsonWriter out, Object array) throws IOException
+    {
+        out.beginArray();
+        // arrays of primitives are written directly, without boxing
+        if(array instanceof int[]) { for(int i : (int[]) array) { out.value(i); } }
+        else if(array instanceof long[]) { for(long l : (long[]) array) { out.value(l); } }
+        else if(array instanceof double[]) { for(double d : (double[]) array) { out.value(d); } }
+        else if(array instanceof boolean[]) { for(boolean b : (boolean[]) array) { out.value(b); } }
+        else if(array instanceof byte[]) { for(byte b : (byte[]) array) { out.value(b); } }
+        else if(array instanceof short[]) { for(short s : (short[]) array) { out.value(s); } }
+        else if(array instanceof char[]) { for(char c : (char[]) array) { out.value(String.valueOf(c)); } }
+        else if(array instanceof float[]) { for(float f : (float[]) array) { out.value(Float.valueOf(f)); } }
+        // otherwise, this is an array of references
+        else {
+            Object[] objects = (Object[]) array;
+            Class componentType = array.getClass().getComponentType();
+            boolean simple = FieldKind.isSimple(componentType);
+            // for each element of the Java array
+            for(Object o : objects) {
+                // if this element is an inner array, write it recursively
+                if(componentType.isArray()) {
+                    if(o == null) { out.nullValue(); } else { writeArray(out, o); }
+                }
+                // if this is a simple type, write it directly; like the
+                // ArrayFieldSerializer, we leave null simple values out
+                else if(simple) {
+                    if(o != null) { JsonValues.writeSimple(out, o); }
+                }
+                // otherwise, ask Arya to save the object, and write the
+                // UUID identity (in string form) in its place
+                else if(o == null) {
+                    out.nullValue();
+                }
+                else {
+                    arya.save(o);
+                    UUID id = arya.getIdentity(o);
+                    out.value(arya.formatIdentity(id));
+                }
+            }
+        }
+        out.endArray();
+    }
+
+    /**
+     * Read a JSON array into a Java array of the provided type.
+     * @param in JsonReader positioned at the JSON array
+     * @param arrayType the type of the array to be read
+     * @param loadRequired true, if the base component type is a complex object
+     *                     that requires its own deserialization; false, if
+     *                     the base type is simple and can be read directly
+     * @return Java array containing the objects read from the JSON, or null
+     *         if the JSON contained null
+     * @throws IOException if the JsonReader is unable to read
+     */
+    private Object readArray(JsonReader in, Class arrayType, boolean loadRequired) throws IOException
+    {
+        // a JSON null is a null array
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        // get the component type of the array (this is an array OF what?)
+        Class componentType = arrayType.getComponentType();
+        // collect the values as they arrive; we don't know the length
+        // of the array until we reach the end of it
+        List values = new ArrayList();
+        in.beginArray();
+        while(in.hasNext()) {
+            // if the component type is ALSO an array, recursively read
+            // the inner array
+            if(componentType.isArray()) {
+                values.add(readArray(in, componentType, loadRequired));
+            }
+            // if the component type is a complex object, read its UUID
+            // identity; we'll ask Arya to load it below
+            else if(loadRequired) {
+                if(in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    values.add(null);
+                } else {
+                    values.add(arya.parseIdentity(in.nextString()));
+                }
+            }
+            // otherwise, this is a simple type that can be read directly
+            else {
+                values.add(JsonValues.readSimple(in, componentType));
+            }
+        }
+        in.endArray();
+        // if we read UUID identities, ask Arya to fetch the objects all at
+        // once, and then load them one by one
+        if(loadRequired && componentType.isArray() == false) {
+            List<UUID> uuids = new ArrayList(values);
+            arya.prefetch(uuids, componentType);
+            for(int i=0; i<uuids.size(); i++) {
+                if(uuids.get(i) != null) {
+                    values.set(i, arya.load(uuids.get(i), componentType));
+                }
+            }
+        }
+        // copy the values into a Java array of the appropriate type
+        Object array = Array.newInstance(componentType, values.size());
+        for(int i=0; i<values.size(); i++) {
+            Array.set(array, i, values.get(i));
+        }
+        return array;
+    }
+
+    /**
+     * Arya reference for further (de)serialization (if needed).
+     */
+    private Arya arya;
+}
@@ -0,0 +1,200 @@
+/*
+ * AryaTypeAdapter.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.gson.stream;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.pmeade.arya.Arya;
+import com.pmeade.arya.gson.codec.ClassCodec;
+import com.pmeade.arya.gson.codec.ClassCodecs;
+import java.io.IOException;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AryaTypeAdapter (de)serializes a single Arya record with Gson's streaming
+ * API. It produces the same JSON as AryaSerializer: the Java type of the
+ * object under Arya.TYPE, followed by the fields of the object.
+ * 
+ * When reading, the Java type must be the first entry in the JSON object
+ * (as it always is in JSON written by Arya), so that the object can be
+ * created before the rest of its fields arrive. If the JSON doesn't start
+ * with the Java type, the requested type is used instead.
+ * 
+ * A generated ClassCodec is only used to create instances. Its field code
+ * works on Gson's tree model, so the fields are always streamed through
+ * the method handle accessors of the StreamPlan.
+ * @author pmeade
+ */
+public class AryaTypeAdapter extends TypeAdapter<Object>
+{
+    /** SLF4J Logging Service */
+    private static final Logger log = LoggerFactory.getLogger(AryaTypeAdapter.class);
+
+    /**
+     * Construct an AryaTypeAdapter.
+     * @param arya Arya reference to populate with UUID identities
+     * @param factory AryaTypeAdapterFactory that provides the StreamPlan
+     *                for each class
+     * @param type Class requested from Gson; this is the type that will be
+     *             deserialized if the JSON doesn't specify one
+     */
+    AryaTypeAdapter(Arya arya, AryaTypeAdapterFactory factory, Class type) {
+        this.arya = arya;
+        this.factory = factory;
+        this.type = type;
+    }
+
+    /**
+     * Gson streaming serialization method. This method is called when Gson
+     * wants to write a Java Object as JSON.
+     * @param out JsonWriter to which the JSON should be written
+     * @param t Java Object to be written as JSON
+     * @throws IOException if the JsonWriter is unable to write
+     */
+    @Override
+    public void write(JsonWriter out, Object t) throws IOException
+    {
+        // a null object is written as a JSON null
+        if(t == null) {
+            out.nullValue();
+            return;
+        }
+        // find the UUID identity of this object, or generate a new one
+        UUID uuid = arya.assignIdentity(t);
+        // tell Arya to populate its serialization map with the UUID identity
+        // of the object and the object itself
+        arya.populate(uuid, t);
+        // write the Java type of the object, followed by each of its fields
+        StreamPlan streamPlan = factory.getStreamPlan(t.getClass());
+        out.beginObject();
+        out.name(Arya.TYPE).value(t.getClass().getName());
+        for(int i=0; i<streamPlan.fields.length; i++) {
+            streamPlan.streamers[i].write(out, t, streamPlan.fields[i]);
+        }
+        out.endObject();
+    }
+
+    /**
+     * Gson streaming deserialization method. This method is called when Gson
+     * wants to read a Java Object from JSON.
+     * @param in JsonReader positioned at the JSON object to be read
+     * @return a Java object that was read from the JSON
+     * @throws IOException if the JsonReader is unable to read
+     */
+    @Override
+    public Object read(JsonReader in) throws IOException
+    {
+        // a JSON null is a null object
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        in.beginObject();
+        // set the default type for deserialization
+        Class typeClass = type;
+        // if the JSON starts with a type encoded by Arya, use that type
+        String name = in.hasNext() ? in.nextName() : null;
+        if(Arya.TYPE.equals(name)) {
+            String typeClassName = in.nextString();
+            try {
+                typeClass = Class.forName(typeClassName);
+            } catch(ClassNotFoundException e) {
+                // if we can't find that Class ... oops
+                log.error("Unable to find class " + typeClassName + ":", e);
+            }
+            name = in.hasNext() ? in.nextName() : null;
+        }
+        // if Arya created the object ahead of time, we fill in its fields;
+        // otherwise, create an instance of the class to be deserialized,
+        // and tell Arya to add it to its map with the UUID identity saved
+        // by load()
+        Object o = arya.popInstance();
+        if(o != null) {
+            typeClass = o.getClass();
+        } else {
+            o = newInstance(typeClass);
+        }
+        // if we couldn't create the object, leave it out of the map; its
+        // fields are skipped below
+        UUID uuid = arya.pop();
+        if(o != null) {
+            arya.populate(uuid, o);
+        }
+        // read each field as it arrives
+        StreamPlan streamPlan = (o != null) ? factory.getStreamPlan(typeClass) : null;
+        while(name != null) {
+            Integer i = (streamPlan != null) ? streamPlan.index.get(name) : null;
+            // if this isn't a field we know, skip over it
+            if(i == null) {
+                in.skipValue();
+            } else {
+                streamPlan.streamers[i].read(in, o, streamPlan.fields[i]);
+            }
+            name = in.hasNext() ? in.nextName() : null;
+        }
+        in.endObject();
+        // return the object to the caller
+        return o;
+    }
+
+    /**
+     * Create an instance of the provided class.
+     * @param typeClass Class to be instantiated
+     * @return new instance of the class, or null if it can't be created
+     */
+    private Object newInstance(Class typeClass)
+    {
+        // if we have a codec, it can create the instance without reflection
+        ClassCodec codec = ClassCodecs.of(typeClass);
+        if(codec != null) {
+            return codec.newInstance();
+        }
+        try {
+            // attempt to instantiate the object
+            return typeClass.newInstance();
+        } catch(InstantiationException e) {
+            // if it doesn't have a no-arg constructor ... oops
+            log.error("Unable to instantiate type " + typeClass + ":", e);
+        } catch(IllegalAccessException e) {
+            // if the no-arg constructor isn't accessible
+            log.error("Unable to instantiate type " + typeClass + ":", e);
+        }
+        return null;
+    }
+
+    /**
+     * Arya reference. We use this to inform Arya of the objects that are
+     * being (de)serialized by this AryaTypeAdapter.
+     */
+    private Arya arya;
+
+    /**
+     * AryaTypeAdapterFactory that provides the StreamPlan for each class.
+     */
+    private AryaTypeAdapterFactory factory;
+
+    /**
+     * Class requested from Gson.
+     */
+    private Class type;
+}
@@ -0,0 +1,115 @@
+/*
+ * AryaTypeAdapterFactory.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.gson.stream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.pmeade.arya.Arya;
+import com.pmeade.arya.reflect.ClassPlan;
+import com.pmeade.arya.reflect.FieldKind;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * AryaTypeAdapterFactory is the streaming alternative to registering
+ * AryaSerializer and AryaDeserializer. It provides an AryaTypeAdapter for
+ * every type (except Gson's own JsonElement types), which writes each field
+ * straight to Gson's JsonWriter and sets each field as its tokens arrive
+ * from Gson's JsonReader. No JsonObject tree is built for the record.
+ * @author pmeade
+ */
+public class AryaTypeAdapterFactory implements TypeAdapterFactory
+{
+    /**
+     * Construct an AryaTypeAdapterFactory.
+     * @param arya Arya reference to populate with UUID identities as Java
+     *             objects are (de)serialized
+     */
+    public AryaTypeAdapterFactory(Arya arya)
+    {
+        this.arya = arya;
+        // map each kind of field to the FieldStreamer that handles it
+        this.kindMap = new EnumMap<FieldKind,FieldStreamer>(FieldKind.class);
+        kindMap.put(FieldKind.BOOLEAN,       FieldStreamer.BOOLEAN);
+        kindMap.put(FieldKind.BYTE,          FieldStreamer.BYTE);
+        kindMap.put(FieldKind.CHAR,          FieldStreamer.CHAR);
+        kindMap.put(FieldKind.SHORT,         FieldStreamer.SHORT);
+        kindMap.put(FieldKind.INT,           FieldStreamer.INT);
+        kindMap.put(FieldKind.LONG,          FieldStreamer.LONG);
+        kindMap.put(FieldKind.FLOAT,         FieldStreamer.FLOAT);
+        kindMap.put(FieldKind.DOUBLE,        FieldStreamer.DOUBLE);
+        kindMap.put(FieldKind.DATE,          FieldStreamer.SIMPLE);
+        kindMap.put(FieldKind.STRING,        FieldStreamer.SIMPLE);
+        kindMap.put(FieldKind.UUID,          FieldStreamer.SIMPLE);
+        kindMap.put(FieldKind.ENUM,          new EnumFieldStreamer());
+        kindMap.put(FieldKind.ARRAY,         new ArrayFieldStreamer(arya));
+        kindMap.put(FieldKind.PARAMETERIZED, new ParameterizedFieldStreamer(arya));
+        kindMap.put(FieldKind.OBJECT,        new ObjectFieldStreamer(arya));
+    }
+
+    @Override // implements TypeAdapterFactory
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken)
+    {
+        // leave Gson's own tree model to Gson
+        Class rawType = typeToken.getRawType();
+        if(JsonElement.class.isAssignableFrom(rawType)) {
+            return null;
+        }
+        // everything else is (de)serialized by Arya
+        return (TypeAdapter<T>) new AryaTypeAdapter(arya, this, rawType);
+    }
+
+    /**
+     * Obtain the StreamPlan for the provided class. StreamPlan objects are
+     * resolved once per class and remembered.
+     * @param type Class for which to obtain the StreamPlan
+     * @return StreamPlan for the class
+     */
+    StreamPlan getStreamPlan(Class type)
+    {
+        StreamPlan streamPlan = resolved.get(type);
+        if(streamPlan == null) {
+            streamPlan = new StreamPlan(ClassPlan.of(type), kindMap);
+            resolved.put(type, streamPlan);
+        }
+        return streamPlan;
+    }
+
+    /**
+     * Arya reference. We use this to inform Arya of the objects that are
+     * being (de)serialized.
+     */
+    private Arya arya;
+
+    /**
+     * Map of each FieldKind to the FieldStreamer that handles fields of
+     * that kind.
+     */
+    private Map<FieldKind,FieldStreamer> kindMap;
+
+    /**
+     * Map of each class to its StreamPlan. A concurrent Arya shares this
+     * factory between threads.
+     */
+    private Map<Class,StreamPlan> resolved = new ConcurrentHashMap();
+}
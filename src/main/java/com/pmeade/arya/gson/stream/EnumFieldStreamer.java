@@ -0,0 +1,70 @@
+/*
+ * EnumFieldStreamer.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.gson.stream;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.pmeade.arya.reflect.FieldPlan;
+import java.io.IOException;
+
+/**
+ * EnumFieldStreamer streams enumerated fields. The value is written as the
+ * name of the enumerated constant.
+ * @author pmeade
+ */
+public class EnumFieldStreamer implements FieldStreamer
+{
+    /**
+     * Write the provided enum field of the provided object.
+     * @param out JsonWriter to which the field should be written
+     * @param t Object that contains the field
+     * @param fieldPlan FieldPlan of the field
+     * @throws IOException if the JsonWriter is unable to write
+     */
+    public void write(JsonWriter out, Object t, FieldPlan fieldPlan) throws IOException
+    {
+        // obtain the enum value from the object's field
+        Enum e = (Enum) fieldPlan.getAccessor().get(t);
+        // if there is a value, write its name to the JSON
+        if(e != null) {
+            out.name(fieldPlan.getName()).value(e.name());
+        }
+    }
+
+    /**
+     * Read the provided enum field of the provided object.
+     * @param in JsonReader positioned at the value of the field
+     * @param t Object to be populated
+     * @param fieldPlan FieldPlan of the field
+     * @throws IOException if the JsonReader is unable to read
+     */
+    public void read(JsonReader in, Object t, FieldPlan fieldPlan) throws IOException
+    {
+        // if the JSON contains null, leave the field alone
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return;
+        }
+        // convert the name into an enumerated value object
+        Object o = Enum.valueOf((Class<Enum>) fieldPlan.getField().getType(), in.nextString());
+        // populate the provided object with the enumerated value
+        fieldPlan.getAccessor().set(t, o);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * FieldStreamer.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.gson.stream;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.pmeade.arya.reflect.FieldPlan;
+import java.io.IOException;
+
+/**
+ * FieldStreamer provides the interface for streaming (de)serialization of
+ * a field. It is the streaming counterpart of FieldSerializer and
+ * FieldDeserializer: instead of populating or reading a JsonObject, it
+ * writes the field straight to a JsonWriter and sets the field as the
+ * tokens arrive from a JsonReader. It also contains several static
+ * singletons for handling primitive fields and simple types.
+ * @author pmeade
+ */
+public interface FieldStreamer
+{
+    /**
+     * Write the provided field of the provided object to the JsonWriter.
+     * The FieldStreamer writes the name of the field as well as its value;
+     * if the field should not appear in the JSON (for example, because it
+     * is null), then nothing is written at all.
+     * @param out JsonWriter to which the field should be written
+     * @param t Object that contains the field
+     * @param fieldPlan FieldPlan of the field to be written
+     * @throws IOException if the JsonWriter is unable to write
+     */
+    public void write(JsonWriter out, Object t, FieldPlan fieldPlan) throws IOException;
+
+    /**
+     * Read the value of the provided field from the JsonReader, and set it
+     * in the provided object. The name of the field has already been
+     * consumed; the reader is positioned at the value.
+     * @param in JsonReader positioned at the value of the field
+     * @param t Object in which the field is to be set
+     * @param fieldPlan FieldPlan of the field to be read
+     * @throws IOException if the JsonReader is unable to read
+     */
+    public void read(JsonReader in, Object t, FieldPlan fieldPlan) throws IOException;
+
+    /**
+     * Handler for primitive type boolean.
+     */
+    public static final FieldStreamer BOOLEAN = new FieldStreamer() {
+        public void write(JsonWriter out, Object t, FieldPlan fieldPlan) throws IOException {
+            out.name(fieldPlan.getName()).value(fieldPlan.getAccessor().getBoolean(t));
+        }
+        public void read(JsonReader in, Object t, FieldPlan fieldPlan) throws IOException {
+            fieldPlan.getAccessor().setBoolean(t, in.nextBoolean());
+        }
+    };
+
+    /**
+     * Handler for primitive type byte.
+     */
+    public static final FieldStreamer BYTE = new FieldStreamer() {
+        public void write(JsonWriter out, Object t, FieldPlan fieldPlan) throws IOException {
+            out.name(fieldPlan.getName()).value(fieldPlan.getAccessor().getByte(t));
+        }
+        public void read(JsonReader in, Object t, FieldPlan fieldPlan) throws IOException {
+            fieldPlan.getAccessor().setByte(t, (byte) in.nextInt());
+        }
+    };
+
+    /**
+     * Handler for primitive type char.
+     */
+    public static final FieldStreamer CHAR = new FieldStreamer() {
+        public void write(JsonWriter out, Object t, FieldPlan fieldPlan) throws IOException {
+            out.name(fieldPlan.getName()).value(String.valueOf(fieldPlan.getAccessor().getChar(t)));
+        }
+        public void read(JsonReader in, Object t, FieldPlan fieldPlan) throws IOException {
+            fieldPlan.getAccessor().setChar(t, in.nextString().charAt(0));
+        }
+    };
+
+    /**
+     * Handler for primitive type short.
+     */
+    public static final FieldStreamer SHORT = new FieldStreamer() {
+        public void write(JsonWriter out, Object t, FieldPlan fieldPlan) throws IOException {
+            out.name(fieldPlan.getName()).value(fieldPlan.getAccessor().getShort(t));
+        }
+        public void read(JsonReader in, Object t, FieldPlan fieldPlan) throws IOException {
+            fieldPlan.getAccessor().setShort(t, (short) in.nextInt());
+        }
+    };
+
+    /**
+     * Handler for primitive type int.
+     */
+    public static final FieldStreamer INT = new FieldStreamer() {
+        public void write(JsonWriter out, Object t, FieldPlan fieldPlan) throws IOException {
+            out.name(fieldPlan.getName()).value(fieldPlan.getAccessor().getInt(t));
+        }
+        public void read(JsonReader in, Object t, FieldPlan fieldPlan) throws IOException {
+            fieldPlan.getAccessor().setInt(t, in.nextInt());
+        }
+    };
+
+    /**
+     * Handler for primitive type long.
+     */
+    public static final FieldStreamer LONG = new FieldStreamer() {
+        public void write(JsonWriter out, Object t, FieldPlan fieldPlan) throws IOException {
+            out.name(fieldPlan.getName()).value(fieldPlan.getAccessor().getLong(t));
+        }
+        public void read(JsonReader in, Object t, FieldPlan fieldPlan) throws IOException {
+            fieldPlan.getAccessor().setLong(t, in.nextLong());
+        }
+    };
+
+    /**
+     * Handler for primitive type float. JsonWriter has no float method, so
+     * the value is boxed to keep the same text that Gson writes for a Float.
+     */
+    public static final FieldStreamer FLOAT = new FieldStreamer() {
+        public void write(JsonWriter out, Object t, FieldPlan fieldPlan) throws IOException {
+            out.name(fieldPlan.getName()).value(Float.valueOf(fieldPlan.getAccessor().getFloat(t)));
+        }
+        public void read(JsonReader in, Object t, FieldPlan fieldPlan) throws IOException {
+            fieldPlan.getAccessor().setFloat(t, Float.parseFloat(in.nextString()));
+        }
+    };
+
+    /**
+     * Handler for primitive type double.
+     */
+    public static final FieldStreamer DOUBLE = new FieldStreamer() {
+        public void write(JsonWriter out, Object t, FieldPlan fieldPlan) throws IOException {
+            out.name(fieldPlan.getName()).value(fieldPlan.getAccessor().getDouble(t));
+        }
+        public void read(JsonReader in, Object t, FieldPlan fieldPlan) throws IOException {
+            fieldPlan.getAccessor().setDouble(t, in.nextDouble());
+        }
+    };
+
+    /**
+     * Handler for the simple reference types: the primitive wrappers
+     * (Boolean, Integer, etc.), Date, String, and UUID. These fields may
+     * be null; a null field is not written, and a JSON null is not read.
+     */
+    public static final FieldStreamer SIMPLE = new FieldStreamer() {
+        public void write(JsonWriter out, Object t, FieldPlan fieldPlan) throws IOException {
+            Object o = fieldPlan.getAccessor().get(t);
+            if(o != null) {
+                JsonValues.writeSimple(out.name(fieldPlan.getName()), o);
+            }
+        }
+        public void read(JsonReader in, Object t, FieldPlan fieldPlan) throws IOException {
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return;
+            }
+            fieldPlan.getAccessor().set(t, JsonValues.readSimple(in, fieldPlan.getField().getType()));
+        }
+    };
+}
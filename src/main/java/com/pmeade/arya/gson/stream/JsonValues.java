@@ -0,0 +1,112 @@
+/*
+ * JsonValues.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.gson.stream;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.pmeade.arya.identity.UuidCodec;
+import java.io.IOException;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * JsonValues reads and writes the simple types (primitives, their wrappers,
+ * Date, String, and UUID) with Gson's streaming API. The JSON form of each
+ * type is the same one that the FieldSerializer singletons produce, so the
+ * streaming engine and the tree engine can read each other's output.
+ * @author pmeade
+ */
+final class JsonValues
+{
+    /**
+     * Static utility class; no instances.
+     */
+    private JsonValues() {
+    }
+
+    /**
+     * Write a simple value to the provided JsonWriter.
+     * @param out JsonWriter to which the value should be written
+     * @param o simple value to be written; must not be null
+     * @throws IOException if the JsonWriter is unable to write
+     */
+    static void writeSimple(JsonWriter out, Object o) throws IOException
+    {
+        if(o instanceof String) { out.value((String) o); }
+        else if(o instanceof Number) { out.value((Number) o); }
+        else if(o instanceof Boolean) { out.value(((Boolean) o).booleanValue()); }
+        else if(o instanceof Character) { out.value(o.toString()); }
+        else if(o instanceof Date) { out.value(((Date) o).getTime()); }
+        else if(o instanceof UUID) { out.value(UuidCodec.format((UUID) o)); }
+        else {
+            // we don't know how to represent this object directly in JSON
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Read a simple value of the provided type from the JsonReader.
+     * @param in JsonReader positioned at the value
+     * @param type simple type of the value to be read
+     * @return the value read from the JsonReader (boxed, if the type is
+     *         primitive), or null if the JSON contained null
+     * @throws IOException if the JsonReader is unable to read
+     */
+    static Object readSimple(JsonReader in, Class type) throws IOException
+    {
+        // a JSON null is a null value, whatever the type
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        // TODO: Refactor this huge if-else block into something
+        //       a little nicer; this mirrors the if-else blocks in
+        //       ArrayFieldDeserializer and ParameterizedFieldDeserializer
+        if(type == String.class) { return in.nextString(); }
+        else if(type == int.class || type == Integer.class) { return in.nextInt(); }
+        else if(type == long.class || type == Long.class) { return in.nextLong(); }
+        else if(type == double.class || type == Double.class) { return in.nextDouble(); }
+        else if(type == boolean.class || type == Boolean.class) { return readBoolean(in); }
+        else if(type == float.class || type == Float.class) { return Float.valueOf(in.nextString()); }
+        else if(type == short.class || type == Short.class) { return (short) in.nextInt(); }
+        else if(type == byte.class || type == Byte.class) { return (byte) in.nextInt(); }
+        else if(type == char.class || type == Character.class) { return in.nextString().charAt(0); }
+        else if(type == Date.class) { return new Date(in.nextLong()); }
+        else if(type == UUID.class) { return UuidCodec.parse(in.nextString()); }
+        // we don't know how to convert to an object of the requested type...
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Read a boolean from the JsonReader. ParameterizedFieldDeserializer
+     * reads map values through their String form, so it accepts a quoted
+     * boolean; we accept both forms as well.
+     * @param in JsonReader positioned at the value
+     * @return the boolean value
+     * @throws IOException if the JsonReader is unable to read
+     */
+    private static Boolean readBoolean(JsonReader in) throws IOException
+    {
+        if(in.peek() == JsonToken.STRING) {
+            return Boolean.valueOf(in.nextString());
+        }
+        return in.nextBoolean();
+    }
+}
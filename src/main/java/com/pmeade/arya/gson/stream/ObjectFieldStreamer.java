@@ -0,0 +1,95 @@
+/*
+ * ObjectFieldStreamer.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.gson.stream;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.pmeade.arya.Arya;
+import com.pmeade.arya.reflect.FieldPlan;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * ObjectFieldStreamer streams reference fields. The referenced object is
+ * recursively serialized by Arya, and its UUID identity is written in
+ * place of the object.
+ * @author pmeade
+ */
+public class ObjectFieldStreamer implements FieldStreamer
+{
+    /**
+     * Construct an ObjectFieldStreamer.
+     * @param arya Arya reference, so that the object in the field can be
+     *             recursively (de)serialized by Arya
+     */
+    public ObjectFieldStreamer(Arya arya) {
+        this.arya = arya;
+    }
+
+    /**
+     * Write the provided reference field of the provided object.
+     * @param out JsonWriter to which the field should be written
+     * @param t Object that contains the field
+     * @param fieldPlan FieldPlan of the field
+     * @throws IOException if the JsonWriter is unable to write
+     */
+    public void write(JsonWriter out, Object t, FieldPlan fieldPlan) throws IOException
+    {
+        // obtain the object to be serialized from the field
+        Object o = fieldPlan.getAccessor().get(t);
+        // a null reference has no identity, so we leave it out
+        if(o == null) {
+            return;
+        }
+        // ask Arya to serialize the object for us
+        arya.save(o);
+        // write the UUID identity (in string form) of the object
+        UUID uuid = arya.getIdentity(o);
+        out.name(fieldPlan.getName()).value(arya.formatIdentity(uuid));
+    }
+
+    /**
+     * Read the provided reference field of the provided object.
+     * @param in JsonReader positioned at the value of the field
+     * @param t Object to be populated
+     * @param fieldPlan FieldPlan of the field
+     * @throws IOException if the JsonReader is unable to read
+     */
+    public void read(JsonReader in, Object t, FieldPlan fieldPlan) throws IOException
+    {
+        // if the JSON contains null, leave the field alone
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return;
+        }
+        // convert the String form into an actual UUID object
+        UUID uuid = arya.parseIdentity(in.nextString());
+        // use the UUID to request that Arya deserialize the complex object
+        Object o = arya.load(uuid, fieldPlan.getField().getType());
+        // set the deserialized object in the field
+        fieldPlan.getAccessor().set(t, o);
+    }
+
+    /**
+     * Arya reference, so that ObjectFieldStreamer can recursively
+     * (de)serialize the object in the field.
+     */
+    private Arya arya;
+}
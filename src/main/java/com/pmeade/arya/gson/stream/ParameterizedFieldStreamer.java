@@ -0,0 +1,469 @@
+/*
+ * ParameterizedFieldStreamer.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.gson.stream;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.pmeade.arya.Arya;
+import com.pmeade.arya.identity.UuidCodec;
+import com.pmeade.arya.reflect.FieldKind;
+import com.pmeade.arya.reflect.FieldPlan;
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ParameterizedFieldStreamer streams parameterized fields (i.e.: Map,
+ * Collection, List). Collections are written as JSON arrays and maps are
+ * written as JSON objects, exactly as ParameterizedFieldSerializer does,
+ * but the elements go straight to the JsonWriter (and come straight from
+ * the JsonReader) without building a tree of JsonElement objects.
+ * @author pmeade
+ */
+public class ParameterizedFieldStreamer implements FieldStreamer
+{
+    /** SLF4J Logging Service */
+    private static final Logger log = LoggerFactory.getLogger(ParameterizedFieldStreamer.class);
+
+    /**
+     * Construct a ParameterizedFieldStreamer.
+     * @param arya Arya reference to do further (de)serialization if needed
+     */
+    public ParameterizedFieldStreamer(Arya arya) {
+        this.arya = arya;
+    }
+
+    /**
+     * Write the provided parameterized field of the provided object.
+     * @param out JsonWriter to which the field should be written
+     * @param t Object containing the data to be written
+     * @param fieldPlan FieldPlan of the parameterized field
+     * @throws IOException if the JsonWriter is unable to write
+     */
+    public void write(JsonWriter out, Object t, FieldPlan fieldPlan) throws IOException
+    {
+        // obtain the collection or map from the field
+        Object o = fieldPlan.getAccessor().get(t);
+        // a null collection or map is left out of the JSON
+        if(o == null) {
+            return;
+        }
+        // obtain the raw parameterized type
+        ParameterizedType paraType = (ParameterizedType) fieldPlan.getField().getGenericType();
+        Class rawType = (Class) paraType.getRawType();
+        // if the raw type is neither a Collection nor a Map, then we're
+        // really not sure what kind of parameterized type this represents
+        if(Collection.class.isAssignableFrom(rawType) == false
+        && Map.class.isAssignableFrom(rawType) == false) {
+            throw new UnsupportedOperationException();
+        }
+        // write the name of the field, then the collection or map
+        out.name(fieldPlan.getName());
+        writeValue(out, o);
+    }
+
+    /**
+     * Read the provided parameterized field of the provided object.
+     * @param in JsonReader positioned at the JSON array or JSON object
+     * @param t Object to be populated with the parameterized content
+     * @param fieldPlan FieldPlan of the parameterized field
+     * @throws IOException if the JsonReader is unable to read
+     */
+    public void read(JsonReader in, Object t, FieldPlan fieldPlan) throws IOException
+    {
+        // if the JSON contains null, leave the field alone
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return;
+        }
+        // obtain the raw parameterized type (Collection, Map, etc.)
+        ParameterizedType paraType = (ParameterizedType) fieldPlan.getField().getGenericType();
+        Class rawType = (Class) paraType.getRawType();
+        // read a JSON array into a Collection, or a JSON object into a Map
+        if(Collection.class.isAssignableFrom(rawType)) {
+            fieldPlan.getAccessor().set(t, readCollection(in, paraType));
+        }
+        else if(Map.class.isAssignableFrom(rawType)) {
+            fieldPlan.getAccessor().set(t, readMap(in, paraType));
+        }
+        else {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Write a value contained in a collection or map.
+     * @param out JsonWriter to which the value should be written
+     * @param o the value to be written
+     * @throws IOException if the JsonWriter is unable to write
+     */
+    private void writeValue(JsonWriter out, Object o) throws IOException
+    {
+        // a null value is written as a JSON null
+        if(o == null) {
+            out.nullValue();
+        }
+        // if the value is a collection, write it as a JSON array
+        else if(o instanceof Collection) {
+            out.beginArray();
+            for(Object element : (Collection) o) {
+                writeValue(out, element);
+            }
+            out.endArray();
+        }
+        // if the value is a map, write it as a JSON object
+        else if(o instanceof Map) {
+            out.beginObject();
+            for(Map.Entry entry : ((Map<?,?>) o).entrySet()) {
+                out.name(toMapKey(entry.getKey()));
+                writeValue(out, entry.getValue());
+            }
+            out.endObject();
+        }
+        // if the value is a complex object, ask Arya to save it and
+        // write the UUID identity (in string form) in its place
+        else if(FieldKind.isSimple(o.getClass()) == false) {
+            arya.save(o);
+            out.value(arya.formatIdentity(arya.getIdentity(o)));
+        }
+        // otherwise, the value can be written directly
+        else {
+            JsonValues.writeSimple(out, o);
+        }
+    }
+
+    /**
+     * Convert the provided object into a String suitable as a key in a
+     * JSON object.
+     * @param o Object to be converted into a JSON object key
+     * @return Object as a JSON object key String
+     */
+    private String toMapKey(Object o)
+    {
+        // if this object is a complex type that also requires serialization
+        if(FieldKind.isSimple(o.getClass()) == false) {
+            // ask Arya to serialize the object, and use its UUID identity
+            arya.save(o);
+            return arya.formatIdentity(arya.getIdentity(o));
+        }
+        // dates are keyed by their time in milliseconds
+        if(o instanceof Date) {
+            return String.valueOf(((Date) o).getTime());
+        }
+        // everything else is keyed by its String form
+        return o.toString();
+    }
+
+    /**
+     * Read a JSON array into a Collection object.
+     * @param in JsonReader positioned at the JSON array
+     * @param type type of the Collection object
+     * @return Collection object containing the elements of the JSON array
+     * @throws IOException if the JsonReader is unable to read
+     */
+    private Collection readCollection(JsonReader in, Type type) throws IOException
+    {
+        // create a collection of the appropriate type
+        ParameterizedType paraType = (ParameterizedType) type;
+        Collection c = newCollection((Class) paraType.getRawType());
+        // determine the actual type of the thing in the collection
+        Type elementType = paraType.getActualTypeArguments()[0];
+        // if the elements are complex objects, read all of their UUID
+        // identities, and ask Arya to fetch the objects all at once
+        if(isLoadRequired(elementType)) {
+            List<UUID> uuids = readIdentities(in);
+            arya.prefetch(uuids, (Class) elementType);
+            for(UUID uuid : uuids) {
+                Object value = (uuid != null) ? arya.load(uuid, (Class) elementType) : null;
+                // a set may hash the value, so it must be complete
+                if(c instanceof Set) {
+                    arya.complete(value);
+                }
+                c.add(value);
+            }
+            return c;
+        }
+        // read each element of the JSON array into the collection
+        in.beginArray();
+        while(in.hasNext()) {
+            Object value = readValue(in, elementType);
+            // a set may hash the value, so it must be complete
+            if(c instanceof Set) {
+                arya.complete(value);
+            }
+            c.add(value);
+        }
+        in.endArray();
+        return c;
+    }
+
+    /**
+     * Read a JSON object into a Map object.
+     * @param in JsonReader positioned at the JSON object
+     * @param type type of the Map object
+     * @return Map containing the entries of the JSON object
+     * @throws IOException if the JsonReader is unable to read
+     */
+    private Map readMap(JsonReader in, Type type) throws IOException
+    {
+        // create a map of the appropriate type
+        ParameterizedType paraType = (ParameterizedType) type;
+        Map map = newMap((Class) paraType.getRawType());
+        // determine the actual types of the key and value of the map
+        Type[] actualTypes = paraType.getActualTypeArguments();
+        Class keyType = (Class) actualTypes[0];
+        Type valueType = actualTypes[1];
+        // if the keys or values are complex objects, read all of the
+        // entries first, and ask Arya to fetch the objects all at once
+        if((valueType instanceof Class)
+        && (isLoadRequired(keyType) || isLoadRequired(valueType))) {
+            return readMapBatch(in, map, keyType, (Class) valueType);
+        }
+        // read each entry of the JSON object into the map
+        in.beginObject();
+        while(in.hasNext()) {
+            Object key = fromMapKey(in.nextName(), keyType);
+            Object value = readValue(in, valueType);
+            map.put(key, value);
+        }
+        in.endObject();
+        return map;
+    }
+
+    /**
+     * Read a JSON object into the provided Map, when its keys or values
+     * (or both) are complex objects. Every entry is read before any of the
+     * objects are loaded, so that they can be fetched all at once.
+     * @param in JsonReader positioned at the JSON object
+     * @param map Map to be populated with the entries of the JSON object
+     * @param keyType the type of the keys of the map
+     * @param valueType the type of the values of the map
+     * @return the provided Map
+     * @throws IOException if the JsonReader is unable to read
+     */
+    private Map readMapBatch(JsonReader in, Map map, Class keyType, Class valueType) throws IOException
+    {
+        boolean loadKeys = isLoadRequired(keyType);
+        boolean loadValues = isLoadRequired(valueType);
+        // read the keys, and the values (or their UUID identities)
+        List<String> keys = new ArrayList();
+        List values = new ArrayList();
+        in.beginObject();
+        while(in.hasNext()) {
+            keys.add(in.nextName());
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                values.add(null);
+            } else if(loadValues) {
+                values.add(arya.parseIdentity(in.nextString()));
+            } else {
+                values.add(JsonValues.readSimple(in, valueType));
+            }
+        }
+        in.endObject();
+        // ask Arya to fetch the objects all at once
+        if(loadKeys) {
+            List<UUID> uuids = new ArrayList(keys.size());
+            for(String key : keys) {
+                uuids.add(arya.parseIdentity(key));
+            }
+            arya.prefetch(uuids, keyType);
+        }
+        if(loadValues) {
+            arya.prefetch(values, valueType);
+        }
+        // then load them one by one, and populate the map
+        for(int i=0; i<keys.size(); i++) {
+            Object key = fromMapKey(keys.get(i), keyType);
+            Object value = values.get(i);
+            if(loadValues && value != null) {
+                value = arya.load((UUID) value, valueType);
+            }
+            map.put(key, value);
+        }
+        return map;
+    }
+
+    /**
+     * Read a JSON array of UUID identities.
+     * @param in JsonReader positioned at the JSON array
+     * @return List of UUID identities (null for each JSON null), in the
+     *         same order as the JSON array
+     * @throws IOException if the JsonReader is unable to read
+     */
+    private List<UUID> readIdentities(JsonReader in) throws IOException
+    {
+        List<UUID> uuids = new ArrayList();
+        in.beginArray();
+        while(in.hasNext()) {
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                uuids.add(null);
+            } else {
+                uuids.add(arya.parseIdentity(in.nextString()));
+            }
+        }
+        in.endArray();
+        return uuids;
+    }
+
+    /**
+     * Determine if the provided type is a complex object that Arya must
+     * load by UUID identity.
+     * @param type the type of a key, value, or element
+     * @return true, if the type is a Class of complex objects, otherwise
+     *         false (for simple types, and for collections and maps)
+     */
+    private boolean isLoadRequired(Type type)
+    {
+        return (type instanceof Class) && FieldKind.isSimple((Class) type) == false;
+    }
+
+    /**
+     * Read a value contained in a collection or map.
+     * @param in JsonReader positioned at the value
+     * @param type the type of the value
+     * @return the value read from the JSON
+     * @throws IOException if the JsonReader is unable to read
+     */
+    private Object readValue(JsonReader in, Type type) throws IOException
+    {
+        // a JSON null is a null value
+        if(in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        // if the value is itself a collection or map, read it recursively
+        if(type instanceof ParameterizedType) {
+            Class rawType = (Class) ((ParameterizedType) type).getRawType();
+            if(Collection.class.isAssignableFrom(rawType)) {
+                return readCollection(in, type);
+            }
+            if(Map.class.isAssignableFrom(rawType)) {
+                return readMap(in, type);
+            }
+            // we don't know what kind of parameterized type this is
+            throw new UnsupportedOperationException();
+        }
+        // if the value is a complex object, ask Arya to load it
+        Class actualType = (Class) type;
+        if(FieldKind.isSimple(actualType) == false) {
+            UUID uuid = arya.parseIdentity(in.nextString());
+            return arya.load(uuid, actualType);
+        }
+        // otherwise, the value can be read directly
+        return JsonValues.readSimple(in, actualType);
+    }
+
+    /**
+     * Convert a key (from a JSON object) into an object of the provided type.
+     * @param jsonKey string provided from the key side of a JSON object
+     * @param actualType type to which to convert the provided string
+     * @return Object of the requested type
+     */
+    private Object fromMapKey(String jsonKey, Class actualType)
+    {
+        // if this is a complex type, ask Arya to load it by UUID identity;
+        // the map may hash the key, so it must be complete
+        if(FieldKind.isSimple(actualType) == false) {
+            return arya.complete(arya.load(arya.parseIdentity(jsonKey), actualType));
+        }
+        // TODO: Refactor this huge if-else block into something
+        //       a little nicer; this mirrors the if-else block in
+        //       ParameterizedFieldDeserializer.toMapKey()
+        if(actualType == String.class) { return jsonKey; }
+        else if(actualType == Integer.class || actualType == int.class) { return Integer.valueOf(jsonKey); }
+        else if(actualType == Long.class || actualType == long.class) { return Long.valueOf(jsonKey); }
+        else if(actualType == Double.class || actualType == double.class) { return Double.valueOf(jsonKey); }
+        else if(actualType == Boolean.class || actualType == boolean.class) { return Boolean.valueOf(jsonKey); }
+        else if(actualType == Float.class || actualType == float.class) { return Float.valueOf(jsonKey); }
+        else if(actualType == Short.class || actualType == short.class) { return Short.valueOf(jsonKey); }
+        else if(actualType == Byte.class || actualType == byte.class) { return Byte.valueOf(jsonKey); }
+        else if(actualType == Character.class || actualType == char.class) { return Character.valueOf(jsonKey.charAt(0)); }
+        else if(actualType == Date.class) { return new Date(Long.valueOf(jsonKey)); }
+        else if(actualType == UUID.class) { return UuidCodec.parse(jsonKey); }
+        // we don't know how to convert to an object of the requested type...
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Create a Collection of the provided type. Interfaces are mapped to
+     * the same concrete implementations that ParameterizedFieldDeserializer
+     * uses.
+     * @param rawType raw type of the collection
+     * @return new, empty Collection
+     */
+    private Collection newCollection(Class rawType)
+    {
+        // if the raw type is an interface, we need to come up with a
+        // matching concrete implementation
+        if(rawType.isInterface()) {
+            if(Collection.class.equals(rawType)) { return new ArrayList(); }
+            else if(List.class.equals(rawType)) { return new ArrayList(); }
+            else if(Set.class.equals(rawType)) { return new HashSet(); }
+            else if(SortedSet.class.equals(rawType)) { return new TreeSet(); }
+            // we don't know what concrete implementation to provide
+            throw new UnsupportedOperationException();
+        }
+        try {
+            // attempt to instantiate whatever type we were provided
+            return (Collection) rawType.newInstance();
+        } catch(Exception e) {
+            // if we couldn't instantiate that, fall back to an ArrayList
+            log.error("Unable to create type " + rawType + ":", e);
+            return new ArrayList();
+        }
+    }
+
+    /**
+     * Create a Map of the provided type. Interfaces are mapped to the same
+     * concrete implementations that ParameterizedFieldDeserializer uses.
+     * @param rawType raw type of the map
+     * @return new, empty Map
+     */
+    private Map newMap(Class rawType)
+    {
+        // if the raw type is an interface, we need to come up with a
+        // matching concrete implementation
+        if(rawType.isInterface()) {
+            if(Map.class.equals(rawType)) { return new HashMap(); }
+            else if(NavigableMap.class.equals(rawType)) { return new TreeMap(); }
+            else if(SortedMap.class.equals(rawType)) { return new TreeMap(); }
+            // we don't know what concrete implementation to provide
+            throw new UnsupportedOperationException();
+        }
+        try {
+            // attempt to instantiate the provided concrete type
+            return (Map) rawType.newInstance();
+        } catch(Exception e) {
+            // if we failed at that, fall back to a HashMap
+            log.error("Unable to create type " + rawType + ":", e);
+            return new HashMap();
+        }
+    }
+
+    /**
+     * Arya reference to do further (de)serialization if needed.
+     */
+    private Arya arya;
+}
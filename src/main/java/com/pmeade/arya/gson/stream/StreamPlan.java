@@ -0,0 +1,100 @@
+/*
+ * StreamPlan.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.gson.stream;
+
+import com.pmeade.arya.reflect.ClassPlan;
+import com.pmeade.arya.reflect.FieldKind;
+import com.pmeade.arya.reflect.FieldPlan;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * StreamPlan pairs each field of a ClassPlan with the FieldStreamer that
+ * handles it, and indexes the fields by name so that the streaming reader
+ * can find a field as soon as its name arrives. A StreamPlan holds
+ * FieldStreamer objects that belong to a single Arya, so it is not shared.
+ * @author pmeade
+ */
+final class StreamPlan
+{
+    /** SLF4J Logging Service */
+    private static final Logger log = LoggerFactory.getLogger(StreamPlan.class);
+
+    /**
+     * Construct a StreamPlan for the provided ClassPlan.
+     * @param plan ClassPlan of the class to be streamed
+     * @param kindMap Map of each FieldKind to the FieldStreamer that
+     *                handles fields of that kind
+     */
+    StreamPlan(ClassPlan plan, Map<FieldKind,FieldStreamer> kindMap)
+    {
+        List<FieldPlan> fieldList = new ArrayList<FieldPlan>();
+        List<FieldStreamer> streamerList = new ArrayList<FieldStreamer>();
+        index = new HashMap<String,Integer>();
+        // for each field in the plan
+        for(FieldPlan fieldPlan : plan.getFields()) {
+            // streaming requires the method handle based accessor
+            if(fieldPlan.getAccessor() == null) {
+                log.error("No accessor for field '" + fieldPlan.getName() + "'; it will not be streamed");
+                continue;
+            }
+            index.put(fieldPlan.getName(), fieldList.size());
+            fieldList.add(fieldPlan);
+            streamerList.add(getFieldStreamer(fieldPlan, kindMap));
+        }
+        this.fields = fieldList.toArray(new FieldPlan[fieldList.size()]);
+        this.streamers = streamerList.toArray(new FieldStreamer[streamerList.size()]);
+    }
+
+    /**
+     * Obtain the FieldStreamer for the provided field. The primitive
+     * FieldStreamer singletons only handle primitive fields; the wrapper
+     * types are handled by FieldStreamer.SIMPLE.
+     * @param fieldPlan FieldPlan of the field
+     * @param kindMap Map of each FieldKind to its FieldStreamer
+     * @return FieldStreamer that handles the field
+     */
+    private static FieldStreamer getFieldStreamer(FieldPlan fieldPlan, Map<FieldKind,FieldStreamer> kindMap)
+    {
+        Class type = fieldPlan.getField().getType();
+        if(type.isPrimitive() == false && FieldKind.isSimple(type)) {
+            return FieldStreamer.SIMPLE;
+        }
+        return kindMap.get(fieldPlan.getKind());
+    }
+
+    /**
+     * Fields to be streamed, in the same order as the ClassPlan.
+     */
+    final FieldPlan[] fields;
+
+    /**
+     * Map of each field name to the index of the field in fields.
+     */
+    final Map<String,Integer> index;
+
+    /**
+     * FieldStreamer objects, parallel to fields.
+     */
+    final FieldStreamer[] streamers;
+}
@@ -0,0 +1,350 @@
+/*
+ * ConcurrentIdentityMap.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import com.google.common.collect.MapMaker;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * ConcurrentIdentityMap is an IdentityMap that may be shared by the threads
+ * of a concurrent Arya. Both sides of the map are lock-striped concurrent
+ * hash maps: a lookup takes no lock at all, and an update locks only the
+ * stripe that holds its key, so threads working on different parts of a
+ * graph rarely wait for one another.
+ * 
+ * The object side is built with Guava's MapMaker with weak keys, which are
+ * compared by identity (==); it never keeps an object alive on its own.
+ * The identity side is a ConcurrentHashMap, which holds the objects by
+ * strong references; entries leave the map only through remove() or
+ * clear().
+ * 
+ * putObjectIfAbsent() and putIdIfAbsent() are atomic: when two threads
+ * race to save the same object, both of them end up with the UUID identity
+ * of the thread that got there first, and when two threads race to load
+ * the same UUID identity, both of them end up with one object. The two
+ * sides are updated one after the other, so another thread may briefly see
+ * an entry on one side before it appears on the other.
+ * @author pmeade
+ */
+public final class ConcurrentIdentityMap implements IdentityMap
+{
+    /**
+     * Default number of threads expected to update the map at once.
+     */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    /**
+     * Construct a ConcurrentIdentityMap for the default number of threads.
+     */
+    public ConcurrentIdentityMap()
+    {
+        this(DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Construct a ConcurrentIdentityMap.
+     * @param concurrencyLevel number of threads expected to update the map
+     *                         at once; each side of the map is divided
+     *                         into (about) this many lock stripes
+     */
+    public ConcurrentIdentityMap(int concurrencyLevel)
+    {
+        if(concurrencyLevel < 1) {
+            throw new IllegalArgumentException("concurrencyLevel < 1");
+        }
+        // the object side: weak keys are always compared by identity (==)
+        this.objects = new MapMaker().concurrencyLevel(concurrencyLevel).weakKeys().makeMap();
+        // the identity side: holds the objects by strong references
+        this.ids = new ConcurrentHashMap(16, 0.75f, concurrencyLevel);
+        this.concurrencyLevel = concurrencyLevel;
+    }
+
+    /**
+     * Remove every object and identity from the map.
+     */
+    public void clear()
+    {
+        ids.clear();
+        objects.clear();
+    }
+
+    /**
+     * Determine if the map contains an object with the provided UUID
+     * identity.
+     * @param uuid UUID identity to look for
+     * @return true, if an object has the provided UUID identity, else false
+     */
+    public boolean containsId(UUID uuid)
+    {
+        return get(uuid) != null;
+    }
+
+    /**
+     * Determine if the map contains the provided object. Objects are
+     * compared by identity (==), not by equals().
+     * @param t Object to look for
+     * @return true, if the object has a UUID identity, else false
+     */
+    public boolean containsObject(Object t)
+    {
+        return (t != null) && objects.containsKey(t);
+    }
+
+    /**
+     * Obtain the object with the provided UUID identity.
+     * @param uuid UUID identity of the object
+     * @return Object with the provided UUID identity, or null if there is
+     *         no such object in the map
+     */
+    public Object get(UUID uuid)
+    {
+        return (uuid != null) ? ids.get(uuid) : null;
+    }
+
+    /**
+     * Obtain the number of threads expected to update the map at once.
+     * @return concurrency level of the map
+     */
+    public int getConcurrencyLevel() {
+        return concurrencyLevel;
+    }
+
+    /**
+     * Obtain the number of entries evicted by the map. A ConcurrentIdentityMap
+     * never evicts entries on its own.
+     * @return zero
+     */
+    public long getEvictionCount()
+    {
+        return 0L;
+    }
+
+    /**
+     * Obtain the fingerprint of the provided object.
+     * @param t Object for which to obtain the fingerprint
+     * @return fingerprint stored for the object, or zero if the object is
+     *         not in the map or has no fingerprint
+     */
+    public long getFingerprint(Object t)
+    {
+        Entry entry = (t != null) ? objects.get(t) : null;
+        return (entry != null) ? entry.fingerprint : 0L;
+    }
+
+    /**
+     * Obtain the UUID identity of the provided object.
+     * @param t Object for which to obtain the UUID identity
+     * @return UUID identity of the object, or null if the object is not
+     *         in the map
+     */
+    public UUID getId(Object t)
+    {
+        Entry entry = (t != null) ? objects.get(t) : null;
+        return (entry != null) ? entry.uuid : null;
+    }
+
+    /**
+     * Obtain every object in the map.
+     * @return List containing every object in the map, in no particular
+     *         order; later changes to the map don't affect the List
+     */
+    public List<Object> getObjects()
+    {
+        return new ArrayList(objects.keySet());
+    }
+
+    /**
+     * Add the provided object with the provided UUID identity to the map.
+     * As with a pair of maps, each side is updated independently; putting
+     * an object again replaces its UUID identity, and putting a UUID
+     * identity again replaces its object.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     */
+    public void put(UUID uuid, Object t)
+    {
+        objects.put(t, new Entry(uuid));
+        ids.put(uuid, t);
+    }
+
+    /**
+     * Add the provided object with the provided UUID identity to the map,
+     * unless some object already has that UUID identity. This is atomic;
+     * of two threads that race to put the same UUID identity, one puts its
+     * object, and both of them obtain that object.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     * @return Object with the provided UUID identity afterwards; this is the
+     *         provided Object, unless another object already had it
+     */
+    public Object putIdIfAbsent(UUID uuid, Object t)
+    {
+        Object o = ids.putIfAbsent(uuid, t);
+        if(o != null) {
+            return o;
+        }
+        objects.put(t, new Entry(uuid));
+        return t;
+    }
+
+    /**
+     * Add the provided object with the provided UUID identity to the map,
+     * unless the object already has a UUID identity. This is atomic; of two
+     * threads that race to put the same object, one puts its UUID identity,
+     * and both of them obtain that UUID identity.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     * @return UUID identity of the object afterwards; this is the provided
+     *         UUID identity, unless the object already had one
+     */
+    public UUID putObjectIfAbsent(UUID uuid, Object t)
+    {
+        Entry entry = objects.putIfAbsent(t, new Entry(uuid));
+        if(entry != null) {
+            return entry.uuid;
+        }
+        ids.put(uuid, t);
+        return uuid;
+    }
+
+    /**
+     * Remove the object with the provided UUID identity from the map.
+     * If the object is paired with that UUID identity on the object side,
+     * it is removed from there as well.
+     * @param uuid UUID identity of the object to be removed
+     * @return true, if an object was removed; false, if there was no
+     *         object with the provided UUID identity
+     */
+    public boolean remove(UUID uuid)
+    {
+        Object t = (uuid != null) ? ids.remove(uuid) : null;
+        if(t == null) {
+            return false;
+        }
+        removeObject(t, uuid);
+        return true;
+    }
+
+    /**
+     * Remove the provided object (and its UUID identity) from the map.
+     * @param t Object to be removed
+     * @return true, if the object was removed; false, if it was not in
+     *         the map
+     */
+    public boolean remove(Object t)
+    {
+        Entry entry = (t != null) ? objects.remove(t) : null;
+        if(entry == null) {
+            return false;
+        }
+        removeId(entry.uuid, t);
+        return true;
+    }
+
+    /**
+     * Store the fingerprint of the provided object.
+     * @param t Object for which to store the fingerprint; if it is not in
+     *          the map, nothing is stored
+     * @param fingerprint fingerprint of the object
+     */
+    public void setFingerprint(Object t, long fingerprint)
+    {
+        Entry entry = (t != null) ? objects.get(t) : null;
+        if(entry != null) {
+            entry.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * Obtain the number of objects in the map.
+     * @return number of objects in the map
+     */
+    public int size()
+    {
+        return objects.size();
+    }
+
+    /**
+     * Remove the provided UUID identity from the identity side, if (and
+     * only if) it still has the provided object.
+     * @param uuid UUID identity to be removed
+     * @param t Object that the UUID identity should have
+     */
+    private void removeId(UUID uuid, Object t)
+    {
+        // ConcurrentMap.remove() compares with equals(); check == first
+        if(ids.get(uuid) == t) {
+            ids.remove(uuid, t);
+        }
+    }
+
+    /**
+     * Remove the provided object from the object side, if (and only if)
+     * it still has the provided UUID identity.
+     * @param t Object to be removed
+     * @param uuid UUID identity that the object should have
+     */
+    private void removeObject(Object t, UUID uuid)
+    {
+        Entry entry = objects.get(t);
+        if(entry != null && entry.uuid.equals(uuid)) {
+            objects.remove(t, entry);
+        }
+    }
+
+    /**
+     * Entry holds the UUID identity (and fingerprint) of an object on the
+     * object side of the map.
+     */
+    private static final class Entry
+    {
+        Entry(UUID uuid) {
+            this.uuid = uuid;
+        }
+
+        /**
+         * UUID identity of the object.
+         */
+        final UUID uuid;
+
+        /**
+         * Fingerprint of the object, or zero if none has been stored.
+         */
+        volatile long fingerprint;
+    }
+
+    /**
+     * Object side of the map: object -> UUID identity (and fingerprint).
+     */
+    private final ConcurrentMap<Object,Entry> objects;
+
+    /**
+     * Identity side of the map: UUID identity -> object.
+     */
+    private final ConcurrentMap<UUID,Object> ids;
+
+    /**
+     * Number of threads expected to update the map at once.
+     */
+    private final int concurrencyLevel;
+}
@@ -0,0 +1,37 @@
+/*
+ * IdGenerator.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import java.util.UUID;
+
+/**
+ * IdGenerator is the service interface that Arya uses to create a UUID
+ * identity for each object that doesn't have one of its own (i.e.: an
+ * object without a field marked with @Id, or whose @Id field is empty).
+ * @see com.pmeade.arya.Arya#setIdGenerator(IdGenerator)
+ * @author pmeade
+ */
+public interface IdGenerator
+{
+    /**
+     * Create a new UUID identity.
+     * @return UUID identity that has never been returned before
+     */
+    public UUID next();
+}
@@ -0,0 +1,173 @@
+/*
+ * IdentityMap.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * IdentityMap is the service interface that Arya uses to track the pairing
+ * of objects and UUID identities during a session. Objects are always
+ * compared by identity (==), never by equals().
+ * 
+ * An IdentityMap behaves like a pair of maps, one from objects to UUID
+ * identities and one from UUID identities to objects, and each side is
+ * updated independently. Putting an object again with another UUID
+ * identity replaces its UUID identity, but the old UUID identity still
+ * finds the object; putting a UUID identity again with another object
+ * replaces its object, but the old object keeps the UUID identity.
+ * Removing an object (or a UUID identity) also removes its partner from
+ * the other side, if (and only if) the two are still paired.
+ * 
+ * IdentityTable is the default implementation; it holds strong references
+ * and grows without bound. ReferenceIdentityMap can hold weak (or soft)
+ * references, and can be bounded to a maximum number of entries.
+ * MappedIdentityMap keeps the UUID identities in memory-mapped files, for
+ * graphs too large to be tracked on the heap. ConcurrentIdentityMap may be
+ * shared by the threads of a concurrent Arya.
+ * @see com.pmeade.arya.Arya#setIdentityMap(IdentityMap)
+ * @see com.pmeade.arya.Arya#setConcurrent(boolean)
+ * @author pmeade
+ */
+public interface IdentityMap
+{
+    /**
+     * Remove every object and identity from the map.
+     */
+    public void clear();
+
+    /**
+     * Determine if the map contains an object with the provided UUID
+     * identity.
+     * @param uuid UUID identity to look for
+     * @return true, if an object has the provided UUID identity, else false
+     */
+    public boolean containsId(UUID uuid);
+
+    /**
+     * Determine if the map contains the provided object.
+     * @param t Object to look for
+     * @return true, if the object has a UUID identity, else false
+     */
+    public boolean containsObject(Object t);
+
+    /**
+     * Obtain the object with the provided UUID identity.
+     * @param uuid UUID identity of the object
+     * @return Object with the provided UUID identity, or null if there is
+     *         no such object in the map
+     */
+    public Object get(UUID uuid);
+
+    /**
+     * Obtain the number of entries that the map has evicted on its own,
+     * because it reached its maximum size, or because the garbage collector
+     * reclaimed the object. Entries removed by remove() or clear() are not
+     * counted.
+     * @return number of entries evicted since the map was created
+     */
+    public long getEvictionCount();
+
+    /**
+     * Obtain the fingerprint of the provided object.
+     * @param t Object for which to obtain the fingerprint
+     * @return fingerprint stored for the object, or zero if the object is
+     *         not in the map or has no fingerprint
+     */
+    public long getFingerprint(Object t);
+
+    /**
+     * Obtain the UUID identity of the provided object.
+     * @param t Object for which to obtain the UUID identity
+     * @return UUID identity of the object, or null if the object is not
+     *         in the map
+     */
+    public UUID getId(Object t);
+
+    /**
+     * Obtain every object in the map.
+     * @return List containing every object in the map, in no particular
+     *         order; later changes to the map don't affect the List
+     */
+    public List<Object> getObjects();
+
+    /**
+     * Add the provided object with the provided UUID identity to the map.
+     * Putting an object again replaces its UUID identity, and putting a
+     * UUID identity again replaces its object; the other side keeps its
+     * old entry.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     */
+    public void put(UUID uuid, Object t);
+
+    /**
+     * Add the provided object with the provided UUID identity to the map,
+     * unless some object already has that UUID identity. A map that may be
+     * shared by threads does this atomically, so that when two threads
+     * load the same UUID identity, both of them end up with one object.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     * @return Object with the provided UUID identity afterwards; this is the
+     *         provided Object, unless another object already had it
+     */
+    public Object putIdIfAbsent(UUID uuid, Object t);
+
+    /**
+     * Add the provided object with the provided UUID identity to the map,
+     * unless the object already has a UUID identity. A map that may be
+     * shared by threads does this atomically, so that when two threads
+     * save the same object, both of them end up with one UUID identity.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     * @return UUID identity of the object afterwards; this is the provided
+     *         UUID identity, unless the object already had one
+     */
+    public UUID putObjectIfAbsent(UUID uuid, Object t);
+
+    /**
+     * Remove the object with the provided UUID identity from the map.
+     * @param uuid UUID identity of the object to be removed
+     * @return true, if an object was removed; false, if there was no
+     *         object with the provided UUID identity
+     */
+    public boolean remove(UUID uuid);
+
+    /**
+     * Remove the provided object (and its UUID identity) from the map.
+     * @param t Object to be removed
+     * @return true, if the object was removed; false, if it was not in
+     *         the map
+     */
+    public boolean remove(Object t);
+
+    /**
+     * Store the fingerprint of the provided object.
+     * @param t Object for which to store the fingerprint; if it is not in
+     *          the map, nothing is stored
+     * @param fingerprint fingerprint of the object
+     */
+    public void setFingerprint(Object t, long fingerprint);
+
+    /**
+     * Obtain the number of objects in the map.
+     * @return number of objects in the map
+     */
+    public int size();
+}
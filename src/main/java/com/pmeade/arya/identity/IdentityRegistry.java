@@ -0,0 +1,103 @@
+/*
+ * IdentityRegistry.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import com.google.common.collect.MapMaker;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * IdentityRegistry remembers the UUID identity of objects that have no
+ * field marked with @Id, so that an object keeps the same identity when it
+ * is saved again by a later Arya session. Without a registry, each Arya
+ * creates a new identity for such an object, and every save writes another
+ * copy of it to the store; with a registry, a later save overwrites the
+ * earlier one.
+ * 
+ * The registry is built with Guava's MapMaker with weak keys, which are
+ * compared by identity (==) and only weakly referenced; once an object has
+ * been garbage collected, its entry is dropped. The registry never
+ * prevents an object from being collected.
+ * 
+ * An IdentityRegistry may be shared by any number of Arya objects, and is
+ * thread-safe.
+ * @see com.pmeade.arya.Arya#setIdentityRegistry(IdentityRegistry)
+ * @author pmeade
+ */
+public final class IdentityRegistry
+{
+    /**
+     * Construct an empty IdentityRegistry.
+     */
+    public IdentityRegistry()
+    {
+        this.objects = new MapMaker().weakKeys().makeMap();
+    }
+
+    /**
+     * Obtain the UUID identity of the provided object.
+     * @param t Object for which to obtain the UUID identity
+     * @return UUID identity of the object, or null if the object has
+     *         never been registered
+     */
+    public UUID get(Object t)
+    {
+        return objects.get(t);
+    }
+
+    /**
+     * Register the UUID identity of the provided object, unless the object
+     * has already been registered.
+     * @param t Object to be registered
+     * @param uuid UUID identity of the object
+     * @return UUID identity of the object; this is the provided UUID, or
+     *         the UUID with which the object was registered earlier
+     */
+    public UUID putIfAbsent(Object t, UUID uuid)
+    {
+        UUID existing = objects.putIfAbsent(t, uuid);
+        return (existing != null) ? existing : uuid;
+    }
+
+    /**
+     * Register the UUID identity of the provided object, replacing the
+     * identity (if any) with which it was registered earlier.
+     * @param t Object to be registered
+     * @param uuid UUID identity of the object
+     */
+    public void put(Object t, UUID uuid)
+    {
+        objects.put(t, uuid);
+    }
+
+    /**
+     * Obtain the number of objects in the registry. Objects that have been
+     * garbage collected may be counted until their entries are dropped.
+     * @return number of objects in the registry
+     */
+    public int size()
+    {
+        return objects.size();
+    }
+
+    /**
+     * Map of each registered object to its UUID identity.
+     */
+    private final ConcurrentMap<Object,UUID> objects;
+}
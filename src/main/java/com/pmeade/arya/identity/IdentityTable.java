@@ -0,0 +1,569 @@
+/*
+ * IdentityTable.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * IdentityTable tracks the pairing of objects and UUID identities during an
+ * Arya session. It is two open-addressing hash tables in one:
+ * 
+ * The object side is keyed by object identity (==), using the result of
+ * System.identityHashCode(). It never calls hashCode() or equals() on a
+ * domain object, so the cost of a lookup doesn't depend on the domain
+ * class, and two distinct objects that happen to be equal() are given
+ * distinct UUID identities.
+ * 
+ * The identity side is keyed by the two long halves of the UUID, which are
+ * stored inline in primitive arrays. No UUID objects are retained by the
+ * table; getId() creates the UUID that it returns.
+ * 
+ * Both sides use linear probing in power-of-two sized arrays. The table is
+ * NOT thread-safe.
+ * 
+ * The object side can also hold a 64-bit fingerprint of each object, for
+ * change tracking. The array of fingerprints is only allocated when the
+ * first fingerprint is stored.
+ * 
+ * The table holds strong references, and never evicts an entry on its
+ * own; entries leave the table only through remove() or clear().
+ * @author pmeade
+ */
+public final class IdentityTable implements IdentityMap
+{
+    /**
+     * Initial number of slots on each side of the table.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Construct an empty IdentityTable.
+     */
+    public IdentityTable()
+    {
+        initObjects(INITIAL_CAPACITY);
+        initIds(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Remove every object and identity from the table. The arrays are
+     * returned to their initial size, so that memory used by a large
+     * session is released.
+     */
+    public void clear()
+    {
+        initObjects(INITIAL_CAPACITY);
+        initIds(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Determine if the table contains an object with the provided UUID
+     * identity.
+     * @param uuid UUID identity to look for
+     * @return true, if an object has the provided UUID identity, else false
+     */
+    public boolean containsId(UUID uuid)
+    {
+        return get(uuid) != null;
+    }
+
+    /**
+     * Determine if the table contains the provided object. Objects are
+     * compared by identity (==), not by equals().
+     * @param t Object to look for
+     * @return true, if the object has a UUID identity, else false
+     */
+    public boolean containsObject(Object t)
+    {
+        return findObject(t) >= 0;
+    }
+
+    /**
+     * Obtain the number of entries evicted by the table. An IdentityTable
+     * never evicts entries on its own.
+     * @return zero
+     */
+    public long getEvictionCount()
+    {
+        return 0L;
+    }
+
+    /**
+     * Obtain the fingerprint of the provided object.
+     * @param t Object for which to obtain the fingerprint
+     * @return fingerprint stored for the object, or zero if the object is
+     *         not in the table or has no fingerprint
+     */
+    public long getFingerprint(Object t)
+    {
+        int i = findObject(t);
+        return (i >= 0 && objFingerprint != null) ? objFingerprint[i] : 0L;
+    }
+
+    /**
+     * Obtain every object in the table.
+     * @return List containing every object in the table, in no particular
+     *         order; later changes to the table don't affect the List
+     */
+    public List<Object> getObjects()
+    {
+        List<Object> objects = new ArrayList(objCount);
+        for(Object o : objKeys) {
+            if(o != null) {
+                objects.add(o);
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Obtain the object with the provided UUID identity.
+     * @param uuid UUID identity of the object
+     * @return Object with the provided UUID identity, or null if there is
+     *         no such object in the table
+     */
+    public Object get(UUID uuid)
+    {
+        int i = findId(uuid);
+        return (i >= 0) ? idValues[i] : null;
+    }
+
+    /**
+     * Obtain the UUID identity of the provided object.
+     * @param t Object for which to obtain the UUID identity
+     * @return UUID identity of the object, or null if the object is not
+     *         in the table
+     */
+    public UUID getId(Object t)
+    {
+        int i = findObject(t);
+        return (i >= 0) ? new UUID(objMsb[i], objLsb[i]) : null;
+    }
+
+    /**
+     * Add the provided object with the provided UUID identity to the table.
+     * As with a pair of maps, each side is updated independently; putting
+     * an object again replaces its UUID identity, and putting a UUID
+     * identity again replaces its object.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     * @throws IllegalArgumentException if the object is null
+     */
+    public void put(UUID uuid, Object t)
+    {
+        // a null object would be counted without being findable
+        if(t == null) {
+            throw new IllegalArgumentException("t == null");
+        }
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        putObject(t, msb, lsb);
+        putId(msb, lsb, t);
+    }
+
+    /**
+     * Add the provided object with the provided UUID identity to the table,
+     * unless some object already has that UUID identity.
+     * Like the rest of the table, this is NOT atomic.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     * @return Object with the provided UUID identity afterwards; this is the
+     *         provided Object, unless another object already had it
+     */
+    public Object putIdIfAbsent(UUID uuid, Object t)
+    {
+        Object o = get(uuid);
+        if(o == null) {
+            put(uuid, t);
+            return t;
+        }
+        return o;
+    }
+
+    /**
+     * Add the provided object with the provided UUID identity to the table,
+     * unless the object already has a UUID identity.
+     * Like the rest of the table, this is NOT atomic.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     * @return UUID identity of the object afterwards; this is the provided
+     *         UUID identity, unless the object already had one
+     */
+    public UUID putObjectIfAbsent(UUID uuid, Object t)
+    {
+        UUID id = getId(t);
+        if(id == null) {
+            put(uuid, t);
+            return uuid;
+        }
+        return id;
+    }
+
+    /**
+     * Remove the object with the provided UUID identity from the table.
+     * If the object is paired with that UUID identity on the object side,
+     * it is removed from there as well.
+     * @param uuid UUID identity of the object to be removed
+     * @return true, if an object was removed; false, if there was no
+     *         object with the provided UUID identity
+     */
+    public boolean remove(UUID uuid)
+    {
+        int i = findId(uuid);
+        if(i < 0) {
+            return false;
+        }
+        long msb = idMsb[i];
+        long lsb = idLsb[i];
+        int j = findObject(idValues[i]);
+        deleteId(i);
+        if(j >= 0 && objMsb[j] == msb && objLsb[j] == lsb) {
+            deleteObject(j);
+        }
+        return true;
+    }
+
+    /**
+     * Remove the provided object from the table. If its UUID identity is
+     * paired with the object on the identity side, it is removed from
+     * there as well.
+     * @param t Object to be removed
+     * @return true, if the object was removed; false, if it was not in
+     *         the table
+     */
+    public boolean remove(Object t)
+    {
+        int i = findObject(t);
+        if(i < 0) {
+            return false;
+        }
+        int j = findId(new UUID(objMsb[i], objLsb[i]));
+        deleteObject(i);
+        if(j >= 0 && idValues[j] == t) {
+            deleteId(j);
+        }
+        return true;
+    }
+
+    /**
+     * Store the fingerprint of the provided object.
+     * @param t Object for which to store the fingerprint; if it is not in
+     *          the table, nothing is stored
+     * @param fingerprint fingerprint of the object
+     */
+    public void setFingerprint(Object t, long fingerprint)
+    {
+        int i = findObject(t);
+        if(i >= 0) {
+            if(objFingerprint == null) {
+                objFingerprint = new long[objKeys.length];
+            }
+            objFingerprint[i] = fingerprint;
+        }
+    }
+
+    /**
+     * Obtain the number of objects in the table.
+     * @return number of objects in the table
+     */
+    public int size()
+    {
+        return objCount;
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Find the slot that holds the provided object.
+     * @param t Object to look for
+     * @return index of the slot, or -1 if the object is not in the table
+     */
+    private int findObject(Object t)
+    {
+        if(t == null) {
+            return -1;
+        }
+        int mask = objKeys.length - 1;
+        for(int i = hash(t) & mask; objKeys[i] != null; i = (i+1) & mask) {
+            if(objKeys[i] == t) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the slot that holds the provided UUID identity.
+     * @param uuid UUID identity to look for
+     * @return index of the slot, or -1 if the UUID identity is not in the
+     *         table
+     */
+    private int findId(UUID uuid)
+    {
+        if(uuid == null) {
+            return -1;
+        }
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int mask = idValues.length - 1;
+        for(int i = hash(msb, lsb) & mask; idValues[i] != null; i = (i+1) & mask) {
+            if(idMsb[i] == msb && idLsb[i] == lsb) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Empty a slot on the object side of the table. Entries further along
+     * the probe sequence are shifted back, so that every entry can still
+     * be found from its home slot without leaving tombstones behind.
+     * @param i index of the slot to be emptied
+     */
+    private void deleteObject(int i)
+    {
+        int mask = objKeys.length - 1;
+        for(int j = (i+1) & mask; objKeys[j] != null; j = (j+1) & mask) {
+            int home = hash(objKeys[j]) & mask;
+            // if the entry's home slot is cyclically within (i, j], it
+            // can still be found; otherwise, move it into the hole
+            if(isBetween(home, i, j) == false) {
+                objKeys[i] = objKeys[j];
+                objMsb[i] = objMsb[j];
+                objLsb[i] = objLsb[j];
+                if(objFingerprint != null) {
+                    objFingerprint[i] = objFingerprint[j];
+                }
+                i = j;
+            }
+        }
+        objKeys[i] = null;
+        if(objFingerprint != null) {
+            objFingerprint[i] = 0L;
+        }
+        objCount--;
+    }
+
+    /**
+     * Empty a slot on the identity side of the table, shifting entries
+     * back in the same way as deleteObject().
+     * @param i index of the slot to be emptied
+     */
+    private void deleteId(int i)
+    {
+        int mask = idValues.length - 1;
+        for(int j = (i+1) & mask; idValues[j] != null; j = (j+1) & mask) {
+            int home = hash(idMsb[j], idLsb[j]) & mask;
+            if(isBetween(home, i, j) == false) {
+                idMsb[i] = idMsb[j];
+                idLsb[i] = idLsb[j];
+                idValues[i] = idValues[j];
+                i = j;
+            }
+        }
+        idValues[i] = null;
+        idCount--;
+    }
+
+    /**
+     * Determine if slot k lies cyclically within the range (i, j].
+     */
+    static boolean isBetween(int k, int i, int j)
+    {
+        return (i <= j) ? (i < k && k <= j) : (i < k || k <= j);
+    }
+
+    /**
+     * Allocate the arrays of the object side of the table.
+     * @param capacity number of slots; a power of two
+     */
+    private void initObjects(int capacity)
+    {
+        objKeys = new Object[capacity];
+        objMsb = new long[capacity];
+        objLsb = new long[capacity];
+        objFingerprint = null;
+        objCount = 0;
+    }
+
+    /**
+     * Allocate the arrays of the identity side of the table.
+     * @param capacity number of slots; a power of two
+     */
+    private void initIds(int capacity)
+    {
+        idMsb = new long[capacity];
+        idLsb = new long[capacity];
+        idValues = new Object[capacity];
+        idCount = 0;
+    }
+
+    /**
+     * Add or replace an entry on the object side of the table.
+     * @param t Object to be added
+     * @param msb most significant bits of its UUID identity
+     * @param lsb least significant bits of its UUID identity
+     * @return index of the slot that holds the object
+     */
+    private int putObject(Object t, long msb, long lsb)
+    {
+        int mask = objKeys.length - 1;
+        int i = hash(t) & mask;
+        while(objKeys[i] != null) {
+            if(objKeys[i] == t) {
+                objMsb[i] = msb;
+                objLsb[i] = lsb;
+                return i;
+            }
+            i = (i+1) & mask;
+        }
+        objKeys[i] = t;
+        objMsb[i] = msb;
+        objLsb[i] = lsb;
+        // if the table is more than 2/3 full, double its size
+        if(++objCount * 3 > objKeys.length * 2) {
+            Object[] oldKeys = objKeys;
+            long[] oldMsb = objMsb;
+            long[] oldLsb = objLsb;
+            long[] oldFingerprint = objFingerprint;
+            initObjects(oldKeys.length * 2);
+            if(oldFingerprint != null) {
+                objFingerprint = new long[objKeys.length];
+            }
+            for(int j=0; j<oldKeys.length; j++) {
+                if(oldKeys[j] != null) {
+                    int k = putObject(oldKeys[j], oldMsb[j], oldLsb[j]);
+                    if(oldFingerprint != null) {
+                        objFingerprint[k] = oldFingerprint[j];
+                    }
+                }
+            }
+            return findObject(t);
+        }
+        return i;
+    }
+
+    /**
+     * Add or replace an entry on the identity side of the table.
+     * @param msb most significant bits of the UUID identity
+     * @param lsb least significant bits of the UUID identity
+     * @param t Object with the UUID identity
+     */
+    private void putId(long msb, long lsb, Object t)
+    {
+        int mask = idValues.length - 1;
+        int i = hash(msb, lsb) & mask;
+        while(idValues[i] != null) {
+            if(idMsb[i] == msb && idLsb[i] == lsb) {
+                idValues[i] = t;
+                return;
+            }
+            i = (i+1) & mask;
+        }
+        idMsb[i] = msb;
+        idLsb[i] = lsb;
+        idValues[i] = t;
+        // if the table is more than 2/3 full, double its size
+        if(++idCount * 3 > idValues.length * 2) {
+            long[] oldMsb = idMsb;
+            long[] oldLsb = idLsb;
+            Object[] oldValues = idValues;
+            initIds(oldValues.length * 2);
+            for(int j=0; j<oldValues.length; j++) {
+                if(oldValues[j] != null) {
+                    putId(oldMsb[j], oldLsb[j], oldValues[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hash an object by identity.
+     */
+    static int hash(Object t)
+    {
+        return mix(System.identityHashCode(t));
+    }
+
+    /**
+     * Hash a UUID identity by its two halves.
+     */
+    static int hash(long msb, long lsb)
+    {
+        long x = msb ^ lsb;
+        return mix((int) (x ^ (x >>> 32)));
+    }
+
+    /**
+     * Spread the bits of a hash code, so that hash codes that differ only
+     * in their high bits don't collide in a small table.
+     */
+    private static int mix(int h)
+    {
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Objects on the object side of the table; null marks an empty slot.
+     */
+    private Object[] objKeys;
+
+    /**
+     * Most significant bits of the UUID identity of each object.
+     */
+    private long[] objMsb;
+
+    /**
+     * Least significant bits of the UUID identity of each object.
+     */
+    private long[] objLsb;
+
+    /**
+     * Fingerprint of each object, or null if no fingerprint has been stored.
+     */
+    private long[] objFingerprint;
+
+    /**
+     * Number of objects on the object side of the table.
+     */
+    private int objCount;
+
+    /**
+     * Most significant bits of each UUID identity on the identity side.
+     */
+    private long[] idMsb;
+
+    /**
+     * Least significant bits of each UUID identity on the identity side.
+     */
+    private long[] idLsb;
+
+    /**
+     * Object with each UUID identity; null marks an empty slot.
+     */
+    private Object[] idValues;
+
+    /**
+     * Number of UUID identities on the identity side of the table.
+     */
+    private int idCount;
+}
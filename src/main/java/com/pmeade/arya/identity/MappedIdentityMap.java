@@ -0,0 +1,741 @@
+/*
+ * MappedIdentityMap.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MappedIdentityMap is an IdentityMap for graphs whose identities are
+ * too many to be tracked on the heap. The UUID identities and fingerprints live in memory-mapped
+ * files; the objects, and the index of them, remain on the heap.
+ * 
+ * Each pairing of an object and a UUID identity is given a slot. The slot
+ * holds a fixed-width record in the record file: the two long halves of
+ * the UUID identity and the fingerprint of the object (24 bytes). The
+ * identity side of the map is an open-addressing hash index of slot
+ * numbers, kept in the index file; it is probed by comparing the UUID
+ * halves stored in the records, so no UUID is ever held on the heap.
+ * 
+ * The object side is an identity-keyed open-addressing table of slot
+ * numbers on the heap, and an array of the object in each slot. Both hold
+ * strong references, so every object in the map stays on the heap until
+ * it is removed, or the map is cleared or closed. What the map saves is
+ * the bookkeeping: about 16 bytes of heap per entry, on top of the object
+ * itself, instead of the UUID halves and fingerprint of each entry.
+ * 
+ * When the identity index grows, it is rebuilt in place at the start of
+ * the index file, so the file stays the size of the live index. The files
+ * are temporary; close() unmaps them and deletes them (or they are deleted
+ * when the JVM exits). Slots of removed objects are not reused until
+ * clear() is called. The map is NOT thread-safe.
+ * @author pmeade
+ */
+public final class MappedIdentityMap implements IdentityMap, Closeable
+{
+    /** SLF4J Logging Service */
+    private static final Logger log = LoggerFactory.getLogger(MappedIdentityMap.class);
+
+    /**
+     * Size of the record in each slot: msb, lsb, and fingerprint.
+     */
+    private static final int RECORD_SIZE = 24;
+
+    /**
+     * Number of slots in each mapped chunk of the record file (2^18).
+     */
+    private static final int CHUNK_BITS = 18;
+
+    /**
+     * Initial number of entries in the hash indexes.
+     */
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    /**
+     * Maximum number of entries in the identity index; a single mapping
+     * can't exceed 2 GB.
+     */
+    private static final int MAX_CAPACITY = 1 << 28;
+
+    /**
+     * Construct a MappedIdentityMap, with its files in the default
+     * temporary-file directory.
+     * @throws IOException if the files can't be created
+     */
+    public MappedIdentityMap() throws IOException
+    {
+        this(null);
+    }
+
+    /**
+     * Construct a MappedIdentityMap.
+     * @param directory directory in which to create the files, or null
+     *                  to use the default temporary-file directory
+     * @throws IOException if the files can't be created
+     */
+    public MappedIdentityMap(File directory) throws IOException
+    {
+        this.recordFile = File.createTempFile("arya", ".rec", directory);
+        this.indexFile = File.createTempFile("arya", ".idx", directory);
+        recordFile.deleteOnExit();
+        indexFile.deleteOnExit();
+        this.records = new RandomAccessFile(recordFile, "rw").getChannel();
+        this.index = new RandomAccessFile(indexFile, "rw").getChannel();
+        initIds(INITIAL_CAPACITY);
+        initObjects(INITIAL_CAPACITY);
+        this.slotObjects = new Object[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Remove every object and identity from the map. The files keep their
+     * size; their slots are reused.
+     */
+    public void clear()
+    {
+        for(int i=0; i<idCapacity; i++) {
+            idIndex.putInt(i << 2, 0);
+        }
+        idCount = 0;
+        initObjects(INITIAL_CAPACITY);
+        slotObjects = new Object[INITIAL_CAPACITY];
+        slotCount = 0;
+    }
+
+    /**
+     * Close the map, and delete its files. The map can't be used after
+     * it has been closed.
+     */
+    public void close()
+    {
+        try {
+            records.close();
+            index.close();
+        } catch(IOException e) {
+            log.warn("Unable to close identity map:", e);
+        }
+        // release the mappings now, rather than when the buffers are collected
+        for(MappedByteBuffer chunk : chunks) {
+            unmap(chunk);
+        }
+        chunks.clear();
+        unmap(idIndex);
+        idIndex = null;
+        objKeys = null;
+        objSlots = null;
+        slotObjects = null;
+        recordFile.delete();
+        indexFile.delete();
+    }
+
+    /**
+     * Determine if the map contains an object with the provided UUID
+     * identity.
+     * @param uuid UUID identity to look for
+     * @return true, if an object has the provided UUID identity, else false
+     */
+    public boolean containsId(UUID uuid)
+    {
+        return get(uuid) != null;
+    }
+
+    /**
+     * Determine if the map contains the provided object. Objects are
+     * compared by identity (==), not by equals().
+     * @param t Object to look for
+     * @return true, if the object has a UUID identity, else false
+     */
+    public boolean containsObject(Object t)
+    {
+        return findObject(t) >= 0;
+    }
+
+    /**
+     * Obtain the object with the provided UUID identity.
+     * @param uuid UUID identity of the object
+     * @return Object with the provided UUID identity, or null if there is
+     *         no such object in the map
+     */
+    public Object get(UUID uuid)
+    {
+        int i = findId(uuid);
+        return (i >= 0) ? slotObjects[idIndex.getInt(i << 2) - 1] : null;
+    }
+
+    /**
+     * Obtain the number of entries evicted by the map. A MappedIdentityMap
+     * never evicts entries on its own.
+     * @return zero
+     */
+    public long getEvictionCount()
+    {
+        return 0L;
+    }
+
+    /**
+     * Obtain the fingerprint of the provided object.
+     * @param t Object for which to obtain the fingerprint
+     * @return fingerprint stored for the object, or zero if the object is
+     *         not in the map or has no fingerprint
+     */
+    public long getFingerprint(Object t)
+    {
+        int i = findObject(t);
+        return (i >= 0) ? getRecord(objSlots[i], 16) : 0L;
+    }
+
+    /**
+     * Obtain the UUID identity of the provided object.
+     * @param t Object for which to obtain the UUID identity
+     * @return UUID identity of the object, or null if the object is not
+     *         in the map
+     */
+    public UUID getId(Object t)
+    {
+        int i = findObject(t);
+        if(i < 0) {
+            return null;
+        }
+        int slot = objSlots[i];
+        return new UUID(getRecord(slot, 0), getRecord(slot, 8));
+    }
+
+    /**
+     * Obtain every object in the map.
+     * @return List containing every object in the map, in no particular
+     *         order; later changes to the map don't affect the List
+     */
+    public List<Object> getObjects()
+    {
+        List<Object> objects = new ArrayList(objCount);
+        for(Object o : objKeys) {
+            if(o != null) {
+                objects.add(o);
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Add the provided object with the provided UUID identity to the map.
+     * As with a pair of maps, each side is updated independently; putting
+     * an object again replaces its UUID identity, and putting a UUID
+     * identity again replaces its object.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     */
+    public void put(UUID uuid, Object t)
+    {
+        int slot;
+        int i = findId(uuid);
+        // if the identity already has a slot, it now holds this object
+        if(i >= 0) {
+            slot = idIndex.getInt(i << 2) - 1;
+        }
+        // otherwise, give the identity a new slot
+        else {
+            slot = newSlot(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            putId(slot);
+        }
+        slotObjects[slot] = t;
+        putObject(t, slot);
+    }
+
+    /**
+     * Add the provided object with the provided UUID identity to the map,
+     * unless some object already has that UUID identity.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     * @return Object with the provided UUID identity afterwards; this is the
+     *         provided Object, unless another object already had it
+     */
+    public Object putIdIfAbsent(UUID uuid, Object t)
+    {
+        Object o = get(uuid);
+        if(o == null) {
+            put(uuid, t);
+            return t;
+        }
+        return o;
+    }
+
+    /**
+     * Add the provided object with the provided UUID identity to the map,
+     * unless the object already has a UUID identity.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     * @return UUID identity of the object afterwards; this is the provided
+     *         UUID identity, unless the object already had one
+     */
+    public UUID putObjectIfAbsent(UUID uuid, Object t)
+    {
+        UUID id = getId(t);
+        if(id == null) {
+            put(uuid, t);
+            return uuid;
+        }
+        return id;
+    }
+
+    /**
+     * Remove the object with the provided UUID identity from the map.
+     * @param uuid UUID identity of the object to be removed
+     * @return true, if an object was removed; false, if there was no
+     *         object with the provided UUID identity
+     */
+    public boolean remove(UUID uuid)
+    {
+        int i = findId(uuid);
+        if(i < 0) {
+            return false;
+        }
+        int slot = idIndex.getInt(i << 2) - 1;
+        Object t = slotObjects[slot];
+        deleteId(i);
+        slotObjects[slot] = null;
+        // if the object is paired with this identity, remove it as well
+        int j = findObject(t);
+        if(j >= 0 && objSlots[j] == slot) {
+            deleteObject(j);
+        }
+        return true;
+    }
+
+    /**
+     * Remove the provided object (and its UUID identity) from the map.
+     * @param t Object to be removed
+     * @return true, if the object was removed; false, if it was not in
+     *         the map
+     */
+    public boolean remove(Object t)
+    {
+        int j = findObject(t);
+        if(j < 0) {
+            return false;
+        }
+        int slot = objSlots[j];
+        deleteObject(j);
+        // if the identity is paired with this object, remove it as well
+        if(slotObjects[slot] == t) {
+            deleteId(findId(new UUID(getRecord(slot, 0), getRecord(slot, 8))));
+            slotObjects[slot] = null;
+        }
+        return true;
+    }
+
+    /**
+     * Store the fingerprint of the provided object.
+     * @param t Object for which to store the fingerprint; if it is not in
+     *          the map, nothing is stored
+     * @param fingerprint fingerprint of the object
+     */
+    public void setFingerprint(Object t, long fingerprint)
+    {
+        int i = findObject(t);
+        if(i >= 0) {
+            putRecord(objSlots[i], 16, fingerprint);
+        }
+    }
+
+    /**
+     * Obtain the number of objects in the map.
+     * @return number of objects in the map
+     */
+    public int size()
+    {
+        return objCount;
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Read one long field of a record.
+     * @param slot slot of the record
+     * @param offset offset of the field within the record
+     * @return value of the field
+     */
+    private long getRecord(int slot, int offset)
+    {
+        MappedByteBuffer chunk = chunks.get(slot >>> CHUNK_BITS);
+        return chunk.getLong((slot & ((1 << CHUNK_BITS) - 1)) * RECORD_SIZE + offset);
+    }
+
+    /**
+     * Write one long field of a record.
+     * @param slot slot of the record
+     * @param offset offset of the field within the record
+     * @param value value of the field
+     */
+    private void putRecord(int slot, int offset, long value)
+    {
+        MappedByteBuffer chunk = chunks.get(slot >>> CHUNK_BITS);
+        chunk.putLong((slot & ((1 << CHUNK_BITS) - 1)) * RECORD_SIZE + offset, value);
+    }
+
+    /**
+     * Allocate the next slot, mapping another chunk of the record file if
+     * necessary, and write the UUID identity into its record.
+     * @param msb most significant bits of the UUID identity
+     * @param lsb least significant bits of the UUID identity
+     * @return the new slot
+     */
+    private int newSlot(long msb, long lsb)
+    {
+        int slot = slotCount++;
+        // if the slot is beyond the mapped chunks, map another one
+        if((slot >>> CHUNK_BITS) == chunks.size()) {
+            long chunkSize = (long) RECORD_SIZE << CHUNK_BITS;
+            chunks.add(map(records, chunks.size() * chunkSize, chunkSize));
+        }
+        // if the array of objects is full, double its size
+        if(slot == slotObjects.length) {
+            Object[] oldObjects = slotObjects;
+            slotObjects = new Object[oldObjects.length * 2];
+            System.arraycopy(oldObjects, 0, slotObjects, 0, oldObjects.length);
+        }
+        putRecord(slot, 0, msb);
+        putRecord(slot, 8, lsb);
+        putRecord(slot, 16, 0L);
+        return slot;
+    }
+
+    /**
+     * Map a region of the provided file.
+     * @param channel FileChannel of the file
+     * @param position position of the region in the file
+     * @param size size of the region in bytes
+     * @return MappedByteBuffer for the region
+     */
+    private static MappedByteBuffer map(FileChannel channel, long position, long size)
+    {
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        } catch(IOException e) {
+            throw new IllegalStateException("Unable to map identity file", e);
+        }
+    }
+
+    /**
+     * Unmap the provided buffer. MappedByteBuffer has no public way to do
+     * this, so the cleaner of the buffer is run through sun.misc.Unsafe;
+     * if that isn't available, the mapping is released when the buffer is
+     * collected. The buffer must not be used afterwards.
+     * @param buffer MappedByteBuffer to be unmapped, or null
+     */
+    private static void unmap(MappedByteBuffer buffer)
+    {
+        if(buffer == null) {
+            return;
+        }
+        try {
+            Class unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch(Exception e) {
+            log.debug("Unable to unmap identity file:", e);
+        }
+    }
+
+    /**
+     * Find the position in the identity index that holds the provided
+     * UUID identity.
+     * @param uuid UUID identity to look for
+     * @return position in the index, or -1 if the UUID identity is not in
+     *         the map
+     */
+    private int findId(UUID uuid)
+    {
+        if(uuid == null) {
+            return -1;
+        }
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int mask = idCapacity - 1;
+        for(int i = IdentityTable.hash(msb, lsb) & mask; ; i = (i+1) & mask) {
+            int entry = idIndex.getInt(i << 2);
+            if(entry == 0) {
+                return -1;
+            }
+            if(getRecord(entry - 1, 0) == msb && getRecord(entry - 1, 8) == lsb) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Map a new, empty identity index at the start of the index file.
+     * @param capacity number of entries; a power of two
+     */
+    private void initIds(int capacity)
+    {
+        if(capacity > MAX_CAPACITY) {
+            throw new IllegalStateException("Identity index is full");
+        }
+        idIndex = map(index, 0L, (long) capacity << 2);
+        idCapacity = capacity;
+        idCount = 0;
+    }
+
+    /**
+     * Add the provided slot to the identity index, growing the index if
+     * it is more than 2/3 full.
+     * @param slot slot holding the UUID identity to be indexed
+     */
+    private void putId(int slot)
+    {
+        insertId(slot);
+        if(++idCount * 3L > idCapacity * 2L) {
+            growIds();
+        }
+    }
+
+    /**
+     * Double the size of the identity index, in place. The old entries
+     * are copied aside, past the end of the new index; the index is
+     * remapped at twice the size and emptied; the entries are reinserted
+     * from the copy; and the copy is truncated away. The index file ends
+     * up the size of the new index.
+     */
+    private void growIds()
+    {
+        int oldCapacity = idCapacity;
+        int count = idCount;
+        long oldSize = (long) oldCapacity << 2;
+        // copy the old entries aside, past the end of the new index
+        MappedByteBuffer copy = map(index, oldSize * 2, oldSize);
+        for(int i=0; i<oldSize; i+=8) {
+            copy.putLong(i, idIndex.getLong(i));
+        }
+        // remap the index at twice the size, and empty it
+        unmap(idIndex);
+        initIds(oldCapacity * 2);
+        for(int i=0; i<oldSize; i+=8) {
+            idIndex.putLong(i, 0L);
+        }
+        // reinsert the entries from the copy, then drop the copy
+        for(int i=0; i<oldCapacity; i++) {
+            int entry = copy.getInt(i << 2);
+            if(entry != 0) {
+                insertId(entry - 1);
+            }
+        }
+        unmap(copy);
+        try {
+            index.truncate(oldSize * 2);
+        } catch(IOException e) {
+            throw new IllegalStateException("Unable to truncate identity file", e);
+        }
+        idCount = count;
+    }
+
+    /**
+     * Write the provided slot into the first free position of its probe
+     * sequence in the identity index.
+     * @param slot slot holding the UUID identity to be indexed
+     */
+    private void insertId(int slot)
+    {
+        int mask = idCapacity - 1;
+        int i = IdentityTable.hash(getRecord(slot, 0), getRecord(slot, 8)) & mask;
+        while(idIndex.getInt(i << 2) != 0) {
+            i = (i+1) & mask;
+        }
+        idIndex.putInt(i << 2, slot + 1);
+    }
+
+    /**
+     * Empty a position in the identity index, shifting entries further
+     * along the probe sequence back, as IdentityTable does.
+     * @param i position in the index to be emptied
+     */
+    private void deleteId(int i)
+    {
+        int mask = idCapacity - 1;
+        for(int j = (i+1) & mask; idIndex.getInt(j << 2) != 0; j = (j+1) & mask) {
+            int entry = idIndex.getInt(j << 2);
+            int home = IdentityTable.hash(getRecord(entry - 1, 0), getRecord(entry - 1, 8)) & mask;
+            if(IdentityTable.isBetween(home, i, j) == false) {
+                idIndex.putInt(i << 2, entry);
+                i = j;
+            }
+        }
+        idIndex.putInt(i << 2, 0);
+        idCount--;
+    }
+
+    /**
+     * Find the position in the object index that holds the provided object.
+     * @param t Object to look for
+     * @return position in the index, or -1 if the object is not in the map
+     */
+    private int findObject(Object t)
+    {
+        if(t == null) {
+            return -1;
+        }
+        int mask = objKeys.length - 1;
+        for(int i = IdentityTable.hash(t) & mask; objKeys[i] != null; i = (i+1) & mask) {
+            if(objKeys[i] == t) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Allocate the arrays of the object index.
+     * @param capacity number of entries; a power of two
+     */
+    private void initObjects(int capacity)
+    {
+        objKeys = new Object[capacity];
+        objSlots = new int[capacity];
+        objCount = 0;
+    }
+
+    /**
+     * Add or replace an entry in the object index, growing the index if
+     * it is more than 2/3 full.
+     * @param t Object to be added
+     * @param slot slot holding its UUID identity
+     */
+    private void putObject(Object t, int slot)
+    {
+        int mask = objKeys.length - 1;
+        int i = IdentityTable.hash(t) & mask;
+        while(objKeys[i] != null) {
+            if(objKeys[i] == t) {
+                objSlots[i] = slot;
+                return;
+            }
+            i = (i+1) & mask;
+        }
+        objKeys[i] = t;
+        objSlots[i] = slot;
+        if(++objCount * 3 > objKeys.length * 2) {
+            Object[] oldKeys = objKeys;
+            int[] oldSlots = objSlots;
+            initObjects(oldKeys.length * 2);
+            for(int j=0; j<oldKeys.length; j++) {
+                if(oldKeys[j] != null) {
+                    putObject(oldKeys[j], oldSlots[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Empty a position in the object index, shifting entries further
+     * along the probe sequence back, as IdentityTable does.
+     * @param i position in the index to be emptied
+     */
+    private void deleteObject(int i)
+    {
+        int mask = objKeys.length - 1;
+        for(int j = (i+1) & mask; objKeys[j] != null; j = (j+1) & mask) {
+            int home = IdentityTable.hash(objKeys[j]) & mask;
+            if(IdentityTable.isBetween(home, i, j) == false) {
+                objKeys[i] = objKeys[j];
+                objSlots[i] = objSlots[j];
+                i = j;
+            }
+        }
+        objKeys[i] = null;
+        objCount--;
+    }
+
+    /**
+     * Temporary file holding the records.
+     */
+    private final File recordFile;
+
+    /**
+     * Temporary file holding the identity index.
+     */
+    private final File indexFile;
+
+    /**
+     * FileChannel of the record file.
+     */
+    private final FileChannel records;
+
+    /**
+     * FileChannel of the index file.
+     */
+    private final FileChannel index;
+
+    /**
+     * Mapped chunks of the record file, in order.
+     */
+    private final List<MappedByteBuffer> chunks = new ArrayList();
+
+    /**
+     * Number of slots allocated so far.
+     */
+    private int slotCount;
+
+    /**
+     * Object in each slot; null if the slot's identity was removed.
+     */
+    private Object[] slotObjects;
+
+    /**
+     * Identity index: slot + 1 of each UUID identity; zero marks an empty
+     * entry.
+     */
+    private MappedByteBuffer idIndex;
+
+    /**
+     * Number of entries in the identity index; a power of two.
+     */
+    private int idCapacity;
+
+    /**
+     * Number of UUID identities in the identity index.
+     */
+    private int idCount;
+
+    /**
+     * Objects in the object index; null marks an empty entry.
+     */
+    private Object[] objKeys;
+
+    /**
+     * Slot of the UUID identity of each object in the object index.
+     */
+    private int[] objSlots;
+
+    /**
+     * Number of objects in the object index.
+     */
+    private int objCount;
+}
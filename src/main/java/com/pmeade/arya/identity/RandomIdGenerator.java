@@ -0,0 +1,44 @@
+/*
+ * RandomIdGenerator.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import java.util.UUID;
+
+/**
+ * RandomIdGenerator creates random (version 4) UUID identities with
+ * UUID.randomUUID(). This is the IdGenerator that Arya has always used,
+ * and remains the default.
+ * 
+ * UUID.randomUUID() draws from a single shared SecureRandom, so it
+ * contends when many threads create identities at the same time, and
+ * random identities are scattered across any sorted index into which they
+ * are written. TimeOrderedIdGenerator and SequentialIdGenerator avoid both
+ * problems.
+ * @author pmeade
+ */
+public class RandomIdGenerator implements IdGenerator
+{
+    /**
+     * Create a new random UUID identity.
+     * @return version 4 UUID identity
+     */
+    public UUID next() {
+        return UUID.randomUUID();
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * ReferenceIdentityMap.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * ReferenceIdentityMap is an IdentityMap for long-lived Arya sessions. It
+ * can hold its objects by weak (or soft) references, so that the session
+ * doesn't keep alive objects that the application no longer uses, and it
+ * can be bounded to a maximum number of entries, evicting the least
+ * recently used entry when the bound is reached.
+ * 
+ * The object side is always keyed by weak references, which Guava compares
+ * by identity (==), so it never keeps an object alive on its own. The
+ * identity side holds the objects according to the Retention of the map;
+ * as long as it holds an object, the object stays on both sides.
+ * 
+ * IMPORTANT: Arya relies on the identity map to recognize objects that it
+ *            has already serialized (or deserialized) while it walks a
+ *            graph. A bound must be larger than the number of objects in
+ *            the largest graph saved or loaded by a single call; otherwise
+ *            an object may be evicted while the walk is still using it.
+ * 
+ * The map is built on Guava's Cache; evictions are counted, and available
+ * from getEvictionCount(). The size of a map holding weak or soft
+ * references may briefly include objects that the garbage collector has
+ * reclaimed, but not yet removed from the map.
+ * @author pmeade
+ */
+public final class ReferenceIdentityMap implements IdentityMap
+{
+    /**
+     * Retention describes how a ReferenceIdentityMap holds its objects.
+     */
+    public static enum Retention
+    {
+        /**
+         * Objects are held by strong references; they leave the map only
+         * when the map is bounded, and they are evicted.
+         */
+        STRONG,
+        /**
+         * Objects are held by soft references; the garbage collector may
+         * reclaim them when memory runs low.
+         */
+        SOFT,
+        /**
+         * Objects are held by weak references; the garbage collector may
+         * reclaim them as soon as the application no longer uses them.
+         */
+        WEAK
+    }
+
+    /**
+     * Construct an unbounded ReferenceIdentityMap.
+     * @param retention Retention of the objects in the map
+     */
+    public ReferenceIdentityMap(Retention retention)
+    {
+        this(retention, 0L);
+    }
+
+    /**
+     * Construct a ReferenceIdentityMap.
+     * @param retention Retention of the objects in the map
+     * @param maxEntries maximum number of entries in the map; the least
+     *                   recently used entry is evicted when the bound is
+     *                   reached. Zero means that the map is unbounded.
+     */
+    public ReferenceIdentityMap(Retention retention, long maxEntries)
+    {
+        if(maxEntries < 0L) {
+            throw new IllegalArgumentException("maxEntries < 0");
+        }
+        // the object side: weak keys are always compared by identity (==)
+        this.objects = CacheBuilder.newBuilder().concurrencyLevel(1).weakKeys().build();
+        // the identity side: holds the objects according to the retention
+        CacheBuilder idBuilder = CacheBuilder.newBuilder().concurrencyLevel(1).recordStats();
+        if(retention == Retention.SOFT) {
+            idBuilder.softValues();
+        }
+        if(retention == Retention.WEAK) {
+            idBuilder.weakValues();
+        }
+        if(maxEntries > 0L) {
+            idBuilder.maximumSize(maxEntries);
+        }
+        // when an identity is evicted to honor the bound, evict its object
+        this.ids = idBuilder.removalListener(new RemovalListener<UUID,Object>() {
+            public void onRemoval(RemovalNotification<UUID,Object> notification) {
+                if(notification.getCause() == RemovalCause.SIZE
+                && notification.getValue() != null) {
+                    objects.invalidate(notification.getValue());
+                }
+            }
+        }).build();
+        this.retention = retention;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Remove every object and identity from the map. Entries removed by
+     * clear() are not counted as evictions.
+     */
+    public void clear()
+    {
+        ids.invalidateAll();
+        objects.invalidateAll();
+    }
+
+    /**
+     * Determine if the map contains an object with the provided UUID
+     * identity.
+     * @param uuid UUID identity to look for
+     * @return true, if an object has the provided UUID identity, else false
+     */
+    public boolean containsId(UUID uuid)
+    {
+        return get(uuid) != null;
+    }
+
+    /**
+     * Determine if the map contains the provided object. Objects are
+     * compared by identity (==), not by equals().
+     * @param t Object to look for
+     * @return true, if the object has a UUID identity, else false
+     */
+    public boolean containsObject(Object t)
+    {
+        return (t != null) && objects.getIfPresent(t) != null;
+    }
+
+    /**
+     * Obtain the object with the provided UUID identity.
+     * @param uuid UUID identity of the object
+     * @return Object with the provided UUID identity, or null if there is
+     *         no such object in the map (or it has been evicted)
+     */
+    public Object get(UUID uuid)
+    {
+        return (uuid != null) ? ids.getIfPresent(uuid) : null;
+    }
+
+    /**
+     * Obtain the number of entries evicted because the map reached its
+     * maximum size, or because the garbage collector reclaimed the object.
+     * @return number of entries evicted since the map was created
+     */
+    public long getEvictionCount()
+    {
+        return ids.stats().evictionCount();
+    }
+
+    /**
+     * Obtain the fingerprint of the provided object.
+     * @param t Object for which to obtain the fingerprint
+     * @return fingerprint stored for the object, or zero if the object is
+     *         not in the map or has no fingerprint
+     */
+    public long getFingerprint(Object t)
+    {
+        Entry entry = (t != null) ? objects.getIfPresent(t) : null;
+        return (entry != null) ? entry.fingerprint : 0L;
+    }
+
+    /**
+     * Obtain the UUID identity of the provided object. This counts as a use
+     * of the entry, for the purpose of evicting the least recently used.
+     * @param t Object for which to obtain the UUID identity
+     * @return UUID identity of the object, or null if the object is not
+     *         in the map
+     */
+    public UUID getId(Object t)
+    {
+        Entry entry = (t != null) ? objects.getIfPresent(t) : null;
+        if(entry == null) {
+            return null;
+        }
+        UUID uuid = new UUID(entry.msb, entry.lsb);
+        // touch the identity side, so that the object counts as recently used
+        ids.getIfPresent(uuid);
+        return uuid;
+    }
+
+    /**
+     * Obtain every object in the map.
+     * @return List containing every object in the map, in no particular
+     *         order; later changes to the map don't affect the List
+     */
+    public List<Object> getObjects()
+    {
+        return new ArrayList(objects.asMap().keySet());
+    }
+
+    /**
+     * Obtain the maximum number of entries in the map.
+     * @return maximum number of entries, or zero if the map is unbounded
+     */
+    public long getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Obtain the Retention of the objects in the map.
+     * @return Retention of the objects in the map
+     */
+    public Retention getRetention() {
+        return retention;
+    }
+
+    /**
+     * Add the provided object with the provided UUID identity to the map.
+     * If the map is bounded, this may evict the least recently used entry.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     */
+    public void put(UUID uuid, Object t)
+    {
+        objects.put(t, new Entry(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+        ids.put(uuid, t);
+    }
+
+    /**
+     * Add the provided object with the provided UUID identity to the map,
+     * unless some object already has that UUID identity.
+     * This is NOT atomic; only ConcurrentIdentityMap makes it so.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     * @return Object with the provided UUID identity afterwards; this is the
+     *         provided Object, unless another object already had it
+     */
+    public Object putIdIfAbsent(UUID uuid, Object t)
+    {
+        Object o = get(uuid);
+        if(o == null) {
+            put(uuid, t);
+            return t;
+        }
+        return o;
+    }
+
+    /**
+     * Add the provided object with the provided UUID identity to the map,
+     * unless the object already has a UUID identity.
+     * This is NOT atomic; only ConcurrentIdentityMap makes it so.
+     * @param uuid UUID identity of the object
+     * @param t Object to be added
+     * @return UUID identity of the object afterwards; this is the provided
+     *         UUID identity, unless the object already had one
+     */
+    public UUID putObjectIfAbsent(UUID uuid, Object t)
+    {
+        UUID id = getId(t);
+        if(id == null) {
+            put(uuid, t);
+            return uuid;
+        }
+        return id;
+    }
+
+    /**
+     * Remove the object with the provided UUID identity from the map.
+     * @param uuid UUID identity of the object to be removed
+     * @return true, if an object was removed; false, if there was no
+     *         object with the provided UUID identity
+     */
+    public boolean remove(UUID uuid)
+    {
+        Object t = get(uuid);
+        if(t == null) {
+            return false;
+        }
+        ids.invalidate(uuid);
+        // if the object is paired with this identity, remove it as well
+        Entry entry = objects.getIfPresent(t);
+        if(entry != null && entry.msb == uuid.getMostSignificantBits()
+        && entry.lsb == uuid.getLeastSignificantBits()) {
+            objects.invalidate(t);
+        }
+        return true;
+    }
+
+    /**
+     * Remove the provided object (and its UUID identity) from the map.
+     * @param t Object to be removed
+     * @return true, if the object was removed; false, if it was not in
+     *         the map
+     */
+    public boolean remove(Object t)
+    {
+        Entry entry = (t != null) ? objects.getIfPresent(t) : null;
+        if(entry == null) {
+            return false;
+        }
+        objects.invalidate(t);
+        // if the identity is paired with this object, remove it as well
+        UUID uuid = new UUID(entry.msb, entry.lsb);
+        if(ids.getIfPresent(uuid) == t) {
+            ids.invalidate(uuid);
+        }
+        return true;
+    }
+
+    /**
+     * Store the fingerprint of the provided object.
+     * @param t Object for which to store the fingerprint; if it is not in
+     *          the map, nothing is stored
+     * @param fingerprint fingerprint of the object
+     */
+    public void setFingerprint(Object t, long fingerprint)
+    {
+        Entry entry = (t != null) ? objects.getIfPresent(t) : null;
+        if(entry != null) {
+            entry.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * Obtain the number of objects in the map.
+     * @return number of objects in the map
+     */
+    public int size()
+    {
+        objects.cleanUp();
+        return (int) objects.size();
+    }
+
+    /**
+     * Entry holds the UUID identity (and fingerprint) of an object on the
+     * object side of the map.
+     */
+    private static final class Entry
+    {
+        Entry(long msb, long lsb) {
+            this.msb = msb;
+            this.lsb = lsb;
+        }
+
+        /**
+         * Most significant bits of the UUID identity of the object.
+         */
+        final long msb;
+
+        /**
+         * Least significant bits of the UUID identity of the object.
+         */
+        final long lsb;
+
+        /**
+         * Fingerprint of the object, or zero if none has been stored.
+         */
+        long fingerprint;
+    }
+
+    /**
+     * Object side of the map: object -> UUID identity (and fingerprint).
+     */
+    private final Cache<Object,Entry> objects;
+
+    /**
+     * Identity side of the map: UUID identity -> object.
+     */
+    private final Cache<UUID,Object> ids;
+
+    /**
+     * Maximum number of entries in the map, or zero if it is unbounded.
+     */
+    private final long maxEntries;
+
+    /**
+     * Retention of the objects in the map.
+     */
+    private final Retention retention;
+}
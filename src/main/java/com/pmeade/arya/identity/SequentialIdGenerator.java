@@ -0,0 +1,166 @@
+/*
+ * SequentialIdGenerator.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SequentialIdGenerator creates sequential UUID identities. The most
+ * significant bits of each identity are a fixed prefix, and the least
+ * significant bits are a sequence number.
+ * 
+ * Sequence numbers are allocated in blocks from a BlockSource, which may be
+ * shared by many generators (and, with a suitable implementation, by many
+ * processes). Each generator then hands out the numbers of its block
+ * without touching the BlockSource again, so the shared state is updated
+ * once per block instead of once per identity.
+ * 
+ * With a prefix of zero (the default), every identity fits into 64 bits;
+ * Arya can write these compact identities as decimal numbers, and a long
+ * field can hold them.
+ * 
+ * A SequentialIdGenerator is thread-safe; next() is synchronized, so a
+ * concurrent Arya may use one generator from many threads. Give each Arya
+ * its own generator, and share the BlockSource between them.
+ * @see com.pmeade.arya.Arya#setCompactIdentities(boolean)
+ * @author pmeade
+ */
+public class SequentialIdGenerator implements IdGenerator
+{
+    /**
+     * Default number of sequence numbers allocated at a time.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    /**
+     * Construct a SequentialIdGenerator that creates 64-bit identities from
+     * its own in-memory sequence, starting at 1.
+     */
+    public SequentialIdGenerator()
+    {
+        this(0L, new MemoryBlockSource(1L), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Construct a SequentialIdGenerator that creates 64-bit identities from
+     * the provided BlockSource.
+     * @param blockSource BlockSource from which to allocate sequence numbers
+     */
+    public SequentialIdGenerator(BlockSource blockSource)
+    {
+        this(0L, blockSource, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Construct a SequentialIdGenerator.
+     * @param prefix most significant bits of every identity
+     * @param blockSource BlockSource from which to allocate sequence numbers
+     * @param blockSize number of sequence numbers to allocate at a time
+     */
+    public SequentialIdGenerator(long prefix, BlockSource blockSource, int blockSize)
+    {
+        if(blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.prefix = prefix;
+        this.blockSource = blockSource;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Create a new sequential UUID identity.
+     * @return UUID identity with the next sequence number
+     */
+    public synchronized UUID next()
+    {
+        // if we've used every number in the current block, allocate another
+        if(nextSequence == limit) {
+            nextSequence = blockSource.allocate(blockSize);
+            limit = nextSequence + blockSize;
+        }
+        return new UUID(prefix, nextSequence++);
+    }
+
+    /**
+     * BlockSource allocates blocks of sequence numbers. Implementations must
+     * be thread-safe, and must never allocate the same number twice.
+     */
+    public interface BlockSource
+    {
+        /**
+         * Allocate a block of consecutive sequence numbers.
+         * @param size number of sequence numbers in the block
+         * @return first sequence number in the block
+         */
+        public long allocate(int size);
+    }
+
+    /**
+     * MemoryBlockSource allocates blocks of sequence numbers from a counter
+     * in memory. The sequence starts over when the JVM does, so it is only
+     * suitable where identities don't outlive the process, or where the
+     * starting point is restored from the store (e.g.: one past the
+     * highest identity it contains).
+     */
+    public static class MemoryBlockSource implements BlockSource
+    {
+        /**
+         * Construct a MemoryBlockSource.
+         * @param start first sequence number to allocate
+         */
+        public MemoryBlockSource(long start) {
+            this.counter = new AtomicLong(start);
+        }
+
+        public long allocate(int size) {
+            return counter.getAndAdd(size);
+        }
+
+        /**
+         * Next sequence number to be allocated.
+         */
+        private final AtomicLong counter;
+    }
+
+    /**
+     * Most significant bits of every identity.
+     */
+    private final long prefix;
+
+    /**
+     * BlockSource from which to allocate sequence numbers.
+     */
+    private final BlockSource blockSource;
+
+    /**
+     * Number of sequence numbers to allocate at a time.
+     */
+    private final int blockSize;
+
+    /**
+     * Next sequence number in the current block.
+     */
+    private long nextSequence;
+
+    /**
+     * One past the last sequence number in the current block.
+     */
+    private long limit;
+}
@@ -0,0 +1,82 @@
+/*
+ * TimeOrderedIdGenerator.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TimeOrderedIdGenerator creates time-ordered (version 7) UUID identities.
+ * The most significant bits hold the time in milliseconds (48 bits), the
+ * version (4 bits), and a 12 bit counter; the least significant bits hold
+ * the variant (2 bits) and 62 random bits.
+ * 
+ * Identities created by a TimeOrderedIdGenerator sort in the order in which
+ * they were created, both as UUID objects and as Strings, so they are
+ * appended to the end of a B-tree or other sorted index instead of being
+ * scattered across it. The counter keeps identities strictly increasing
+ * within a millisecond (borrowing from the next millisecond if more than
+ * 4096 are created), and if the clock steps backwards.
+ * 
+ * A TimeOrderedIdGenerator is thread-safe and lock-free: the time and
+ * counter advance with a compare-and-set, and the random bits come from
+ * ThreadLocalRandom instead of a shared SecureRandom. The random bits make
+ * identities unique between processes, but they are not suitable where an
+ * identity must be unguessable.
+ * @author pmeade
+ */
+public class TimeOrderedIdGenerator implements IdGenerator
+{
+    /**
+     * Number of bits in the counter that follows the timestamp.
+     */
+    private static final int COUNTER_BITS = 12;
+
+    /**
+     * Create a new time-ordered UUID identity.
+     * @return version 7 UUID identity
+     */
+    public UUID next()
+    {
+        // advance the (timestamp, counter) state past the last identity
+        long now = System.currentTimeMillis() << COUNTER_BITS;
+        long last;
+        long next;
+        do {
+            last = state.get();
+            next = Math.max(now, last + 1);
+        } while(state.compareAndSet(last, next) == false);
+        // lay out the timestamp, version, and counter
+        long msb = ((next >>> COUNTER_BITS) << 16)
+                 | 0x7000L
+                 | (next & ((1L << COUNTER_BITS) - 1));
+        // lay out the variant and the random bits
+        Random random = ThreadLocalRandom.current();
+        long lsb = (random.nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * Timestamp (in milliseconds) and counter of the last identity, as
+     * (timestamp << COUNTER_BITS | counter).
+     */
+    private final AtomicLong state = new AtomicLong();
+}
@@ -0,0 +1,105 @@
+/*
+ * UuidCache.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import java.util.UUID;
+
+/**
+ * UuidCache remembers recently parsed UUID identities, so that a reference
+ * which appears in many records is parsed (and allocated) only once. It is
+ * a direct-mapped cache: each String hashes to a single slot, and a miss
+ * simply replaces whatever was in that slot. Lookups never grow the cache.
+ * 
+ * A UuidCache belongs to a single Arya session and is NOT thread-safe.
+ * @author pmeade
+ */
+public final class UuidCache
+{
+    /**
+     * Default number of slots in the cache.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Construct a UuidCache with the default number of slots.
+     */
+    public UuidCache()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct a UuidCache with (at least) the provided number of slots.
+     * @param capacity number of slots; rounded up to a power of two
+     */
+    public UuidCache(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.keys = new String[size];
+        this.values = new UUID[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Remove every UUID identity from the cache.
+     */
+    public void clear()
+    {
+        for(int i=0; i<keys.length; i++) {
+            keys[i] = null;
+            values[i] = null;
+        }
+    }
+
+    /**
+     * Parse a UUID from its text form, or return the UUID that was parsed
+     * from the same text earlier.
+     * @param s text form of the UUID
+     * @return UUID parsed from the text
+     * @throws IllegalArgumentException if the text is not a UUID
+     */
+    public UUID parse(String s)
+    {
+        int h = s.hashCode();
+        int i = (h ^ (h >>> 16)) & mask;
+        String key = keys[i];
+        if(key != null && (key == s || key.equals(s))) {
+            return values[i];
+        }
+        UUID uuid = UuidCodec.parse(s);
+        keys[i] = s;
+        values[i] = uuid;
+        return uuid;
+    }
+
+    /**
+     * Text forms of the cached UUID identities.
+     */
+    private final String[] keys;
+
+    /**
+     * Cached UUID identities.
+     */
+    private final UUID[] values;
+
+    /**
+     * Mask that turns a hash code into a slot index.
+     */
+    private final int mask;
+}
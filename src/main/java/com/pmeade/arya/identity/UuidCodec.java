@@ -0,0 +1,314 @@
+/*
+ * UuidCodec.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import com.pmeade.arya.io.Utf8Writer;
+import java.util.UUID;
+
+/**
+ * UuidCodec converts UUID identities to and from their canonical 36
+ * character text form (8-4-4-4-12 hexadecimal digits). Both directions work
+ * with lookup tables directly on char and byte arrays, without the
+ * intermediate Strings that UUID.toString() and UUID.fromString() create.
+ * 
+ * Digits are written in lower case, exactly as UUID.toString() writes them.
+ * Digits of either case are accepted when parsing. Text that isn't in the
+ * canonical form is handed to UUID.fromString(), so the codec accepts
+ * everything that Arya has always accepted.
+ * 
+ * A UUID whose most significant bits are zero (such as the 64-bit
+ * identities created by SequentialIdGenerator) also has a compact text
+ * form: its least significant bits as a decimal number. The compact form
+ * is written only on request, but it is always accepted when parsing;
+ * a string of decimal digits is never a valid UUID otherwise.
+ * @author pmeade
+ */
+public final class UuidCodec
+{
+    /**
+     * Length of the canonical text form of a UUID.
+     */
+    public static final int LENGTH = 36;
+
+    /**
+     * Largest compact text form of a UUID.
+     */
+    private static final String MAX_COMPACT = Long.toString(Long.MAX_VALUE);
+
+    /**
+     * Lookup table: value of a nibble -> hexadecimal digit.
+     */
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Lookup table: ASCII character -> value of the hexadecimal digit, or
+     * -1 if the character isn't a hexadecimal digit.
+     */
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        for(int i=0; i<VALUES.length; i++) { VALUES[i] = -1; }
+        for(int i=0; i<10; i++) { VALUES['0'+i] = (byte) i; }
+        for(int i=0; i<6; i++) { VALUES['a'+i] = (byte) (10+i); VALUES['A'+i] = (byte) (10+i); }
+    }
+
+    /**
+     * Static utility class; no instances.
+     */
+    private UuidCodec() {}
+
+    /**
+     * Format the provided UUID as a String.
+     * @param uuid UUID to be formatted
+     * @return canonical text form of the UUID; identical to uuid.toString()
+     */
+    public static String format(UUID uuid)
+    {
+        char[] buf = new char[LENGTH];
+        format(uuid, buf, 0);
+        return new String(buf);
+    }
+
+    /**
+     * Format the provided UUID as a String, in compact form if it has one.
+     * @param uuid UUID to be formatted
+     * @return decimal text form of the UUID, if its most significant bits
+     *         are zero and its least significant bits are not negative;
+     *         otherwise, the canonical text form of the UUID
+     */
+    public static String formatCompact(UUID uuid)
+    {
+        if(uuid.getMostSignificantBits() == 0L && uuid.getLeastSignificantBits() >= 0L) {
+            return Long.toString(uuid.getLeastSignificantBits());
+        }
+        return format(uuid);
+    }
+
+    /**
+     * Format the provided UUID into a char array.
+     * @param uuid UUID to be formatted
+     * @param buf char array that receives the LENGTH characters of the
+     *            canonical text form
+     * @param off offset in the array of the first character
+     */
+    public static void format(UUID uuid, char[] buf, int off)
+    {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        hex(msb >>> 32, buf, off,      8);
+        buf[off+8] = '-';
+        hex(msb >>> 16, buf, off + 9,  4);
+        buf[off+13] = '-';
+        hex(msb,        buf, off + 14, 4);
+        buf[off+18] = '-';
+        hex(lsb >>> 48, buf, off + 19, 4);
+        buf[off+23] = '-';
+        hex(lsb,        buf, off + 24, 12);
+    }
+
+    /**
+     * Format the provided UUID into a byte array, as ASCII (or UTF-8).
+     * @param uuid UUID to be formatted
+     * @param buf byte array that receives the LENGTH bytes of the
+     *            canonical text form
+     * @param off offset in the array of the first byte
+     */
+    public static void format(UUID uuid, byte[] buf, int off)
+    {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        hex(msb >>> 32, buf, off,      8);
+        buf[off+8] = '-';
+        hex(msb >>> 16, buf, off + 9,  4);
+        buf[off+13] = '-';
+        hex(msb,        buf, off + 14, 4);
+        buf[off+18] = '-';
+        hex(lsb >>> 48, buf, off + 19, 4);
+        buf[off+23] = '-';
+        hex(lsb,        buf, off + 24, 12);
+    }
+
+    /**
+     * Parse a UUID from its text form (canonical or compact).
+     * @param s text form of the UUID
+     * @return UUID parsed from the text
+     * @throws IllegalArgumentException if the text is not a UUID
+     */
+    public static UUID parse(CharSequence s)
+    {
+        // if the text isn't the canonical length
+        if(s.length() != LENGTH) {
+            // it may be the compact form of a 64-bit identity
+            if(isCompact(s)) {
+                return new UUID(0L, Long.parseLong(s.toString()));
+            }
+            // otherwise, let the JDK sort it out
+            return UUID.fromString(s.toString());
+        }
+        if(s.charAt(8) != '-' || s.charAt(13) != '-'
+        || s.charAt(18) != '-' || s.charAt(23) != '-') {
+            throw invalid(s);
+        }
+        long a = hex(s, 0, 8), b = hex(s, 9, 4), c = hex(s, 14, 4);
+        long d = hex(s, 19, 4), e = hex(s, 24, 12);
+        if((a | b | c | d | e) < 0) {
+            throw invalid(s);
+        }
+        return new UUID((a << 32) | (b << 16) | c, (d << 48) | e);
+    }
+
+    /**
+     * Parse a UUID from its text form, if the text is a UUID. Unlike
+     * parse(), this doesn't throw an exception for text that isn't, so it
+     * may be used to look for UUID identities in arbitrary text.
+     * @param s text that may be a UUID
+     * @param compact true, if the compact form of a 64-bit identity should
+     *                be recognized as well
+     * @return UUID parsed from the text, or null if the text is not a UUID
+     */
+    public static UUID tryParse(CharSequence s, boolean compact)
+    {
+        if(s.length() != LENGTH) {
+            return (compact && isCompact(s)) ? new UUID(0L, Long.parseLong(s.toString())) : null;
+        }
+        if(s.charAt(8) != '-' || s.charAt(13) != '-'
+        || s.charAt(18) != '-' || s.charAt(23) != '-') {
+            return null;
+        }
+        long a = hex(s, 0, 8), b = hex(s, 9, 4), c = hex(s, 14, 4);
+        long d = hex(s, 19, 4), e = hex(s, 24, 12);
+        if((a | b | c | d | e) < 0) {
+            return null;
+        }
+        return new UUID((a << 32) | (b << 16) | c, (d << 48) | e);
+    }
+
+    /**
+     * Parse a UUID from its canonical text form in a byte array, as ASCII
+     * (or UTF-8).
+     * @param buf byte array that contains the LENGTH bytes of the text form
+     * @param off offset in the array of the first byte
+     * @return UUID parsed from the text
+     * @throws IllegalArgumentException if the text is not a UUID
+     */
+    public static UUID parse(byte[] buf, int off)
+    {
+        if(buf[off+8] != '-' || buf[off+13] != '-'
+        || buf[off+18] != '-' || buf[off+23] != '-') {
+            throw invalid(new String(buf, off, LENGTH, Utf8Writer.UTF_8));
+        }
+        long a = hex(buf, off, 8), b = hex(buf, off + 9, 4), c = hex(buf, off + 14, 4);
+        long d = hex(buf, off + 19, 4), e = hex(buf, off + 24, 12);
+        if((a | b | c | d | e) < 0) {
+            throw invalid(new String(buf, off, LENGTH, Utf8Writer.UTF_8));
+        }
+        return new UUID((a << 32) | (b << 16) | c, (d << 48) | e);
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Determine if the provided text is the compact form of a UUID.
+     * @return true, if the text is a non-negative decimal number that fits
+     *         into a long, otherwise false
+     */
+    private static boolean isCompact(CharSequence s)
+    {
+        int length = s.length();
+        if(length == 0 || length > MAX_COMPACT.length()) {
+            return false;
+        }
+        if(length == MAX_COMPACT.length() && s.toString().compareTo(MAX_COMPACT) > 0) {
+            return false;
+        }
+        for(int i=0; i<length; i++) {
+            char c = s.charAt(i);
+            if(c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the low order nibbles of a value as hexadecimal digits.
+     */
+    private static void hex(long value, char[] buf, int off, int digits)
+    {
+        for(int i = off + digits - 1; i >= off; i--) {
+            buf[i] = DIGITS[(int) value & 0xf];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * Write the low order nibbles of a value as hexadecimal digits.
+     */
+    private static void hex(long value, byte[] buf, int off, int digits)
+    {
+        for(int i = off + digits - 1; i >= off; i--) {
+            buf[i] = (byte) DIGITS[(int) value & 0xf];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * Read a run of (at most 12) hexadecimal digits as a value.
+     * @return value of the digits, or -1 if there is a non-digit in the run
+     */
+    private static long hex(CharSequence s, int off, int digits)
+    {
+        long value = 0;
+        for(int i = off; i < off + digits; i++) {
+            char c = s.charAt(i);
+            int nibble = (c < 128) ? VALUES[c] : -1;
+            if(nibble < 0) {
+                return -1;
+            }
+            value = (value << 4) | nibble;
+        }
+        return value;
+    }
+
+    /**
+     * Read a run of (at most 12) hexadecimal digits as a value.
+     * @return value of the digits, or -1 if there is a non-digit in the run
+     */
+    private static long hex(byte[] buf, int off, int digits)
+    {
+        long value = 0;
+        for(int i = off; i < off + digits; i++) {
+            int b = buf[i];
+            int nibble = (b >= 0) ? VALUES[b] : -1;
+            if(nibble < 0) {
+                return -1;
+            }
+            value = (value << 4) | nibble;
+        }
+        return value;
+    }
+
+    /**
+     * Create the exception thrown for text that is not a UUID.
+     */
+    private static IllegalArgumentException invalid(CharSequence s)
+    {
+        return new IllegalArgumentException("Invalid UUID string: " + s);
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * AsyncOutput.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pmeade.arya.io;
+
+import com.pmeade.arya.AryaOutput;
+import com.pmeade.arya.AryaRecord;
+import java.io.Closeable;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AsyncOutput calls an output listener from a thread of its own, so that
+ * a slow listener (one that syncs files to disk, compresses, or indexes)
+ * doesn't slow down save(). Register the AsyncOutput with Arya in place
+ * of the listener:
+ * 
+ *     arya.register(new AsyncOutput(fileOutput, 4096, Backpressure.BLOCK));
+ * 
+ * Each AsyncOutput has its own bounded queue of records and its own worker
+ * thread, so each listener falls behind (or keeps up) on its own. When the
+ * queue is full, the Backpressure policy decides what happens to the next
+ * record: save() waits for room (BLOCK), the oldest record in the queue is
+ * thrown away (DROP_OLDEST), or save() fails (FAIL).
+ * 
+ * The listener receives the same object reference that was saved, some
+ * time after save() returned; if the object has changed in the meantime,
+ * the listener sees the change. The JSON is what was saved.
+ * 
+ * drain() waits until the listener has received every record queued so
+ * far; close() drains the queue, and then stops the worker thread. Anything
+ * thrown by the listener (an exception, or even an error) is logged, and
+ * counted by getFailed(), and does not stop the worker. AsyncOutput is
+ * thread-safe.
+ * @author pmeade
+ */
+public class AsyncOutput implements AryaOutput, Closeable
+{
+    /** SLF4J Logging Service */
+    private static final Logger log = LoggerFactory.getLogger(AsyncOutput.class);
+
+    /**
+     * Default number of records that the queue can hold.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Backpressure is the policy for a record that arrives when the queue
+     * is full.
+     */
+    public enum Backpressure
+    {
+        /**
+         * Wait until the worker thread makes room in the queue.
+         */
+        BLOCK,
+
+        /**
+         * Throw away the oldest record in the queue to make room.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Throw an IllegalStateException (from save()).
+         */
+        FAIL
+    }
+
+    /**
+     * Construct an AsyncOutput with a queue of the default capacity, which
+     * blocks when the queue is full.
+     * @param output the AryaOutput to be called from the worker thread
+     */
+    public AsyncOutput(AryaOutput output)
+    {
+        this(output, DEFAULT_CAPACITY, Backpressure.BLOCK);
+    }
+
+    /**
+     * Construct an AsyncOutput.
+     * @param output the AryaOutput to be called from the worker thread
+     * @param capacity number of records that the queue can hold
+     * @param backpressure what to do with a record when the queue is full
+     * @throws IllegalArgumentException if capacity is less than one
+     */
+    public AsyncOutput(AryaOutput output, int capacity, Backpressure backpressure)
+    {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+        this.output = output;
+        this.backpressure = backpressure;
+        this.queue = new ArrayBlockingQueue(capacity);
+        this.worker = new Thread(new Runnable() {
+            public void run() {
+                work();
+            }
+        }, "AsyncOutput-" + WORKERS.incrementAndGet());
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queue the provided record for the listener.
+     * @param t the Object that was serialized
+     * @param uuid UUID identity of the object
+     * @param json JSON to which the object was serialized
+     * @throws IllegalStateException if this AsyncOutput has been closed,
+     *                               if the queue is full and the policy is
+     *                               FAIL, or if the calling thread is
+     *                               interrupted while waiting for room
+     */
+    public <T> void output(T t, UUID uuid, String json)
+    {
+        AryaRecord record = new AryaRecord(t, uuid, json);
+        // count the record under the same lock that close() takes, so that
+        // close() waits for every record that was accepted
+        synchronized(lock) {
+            if(closed) {
+                throw new IllegalStateException("AsyncOutput is closed");
+            }
+            submitted++;
+        }
+        switch(backpressure) {
+            case BLOCK:
+                try {
+                    queue.put(record);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    complete();
+                    throw new IllegalStateException("Interrupted waiting for room in the queue", e);
+                }
+                break;
+            case DROP_OLDEST:
+                // make room by throwing away the oldest records
+                while(queue.offer(record) == false) {
+                    if(queue.poll() != null) {
+                        synchronized(lock) {
+                            dropped++;
+                        }
+                        complete();
+                    }
+                }
+                break;
+            case FAIL:
+                if(queue.offer(record) == false) {
+                    complete();
+                    throw new IllegalStateException("AsyncOutput queue is full");
+                }
+                break;
+        }
+    }
+
+    /**
+     * Wait until the listener has received every record queued before this
+     * call (or those records have been dropped).
+     * @throws InterruptedException if the calling thread is interrupted
+     *                              while waiting
+     */
+    public void drain() throws InterruptedException
+    {
+        synchronized(lock) {
+            long target = submitted;
+            while(completed < target) {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Wait, for no longer than the provided time, until the listener has
+     * received every record queued before this call (or those records have
+     * been dropped).
+     * @param timeout the longest time to wait
+     * @param unit the unit of the timeout
+     * @return true, if the listener has caught up; false, if the time ran
+     *         out first
+     * @throws InterruptedException if the calling thread is interrupted
+     *                              while waiting
+     */
+    public boolean awaitFlushed(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized(lock) {
+            long target = submitted;
+            while(completed < target) {
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Drain the queue, and then stop the worker thread. Afterwards, output()
+     * throws IllegalStateException.
+     */
+    public void close()
+    {
+        synchronized(lock) {
+            closed = true;
+        }
+        try {
+            drain();
+            worker.interrupt();
+            worker.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Obtain the number of records that the listener has yet to receive:
+     * those in the queue, and the one it is receiving now (if any).
+     * @return number of records the listener is behind
+     */
+    public long getLag()
+    {
+        synchronized(lock) {
+            return submitted - completed;
+        }
+    }
+
+    /**
+     * Obtain the number of records that the listener has received.
+     * @return number of records delivered to the listener
+     */
+    public long getDelivered()
+    {
+        synchronized(lock) {
+            return delivered;
+        }
+    }
+
+    /**
+     * Obtain the number of records thrown away to make room in the queue.
+     * @return number of records dropped by the DROP_OLDEST policy
+     */
+    public long getDropped()
+    {
+        synchronized(lock) {
+            return dropped;
+        }
+    }
+
+    /**
+     * Obtain the number of records for which the listener threw an
+     * exception.
+     * @return number of records the listener failed to receive
+     */
+    public long getFailed()
+    {
+        synchronized(lock) {
+            return failed;
+        }
+    }
+
+    /**
+     * Take each record from the queue, and give it to the listener, until
+     * the worker thread is interrupted.
+     */
+    private void work()
+    {
+        while(true) {
+            AryaRecord record;
+            try {
+                record = queue.take();
+            } catch(InterruptedException e) {
+                return;
+            }
+            boolean ok = false;
+            try {
+                output.output(record.getObject(), record.getIdentity(), record.getJson());
+                ok = true;
+            } catch(Throwable e) {
+                // if the worker died, producers and drain() would wait
+                // forever, so the worker outlives anything the listener throws
+                log.error("Output listener failed for " + record.getIdentity() + ":", e);
+            } finally {
+                synchronized(lock) {
+                    if(ok) { delivered++; } else { failed++; }
+                }
+                complete();
+            }
+        }
+    }
+
+    /**
+     * Count one more record as finished (delivered, dropped, failed, or
+     * refused), and wake any thread waiting in drain().
+     */
+    private void complete()
+    {
+        synchronized(lock) {
+            completed++;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Number of AsyncOutput worker threads started, used to name them.
+     */
+    private static final AtomicInteger WORKERS = new AtomicInteger();
+
+    /**
+     * The listener called from the worker thread.
+     */
+    private final AryaOutput output;
+
+    /**
+     * What to do with a record when the queue is full.
+     */
+    private final Backpressure backpressure;
+
+    /**
+     * Records waiting for the listener.
+     */
+    private final BlockingQueue<AryaRecord> queue;
+
+    /**
+     * Thread that gives the records to the listener.
+     */
+    private final Thread worker;
+
+    /**
+     * Guards the counters, and signals drain() when a record is finished.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Flag: close() has been called. Guarded by the lock.
+     */
+    private boolean closed;
+
+    /**
+     * Number of records given to output().
+     */
+    private long submitted;
+
+    /**
+     * Number of records finished: delivered, dropped, failed, or refused.
+     */
+    private long completed;
+
+    /**
+     * Number of records the listener has received.
+     */
+    private long delivered;
+
+    /**
+     * Number of records thrown away to make room in the queue.
+     */
+    private long dropped;
+
+    /**
+     * Number of records for which the listener threw an exception.
+     */
+    private long failed;
+}
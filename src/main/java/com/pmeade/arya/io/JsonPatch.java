@@ -0,0 +1,94 @@
+/*
+ * JsonPatch.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.io;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import java.util.Map;
+
+/**
+ * JsonPatch computes and applies field-level patches between two JSON
+ * records of the same object. A patch is itself a JSON object: it contains
+ * each member whose value was added or changed, with its new value, and
+ * each member that was removed, with the value null. Members that did not
+ * change are left out of the patch.
+ * 
+ * Arya never writes null members into a record (Gson leaves them out), so
+ * a null value in a patch always means that the member was removed.
+ * 
+ * Members are compared as whole values; if any part of an array or nested
+ * object changes, the patch contains the entire new value of the member.
+ * @author pmeade
+ */
+public final class JsonPatch
+{
+    /**
+     * Static utility class; no instances.
+     */
+    private JsonPatch() {}
+
+    /**
+     * Compute the patch that turns the base record into the current one.
+     * @param base JSON record last written for the object
+     * @param current JSON record now written for the object
+     * @return JsonObject containing the patch; if the two records are
+     *         identical, the patch has no members
+     */
+    public static JsonObject diff(JsonObject base, JsonObject current)
+    {
+        JsonObject patch = new JsonObject();
+        // for each member of the current record
+        for(Map.Entry<String,JsonElement> entry : current.entrySet()) {
+            // if it is new, or its value has changed, it goes in the patch
+            JsonElement baseValue = base.get(entry.getKey());
+            if(entry.getValue().equals(baseValue) == false) {
+                patch.add(entry.getKey(), entry.getValue());
+            }
+        }
+        // for each member of the base record
+        for(Map.Entry<String,JsonElement> entry : base.entrySet()) {
+            // if it was removed, the patch records it with a null value
+            if(current.has(entry.getKey()) == false) {
+                patch.add(entry.getKey(), JsonNull.INSTANCE);
+            }
+        }
+        return patch;
+    }
+
+    /**
+     * Apply the provided patch to the provided record, in place.
+     * @param base JSON record to be patched
+     * @param patch JSON patch, as computed by diff()
+     */
+    public static void apply(JsonObject base, JsonObject patch)
+    {
+        // for each member of the patch
+        for(Map.Entry<String,JsonElement> entry : patch.entrySet()) {
+            // a null value means that the member was removed
+            if(entry.getValue().isJsonNull()) {
+                base.remove(entry.getKey());
+            }
+            // anything else is the new value of the member
+            else {
+                base.add(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
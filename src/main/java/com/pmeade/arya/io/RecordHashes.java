@@ -0,0 +1,354 @@
+/*
+ * RecordHashes.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.io;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * RecordHashes remembers a 64-bit hash of the last JSON record written for
+ * each UUID identity. Arya consults it before calling the output listeners;
+ * a record that is byte-for-byte identical to the last one written under
+ * the same identity is not written again. The hash of a record is only
+ * remembered once every output listener has accepted the record.
+ * 
+ * A RecordHashes may be shared by any number of Arya objects (so that a
+ * later session doesn't rewrite records that an earlier one wrote), and it
+ * may be seeded with the hashes of records that are already in the store.
+ * It is thread-safe.
+ * 
+ * Records are compared by hash alone. Two different records with the same
+ * 64-bit hash are very unlikely, but not impossible; if it happens, the
+ * second record is not written.
+ * 
+ * The same kind of table holds the subgraph hashes used by
+ * Arya.setSubgraphHashes(); those are computed by SubgraphHash rather than
+ * by hash(), but they are compared in the same way.
+ * @see com.pmeade.arya.Arya#setRecordHashes(RecordHashes)
+ * @author pmeade
+ */
+public final class RecordHashes
+{
+    /**
+     * Initial number of slots in the table.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Construct an empty RecordHashes.
+     */
+    public RecordHashes()
+    {
+        init(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Compute the hash of a JSON record.
+     * @param json UTF-8 bytes of the record, from the position to the limit
+     *             of the buffer; the position of the buffer is not changed
+     * @return 64-bit hash of the record
+     */
+    public static long hash(ByteBuffer json)
+    {
+        // this is MurmurHash3's 64-bit mixing, applied to one 8 byte word
+        // at a time
+        long h = 0x736f6d6570736575L;
+        int pos = json.position();
+        int limit = json.limit();
+        for(; pos + 8 <= limit; pos += 8) {
+            h = Long.rotateLeft(h ^ mixWord(json.getLong(pos)), 27) * 5 + 0x52dce729;
+        }
+        long tail = 0L;
+        for(int shift = 0; pos < limit; pos++, shift += 8) {
+            tail |= (json.get(pos) & 0xffL) << shift;
+        }
+        h ^= mixWord(tail);
+        h ^= (limit - json.position());
+        return fmix(h);
+    }
+
+    /**
+     * Compute the hash of a JSON record.
+     * @param json record, as a String
+     * @return 64-bit hash of the UTF-8 bytes of the record
+     */
+    public static long hash(String json)
+    {
+        return hash(ByteBuffer.wrap(json.getBytes(Utf8Writer.UTF_8)));
+    }
+
+    /**
+     * Remove every hash.
+     */
+    public synchronized void clear()
+    {
+        init(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Determine if a record differs from the last one written under the
+     * same UUID identity, and remember its hash if it does.
+     * @param uuid UUID identity of the record
+     * @param hash hash of the record
+     * @return true, if the record should be written (it is new, or it
+     *         differs from the last record); false, if the last record
+     *         has the same hash
+     */
+    public synchronized boolean putIfChanged(UUID uuid, long hash)
+    {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int mask = used.length - 1;
+        int i = slot(msb, lsb) & mask;
+        while(used[i]) {
+            if(msbs[i] == msb && lsbs[i] == lsb) {
+                if(hashes[i] == hash) {
+                    return false;
+                }
+                hashes[i] = hash;
+                return true;
+            }
+            i = (i+1) & mask;
+        }
+        insert(msb, lsb, hash);
+        return true;
+    }
+
+    /**
+     * Determine if a record differs from the last one written under the
+     * same UUID identity, without remembering its hash. Arya remembers the
+     * hash with put() once the record has been delivered.
+     * @param uuid UUID identity of the record
+     * @param hash hash of the record
+     * @return true, if the record should be written (it is new, or it
+     *         differs from the last record); false, if the last record
+     *         has the same hash
+     */
+    public synchronized boolean isChanged(UUID uuid, long hash)
+    {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int mask = used.length - 1;
+        int i = slot(msb, lsb) & mask;
+        while(used[i]) {
+            if(msbs[i] == msb && lsbs[i] == lsb) {
+                return hashes[i] != hash;
+            }
+            i = (i+1) & mask;
+        }
+        return true;
+    }
+
+    /**
+     * Obtain the hash of the last record written under the provided UUID
+     * identity. Arya uses this to journal the hash during a transaction,
+     * so that a rollback can put it back.
+     * @param uuid UUID identity of the record
+     * @return hash of the last record, or null if there is none
+     */
+    public synchronized Long get(UUID uuid)
+    {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int mask = used.length - 1;
+        int i = slot(msb, lsb) & mask;
+        while(used[i]) {
+            if(msbs[i] == msb && lsbs[i] == lsb) {
+                return hashes[i];
+            }
+            i = (i+1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Remember the hash of the last record written under the provided
+     * UUID identity.
+     * @param uuid UUID identity of the record
+     * @param hash hash of the record
+     */
+    public void put(UUID uuid, long hash)
+    {
+        putIfChanged(uuid, hash);
+    }
+
+    /**
+     * Forget the hash of the last record written under the provided UUID
+     * identity, so that the next record is written whether or not it has
+     * changed. Arya does this when a transaction that wrote the first
+     * record under the identity is rolled back.
+     * @param uuid UUID identity of the record
+     * @return true, if there was a hash to forget
+     */
+    public synchronized boolean remove(UUID uuid)
+    {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int mask = used.length - 1;
+        int i = slot(msb, lsb) & mask;
+        while(used[i]) {
+            if(msbs[i] == msb && lsbs[i] == lsb) {
+                used[i] = false;
+                size--;
+                // the entries that follow (up to the next empty slot) may
+                // have probed past this one; put each one back where a
+                // lookup will find it
+                for(int j=(i+1) & mask; used[j]; j=(j+1) & mask) {
+                    used[j] = false;
+                    size--;
+                    insert(msbs[j], lsbs[j], hashes[j]);
+                }
+                return true;
+            }
+            i = (i+1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Seed the hash of a record that is already in the store.
+     * @param uuid UUID identity of the record
+     * @param json record, as a String
+     */
+    public void seed(UUID uuid, String json)
+    {
+        putIfChanged(uuid, hash(json));
+    }
+
+    /**
+     * Seed the hash of a record that is already in the store.
+     * @param uuid UUID identity of the record
+     * @param json UTF-8 bytes of the record
+     */
+    public void seed(UUID uuid, ByteBuffer json)
+    {
+        putIfChanged(uuid, hash(json));
+    }
+
+    /**
+     * Obtain the number of UUID identities with a hash.
+     * @return number of UUID identities with a hash
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Allocate the arrays of the table.
+     * @param capacity number of slots; a power of two
+     */
+    private void init(int capacity)
+    {
+        msbs = new long[capacity];
+        lsbs = new long[capacity];
+        hashes = new long[capacity];
+        used = new boolean[capacity];
+        size = 0;
+    }
+
+    /**
+     * Add a new entry to the table, growing it if necessary.
+     */
+    private void insert(long msb, long lsb, long hash)
+    {
+        int mask = used.length - 1;
+        int i = slot(msb, lsb) & mask;
+        while(used[i]) {
+            i = (i+1) & mask;
+        }
+        msbs[i] = msb;
+        lsbs[i] = lsb;
+        hashes[i] = hash;
+        used[i] = true;
+        // if the table is more than 2/3 full, double its size
+        if(++size * 3 > used.length * 2) {
+            long[] oldMsbs = msbs;
+            long[] oldLsbs = lsbs;
+            long[] oldHashes = hashes;
+            boolean[] oldUsed = used;
+            init(oldUsed.length * 2);
+            for(int j=0; j<oldUsed.length; j++) {
+                if(oldUsed[j]) {
+                    insert(oldMsbs[j], oldLsbs[j], oldHashes[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hash a UUID identity into a slot of the table.
+     */
+    private static int slot(long msb, long lsb)
+    {
+        long x = fmix(msb ^ lsb);
+        return (int) (x ^ (x >>> 32));
+    }
+
+    /**
+     * Mix a single 8 byte word of a record.
+     */
+    private static long mixWord(long k)
+    {
+        k *= 0x87c37b91114253d5L;
+        k = Long.rotateLeft(k, 31);
+        k *= 0x4cf5ad432745937fL;
+        return k;
+    }
+
+    /**
+     * Spread the bits of a hash (the finalizer of MurmurHash3).
+     */
+    private static long fmix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Most significant bits of each UUID identity.
+     */
+    private long[] msbs;
+
+    /**
+     * Least significant bits of each UUID identity.
+     */
+    private long[] lsbs;
+
+    /**
+     * Hash of the last record written under each UUID identity.
+     */
+    private long[] hashes;
+
+    /**
+     * Flag for each slot: the slot holds an entry.
+     */
+    private boolean[] used;
+
+    /**
+     * Number of entries in the table.
+     */
+    private int size;
+}
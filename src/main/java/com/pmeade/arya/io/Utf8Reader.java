@@ -0,0 +1,131 @@
+/*
+ * Utf8Reader.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.io;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+
+/**
+ * Utf8Reader is a Reader that decodes UTF-8 directly from a ByteBuffer.
+ * The ByteBuffer may be a heap buffer, a direct buffer, or a mapped file;
+ * the bytes are never copied into an intermediate array or String.
+ * Malformed input is decoded as the replacement character U+FFFD.
+ * 
+ * Utf8Reader is not thread-safe.
+ * @author pmeade
+ */
+public class Utf8Reader extends Reader
+{
+    /**
+     * The character used in place of malformed input.
+     */
+    private static final char REPLACEMENT = '\ufffd';
+
+    /**
+     * Construct a Utf8Reader. The reader consumes the bytes between the
+     * position and the limit of the provided buffer; the position of the
+     * provided buffer itself is not changed.
+     * @param bytes ByteBuffer containing UTF-8 bytes
+     */
+    public Utf8Reader(ByteBuffer bytes) {
+        this.bytes = bytes.duplicate();
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len)
+    {
+        if(len == 0) {
+            return 0;
+        }
+        int n = 0;
+        // if the last call left the low half of a surrogate pair behind
+        if(lowSurrogate != 0) {
+            cbuf[off + n++] = lowSurrogate;
+            lowSurrogate = 0;
+        }
+        while(n < len && bytes.hasRemaining()) {
+            int b = bytes.get();
+            // ASCII is by far the most common case in JSON
+            if(b >= 0) {
+                cbuf[off + n++] = (char) b;
+                continue;
+            }
+            int codePoint = decode(b & 0xff);
+            // code points outside the BMP become a surrogate pair
+            if(codePoint > 0xffff) {
+                cbuf[off + n++] = Character.highSurrogate(codePoint);
+                char low = Character.lowSurrogate(codePoint);
+                if(n < len) {
+                    cbuf[off + n++] = low;
+                } else {
+                    lowSurrogate = low;
+                }
+            } else {
+                cbuf[off + n++] = (char) codePoint;
+            }
+        }
+        return (n == 0) ? -1 : n;
+    }
+
+    @Override
+    public void close() {
+        // nothing to close; the ByteBuffer belongs to the caller
+    }
+
+    /**
+     * Decode a multi-byte sequence.
+     * @param b0 the first byte of the sequence (as an unsigned value)
+     * @return the decoded code point, or REPLACEMENT if it was malformed
+     */
+    private int decode(int b0)
+    {
+        int extra;
+        int codePoint;
+        if((b0 & 0xe0) == 0xc0) { extra = 1; codePoint = b0 & 0x1f; }
+        else if((b0 & 0xf0) == 0xe0) { extra = 2; codePoint = b0 & 0x0f; }
+        else if((b0 & 0xf8) == 0xf0) { extra = 3; codePoint = b0 & 0x07; }
+        else { return REPLACEMENT; }
+        for(int i=0; i<extra; i++) {
+            // if the sequence is truncated or a byte isn't a continuation
+            // byte, the sequence is malformed; leave the byte for next time
+            if(bytes.hasRemaining() == false
+            || (bytes.get(bytes.position()) & 0xc0) != 0x80) {
+                return REPLACEMENT;
+            }
+            codePoint = (codePoint << 6) | (bytes.get() & 0x3f);
+        }
+        // reject overlong encodings, surrogates, and values beyond Unicode
+        if((extra == 1 && codePoint < 0x80)
+        || (extra == 2 && (codePoint < 0x800 || Character.isSurrogate((char) codePoint)))
+        || (extra == 3 && (codePoint < 0x10000 || codePoint > Character.MAX_CODE_POINT))) {
+            return REPLACEMENT;
+        }
+        return codePoint;
+    }
+
+    /**
+     * The UTF-8 bytes still to be decoded.
+     */
+    private final ByteBuffer bytes;
+
+    /**
+     * Low half of a surrogate pair that didn't fit in the last read, or 0.
+     */
+    private char lowSurrogate;
+}
@@ -0,0 +1,224 @@
+/*
+ * Utf8Writer.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.io;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Utf8Writer is a Writer that encodes the characters written to it as UTF-8
+ * into a growable byte array. Arya hands the encoded bytes to AryaByteOutput
+ * listeners without ever creating a String. Utf8Writer objects are meant to
+ * be pooled: reset() empties the writer but keeps its byte array.
+ * 
+ * Utf8Writer is not thread-safe.
+ * @author pmeade
+ */
+public class Utf8Writer extends Writer
+{
+    /**
+     * The UTF-8 character set.
+     */
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Initial capacity (in bytes) of a new Utf8Writer.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Construct a Utf8Writer with the default initial capacity.
+     */
+    public Utf8Writer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Construct a Utf8Writer with the provided initial capacity.
+     * @param capacity initial capacity of the writer, in bytes
+     */
+    public Utf8Writer(int capacity) {
+        this.buf = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Obtain the capacity of this writer; that is, the size of the byte
+     * array that it is currently using.
+     * @return capacity of this writer, in bytes
+     */
+    public int capacity() {
+        return buf.length;
+    }
+
+    /**
+     * Empty this writer, so that it may be reused. The byte array is kept.
+     */
+    public void reset() {
+        count = 0;
+        highSurrogate = 0;
+    }
+
+    /**
+     * Obtain the number of bytes written so far.
+     * @return number of UTF-8 bytes in this writer
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Obtain a read-only view of the bytes written so far. The view shares
+     * the byte array of this writer; it is only valid until the writer is
+     * written to, reset, or returned to its pool.
+     * @return read-only ByteBuffer containing the UTF-8 bytes
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+    }
+
+    /**
+     * Decode the bytes written so far into a String.
+     * @return String containing the characters written to this writer
+     */
+    @Override
+    public String toString() {
+        return new String(buf, 0, count, UTF_8);
+    }
+
+    @Override
+    public void write(int c) {
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len)
+    {
+        // make room for the common case (no more than three bytes per char)
+        ensureCapacity(count + len * 3);
+        for(int i=off; i<off+len; i++) {
+            encode(cbuf[i]);
+        }
+    }
+
+    @Override
+    public void write(String str) {
+        write(str, 0, str.length());
+    }
+
+    @Override
+    public void write(String str, int off, int len)
+    {
+        // make room for the common case (no more than three bytes per char)
+        ensureCapacity(count + len * 3);
+        for(int i=off; i<off+len; i++) {
+            encode(str.charAt(i));
+        }
+    }
+
+    @Override
+    public void flush() {
+        // nothing to flush; the bytes are already in the array
+    }
+
+    @Override
+    public void close() {
+        // nothing to close; the writer may be reused after reset()
+    }
+
+    /**
+     * Encode a single UTF-16 char. A surrogate pair is encoded as one
+     * four byte sequence when its low surrogate arrives; an unpaired
+     * surrogate is encoded as '?', as String.getBytes() would do.
+     * @param c char to be encoded
+     */
+    private void encode(char c)
+    {
+        // if the previous char was a high surrogate
+        if(highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if(Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                ensureCapacity(count + 4);
+                buf[count++] = (byte) (0xf0 | (codePoint >> 18));
+                buf[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buf[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buf[count++] = (byte) (0x80 | (codePoint & 0x3f));
+                return;
+            }
+            // the high surrogate was unpaired
+            put('?');
+        }
+        if(c < 0x80) {
+            put(c);
+        } else if(c < 0x800) {
+            ensureCapacity(count + 2);
+            buf[count++] = (byte) (0xc0 | (c >> 6));
+            buf[count++] = (byte) (0x80 | (c & 0x3f));
+        } else if(Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if(Character.isLowSurrogate(c)) {
+            put('?');
+        } else {
+            ensureCapacity(count + 3);
+            buf[count++] = (byte) (0xe0 | (c >> 12));
+            buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buf[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    /**
+     * Append a single byte (an ASCII char) to the array.
+     * @param c ASCII char to be appended
+     */
+    private void put(char c) {
+        if(count == buf.length) {
+            ensureCapacity(count + 1);
+        }
+        buf[count++] = (byte) c;
+    }
+
+    /**
+     * Grow the byte array, if necessary, so that it can hold at least the
+     * provided number of bytes.
+     * @param capacity minimum capacity required, in bytes
+     */
+    private void ensureCapacity(int capacity) {
+        if(capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+        }
+    }
+
+    /**
+     * The UTF-8 bytes written to this writer.
+     */
+    private byte[] buf;
+
+    /**
+     * Number of bytes in buf that hold data.
+     */
+    private int count;
+
+    /**
+     * High surrogate waiting for its low surrogate, or 0 if there is none.
+     */
+    private char highSurrogate;
+}
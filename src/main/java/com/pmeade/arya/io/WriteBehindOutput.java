@@ -0,0 +1,337 @@
+/*
+ * WriteBehindOutput.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pmeade.arya.io;
+
+import com.pmeade.arya.AryaBatchOutput;
+import com.pmeade.arya.AryaOutput;
+import com.pmeade.arya.AryaRecord;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * WriteBehindOutput holds the records given to it, and writes them to an
+ * output listener later. If an object is saved again before its record has
+ * been written, only the latest record is kept; an object saved a hundred
+ * times between writes is written once. Register the WriteBehindOutput with
+ * Arya in place of the listener:
+ * 
+ *     arya.register(new WriteBehindOutput(store, 10000, 1, TimeUnit.SECONDS));
+ * 
+ * The records are written to the listener when flush() is called, when the
+ * number of objects held reaches the limit (on the thread that calls
+ * save(), so that memory stays bounded), every interval (on a thread of
+ * its own), and when the WriteBehindOutput is closed. Records are written
+ * in the order in which each object was first saved after the last write.
+ * If the listener is also an AryaBatchOutput, each write is given to it
+ * as a single batch. If the listener throws, the records it did not
+ * receive are held again (unless the object has been saved since), and
+ * are written by the next write.
+ * 
+ * Until its record is written, a saved object exists only in memory; the
+ * records held when the process dies are lost. WriteBehindOutput is
+ * thread-safe.
+ * @author pmeade
+ */
+public class WriteBehindOutput implements AryaOutput, Closeable
+{
+    /** SLF4J Logging Service */
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindOutput.class);
+
+    /**
+     * Construct a WriteBehindOutput that writes only when it is full, when
+     * flush() is called, and when it is closed.
+     * @param output the AryaOutput to which the records are written
+     * @param maxEntries number of objects to hold before writing
+     * @throws IllegalArgumentException if maxEntries is less than one
+     */
+    public WriteBehindOutput(AryaOutput output, int maxEntries)
+    {
+        this(output, maxEntries, 0L, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Construct a WriteBehindOutput.
+     * @param output the AryaOutput to which the records are written
+     * @param maxEntries number of objects to hold before writing
+     * @param interval time between writes; zero to write only when full,
+     *                 when flush() is called, and when closed
+     * @param unit the unit of the interval
+     * @throws IllegalArgumentException if maxEntries is less than one
+     */
+    public WriteBehindOutput(AryaOutput output, int maxEntries, long interval, TimeUnit unit)
+    {
+        if(maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries < 1");
+        }
+        this.output = output;
+        this.maxEntries = maxEntries;
+        // if we write on an interval, start a thread to do it
+        if(interval > 0L) {
+            timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "WriteBehindOutput");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            timer.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        flush();
+                    } catch(RuntimeException e) {
+                        log.error("Unable to write behind:", e);
+                    }
+                }
+            }, interval, interval, unit);
+        } else {
+            timer = null;
+        }
+    }
+
+    /**
+     * Hold the provided record until the next write, replacing any record
+     * held for the same object.
+     * @param t the Object that was serialized
+     * @param uuid UUID identity of the object
+     * @param json JSON to which the object was serialized
+     * @throws IllegalStateException if this WriteBehindOutput has been
+     *                               closed
+     */
+    public <T> void output(T t, UUID uuid, String json)
+    {
+        boolean full;
+        synchronized(lock) {
+            if(closed) {
+                throw new IllegalStateException("WriteBehindOutput is closed");
+            }
+            saves++;
+            pendingSaves++;
+            pending.put(uuid, new AryaRecord(t, uuid, json));
+            full = (pending.size() >= maxEntries);
+        }
+        // if we're holding as many objects as we may, write them now
+        if(full) {
+            flush();
+        }
+    }
+
+    /**
+     * Write every record held to the listener. If the listener throws, the
+     * records it did not receive are held again, unless a later record
+     * for the same object has replaced them, and the exception is rethrown.
+     */
+    public void flush()
+    {
+        // one write at a time, so that the records arrive in order
+        synchronized(flushLock) {
+            List<AryaRecord> records;
+            long saved;
+            synchronized(lock) {
+                if(pending.isEmpty()) {
+                    return;
+                }
+                records = new ArrayList(pending.values());
+                pending.clear();
+                saved = pendingSaves;
+                pendingSaves = 0;
+            }
+            int written = 0;
+            try {
+                // if the listener takes batches, give it one
+                if(output instanceof AryaBatchOutput) {
+                    ((AryaBatchOutput) output).outputBatch(records);
+                    written = records.size();
+                }
+                // otherwise, give it the records one by one
+                else {
+                    for(AryaRecord record : records) {
+                        output.output(record.getObject(), record.getIdentity(), record.getJson());
+                        written++;
+                    }
+                }
+            } finally {
+                written(records, written, saved);
+            }
+        }
+    }
+
+    /**
+     * Count the records that were written, and hold again those that were
+     * not, ahead of the records given to output() since the write began.
+     * A record given to output() since then replaces the one held again.
+     * @param records records of the write
+     * @param written number of those records that the listener received
+     * @param saved number of records given to output() that the records
+     *              of the write stand for
+     */
+    private void written(List<AryaRecord> records, int written, long saved)
+    {
+        synchronized(lock) {
+            int unwritten = records.size() - written;
+            writes += written;
+            writtenSaves += saved - unwritten;
+            if(unwritten == 0) {
+                return;
+            }
+            pendingSaves += unwritten;
+            Map<UUID,AryaRecord> held = new LinkedHashMap();
+            for(AryaRecord record : records.subList(written, records.size())) {
+                held.put(record.getIdentity(), record);
+            }
+            held.putAll(pending);
+            pending.clear();
+            pending.putAll(held);
+        }
+    }
+
+    /**
+     * Stop writing on an interval, and write every record held. Afterwards,
+     * output() throws IllegalStateException.
+     */
+    public void close()
+    {
+        synchronized(lock) {
+            closed = true;
+        }
+        if(timer != null) {
+            timer.shutdown();
+            try {
+                timer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Obtain the number of objects held, waiting to be written.
+     * @return number of records held
+     */
+    public int getPendingCount()
+    {
+        synchronized(lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Obtain the number of records given to this WriteBehindOutput.
+     * @return number of records saved
+     */
+    public long getSaveCount()
+    {
+        synchronized(lock) {
+            return saves;
+        }
+    }
+
+    /**
+     * Obtain the number of records written to the listener.
+     * @return number of records written
+     */
+    public long getWriteCount()
+    {
+        synchronized(lock) {
+            return writes;
+        }
+    }
+
+    /**
+     * Obtain the number of records saved for each record written. A ratio
+     * of 100 means that, on average, each record written replaced 99 that
+     * never had to be.
+     * @return ratio of records saved to records written, or zero if none
+     *         have been written
+     */
+    public double getCoalescingRatio()
+    {
+        synchronized(lock) {
+            return (writes == 0) ? 0.0 : (double) writtenSaves / writes;
+        }
+    }
+
+    /**
+     * The listener to which the records are written.
+     */
+    private final AryaOutput output;
+
+    /**
+     * Number of objects to hold before writing.
+     */
+    private final int maxEntries;
+
+    /**
+     * Thread that writes on an interval, or null if there is no interval.
+     */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * Records held, by UUID identity, in the order in which each object
+     * was first saved after the last write.
+     */
+    private final Map<UUID,AryaRecord> pending = new LinkedHashMap();
+
+    /**
+     * Guards the records held and the counters.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Held while writing, so that one write finishes before the next.
+     */
+    private final Object flushLock = new Object();
+
+    /**
+     * Flag: close() has been called. Guarded by the lock.
+     */
+    private boolean closed;
+
+    /**
+     * Number of records given to output().
+     */
+    private long saves;
+
+    /**
+     * Number of records written to the listener.
+     */
+    private long writes;
+
+    /**
+     * Number of records given to output() since the last write.
+     */
+    private long pendingSaves;
+
+    /**
+     * Number of records given to output() before the last write; each
+     * was written, or replaced by a later record that was.
+     */
+    private long writtenSaves;
+}
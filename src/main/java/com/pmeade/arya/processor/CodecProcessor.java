@@ -0,0 +1,522 @@
+/*
+ * CodecProcessor.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * CodecProcessor is an annotation processor that generates a ClassCodec for
+ * every class annotated with @Codec. The generated codec is placed in the
+ * package of the annotated class (so that it can reach package-private
+ * fields) and is registered in META-INF/services so that ServiceLoader
+ * will find it at runtime.
+ * 
+ * The generated code mirrors what AryaSerializer and AryaDeserializer do
+ * with reflection: simple fields are written directly, enums are written
+ * by name, references to complex objects are written as UUID identities,
+ * and arrays and parameterized fields are handed back to Arya.
+ * 
+ * @see com.pmeade.arya.annotation.Codec
+ * @author pmeade
+ */
+@SupportedAnnotationTypes(CodecProcessor.CODEC_ANNOTATION)
+public class CodecProcessor extends AbstractProcessor
+{
+    /**
+     * Fully qualified name of the annotation that triggers code generation.
+     */
+    static final String CODEC_ANNOTATION = "com.pmeade.arya.annotation.Codec";
+
+    /**
+     * Fully qualified name of the ClassCodec service interface.
+     */
+    static final String CLASS_CODEC = "com.pmeade.arya.gson.codec.ClassCodec";
+
+    /**
+     * Suffix appended to the name of the annotated class to obtain the
+     * name of the generated codec.
+     */
+    static final String CODEC_SUFFIX = "_AryaCodec";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        // if this is the final round, write the service registration file
+        if(roundEnv.processingOver()) {
+            writeServiceFile();
+            return false;
+        }
+        // find the annotation type; if it isn't on the classpath, there
+        // is nothing for us to do
+        TypeElement codecAnnotation = processingEnv.getElementUtils().getTypeElement(CODEC_ANNOTATION);
+        if(codecAnnotation == null) {
+            return false;
+        }
+        // for each element annotated with @Codec
+        for(Element element : roundEnv.getElementsAnnotatedWith(codecAnnotation)) {
+            // @Codec only makes sense on classes
+            if(element.getKind() != ElementKind.CLASS) {
+                error(element, "@Codec may only be applied to classes");
+                continue;
+            }
+            // generate the codec for the class
+            TypeElement type = (TypeElement) element;
+            String codecName = generateCodec(type);
+            // if we generated a codec, remember it for the service file
+            if(codecName != null) {
+                generated.add(codecName);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Generate the ClassCodec for the provided class.
+     * @param type TypeElement of the class annotated with @Codec
+     * @return fully qualified name of the generated codec, or null if
+     *         the codec could not be generated
+     */
+    private String generateCodec(TypeElement type)
+    {
+        // check that we can create instances of the class
+        if(type.getModifiers().contains(Modifier.ABSTRACT)) {
+            warning(type, "@Codec ignored on abstract class; Arya will use reflection");
+            return null;
+        }
+        if(type.getNestingKind() == NestingKind.LOCAL
+        || type.getNestingKind() == NestingKind.ANONYMOUS
+        || (type.getNestingKind() == NestingKind.MEMBER && type.getModifiers().contains(Modifier.STATIC) == false)) {
+            warning(type, "@Codec ignored on inner class; Arya will use reflection");
+            return null;
+        }
+        if(type.getModifiers().contains(Modifier.PRIVATE) || hasNoArgConstructor(type) == false) {
+            warning(type, "@Codec requires an accessible no-arg constructor; Arya will use reflection");
+            return null;
+        }
+        // determine how to read and write each field
+        List<FieldCode> fields = new ArrayList<FieldCode>();
+        Set<String> names = new HashSet<String>();
+        TypeElement current = type;
+        while(current != null && current.getQualifiedName().contentEquals("java.lang.Object") == false) {
+            for(VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                // skip anything that is final, static, transient, or volatile
+                Set<Modifier> modifiers = field.getModifiers();
+                if(modifiers.contains(Modifier.FINAL)) continue;
+                if(modifiers.contains(Modifier.STATIC)) continue;
+                if(modifiers.contains(Modifier.TRANSIENT)) continue;
+                if(modifiers.contains(Modifier.VOLATILE)) continue;
+                // the most derived of several fields with the same name
+                // wins, as it does in ClassPlan
+                if(names.add(field.getSimpleName().toString()) == false) continue;
+                FieldCode fieldCode = fieldCode(type, current, field);
+                if(fieldCode == null) {
+                    warning(type, "@Codec can't reach field '" + field.getSimpleName()
+                        + "' (make it accessible or add a getter and setter); Arya will use reflection");
+                    return null;
+                }
+                fields.add(fieldCode);
+            }
+            current = superclassOf(current);
+        }
+        // write the source code of the codec
+        String packageName = packageOf(type).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simpleName = binaryName.substring(binaryName.lastIndexOf('.') + 1).replace('$', '_') + CODEC_SUFFIX;
+        String codecName = packageName.length() == 0 ? simpleName : packageName + "." + simpleName;
+        String typeName = erasure(type.asType());
+        try {
+            Writer writer = processingEnv.getFiler().createSourceFile(codecName, type).openWriter();
+            PrintWriter out = new PrintWriter(writer);
+            if(packageName.length() > 0) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * ClassCodec for " + typeName + ".");
+            out.println(" * Generated by " + CodecProcessor.class.getName() + "; do not edit.");
+            out.println(" */");
+            out.println("public final class " + simpleName + " implements " + CLASS_CODEC + "<" + typeName + ">");
+            out.println("{");
+            out.println("    public Class<" + typeName + "> getType() {");
+            out.println("        return " + typeName + ".class;");
+            out.println("    }");
+            out.println();
+            out.println("    public " + typeName + " newInstance() {");
+            out.println("        return new " + typeName + "();");
+            out.println("    }");
+            out.println();
+            out.println("    public void serialize(com.google.gson.JsonObject jo, " + typeName + " t, com.pmeade.arya.gson.serialize.AryaSerializer s) {");
+            for(FieldCode fieldCode : fields) {
+                out.println("        " + fieldCode.serialize);
+            }
+            out.println("    }");
+            out.println();
+            out.println("    public void deserialize(com.google.gson.JsonObject jo, " + typeName + " t, com.pmeade.arya.gson.deserialize.AryaDeserializer d) {");
+            out.println("        com.google.gson.JsonElement je;");
+            for(FieldCode fieldCode : fields) {
+                out.println("        " + fieldCode.deserialize);
+            }
+            out.println("    }");
+            out.println("}");
+            out.close();
+        } catch(IOException e) {
+            error(type, "Unable to write " + codecName + ": " + e);
+            return null;
+        }
+        return codecName;
+    }
+
+    /**
+     * Generate the code that (de)serializes a single field.
+     * @param type the class annotated with @Codec
+     * @param declaring the class that declares the field
+     * @param field the field
+     * @return FieldCode for the field, or null if the field can't be reached
+     */
+    private FieldCode fieldCode(TypeElement type, TypeElement declaring, VariableElement field)
+    {
+        String name = field.getSimpleName().toString();
+        TypeMirror fieldType = field.asType();
+        String fieldTypeName = erasure(fieldType);
+        // determine the expression that reads the field, and the statement
+        // (with a %s placeholder for the value) that writes it
+        String read = null;
+        String write = null;
+        if(isAccessible(type, declaring, field)) {
+            read = "t." + name;
+            write = "t." + name + " = %s;";
+        } else {
+            ExecutableElement getter = findAccessor(type, declaring, field, true);
+            ExecutableElement setter = findAccessor(type, declaring, field, false);
+            if(getter != null && setter != null) {
+                read = "t." + getter.getSimpleName() + "()";
+                write = "t." + setter.getSimpleName() + "(%s);";
+            }
+        }
+        if(read == null) {
+            return null;
+        }
+        String quoted = "\"" + name + "\"";
+        String present = "je = jo.get(" + quoted + "); if(je != null && !je.isJsonNull()) ";
+        String declaringName = erasure(declaring.asType());
+        // arrays and parameterized types are handed back to Arya
+        if(fieldType.getKind() == TypeKind.ARRAY
+        || (fieldType.getKind() == TypeKind.DECLARED && ((DeclaredType) fieldType).getTypeArguments().isEmpty() == false)) {
+            return new FieldCode(
+                "s.serializeField(jo, t, " + declaringName + ".class, " + quoted + ");",
+                "d.deserializeField(jo, t, " + declaringName + ".class, " + quoted + ");");
+        }
+        // primitive types and their wrappers
+        String getAs = getAs(fieldType);
+        if(getAs != null) {
+            return new FieldCode(
+                "jo.addProperty(" + quoted + ", " + read + ");",
+                present + String.format(write, "je." + getAs + "()"));
+        }
+        // enumerated types are written by name
+        if(isEnum(fieldType)) {
+            return new FieldCode(
+                "{ " + fieldTypeName + " v = " + read + "; if(v != null) jo.addProperty(" + quoted + ", v.name()); }",
+                present + String.format(write, fieldTypeName + ".valueOf(je.getAsString())"));
+        }
+        if(fieldTypeName.equals("java.util.Date")) {
+            return new FieldCode(
+                "{ java.util.Date v = " + read + "; if(v != null) jo.addProperty(" + quoted + ", v.getTime()); }",
+                present + String.format(write, "new java.util.Date(je.getAsLong())"));
+        }
+        if(fieldTypeName.equals("java.util.UUID")) {
+            return new FieldCode(
+                "{ java.util.UUID v = " + read + "; if(v != null) jo.addProperty(" + quoted + ", com.pmeade.arya.identity.UuidCodec.format(v)); }",
+                present + String.format(write, "com.pmeade.arya.identity.UuidCodec.parse(je.getAsString())"));
+        }
+        // everything else is a reference to a complex object
+        return new FieldCode(
+            "{ Object v = " + read + "; if(v != null) jo.addProperty(" + quoted + ", s.reference(v)); }",
+            present + String.format(write, "(" + fieldTypeName + ") d.resolve(je, " + fieldTypeName + ".class)"));
+    }
+
+    /**
+     * Determine the JsonElement getter for a primitive (or wrapper) type.
+     * @param type the type of the field
+     * @return name of the JsonElement method that obtains a value of the
+     *         provided type, or null if the type isn't a primitive,
+     *         a wrapper, or String
+     */
+    private String getAs(TypeMirror type)
+    {
+        switch(type.getKind()) {
+            case BOOLEAN: return "getAsBoolean";
+            case BYTE:    return "getAsByte";
+            case CHAR:    return "getAsCharacter";
+            case SHORT:   return "getAsShort";
+            case INT:     return "getAsInt";
+            case LONG:    return "getAsLong";
+            case FLOAT:   return "getAsFloat";
+            case DOUBLE:  return "getAsDouble";
+            default:      break;
+        }
+        String typeName = erasure(type);
+        if(typeName.equals("java.lang.Boolean"))   { return "getAsBoolean"; }
+        if(typeName.equals("java.lang.Byte"))      { return "getAsByte"; }
+        if(typeName.equals("java.lang.Character")) { return "getAsCharacter"; }
+        if(typeName.equals("java.lang.Short"))     { return "getAsShort"; }
+        if(typeName.equals("java.lang.Integer"))   { return "getAsInt"; }
+        if(typeName.equals("java.lang.Long"))      { return "getAsLong"; }
+        if(typeName.equals("java.lang.Float"))     { return "getAsFloat"; }
+        if(typeName.equals("java.lang.Double"))    { return "getAsDouble"; }
+        if(typeName.equals("java.lang.String"))    { return "getAsString"; }
+        return null;
+    }
+
+    /**
+     * Determine if the generated codec can access the field directly.
+     */
+    private boolean isAccessible(TypeElement type, TypeElement declaring, VariableElement field)
+    {
+        Set<Modifier> modifiers = field.getModifiers();
+        if(modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        boolean samePackage = packageOf(declaring).equals(packageOf(type));
+        if(samePackage) {
+            return true;
+        }
+        return modifiers.contains(Modifier.PUBLIC) && declaring.getModifiers().contains(Modifier.PUBLIC);
+    }
+
+    /**
+     * Find a getter or setter for the provided field, following the usual
+     * JavaBean naming conventions (getX/isX and setX).
+     */
+    private ExecutableElement findAccessor(TypeElement type, TypeElement declaring, VariableElement field, boolean getter)
+    {
+        String name = field.getSimpleName().toString();
+        String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for(ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            Set<Modifier> modifiers = method.getModifiers();
+            if(modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.PRIVATE)) {
+                continue;
+            }
+            TypeElement owner = (TypeElement) method.getEnclosingElement();
+            if(modifiers.contains(Modifier.PUBLIC) == false && packageOf(owner).equals(packageOf(type)) == false) {
+                continue;
+            }
+            String methodName = method.getSimpleName().toString();
+            if(getter) {
+                if((methodName.equals("get" + capitalized) || methodName.equals("is" + capitalized))
+                && method.getParameters().isEmpty()
+                && processingEnv.getTypeUtils().isSameType(method.getReturnType(), field.asType())) {
+                    return method;
+                }
+            } else {
+                if(methodName.equals("set" + capitalized)
+                && method.getParameters().size() == 1
+                && processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), field.asType())) {
+                    return method;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Determine if the provided class has a no-arg constructor that the
+     * generated codec can call.
+     */
+    private boolean hasNoArgConstructor(TypeElement type)
+    {
+        List<ExecutableElement> constructors = ElementFilter.constructorsIn(type.getEnclosedElements());
+        for(ExecutableElement constructor : constructors) {
+            if(constructor.getParameters().isEmpty()) {
+                return constructor.getModifiers().contains(Modifier.PRIVATE) == false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine if the provided type is an enumerated type.
+     */
+    private boolean isEnum(TypeMirror type)
+    {
+        if(type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        return ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM;
+    }
+
+    /**
+     * Obtain the superclass of the provided class, or null at the top.
+     */
+    private TypeElement superclassOf(TypeElement type)
+    {
+        TypeMirror superclass = type.getSuperclass();
+        if(superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        return (TypeElement) ((DeclaredType) superclass).asElement();
+    }
+
+    /**
+     * Obtain the package that contains the provided element.
+     */
+    private PackageElement packageOf(Element element)
+    {
+        return processingEnv.getElementUtils().getPackageOf(element);
+    }
+
+    /**
+     * Obtain the name of the erasure of the provided type, suitable for
+     * use in source code.
+     */
+    private String erasure(TypeMirror type)
+    {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    /**
+     * Write the ServiceLoader registration for the generated codecs. An
+     * incremental compile only sees the @Codec classes that changed, so the
+     * codecs already registered by an earlier compile are kept.
+     */
+    private void writeServiceFile()
+    {
+        // if we didn't generate anything, don't write anything
+        if(generated.isEmpty()) {
+            return;
+        }
+        String serviceFile = "META-INF/services/" + CLASS_CODEC;
+        // start with the codecs registered by an earlier compile
+        Set<String> codecNames = new TreeSet<String>(readServiceFile(serviceFile));
+        codecNames.addAll(generated);
+        try {
+            FileObject file = processingEnv.getFiler().createResource(
+                StandardLocation.CLASS_OUTPUT, "", serviceFile);
+            PrintWriter out = new PrintWriter(file.openWriter());
+            for(String codecName : codecNames) {
+                out.println(codecName);
+            }
+            out.close();
+        } catch(IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                "Unable to write " + serviceFile + ": " + e);
+        }
+    }
+
+    /**
+     * Read the codecs registered in an existing ServiceLoader registration.
+     * @param serviceFile path of the registration in the class output
+     * @return names of the registered codecs; empty if there is no
+     *         registration yet
+     */
+    private List<String> readServiceFile(String serviceFile)
+    {
+        List<String> codecNames = new ArrayList<String>();
+        try {
+            FileObject file = processingEnv.getFiler().getResource(
+                StandardLocation.CLASS_OUTPUT, "", serviceFile);
+            BufferedReader in = new BufferedReader(file.openReader(true));
+            try {
+                String line;
+                while((line = in.readLine()) != null) {
+                    // ServiceLoader ignores anything after a '#'
+                    int comment = line.indexOf('#');
+                    if(comment >= 0) {
+                        line = line.substring(0, comment);
+                    }
+                    line = line.trim();
+                    if(line.length() > 0) {
+                        codecNames.add(line);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch(IOException e) {
+            // no earlier registration; this is a clean compile
+        }
+        return codecNames;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void warning(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, message, element);
+    }
+
+    /**
+     * FieldCode holds the generated statements for a single field.
+     */
+    private static class FieldCode
+    {
+        FieldCode(String serialize, String deserialize) {
+            this.serialize = serialize;
+            this.deserialize = deserialize;
+        }
+
+        /**
+         * Statement that serializes the field.
+         */
+        final String serialize;
+
+        /**
+         * Statement that deserializes the field.
+         */
+        final String deserialize;
+    }
+
+    /**
+     * Fully qualified names of the codecs generated during this compilation.
+     */
+    private List<String> generated = new ArrayList<String>();
+}
@@ -0,0 +1,293 @@
+/*
+ * ClassPlan.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.reflect;
+
+import com.google.common.collect.ImmutableList;
+import com.pmeade.arya.annotation.Id;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ClassPlan is the memoized result of walking a class and its superclasses
+ * with reflection. It contains the ordered list of fields that Arya will
+ * (de)serialize and the field marked with @Id (if any). A field of a
+ * superclass that is hidden by a field of the same name in a subclass is
+ * left out; a JSON object can only hold one of them, so the most derived
+ * field wins, in every engine. A ClassPlan is built
+ * once per class and then shared by every AryaSerializer and AryaDeserializer
+ * in the JVM; it is immutable and thread-safe.
+ * @author pmeade
+ */
+public final class ClassPlan
+{
+    /** SLF4J Logging Service */
+    private static final Logger log = LoggerFactory.getLogger(ClassPlan.class);
+
+    /**
+     * Cache of ClassPlan objects, one per class. ClassValue allows the
+     * plans to be garbage collected along with the classes they describe.
+     */
+    private static final ClassValue<ClassPlan> plans = new ClassValue<ClassPlan>() {
+        @Override
+        protected ClassPlan computeValue(Class<?> type) {
+            return new ClassPlan(type);
+        }
+    };
+
+    /**
+     * Obtain the ClassPlan for the provided class. The plan is built on the
+     * first request and cached for all subsequent requests.
+     * @param clazz Class for which to obtain the plan
+     * @return ClassPlan describing the provided class
+     */
+    public static ClassPlan of(Class clazz)
+    {
+        return plans.get(clazz);
+    }
+
+    /**
+     * Construct a ClassPlan by walking the provided class and its
+     * superclasses with reflection.
+     * @param type Class to be described
+     */
+    private ClassPlan(Class type)
+    {
+        // the list of fields that we will (de)serialize
+        ImmutableList.Builder<FieldPlan> builder = ImmutableList.builder();
+        // the names of the fields in the list
+        Set<String> names = new HashSet<String>();
+        // the field marked with @Id, if we happen to find one
+        Field idCandidate = null;
+        // the number of identity fields that we found marked with @Id
+        int idCount = 0;
+        // start with the actual type of the provided class
+        Class tClazz = type;
+        // while we haven't reached the top the inheritance hierarchy
+        while(tClazz != null && tClazz != Object.class)
+        {
+            // for each field in the class
+            for(Field field : tClazz.getDeclaredFields()) {
+                // see if the field is a UUID (or 64-bit long) field with an
+                // @Id annotation
+                if(field.getAnnotation(Id.class) != null
+                && isIdType(field.getType())) {
+                    // ensure we can access the data of the field
+                    field.setAccessible(true);
+                    // remember it as the identity field of the class
+                    idCandidate = field;
+                    idCount++;
+                }
+                // skip anything that is final, static, transient, or volatile
+                int modifiers = field.getModifiers();
+                if(Modifier.isFinal(modifiers)) continue;
+                if(Modifier.isStatic(modifiers)) continue;
+                if(Modifier.isTransient(modifiers)) continue;
+                if(Modifier.isVolatile(modifiers)) continue;
+                // skip a field hidden by a field of the same name in a
+                // subclass (which we have already added)
+                if(names.add(field.getName()) == false) continue;
+                // ensure that we can access the data contained in the field
+                field.setAccessible(true);
+                // add the field to the plan
+                builder.add(new FieldPlan(field));
+            }
+            // after handling all the fields on the class, we move up the
+            // inheritance hierarchy and handle the fields of the superclass
+            tClazz = tClazz.getSuperclass();
+        }
+        // if there are several fields marked with @Id
+        if(idCount > 1) {
+            // log the error; there is no way to tell which UUID identity
+            // we should be using, so we won't use any of them
+            log.error("Multiple fields marked with @Id in {}", type.getName());
+            idCandidate = null;
+        }
+        this.fields = builder.build();
+        this.idField = idCandidate;
+        this.type = type;
+    }
+
+    /**
+     * Obtain the ordered list of fields to be (de)serialized. Fields of the
+     * class itself come first, followed by the fields of its superclasses.
+     * @return immutable List of FieldPlan objects
+     */
+    public List<FieldPlan> getFields() {
+        return fields;
+    }
+
+    /**
+     * Find the plan for a single field.
+     * @param declaringClass Class that declares the field
+     * @param name name of the field
+     * @return FieldPlan for the field, or null if the field is not one
+     *         that Arya (de)serializes
+     */
+    public FieldPlan getField(Class declaringClass, String name)
+    {
+        for(FieldPlan fieldPlan : fields) {
+            if(fieldPlan.getName().equals(name)
+            && fieldPlan.getField().getDeclaringClass().equals(declaringClass)) {
+                return fieldPlan;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the UUID identity of the provided object.
+     * @param t Object for which to find the UUID identity; it must be an
+     *          instance of the class described by this plan
+     * @return UUID identity of the provided object, if the class has one
+     *         (and only one) field with the @Id annotation that contains
+     *         a non-null (or, for a long field, non-zero) value; otherwise
+     *         this method returns null. The identity in a long field is
+     *         returned as a UUID whose most significant bits are zero.
+     */
+    public UUID getId(Object t)
+    {
+        // if the class doesn't have a usable @Id field, there is no identity
+        if(idField == null) {
+            return null;
+        }
+        try {
+            // obtain the identity of the object, if it has one
+            Object id = idField.get(t);
+            // if it's a 64-bit identity, convert it to a UUID
+            if(id instanceof Long) {
+                long longId = (Long) id;
+                return (longId != 0L) ? new UUID(0L, longId) : null;
+            }
+            return (UUID) id;
+        } catch(IllegalAccessException e) {
+            // if we weren't able to access the field, then log the error
+            log.error("Unable to access field marked with @Id:", e);
+        }
+        return null;
+    }
+
+    /**
+     * Write the provided UUID identity into the field marked with @Id.
+     * @param t Object into which to write the UUID identity; it must be an
+     *          instance of the class described by this plan
+     * @param uuid UUID identity to be written
+     * @return true, if the identity was written; false, if the class has no
+     *         usable @Id field, or the identity doesn't fit into it (i.e.:
+     *         a long field can only hold a 64-bit identity)
+     */
+    public boolean setId(Object t, UUID uuid)
+    {
+        // if the class doesn't have a usable @Id field, there is nowhere
+        // to write the identity
+        if(idField == null) {
+            return false;
+        }
+        try {
+            // if the field holds a 64-bit identity
+            if(idField.getType() != UUID.class) {
+                // a full UUID won't fit into it
+                if(uuid.getMostSignificantBits() != 0L) {
+                    return false;
+                }
+                idField.set(t, uuid.getLeastSignificantBits());
+            } else {
+                idField.set(t, uuid);
+            }
+            return true;
+        } catch(IllegalAccessException e) {
+            // if we weren't able to access the field, then log the error
+            log.error("Unable to access field marked with @Id:", e);
+        }
+        return false;
+    }
+
+    /**
+     * Empty the field marked with @Id, so that the provided object has no
+     * identity of its own again.
+     * @param t Object whose identity field is to be emptied; it must be an
+     *          instance of the class described by this plan
+     */
+    public void clearId(Object t)
+    {
+        // if the class doesn't have a usable @Id field, there is nothing
+        // to empty
+        if(idField == null) {
+            return;
+        }
+        try {
+            // a 64-bit identity field is empty when it is zero
+            if(idField.getType() == long.class) {
+                idField.setLong(t, 0L);
+            } else {
+                idField.set(t, null);
+            }
+        } catch(IllegalAccessException e) {
+            // if we weren't able to access the field, then log the error
+            log.error("Unable to access field marked with @Id:", e);
+        }
+    }
+
+    /**
+     * Determine if a field of the provided type can hold an identity.
+     * @param type declared type of the field
+     * @return true, if the type is UUID, long, or Long; otherwise false
+     */
+    private static boolean isIdType(Class type)
+    {
+        return type == UUID.class || type == long.class || type == Long.class;
+    }
+
+    /**
+     * Obtain the field marked with @Id.
+     * @return Field marked with @Id, or null if the class has no such
+     *         field (or more than one such field)
+     */
+    public Field getIdField() {
+        return idField;
+    }
+
+    /**
+     * Obtain the class described by this plan.
+     * @return Class described by this plan
+     */
+    public Class getType() {
+        return type;
+    }
+
+    /**
+     * Ordered list of fields that Arya will (de)serialize.
+     */
+    private final List<FieldPlan> fields;
+
+    /**
+     * UUID (or long) field marked with @Id, or null if there is none.
+     */
+    private final Field idField;
+
+    /**
+     * Class described by this plan.
+     */
+    private final Class type;
+}
@@ -0,0 +1,176 @@
+/*
+ * FieldAccessor.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.reflect;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * FieldAccessor reads and writes a single field through a pair of method
+ * handles. The handles are adapted to the exact type of the field, so the
+ * primitive methods (getDouble, setInt, etc.) move values in and out of the
+ * object without boxing them. Calling a primitive method that doesn't match
+ * the type of the field results in a WrongMethodTypeException.
+ * @author pmeade
+ */
+public final class FieldAccessor
+{
+    /**
+     * Create a FieldAccessor for the provided field.
+     * @param field Field to be accessed; it should already be accessible
+     * @return FieldAccessor for the field
+     * @throws IllegalAccessException if the field cannot be accessed (for
+     *                                example, if it is final)
+     */
+    public static FieldAccessor of(Field field) throws IllegalAccessException
+    {
+        // obtain raw handles to read and write the field
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle getter = lookup.unreflectGetter(field);
+        MethodHandle setter = lookup.unreflectSetter(field);
+        // adapt the handles so that the object may be passed as an Object
+        // while the value keeps the exact type of the field
+        Class type = field.getType();
+        MethodHandle exactGetter = getter.asType(MethodType.methodType(type, Object.class));
+        MethodHandle exactSetter = setter.asType(MethodType.methodType(void.class, Object.class, type));
+        // adapt a second pair of handles that pass the value as an Object
+        MethodHandle objectGetter = getter.asType(MethodType.methodType(Object.class, Object.class));
+        MethodHandle objectSetter = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        return new FieldAccessor(exactGetter, exactSetter, objectGetter, objectSetter);
+    }
+
+    /**
+     * Construct a FieldAccessor from the provided (adapted) method handles.
+     */
+    private FieldAccessor(MethodHandle exactGetter, MethodHandle exactSetter,
+                          MethodHandle objectGetter, MethodHandle objectSetter)
+    {
+        this.exactGetter = exactGetter;
+        this.exactSetter = exactSetter;
+        this.objectGetter = objectGetter;
+        this.objectSetter = objectSetter;
+    }
+
+    public Object get(Object t) {
+        try { return objectGetter.invokeExact(t); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public void set(Object t, Object value) {
+        try { objectSetter.invokeExact(t, value); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public boolean getBoolean(Object t) {
+        try { return (boolean) exactGetter.invokeExact(t); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public void setBoolean(Object t, boolean value) {
+        try { exactSetter.invokeExact(t, value); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public byte getByte(Object t) {
+        try { return (byte) exactGetter.invokeExact(t); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public void setByte(Object t, byte value) {
+        try { exactSetter.invokeExact(t, value); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public char getChar(Object t) {
+        try { return (char) exactGetter.invokeExact(t); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public void setChar(Object t, char value) {
+        try { exactSetter.invokeExact(t, value); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public short getShort(Object t) {
+        try { return (short) exactGetter.invokeExact(t); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public void setShort(Object t, short value) {
+        try { exactSetter.invokeExact(t, value); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public int getInt(Object t) {
+        try { return (int) exactGetter.invokeExact(t); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public void setInt(Object t, int value) {
+        try { exactSetter.invokeExact(t, value); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public long getLong(Object t) {
+        try { return (long) exactGetter.invokeExact(t); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public void setLong(Object t, long value) {
+        try { exactSetter.invokeExact(t, value); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public float getFloat(Object t) {
+        try { return (float) exactGetter.invokeExact(t); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public void setFloat(Object t, float value) {
+        try { exactSetter.invokeExact(t, value); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public double getDouble(Object t) {
+        try { return (double) exactGetter.invokeExact(t); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    public void setDouble(Object t, double value) {
+        try { exactSetter.invokeExact(t, value); } catch(Throwable e) { throw rethrow(e); }
+    }
+
+    /**
+     * Convert a Throwable from a method handle invocation into something
+     * we can throw without declaring it.
+     * @param e Throwable thrown by the method handle
+     * @return RuntimeException to be thrown by the caller
+     */
+    private static RuntimeException rethrow(Throwable e)
+    {
+        if(e instanceof RuntimeException) { return (RuntimeException) e; }
+        if(e instanceof Error) { throw (Error) e; }
+        return new IllegalStateException(e);
+    }
+
+    /**
+     * Getter adapted to (Object) -> exact type of the field.
+     */
+    private final MethodHandle exactGetter;
+
+    /**
+     * Setter adapted to (Object, exact type of the field) -> void.
+     */
+    private final MethodHandle exactSetter;
+
+    /**
+     * Getter adapted to (Object) -> Object.
+     */
+    private final MethodHandle objectGetter;
+
+    /**
+     * Setter adapted to (Object, Object) -> void.
+     */
+    private final MethodHandle objectSetter;
+}
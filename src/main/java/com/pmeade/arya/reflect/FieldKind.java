@@ -0,0 +1,125 @@
+/*
+ * FieldKind.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.reflect;
+
+import com.google.common.collect.ImmutableMap;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * FieldKind classifies a field by the way Arya (de)serializes it. The kind
+ * of a field is decided once, when the ClassPlan for its class is built, so
+ * that the serializer and deserializer don't have to repeat the dispatch
+ * for every object.
+ * @author pmeade
+ */
+public enum FieldKind
+{
+    BOOLEAN,
+    BYTE,
+    CHAR,
+    SHORT,
+    INT,
+    LONG,
+    FLOAT,
+    DOUBLE,
+    DATE,
+    STRING,
+    UUID,
+    ENUM,
+    ARRAY,
+    PARAMETERIZED,
+    OBJECT;
+
+    /**
+     * Handy map of simple types to the kind of field that holds them.
+     */
+    private static final Map<Class,FieldKind> simpleMap =
+        new ImmutableMap.Builder<Class,FieldKind>()
+            .put(boolean.class,   BOOLEAN)
+            .put(Boolean.class,   BOOLEAN)
+            .put(byte.class,      BYTE)
+            .put(Byte.class,      BYTE)
+            .put(char.class,      CHAR)
+            .put(Character.class, CHAR)
+            .put(short.class,     SHORT)
+            .put(Short.class,     SHORT)
+            .put(int.class,       INT)
+            .put(Integer.class,   INT)
+            .put(long.class,      LONG)
+            .put(Long.class,      LONG)
+            .put(float.class,     FLOAT)
+            .put(Float.class,     FLOAT)
+            .put(double.class,    DOUBLE)
+            .put(Double.class,    DOUBLE)
+            .put(Date.class,      DATE)
+            .put(String.class,    STRING)
+            .put(java.util.UUID.class, UUID)
+            .build();
+
+    /**
+     * Determine the kind of the provided field. The order of the checks
+     * mirrors the order in which Arya has always chosen a FieldSerializer:
+     * arrays win over enums, enums win over parameterized types, and
+     * parameterized types win over simple types. Anything left over is a
+     * reference to a complex object.
+     * @param field Field to be classified
+     * @return FieldKind of the provided field, never null
+     */
+    public static FieldKind of(Field field)
+    {
+        // obtain the declared type of the field
+        Class type = field.getType();
+        // if the type is an array
+        if(type.isArray()) {
+            return ARRAY;
+        }
+        // if the type is an enumerated type
+        if(type.isEnum()) {
+            return ENUM;
+        }
+        // if the type is a parameterized type (i.e.: Collection or Map)
+        if(field.getGenericType() instanceof ParameterizedType) {
+            return PARAMETERIZED;
+        }
+        // if the type is a simple type that can be expressed in JSON
+        FieldKind kind = simpleMap.get(type);
+        if(kind != null) {
+            return kind;
+        }
+        // otherwise, it's a complex object that requires serialization
+        return OBJECT;
+    }
+
+    /**
+     * Determine if the provided type is a simple type that can be
+     * expressed directly in JSON (primitives, their wrappers, Date,
+     * String, and UUID).
+     * @param type Class to be checked
+     * @return true, if the type is simple; false, if a value of the type
+     *         is a complex object that requires its own (de)serialization
+     */
+    public static boolean isSimple(Class type)
+    {
+        return simpleMap.containsKey(type);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * FieldPlan.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.reflect;
+
+import java.lang.reflect.Field;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * FieldPlan is the memoized description of a single serializable field.
+ * It holds the (already accessible) Field, a FieldAccessor for it, the name
+ * under which the field appears in the JSON, and the kind of
+ * (de)serialization it requires.
+ * FieldPlan objects are immutable and may be shared between threads.
+ * @author pmeade
+ */
+public final class FieldPlan
+{
+    /** SLF4J Logging Service */
+    private static final Logger log = LoggerFactory.getLogger(FieldPlan.class);
+
+    /**
+     * Construct a FieldPlan for the provided field.
+     * @param field Field to be described; it should already be accessible
+     */
+    FieldPlan(Field field)
+    {
+        this.field = field;
+        this.name = field.getName();
+        this.kind = FieldKind.of(field);
+        // create the method handle based accessor for the field
+        FieldAccessor fieldAccessor = null;
+        try {
+            fieldAccessor = FieldAccessor.of(field);
+        } catch(IllegalAccessException e) {
+            // if we can't, callers will have to fall back to the Field
+            log.warn("Unable to create accessor for field '" + name + "':", e);
+        }
+        this.accessor = fieldAccessor;
+    }
+
+    /**
+     * Obtain the FieldAccessor for this field.
+     * @return FieldAccessor, or null if one could not be created
+     */
+    public FieldAccessor getAccessor() {
+        return accessor;
+    }
+
+    /**
+     * Obtain the Field described by this plan.
+     * @return Field, already made accessible
+     */
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * Obtain the kind of (de)serialization required by this field.
+     * @return FieldKind of the field
+     */
+    public FieldKind getKind() {
+        return kind;
+    }
+
+    /**
+     * Obtain the name of this field in the JSON representation.
+     * @return name of the field
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The method handle based accessor for the field, or null.
+     */
+    private final FieldAccessor accessor;
+
+    /**
+     * The Field described by this plan.
+     */
+    private final Field field;
+
+    /**
+     * The kind of (de)serialization required by the field.
+     */
+    private final FieldKind kind;
+
+    /**
+     * The name of the field in the JSON representation.
+     */
+    private final String name;
+}
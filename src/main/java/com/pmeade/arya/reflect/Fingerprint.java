@@ -0,0 +1,438 @@
+/*
+ * Fingerprint.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.reflect;
+
+import com.pmeade.arya.identity.IdentityMap;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fingerprint computes a 64-bit hash of the serializable state of an
+ * object. The hash of each field in the object's ClassPlan is folded into
+ * the fingerprint, so a change to any field (almost certainly) changes the
+ * fingerprint.
+ * 
+ * Simple values (primitives, their wrappers, Date, String, UUID) and enums
+ * are hashed by value, over all of their bits: a long or a double goes in
+ * as its full 64 bits, a UUID as both of its halves, and a String (or the
+ * name of an enum) through a 64-bit FNV-1a hash rather than String's
+ * 32-bit hashCode(). A reference to a complex object is hashed by
+ * identity: the fingerprint changes if the field points to a different
+ * object, but not if the referenced object itself changes; that object has
+ * its own fingerprint. When an IdentityMap is provided, a referenced
+ * object is hashed by its 128-bit UUID identity; an object that has no
+ * UUID identity yet (and every reference, without an IdentityMap) is
+ * hashed by System.identityHashCode(), which is only 32 bits wide. The
+ * elements of arrays, collections, and maps are hashed in the same way.
+ * 
+ * The elements of an unordered set or map (a HashSet or HashMap, for
+ * example, but not a SortedSet or a LinkedHashMap) are combined by adding
+ * up their hashes, so the fingerprint doesn't depend on the order in which
+ * the container happens to iterate. That order follows hashCode(), which
+ * for many objects is System.identityHashCode(), and so differs between
+ * sessions even when nothing has changed.
+ * 
+ * A fingerprint is still a hash, so two different states can have the
+ * same fingerprint, and then a change goes unnoticed. For edits that
+ * nobody has crafted to collide, the chance of that is about 1 in 2^64
+ * per change; a reference to an object without a UUID identity is the
+ * weak spot, but Arya gives every referenced object its identity before
+ * it stores a fingerprint, so a reference without one is already a change.
+ * 
+ * A content fingerprint leaves references out altogether (each reference
+ * is hashed as the same constant). It doesn't depend on object identity,
+ * so it is the same in every session; SubgraphHash combines it with the
+ * hashes of the referenced objects. For that, each reference is given a
+ * slot: references in fields, arrays, and ordered collections each have
+ * a slot of their own, while the elements of an unordered set share one,
+ * as do the values of an unordered map under equal keys.
+ * @author pmeade
+ */
+public final class Fingerprint
+{
+    /** SLF4J Logging Service */
+    private static final Logger log = LoggerFactory.getLogger(Fingerprint.class);
+
+    /**
+     * Hash of every reference in a content fingerprint.
+     */
+    private static final long REFERENCE = 0x5bd1e9955bd1e995L;
+
+    /**
+     * Hash of a null value.
+     */
+    private static final long NULL = 0x2545f4914f6cdd1dL;
+
+    /**
+     * Multiplier used to fold each hash into the fingerprint.
+     */
+    private static final long PRIME = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Offset basis of the 64-bit FNV-1a hash.
+     */
+    private static final long FNV_BASIS = 0xcbf29ce484222325L;
+
+    /**
+     * Prime of the 64-bit FNV-1a hash.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Static utility class; no instances.
+     */
+    private Fingerprint() {}
+
+    /**
+     * Compute the fingerprint of the provided object.
+     * @param t Object for which to compute the fingerprint
+     * @param references List to which every complex object referenced by
+     *                   the provided object is added; may be null if the
+     *                   caller isn't interested in them
+     * @return fingerprint of the object
+     */
+    public static long of(Object t, List<Object> references)
+    {
+        return of(t, references, true, null);
+    }
+
+    /**
+     * Compute the fingerprint of the provided object, hashing each
+     * referenced object by its UUID identity in the provided IdentityMap.
+     * @param t Object for which to compute the fingerprint
+     * @param references List to which every complex object referenced by
+     *                   the provided object is added; may be null if the
+     *                   caller isn't interested in them
+     * @param identities IdentityMap holding the UUID identities of the
+     *                   referenced objects
+     * @return fingerprint of the object
+     */
+    public static long of(Object t, List<Object> references, IdentityMap identities)
+    {
+        return of(t, references, true, identities);
+    }
+
+    /**
+     * Compute the content fingerprint of the provided object.
+     * @param t Object for which to compute the fingerprint
+     * @param references List to which every complex object referenced by
+     *                   the provided object is added, in field order; may
+     *                   be null if the caller isn't interested in them
+     * @return content fingerprint of the object
+     */
+    public static long ofContent(Object t, List<Object> references)
+    {
+        return of(t, references, false, null);
+    }
+
+    /**
+     * Compute the content fingerprint of the provided object, and the slot
+     * of each object that it refers to. Slots don't depend on object
+     * identity, nor on the iteration order of unordered containers.
+     * @param t Object for which to compute the fingerprint
+     * @param references List to which every complex object referenced by
+     *                   the provided object is added, in field order
+     * @param slots List to which the slot of each referenced object is
+     *              added, parallel to the references
+     * @return content fingerprint of the object
+     */
+    public static long ofContent(Object t, List<Object> references, List<Long> slots)
+    {
+        return of(t, new References(references, slots), false, null);
+    }
+
+    /**
+     * Compute the fingerprint of the provided object.
+     * @param t Object for which to compute the fingerprint
+     * @param references List to which referenced objects are added; may
+     *                   be null
+     * @param byIdentity true, if references are hashed by identity; false,
+     *                   if references are left out of the fingerprint
+     * @param identities IdentityMap holding the UUID identities of the
+     *                   referenced objects; may be null
+     * @return fingerprint of the object
+     */
+    private static long of(Object t, List<Object> references, boolean byIdentity, IdentityMap identities)
+    {
+        return of(t, (references != null) ? new References(references, null) : null, byIdentity, identities);
+    }
+
+    /**
+     * Compute the fingerprint of the provided object.
+     * @param t Object for which to compute the fingerprint
+     * @param references References to which referenced objects are added;
+     *                   may be null
+     * @param byIdentity true, if references are hashed by identity; false,
+     *                   if references are left out of the fingerprint
+     * @param identities IdentityMap holding the UUID identities of the
+     *                   referenced objects; may be null
+     * @return fingerprint of the object
+     */
+    private static long of(Object t, References references, boolean byIdentity, IdentityMap identities)
+    {
+        long h = hashString(t.getClass().getName());
+        for(FieldPlan fieldPlan : ClassPlan.of(t.getClass()).getFields()) {
+            Object value = null;
+            try {
+                FieldAccessor accessor = fieldPlan.getAccessor();
+                value = (accessor != null) ? accessor.get(t) : fieldPlan.getField().get(t);
+            } catch(IllegalAccessException e) {
+                log.error("Unable to access field '" + fieldPlan.getName() + "':", e);
+            }
+            h = (h * PRIME) + hash(value, references, byIdentity, identities);
+        }
+        return mix(h);
+    }
+
+    /**
+     * Compute the hash of the value of a single field.
+     * @param o value to be hashed
+     * @param references References to which complex objects are added;
+     *                   may be null
+     * @param byIdentity true, if references are hashed by identity
+     * @param identities IdentityMap holding the UUID identities of the
+     *                   referenced objects; may be null
+     * @return hash of the value
+     */
+    private static long hash(Object o, References references, boolean byIdentity, IdentityMap identities)
+    {
+        // the elements of arrays, collections, and maps are folded together
+        if(o != null && o.getClass().isArray()) {
+            long h = 1L;
+            int length = Array.getLength(o);
+            boolean nested = o.getClass().getComponentType().isArray();
+            for(int i=0; i<length; i++) {
+                // as in the serializer, the inner arrays of a multi-
+                // dimensional array are part of the field, not objects
+                Object element = Array.get(o, i);
+                h = (h * PRIME) + (nested ? hash(element, references, byIdentity, identities) : hashElement(element, references, nextSlot(references), byIdentity, identities));
+            }
+            return h;
+        }
+        // the elements of an unordered container are added up, so that
+        // the order in which they happen to be iterated doesn't matter
+        if(o instanceof Collection && isUnordered(o)) {
+            long slot = nextSlot(references);
+            long sum = 0L;
+            for(Object element : (Collection) o) {
+                sum += mix(hashElement(element, references, slot, byIdentity, identities));
+            }
+            return (((4L * PRIME) + ((Collection) o).size()) * PRIME) + sum;
+        }
+        if(o instanceof Map && isUnordered(o)) {
+            long slot = nextSlot(references);
+            long sum = 0L;
+            for(Object entry : ((Map) o).entrySet()) {
+                Map.Entry e = (Map.Entry) entry;
+                // a value's slot follows its key, as far as the key can
+                // be hashed without identity
+                long key = hashElement(e.getKey(), references, slot, byIdentity, identities);
+                long value = hashElement(e.getValue(), references, mix((slot * PRIME) + key), byIdentity, identities);
+                sum += mix((key * PRIME) + value);
+            }
+            return (((5L * PRIME) + ((Map) o).size()) * PRIME) + sum;
+        }
+        if(o instanceof Collection) {
+            long h = 2L;
+            for(Object element : (Collection) o) {
+                h = (h * PRIME) + hashElement(element, references, nextSlot(references), byIdentity, identities);
+            }
+            return h;
+        }
+        if(o instanceof Map) {
+            long h = 3L;
+            for(Object entry : ((Map) o).entrySet()) {
+                Map.Entry e = (Map.Entry) entry;
+                h = (h * PRIME) + hashElement(e.getKey(), references, nextSlot(references), byIdentity, identities);
+                h = (h * PRIME) + hashElement(e.getValue(), references, nextSlot(references), byIdentity, identities);
+            }
+            return h;
+        }
+        return hashElement(o, references, nextSlot(references), byIdentity, identities);
+    }
+
+    /**
+     * Determine if the provided set or map iterates in an order of its
+     * own, rather than one kept by the container (a sorted order, or the
+     * order of insertion).
+     * @param o Collection or Map
+     * @return true, if the container is an unordered set or map
+     */
+    private static boolean isUnordered(Object o)
+    {
+        if(o instanceof SortedSet || o instanceof LinkedHashSet) {
+            return false;
+        }
+        if(o instanceof SortedMap || o instanceof LinkedHashMap) {
+            return false;
+        }
+        return (o instanceof Set) || (o instanceof Map);
+    }
+
+    /**
+     * Obtain a new slot for a reference.
+     * @param references References being collected; may be null
+     * @return new slot, or zero if no references are being collected
+     */
+    private static long nextSlot(References references)
+    {
+        return (references != null) ? ++references.lastSlot : 0L;
+    }
+
+    /**
+     * Compute the hash of a single value, or of a single element of an
+     * array, collection, or map. As in the serializer, an element that is
+     * itself a container is a complex object.
+     * @param o value to be hashed
+     * @param references References to which a complex object is added;
+     *                   may be null
+     * @param slot slot of the value, if it is a complex object
+     * @param byIdentity true, if references are hashed by identity
+     * @param identities IdentityMap holding the UUID identities of the
+     *                   referenced objects; may be null
+     * @return hash of the value
+     */
+    private static long hashElement(Object o, References references, long slot, boolean byIdentity, IdentityMap identities)
+    {
+        if(o == null) {
+            return NULL;
+        }
+        // simple values are hashed by value, over all of their bits
+        if(FieldKind.isSimple(o.getClass())) {
+            return mix(bitsOf(o));
+        }
+        if(o instanceof Enum) {
+            return mix(hashString(((Enum) o).name()));
+        }
+        // anything else is a complex object, hashed by identity
+        if(references != null) {
+            references.objects.add(o);
+            if(references.slots != null) {
+                references.slots.add(slot);
+            }
+        }
+        if(byIdentity == false) {
+            return REFERENCE;
+        }
+        UUID uuid = (identities != null) ? identities.getId(o) : null;
+        if(uuid != null) {
+            return mix((mix(uuid.getMostSignificantBits()) * PRIME) + uuid.getLeastSignificantBits());
+        }
+        return mix(System.identityHashCode(o) ^ REFERENCE);
+    }
+
+    /**
+     * Obtain the bits of a simple value. Numbers, characters, and dates
+     * give all of their bits; strings and UUID identities are hashed down
+     * to 64 bits.
+     * @param o simple value (see FieldKind.isSimple)
+     * @return bits of the value
+     */
+    private static long bitsOf(Object o)
+    {
+        if(o instanceof String) {
+            return hashString((String) o);
+        }
+        if(o instanceof Double) {
+            return Double.doubleToLongBits((Double) o);
+        }
+        if(o instanceof Float) {
+            return Float.floatToIntBits((Float) o);
+        }
+        if(o instanceof Number) {
+            return ((Number) o).longValue();
+        }
+        if(o instanceof Boolean) {
+            return ((Boolean) o) ? 1L : 2L;
+        }
+        if(o instanceof Character) {
+            return (Character) o;
+        }
+        if(o instanceof Date) {
+            return ((Date) o).getTime();
+        }
+        UUID uuid = (UUID) o;
+        return (mix(uuid.getMostSignificantBits()) * PRIME) + uuid.getLeastSignificantBits();
+    }
+
+    /**
+     * Compute the 64-bit FNV-1a hash of the provided String.
+     * @param s String to be hashed
+     * @return hash of the String
+     */
+    private static long hashString(String s)
+    {
+        long h = FNV_BASIS;
+        for(int i=0; i<s.length(); i++) {
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * Spread the bits of the fingerprint (the finalizer of MurmurHash3).
+     */
+    static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * References collects the complex objects referred to by an object,
+     * and (for a content fingerprint) the slot of each one.
+     */
+    private static final class References
+    {
+        References(List<Object> objects, List<Long> slots) {
+            this.objects = objects;
+            this.slots = slots;
+        }
+
+        /**
+         * Objects referred to, in field order.
+         */
+        final List<Object> objects;
+
+        /**
+         * Slot of each object referred to, or null if slots aren't needed.
+         */
+        final List<Long> slots;
+
+        /**
+         * Last slot given out for a reference.
+         */
+        long lastSlot;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * SubgraphHash.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.reflect;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SubgraphHash computes a Merkle-style hash for every object reachable from
+ * a root object. The hash of an object covers its own content fingerprint
+ * and the hashes of every object it refers to, so it changes if (and, but
+ * for hash collisions, only if) something in the subgraph reachable from
+ * that object changes.
+ * 
+ * Object graphs may contain cycles, so the hash isn't computed object by
+ * object. The graph is first condensed into its strongly connected
+ * components (with Tarjan's algorithm, iteratively, so that deep graphs
+ * don't overflow the stack). Components are hashed in reverse topological
+ * order; a component hashes the content of its members in discovery order,
+ * a reference inside the component as the position of its target, and a
+ * reference out of the component as the (already computed) hash of its
+ * target. Each member then takes the component hash mixed with its own
+ * position.
+ * 
+ * The references of an object are combined by adding up their hashes,
+ * each mixed with the slot of the reference (see Fingerprint.ofContent).
+ * References held in fields, arrays, and lists have slots of their own,
+ * so moving an object from one field to another is a change; the
+ * elements of an unordered set or map share a slot, so the order in which
+ * it happens to iterate is not. The walk follows the references of an
+ * object in the order of their slots, and the elements of an unordered
+ * container in the order of their content fingerprints.
+ * 
+ * References are never hashed by object identity, so an unchanged graph
+ * has the same hashes in every session, provided the walk starts from the
+ * same root. The one exception is a cycle that passes through two elements
+ * of an unordered container that have the same content (but different
+ * subgraphs); the walk may discover those in either order.
+ * @author pmeade
+ */
+public final class SubgraphHash
+{
+    /**
+     * Multiplier used to fold each hash into a component hash.
+     */
+    private static final long PRIME = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Compute the hash of every object reachable from the provided object.
+     * @param root Object from which to start
+     */
+    public SubgraphHash(Object root)
+    {
+        // this is Tarjan's algorithm, with an explicit stack standing in
+        // for the recursive calls
+        ArrayDeque<Node> tarjan = new ArrayDeque();
+        ArrayDeque<Node> calls = new ArrayDeque();
+        calls.push(visit(root, tarjan));
+        while(calls.isEmpty() == false) {
+            Node node = calls.peek();
+            // if the node has another reference to follow
+            if(node.next < node.references.size()) {
+                Object o = node.references.get(node.next++);
+                Node target = nodes.get(o);
+                if(target == null) {
+                    // "recurse" into the unvisited object
+                    calls.push(visit(o, tarjan));
+                } else if(target.onStack) {
+                    node.low = Math.min(node.low, target.index);
+                }
+                continue;
+            }
+            // otherwise, the node is done; "return" from it
+            calls.pop();
+            Node caller = calls.peek();
+            if(caller != null) {
+                caller.low = Math.min(caller.low, node.low);
+            }
+            // if the node is the root of a component, pop and hash it
+            if(node.low == node.index) {
+                List<Node> members = new ArrayList();
+                Node member;
+                do {
+                    member = tarjan.pop();
+                    member.onStack = false;
+                    members.add(member);
+                } while(member != node);
+                hashComponent(members);
+            }
+        }
+    }
+
+    /**
+     * Obtain the hash of the subgraph reachable from the provided object.
+     * @param o Object reachable from the root
+     * @return hash of the subgraph reachable from the object
+     * @throws IllegalArgumentException if the object isn't reachable from
+     *                                  the root
+     */
+    public long getHash(Object o)
+    {
+        Node node = nodes.get(o);
+        if(node == null) {
+            throw new IllegalArgumentException("Object is not reachable from the root");
+        }
+        return node.hash;
+    }
+
+    /**
+     * Obtain the objects that the provided object refers to.
+     * @param o Object reachable from the root
+     * @return List of the objects it refers to, in the order in which the
+     *         walk follows them (field order, except that the elements
+     *         of an unordered container are ordered by content)
+     * @throws IllegalArgumentException if the object isn't reachable from
+     *                                  the root
+     */
+    public List<Object> getReferences(Object o)
+    {
+        Node node = nodes.get(o);
+        if(node == null) {
+            throw new IllegalArgumentException("Object is not reachable from the root");
+        }
+        return node.references;
+    }
+
+    /**
+     * Obtain every object reachable from the root.
+     * @return List of objects, in the order in which they were discovered
+     *         (the root is first)
+     */
+    public List<Object> getObjects()
+    {
+        return objects;
+    }
+
+    //-----------------------------------------------------------------------
+
+    /**
+     * Begin the visit of an object: give it a node, and push the node on
+     * the Tarjan stack.
+     * @param o Object to be visited
+     * @param tarjan Tarjan stack
+     * @return Node for the object
+     */
+    private Node visit(Object o, ArrayDeque<Node> tarjan)
+    {
+        Node node = new Node();
+        node.index = node.low = objects.size();
+        node.references = new ArrayList();
+        List<Long> slots = new ArrayList();
+        node.content = Fingerprint.ofContent(o, node.references, slots);
+        node.slots = sortReferences(node.references, slots);
+        node.onStack = true;
+        nodes.put(o, node);
+        objects.add(o);
+        tarjan.push(node);
+        return node;
+    }
+
+    /**
+     * Put the references of an object into the order in which the walk
+     * follows them: by slot, and within a slot (the elements of an
+     * unordered container) by content fingerprint. Neither depends on
+     * object identity.
+     * @param references List of referenced objects, in field order; it is
+     *                   sorted in place
+     * @param slots List of the slot of each referenced object
+     * @return slot of each referenced object, in the sorted order
+     */
+    private static long[] sortReferences(List<Object> references, List<Long> slots)
+    {
+        int size = references.size();
+        Reference[] sorted = new Reference[size];
+        for(int i=0; i<size; i++) {
+            sorted[i] = new Reference(references.get(i), slots.get(i));
+        }
+        Arrays.sort(sorted, BY_SLOT);
+        // the elements of an unordered container share a slot; only they
+        // need their content fingerprints to be put in order
+        for(int i=0; i<size; ) {
+            int end = i + 1;
+            while(end < size && sorted[end].slot == sorted[i].slot) {
+                end++;
+            }
+            if(end - i > 1) {
+                for(int j=i; j<end; j++) {
+                    sorted[j].content = Fingerprint.ofContent(sorted[j].object, null);
+                }
+                Arrays.sort(sorted, i, end, BY_CONTENT);
+            }
+            i = end;
+        }
+        long[] result = new long[size];
+        for(int i=0; i<size; i++) {
+            references.set(i, sorted[i].object);
+            result[i] = sorted[i].slot;
+        }
+        return result;
+    }
+
+    /**
+     * Compute the hash of a strongly connected component, and of each of
+     * its members. Every component reachable from it has been hashed.
+     * @param members nodes of the component, in the order in which they
+     *                were popped from the Tarjan stack
+     */
+    private void hashComponent(List<Node> members)
+    {
+        // number the members in the order in which they were discovered
+        int size = members.size();
+        for(int i=0; i<size; i++) {
+            members.get(size-1-i).position = i;
+            members.get(size-1-i).component = members;
+        }
+        long h = size;
+        for(int i=size-1; i>=0; i--) {
+            Node member = members.get(i);
+            h = (h * PRIME) + member.content;
+            // add up the references, each mixed with its slot
+            long sum = 0L;
+            for(int j=0; j<member.slots.length; j++) {
+                Node target = nodes.get(member.references.get(j));
+                long targetHash = (target.component == members) ? target.position : target.hash;
+                sum += Fingerprint.mix((member.slots[j] * PRIME) + targetHash);
+            }
+            h = (h * PRIME) + sum;
+        }
+        for(Node member : members) {
+            member.hash = Fingerprint.mix((h * PRIME) + member.position);
+        }
+    }
+
+    /**
+     * Node holds the state of a single object during the walk.
+     */
+    private static final class Node
+    {
+        /**
+         * Order in which the object was discovered.
+         */
+        int index;
+
+        /**
+         * Lowest index reachable from the object (Tarjan's "lowlink").
+         */
+        int low;
+
+        /**
+         * Flag: the node is on the Tarjan stack.
+         */
+        boolean onStack;
+
+        /**
+         * Objects referred to by the object, in the order of their slots.
+         */
+        List<Object> references;
+
+        /**
+         * Slot of each object referred to, parallel to references.
+         */
+        long[] slots;
+
+        /**
+         * Index of the next reference to be followed.
+         */
+        int next;
+
+        /**
+         * Content fingerprint of the object.
+         */
+        long content;
+
+        /**
+         * Members of the component to which the node belongs, once known.
+         */
+        List<Node> component;
+
+        /**
+         * Position of the node within its component.
+         */
+        int position;
+
+        /**
+         * Hash of the subgraph reachable from the object.
+         */
+        long hash;
+    }
+
+    /**
+     * Reference holds a referenced object while the references of an
+     * object are being put in order.
+     */
+    private static final class Reference
+    {
+        Reference(Object object, long slot) {
+            this.object = object;
+            this.slot = slot;
+        }
+
+        /**
+         * Object referred to.
+         */
+        final Object object;
+
+        /**
+         * Slot of the reference.
+         */
+        final long slot;
+
+        /**
+         * Content fingerprint of the object, if it shares its slot.
+         */
+        long content;
+    }
+
+    /**
+     * Orders references by slot.
+     */
+    private static final Comparator<Reference> BY_SLOT = new Comparator<Reference>() {
+        public int compare(Reference a, Reference b) {
+            return Long.compare(a.slot, b.slot);
+        }
+    };
+
+    /**
+     * Orders references by content fingerprint.
+     */
+    private static final Comparator<Reference> BY_CONTENT = new Comparator<Reference>() {
+        public int compare(Reference a, Reference b) {
+            return Long.compare(a.content, b.content);
+        }
+    };
+
+    /**
+     * Node of each object, by identity.
+     */
+    private final Map<Object,Node> nodes = new IdentityHashMap();
+
+    /**
+     * Objects in the order in which they were discovered.
+     */
+    private final List<Object> objects = new ArrayList();
+}
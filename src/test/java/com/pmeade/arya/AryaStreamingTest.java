@@ -0,0 +1,129 @@
+/*
+ * AryaStreamingTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya;
+
+import com.pmeade.arya.AryaTest.MapStore;
+import com.pmeade.arya.AryaTest.Shape;
+import com.pmeade.arya.AryaTest.Square;
+import com.pmeade.arya.domain.ConcreteTypes;
+import com.pmeade.arya.domain.GameOfArrays;
+import com.pmeade.arya.domain.GameOfLists;
+import com.pmeade.arya.domain.GameOfMaps;
+import com.pmeade.arya.domain.MagicSword;
+import com.pmeade.arya.domain.Player;
+import com.pmeade.arya.domain.Point;
+import java.util.UUID;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * AryaStreamingTest runs every test in AryaTest against an Arya that uses
+ * the streaming engine, and adds tests that compare the streaming engine
+ * with the tree engine.
+ * @author pmeade
+ */
+public class AryaStreamingTest extends AryaTest
+{
+    @Override
+    protected Arya newArya() {
+        Arya streamingArya = new Arya(Arya.COMPACT_PRINTING);
+        streamingArya.setStreaming(true);
+        return streamingArya;
+    }
+
+    @Override
+    protected boolean isClassCodecUsed() {
+        // the streaming engine only uses a codec to create instances
+        return false;
+    }
+
+    @Test
+    public void testStreamingMatchesTree() {
+        assertSameJson(new Point(1.0, 2.0, 3.0));
+        assertSameJson(new GameOfArrays());
+        assertSameJson(new GameOfLists());
+        assertSameJson(new ConcreteTypes());
+        MagicSword magicSword = new MagicSword();
+        magicSword.setUuid(UUID.fromString("de626224-a0b1-47e3-904d-a243eb4ca6b0"));
+        magicSword.setDmgBonus(5);
+        magicSword.setEpicName("Lightbringer");
+        assertSameJson(magicSword);
+        Square square = new Square();
+        square.name = "square";
+        ((Shape) square).name = "shape";
+        assertSameJson(square);
+    }
+
+    @Test
+    public void testStreamingReadsTreeOutput() {
+        MapStore store = new MapStore();
+        Arya treeArya = new Arya(Arya.COMPACT_PRINTING);
+        treeArya.register((AryaOutput) store);
+        Player alice = newPlayerGraph();
+        treeArya.save(alice);
+        treeArya.save(new GameOfMaps());
+
+        Arya loader = newArya();
+        loader.register((AryaInput) store);
+        assertPlayerGraph(alice, loader.load(treeArya.getIdentity(alice), Player.class));
+    }
+
+    @Test
+    public void testTreeReadsStreamingOutput() {
+        MapStore store = new MapStore();
+        Arya streamingArya = newArya();
+        streamingArya.register((AryaOutput) store);
+        Player alice = newPlayerGraph();
+        streamingArya.save(alice);
+
+        Arya loader = new Arya(Arya.COMPACT_PRINTING);
+        loader.register((AryaInput) store);
+        assertPlayerGraph(alice, loader.load(streamingArya.getIdentity(alice), Player.class));
+    }
+
+    @Test
+    public void testStreamingRoundTrip() {
+        MapStore store = new MapStore();
+        Arya streamingArya = newArya();
+        streamingArya.register((AryaOutput) store);
+        Player alice = newPlayerGraph();
+        streamingArya.save(alice);
+        GameOfArrays gameOfArrays = new GameOfArrays();
+        streamingArya.save(gameOfArrays);
+
+        Arya loader = newArya();
+        loader.register((AryaInput) store);
+        assertPlayerGraph(alice, loader.load(streamingArya.getIdentity(alice), Player.class));
+        GameOfArrays gameOfArrays2 = loader.load(streamingArya.getIdentity(gameOfArrays), GameOfArrays.class);
+        assertNotNull(gameOfArrays2);
+        assertEquals(store.get(streamingArya.getIdentity(gameOfArrays)), toJson(gameOfArrays2, newArya()));
+    }
+
+    private void assertSameJson(Object o) {
+        assertEquals(toJson(o, new Arya(Arya.COMPACT_PRINTING)), toJson(o, newArya()));
+    }
+
+    private String toJson(Object o, Arya saver) {
+        MapStore store = new MapStore();
+        saver.register((AryaOutput) store);
+        saver.save(o);
+        return store.get(saver.getIdentity(o));
+    }
+}
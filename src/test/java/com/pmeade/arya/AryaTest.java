@@ -22,6 +22,10 @@ import com.google.common.collect.ImmutableMap;
 import com.pmeade.arya.domain.CircReferenceA;
 import com.pmeade.arya.domain.CircReferenceB;
 import com.pmeade.arya.domain.CityInfo;
+import com.pmeade.arya.domain.CodecPlayer;
+import com.pmeade.arya.domain.CodecPoint;
+import com.pmeade.arya.domain.CodecPolygon;
+import com.pmeade.arya.domain.Dragon;
 import com.pmeade.arya.domain.ComplicatedNull;
 import com.pmeade.arya.domain.ConcreteTypes;
 import com.pmeade.arya.domain.GameOfArrays;
@@ -43,10 +47,33 @@ import com.pmeade.arya.domain.ThroneProgram3;
 import com.pmeade.arya.domain.TopTen;
 import com.pmeade.arya.domain.TourSchedule;
 import com.pmeade.arya.domain.Weapon;
+import com.pmeade.arya.gson.codec.ClassCodecs;
+import com.pmeade.arya.identity.IdentityRegistry;
+import com.pmeade.arya.identity.MappedIdentityMap;
+import com.pmeade.arya.identity.ReferenceIdentityMap;
+import com.pmeade.arya.identity.SequentialIdGenerator;
+import com.pmeade.arya.identity.TimeOrderedIdGenerator;
+import com.pmeade.arya.io.RecordHashes;
+import com.pmeade.arya.io.Utf8Writer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.*;
 
 import static org.easymock.EasyMock.*;
@@ -67,9 +94,68 @@ public class AryaTest
     public static void tearDownClass() throws Exception {
     }
     
+    /**
+     * Create the Arya under test. Subclasses override this to run the same
+     * tests against a differently configured Arya.
+     * @return Arya object to be tested
+     */
+    protected Arya newArya() {
+        return new Arya(Arya.COMPACT_PRINTING);
+    }
+    
+    /**
+     * Determine if the Arya under test (de)serializes the fields of a class
+     * through its generated ClassCodec.
+     * @return true, if generated codecs are used for fields
+     */
+    protected boolean isClassCodecUsed() {
+        return true;
+    }
+    
+    /**
+     * Create a small Player graph with a circular reference, an enum, a
+     * date, and a polymorphic weapon.
+     * @return Player at the root of the graph
+     */
+    protected Player newPlayerGraph() {
+        Player alice = new Player(); alice.setName("Alice"); alice.setGender(Gender.FEMALE);
+        Player bob = new Player(); bob.setName("Bob"); bob.setGender(Gender.MALE);
+        List<Player> bobList = new ArrayList();
+        bobList.add(alice);
+        alice.getKnownAssociates().put(bob, bobList);
+        MagicSword magicSword = new MagicSword();
+        magicSword.setUuid(UUID.fromString("de626224-a0b1-47e3-904d-a243eb4ca6b0"));
+        magicSword.setDmgBonus(5);
+        magicSword.setEpicName("Lightbringer");
+        alice.getWeapons().add(magicSword);
+        return alice;
+    }
+    
+    /**
+     * Check that a loaded Player graph matches the one created by
+     * newPlayerGraph().
+     * @param alice Player returned by newPlayerGraph()
+     * @param alice2 Player loaded from the saved graph
+     */
+    protected void assertPlayerGraph(Player alice, Player alice2) {
+        assertNotNull(alice2);
+        assertEquals("Alice", alice2.getName());
+        assertEquals(Gender.FEMALE, alice2.getGender());
+        assertEquals(alice.getDateCreated(), alice2.getDateCreated());
+        assertEquals(1, alice2.getKnownAssociates().size());
+        Player bob2 = alice2.getKnownAssociates().keySet().iterator().next();
+        assertEquals("Bob", bob2.getName());
+        assertEquals(Gender.MALE, bob2.getGender());
+        assertSame(alice2, alice2.getKnownAssociates().get(bob2).get(0));
+        MagicSword magicSword2 = (MagicSword) alice2.getWeapons().get(0);
+        assertEquals(UUID.fromString("de626224-a0b1-47e3-904d-a243eb4ca6b0"), magicSword2.getUuid());
+        assertEquals(5, magicSword2.getDmgBonus());
+        assertEquals("Lightbringer", magicSword2.getEpicName());
+    }
+    
     @Before
     public void setUp() {
-        arya = new Arya(Arya.COMPACT_PRINTING);
+        arya = newArya();
         // just to see what's going on
 //        arya.register(new AryaOutput() {
 //            public <T> void output(T t, UUID uuid, String json) {
@@ -1052,6 +1138,1695 @@ public class AryaTest
         assertEquals(10, magicSword.getToHitBonus());
     }
     
+    @Test
+    public void testEqualObjectsHaveDistinctIdentities() {
+        MapStore store = new MapStore();
+        arya.register((AryaOutput) store);
+        Point a = new EqualPoint();
+        Point b = new EqualPoint();
+        assertEquals(a, b);
+        arya.save(a);
+        arya.save(b);
+        assertEquals(2, store.size());
+        assertNotNull(arya.getIdentity(a));
+        assertNotNull(arya.getIdentity(b));
+        assertFalse(arya.getIdentity(a).equals(arya.getIdentity(b)));
+    }
+    
+    @Test
+    public void testTimeOrderedIdentities() {
+        arya.setIdGenerator(new TimeOrderedIdGenerator());
+        Point a = new Point(1, 2, 3);
+        Point b = new Point(4, 5, 6);
+        arya.save(a);
+        arya.save(b);
+        assertEquals(7, arya.getIdentity(a).version());
+        assertTrue(arya.getIdentity(a).compareTo(arya.getIdentity(b)) < 0);
+    }
+    
+    @Test
+    public void testCompactIdentities() {
+        MapStore store = new MapStore();
+        arya.register((AryaOutput) store);
+        arya.setIdGenerator(new SequentialIdGenerator());
+        arya.setCompactIdentities(true);
+        
+        Dragon drogon = new Dragon(0L, "Drogon");
+        Dragon rhaegal = new Dragon(0L, "Rhaegal");
+        Dragon balerion = new Dragon(1000L, "Balerion");
+        balerion.setMother(balerion);
+        drogon.setMother(balerion);
+        rhaegal.setMother(balerion);
+        arya.save(drogon);
+        arya.save(rhaegal);
+        assertEquals(3, store.size());
+        assertEquals(new UUID(0L, 1000L), arya.getIdentity(balerion));
+        assertEquals(0L, arya.getIdentity(drogon).getMostSignificantBits());
+        String json = store.get(arya.getIdentity(drogon)).replaceAll("\\s", "");
+        assertTrue(json.contains("\"mother\":\"1000\""));
+        
+        Arya loader = newArya();
+        loader.register((AryaInput) store);
+        Dragon drogon2 = loader.load(arya.getIdentity(drogon), Dragon.class);
+        Dragon rhaegal2 = loader.load(arya.getIdentity(rhaegal), Dragon.class);
+        assertEquals("Drogon", drogon2.getName());
+        assertEquals("Balerion", drogon2.getMother().getName());
+        assertEquals(1000L, drogon2.getMother().getId());
+        assertSame(drogon2.getMother(), rhaegal2.getMother());
+    }
+    
+    @Test
+    public void testLoadParallelReferences() {
+        MapStore store = new MapStore();
+        arya.register((AryaOutput) store);
+        arya.setCompactIdentities(true);
+        // names that look like compact identities; 42 is a real record
+        Dragon decoy = new Dragon(42L, "Decoy");
+        decoy.setMother(decoy);
+        Dragon balerion = new Dragon(1000L, "42");
+        balerion.setMother(balerion);
+        Dragon drogon = new Dragon(7L, "1000");
+        drogon.setMother(balerion);
+        arya.save(decoy);
+        arya.save(drogon);
+        assertEquals(3, store.size());
+        
+        // only the fields that hold references are followed, and the
+        // records are asked for with the declared type of the reference
+        final MapStore source = store;
+        final Map<UUID,Class> requested = new ConcurrentHashMap();
+        Arya loader = newArya();
+        loader.setCompactIdentities(true);
+        loader.register(new AryaInput() {
+            public <T> String input(UUID uuid, Class<T> type) {
+                requested.put(uuid, type);
+                return source.get(uuid);
+            }
+        });
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Dragon drogon2 = loader.loadParallel(new UUID(0L, 7L), Dragon.class, pool);
+            assertEquals("1000", drogon2.getName());
+            assertEquals("42", drogon2.getMother().getName());
+            assertEquals(2, requested.size());
+            assertEquals(Dragon.class, requested.get(new UUID(0L, 7L)));
+            assertEquals(Dragon.class, requested.get(new UUID(0L, 1000L)));
+            assertFalse(requested.containsKey(new UUID(0L, 42L)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    public void testIdWriteBack() {
+        arya.setIdWriteBack(true);
+        MagicSword magicSword = new MagicSword();
+        assertNull(magicSword.getUuid());
+        arya.save(magicSword);
+        assertNotNull(magicSword.getUuid());
+        assertEquals(arya.getIdentity(magicSword), magicSword.getUuid());
+        
+        // a later session uses the identity that was written back
+        Arya later = newArya();
+        later.save(magicSword);
+        assertEquals(arya.getIdentity(magicSword), later.getIdentity(magicSword));
+    }
+    
+    @Test
+    public void testIdWriteBackLong() {
+        arya.setIdWriteBack(true);
+        arya.setIdGenerator(new SequentialIdGenerator());
+        Dragon viserion = new Dragon(0L, "Viserion");
+        viserion.setMother(viserion);
+        arya.save(viserion);
+        assertEquals(1L, viserion.getId());
+        
+        // a full UUID identity doesn't fit into a long field
+        Arya random = newArya();
+        random.setIdWriteBack(true);
+        Dragon vhagar = new Dragon(0L, "Vhagar");
+        vhagar.setMother(vhagar);
+        random.save(vhagar);
+        assertEquals(0L, vhagar.getId());
+        assertNotNull(random.getIdentity(vhagar));
+    }
+    
+    @Test
+    public void testIdentityRegistry() {
+        IdentityRegistry registry = new IdentityRegistry();
+        MapStore store = new MapStore();
+        arya.setIdentityRegistry(registry);
+        arya.register((AryaOutput) store);
+        Polygon polygon = new Polygon();
+        arya.save(polygon);
+        assertEquals(6, store.size());
+        
+        // a later session that shares the registry overwrites the records
+        Arya later = newArya();
+        later.setIdentityRegistry(registry);
+        later.register((AryaOutput) store);
+        later.save(polygon);
+        assertEquals(6, store.size());
+        assertEquals(arya.getIdentity(polygon), later.getIdentity(polygon));
+        assertEquals(arya.getIdentity(polygon.getPoints()[2]), later.getIdentity(polygon.getPoints()[2]));
+        
+        // objects that are loaded are registered under their identity
+        Arya loader = newArya();
+        loader.setIdentityRegistry(registry);
+        loader.register((AryaInput) store);
+        Polygon polygon2 = loader.load(arya.getIdentity(polygon), Polygon.class);
+        Arya saver = newArya();
+        saver.setIdentityRegistry(registry);
+        saver.register((AryaOutput) store);
+        saver.save(polygon2);
+        assertEquals(6, store.size());
+        assertEquals(arya.getIdentity(polygon), saver.getIdentity(polygon2));
+        
+        // without a registry, each session creates new identities
+        Arya unregistered = newArya();
+        unregistered.register((AryaOutput) store);
+        unregistered.save(polygon);
+        assertEquals(12, store.size());
+    }
+    
+    @Test
+    public void testChangeTracking() {
+        final List<UUID> emitted = new ArrayList();
+        arya.setChangeTracking(true);
+        arya.register(new AryaOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+                emitted.add(uuid);
+            }
+        });
+        Polygon polygon = new Polygon();
+        arya.save(polygon);
+        assertEquals(6, emitted.size());
+        
+        // nothing has changed, so nothing is saved again
+        emitted.clear();
+        arya.save(polygon);
+        arya.flush();
+        assertEquals(0, emitted.size());
+        
+        // only the changed point is saved again
+        polygon.getPoints()[3].setX(42.0);
+        arya.save(polygon);
+        assertEquals(1, emitted.size());
+        assertEquals(arya.getIdentity(polygon.getPoints()[3]), emitted.get(0));
+        
+        // a new point, and the polygon that refers to it, are saved
+        emitted.clear();
+        UUID uuid = arya.getIdentity(polygon);
+        polygon.getPoints()[1] = new Point(7, 8, 9);
+        arya.flush();
+        assertEquals(2, emitted.size());
+        assertTrue(emitted.contains(uuid));
+        assertTrue(emitted.contains(arya.getIdentity(polygon.getPoints()[1])));
+        assertEquals(uuid, arya.getIdentity(polygon));
+    }
+    
+    @Test
+    public void testChangeTrackingNewRoot() {
+        final List<UUID> emitted = new ArrayList();
+        arya.setChangeTracking(true);
+        arya.register(new AryaOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+                emitted.add(uuid);
+            }
+        });
+        Polygon polygon = new Polygon();
+        arya.save(polygon);
+        
+        // a new root that refers to a known point that has changed saves
+        // the changed point as well
+        emitted.clear();
+        Polygon polygon2 = new Polygon();
+        polygon2.getPoints()[0] = polygon.getPoints()[0];
+        polygon.getPoints()[0].setX(42.0);
+        arya.save(polygon2);
+        assertEquals(6, emitted.size());
+        assertTrue(emitted.contains(arya.getIdentity(polygon2)));
+        assertTrue(emitted.contains(arya.getIdentity(polygon.getPoints()[0])));
+        
+        // so there is nothing left for flush()
+        emitted.clear();
+        arya.flush();
+        assertEquals(0, emitted.size());
+    }
+    
+    @Test
+    public void testChangeTrackingHashCollisions() {
+        final List<UUID> emitted = new ArrayList();
+        arya.setChangeTracking(true);
+        arya.register(new AryaOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+                emitted.add(uuid);
+            }
+        });
+        Ledger ledger = new Ledger();
+        ledger.code = "Aa";
+        arya.save(ledger);
+        assertEquals(1, emitted.size());
+        
+        // edits whose values have the same 32-bit hashCode() are saved
+        emitted.clear();
+        ledger.balance = -1L;
+        arya.flush();
+        assertEquals(1, emitted.size());
+        emitted.clear();
+        ledger.code = "BB";
+        arya.flush();
+        assertEquals(1, emitted.size());
+        emitted.clear();
+        ledger.amount = Double.longBitsToDouble(0x0000000100000001L);
+        arya.save(ledger);
+        assertEquals(1, emitted.size());
+        emitted.clear();
+        arya.flush();
+        assertEquals(0, emitted.size());
+    }
+    
+    @Test
+    public void testChangeTrackingAfterLoad() {
+        MapStore store = new MapStore();
+        arya.register((AryaOutput) store);
+        Polygon polygon = new Polygon();
+        arya.save(polygon);
+        
+        Arya tracker = newArya();
+        tracker.setChangeTracking(true);
+        tracker.register((AryaInput) store);
+        tracker.register((AryaOutput) store);
+        Polygon polygon2 = tracker.load(arya.getIdentity(polygon), Polygon.class);
+        tracker.flush();
+        polygon2.getPoints()[4].setZ(-1.0);
+        tracker.save(polygon2);
+        assertEquals(6, store.size());
+        
+        Arya loader = newArya();
+        loader.register((AryaInput) store);
+        Polygon polygon3 = loader.load(arya.getIdentity(polygon), Polygon.class);
+        assertEquals(-1.0, polygon3.getPoints()[4].getZ(), 0.0);
+        assertEquals(polygon.getPoints()[0].getX(), polygon3.getPoints()[0].getX(), 0.0);
+    }
+    
+    @Test
+    public void testRecordHashes() {
+        final List<UUID> emitted = new ArrayList();
+        AryaOutput counter = new AryaOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+                emitted.add(uuid);
+            }
+        };
+        MapStore store = new MapStore();
+        RecordHashes recordHashes = new RecordHashes();
+        Dragon syrax = new Dragon(5L, "Syrax");
+        Dragon dreamfyre = new Dragon(6L, "Dreamfyre");
+        syrax.setMother(dreamfyre);
+        dreamfyre.setMother(dreamfyre);
+        arya.setRecordHashes(recordHashes);
+        arya.register(counter);
+        arya.register((AryaOutput) store);
+        arya.save(syrax);
+        assertEquals(2, emitted.size());
+        
+        // a later session doesn't rewrite unchanged records
+        emitted.clear();
+        Arya later = newArya();
+        later.setRecordHashes(recordHashes);
+        later.register(counter);
+        later.save(syrax);
+        assertEquals(0, emitted.size());
+        
+        // but it does write changed records
+        syrax.setName("Syrax the Yellow");
+        Arya changed = newArya();
+        changed.setRecordHashes(recordHashes);
+        changed.register(counter);
+        changed.register((AryaOutput) store);
+        changed.save(syrax);
+        assertEquals(1, emitted.size());
+        assertEquals(changed.getIdentity(syrax), emitted.get(0));
+        
+        // hashes may be seeded from the records in the store
+        emitted.clear();
+        RecordHashes seeded = new RecordHashes();
+        for(UUID uuid : new UUID[] { new UUID(0L, 5L), new UUID(0L, 6L) }) {
+            seeded.seed(uuid, store.get(uuid));
+        }
+        Arya reseeded = newArya();
+        reseeded.setRecordHashes(seeded);
+        reseeded.register(counter);
+        reseeded.save(syrax);
+        assertEquals(0, emitted.size());
+    }
+    
+    @Test
+    public void testRecordHashesAfterFailedDelivery() {
+        final List<UUID> emitted = new ArrayList();
+        final AtomicInteger failures = new AtomicInteger(1);
+        AryaOutput flaky = new AryaOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+                if(failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("store is down");
+                }
+                emitted.add(uuid);
+            }
+        };
+        RecordHashes recordHashes = new RecordHashes();
+        Dragon syrax = new Dragon(5L, "Syrax");
+        syrax.setMother(syrax);
+        arya.setRecordHashes(recordHashes);
+        arya.register(flaky);
+        try {
+            arya.save(syrax);
+            fail();
+        } catch(IllegalStateException e) {
+            // expected
+        }
+        // the record never arrived, so a later session writes it
+        Arya later = newArya();
+        later.setRecordHashes(recordHashes);
+        later.register(flaky);
+        later.save(syrax);
+        assertEquals(1, emitted.size());
+        Arya unchanged = newArya();
+        unchanged.setRecordHashes(recordHashes);
+        unchanged.register(flaky);
+        unchanged.save(syrax);
+        assertEquals(1, emitted.size());
+        
+        // the same goes for a batch that a batch output listener refused
+        final List<List<AryaRecord>> batches = new ArrayList();
+        final AtomicInteger batchFailures = new AtomicInteger(1);
+        AryaBatchOutput flakyBatch = new AryaBatchOutput() {
+            public void outputBatch(List<AryaRecord> records) {
+                if(batchFailures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("store is down");
+                }
+                batches.add(records);
+            }
+        };
+        RecordHashes batchHashes = new RecordHashes();
+        for(int i=0; i<3; i++) {
+            Arya batcher = newArya();
+            batcher.setRecordHashes(batchHashes);
+            batcher.register(flakyBatch);
+            try {
+                batcher.save(syrax);
+                assertTrue(i > 0);
+            } catch(IllegalStateException e) {
+                assertEquals(0, i);
+            }
+        }
+        assertEquals(1, batches.size());
+        assertEquals(1, batches.get(0).size());
+    }
+    
+    @Test
+    public void testSubgraphHashes() {
+        final List<UUID> emitted = new ArrayList();
+        AryaOutput counter = new AryaOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+                emitted.add(uuid);
+            }
+        };
+        IdentityRegistry registry = new IdentityRegistry();
+        RecordHashes subgraphHashes = new RecordHashes();
+        Polygon polygon = new Polygon();
+        arya.setIdentityRegistry(registry);
+        arya.setSubgraphHashes(subgraphHashes);
+        arya.register(counter);
+        arya.save(polygon);
+        assertEquals(6, emitted.size());
+        
+        // an unchanged graph is not saved again, in this session or another
+        emitted.clear();
+        arya.save(polygon);
+        Arya later = newArya();
+        later.setIdentityRegistry(registry);
+        later.setSubgraphHashes(subgraphHashes);
+        later.register(counter);
+        later.save(polygon);
+        assertEquals(0, emitted.size());
+        
+        // a changed point is saved, but not the polygon above it
+        polygon.getPoints()[2].setX(-2.0);
+        later.save(polygon);
+        assertEquals(1, emitted.size());
+        assertEquals(arya.getIdentity(polygon.getPoints()[2]), emitted.get(0));
+        
+        // a new point is saved, along with the polygon that refers to it
+        emitted.clear();
+        polygon.getPoints()[4] = new Point(4, 5, 6);
+        later.save(polygon);
+        assertEquals(2, emitted.size());
+        assertTrue(emitted.contains(later.getIdentity(polygon)));
+        assertTrue(emitted.contains(later.getIdentity(polygon.getPoints()[4])));
+        emitted.clear();
+        later.save(polygon);
+        assertEquals(0, emitted.size());
+    }
+    
+    @Test
+    public void testDeltaRecordsBase() {
+        final AtomicInteger failures = new AtomicInteger(0);
+        DeltaStore store = new DeltaStore() {
+            @Override
+            public <T> void patch(T t, UUID uuid, String patch) {
+                if(failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("store is down");
+                }
+                super.patch(t, uuid, patch);
+            }
+        };
+        arya.setChangeTracking(true);
+        arya.register((AryaDeltaOutput) store);
+        Polygon polygon = new Polygon();
+        arya.save(polygon);
+        Point point = polygon.getPoints()[3];
+        UUID uuid = arya.getIdentity(point);
+        
+        // a patch that wasn't delivered doesn't move the base
+        failures.set(1);
+        point.setX(42.0);
+        try {
+            arya.save(polygon);
+            fail();
+        } catch(IllegalStateException e) {
+            // expected
+        }
+        point.setY(43.0);
+        arya.save(polygon);
+        assertEquals(1, store.patchCount());
+        String patch = store.getPatches(uuid).get(0).replaceAll("\\s", "");
+        assertTrue(patch.contains("\"x\":42.0"));
+        assertTrue(patch.contains("\"y\":43.0"));
+        
+        // an evicted object starts over with a full record
+        Dragon vermax = new Dragon(7L, "Vermax");
+        vermax.setMother(vermax);
+        arya.save(vermax);
+        arya.evict(vermax);
+        vermax.setName("Vermax the Green");
+        arya.save(vermax);
+        assertEquals(1, store.patchCount());
+        assertNull(store.getPatches(new UUID(0L, 7L)));
+        
+        // so does every object, once Arya is cleared
+        arya.clear();
+        vermax.setName("Vermax the Bold");
+        arya.save(vermax);
+        assertEquals(1, store.patchCount());
+        assertNull(store.getPatches(new UUID(0L, 7L)));
+        
+        // each session of a factory keeps its own records
+        AryaFactory factory = new AryaFactory(arya);
+        Arya first = factory.open();
+        Arya second = factory.open();
+        Point shared = new Point(1, 2, 3);
+        first.save(shared);
+        int before = store.size();
+        second.save(shared);
+        assertEquals(before + 1, store.size());
+        assertEquals(1, store.patchCount());
+        first.close();
+        second.close();
+    }
+    
+    @Test
+    public void testSubgraphHashesSaveNull() {
+        final List<String> emitted = new ArrayList();
+        AryaOutput output = new AryaOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+                emitted.add(json);
+            }
+        };
+        arya.register(output);
+        arya.save(null);
+        List<String> plain = new ArrayList(emitted);
+        
+        // hashing subgraphs doesn't change what is saved for null
+        emitted.clear();
+        Arya hashing = newArya();
+        hashing.setSubgraphHashes(new RecordHashes());
+        hashing.register(output);
+        hashing.save(null);
+        assertEquals(plain, emitted);
+    }
+    
+    @Test
+    public void testSubgraphHashesDeepGraph() {
+        final List<Object> emitted = new ArrayList();
+        arya.setSubgraphHashes(new RecordHashes());
+        arya.register(new AryaOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+                emitted.add(t);
+            }
+        });
+        MultiModel model = new MultiModel();
+        arya.save(model);
+        
+        // only the changed point deep in the model is written; the
+        // polygons and the model above it are not
+        emitted.clear();
+        Point point = model.getPolygons()[1][0][1].getPoints()[3];
+        point.setY(-1.0);
+        arya.save(model);
+        assertEquals(1, emitted.size());
+        assertSame(point, emitted.get(0));
+        
+        // the same goes for a graph saved in parallel
+        emitted.clear();
+        point.setY(-2.0);
+        arya.saveParallel(model, ForkJoinPool.commonPool(), Arya.ORDERED_OUTPUT);
+        assertEquals(1, emitted.size());
+        assertSame(point, emitted.get(0));
+    }
+    
+    @Test
+    public void testDeltaRecords() {
+        DeltaStore store = new DeltaStore();
+        arya.setChangeTracking(true);
+        arya.register((AryaDeltaOutput) store);
+        Polygon polygon = new Polygon();
+        arya.save(polygon);
+        assertEquals(6, store.size());
+        assertEquals(0, store.patchCount());
+        
+        // only the changed field of the changed point is written
+        UUID uuid = arya.getIdentity(polygon.getPoints()[3]);
+        polygon.getPoints()[3].setX(42.0);
+        arya.save(polygon);
+        assertEquals(1, store.patchCount());
+        String patch = store.getPatches(uuid).get(0).replaceAll("\\s", "");
+        assertTrue(patch.contains("\"x\":42.0"));
+        assertFalse(patch.contains("\"y\""));
+        assertFalse(patch.contains(Arya.TYPE));
+        
+        // a field that is removed is written as null
+        Dragon vermax = new Dragon(7L, "Vermax");
+        vermax.setMother(vermax);
+        arya.save(vermax);
+        vermax.setName(null);
+        arya.save(vermax);
+        assertTrue(store.getPatches(new UUID(0L, 7L)).get(0).contains("\"name\":null"));
+        
+        // the patches are applied to the records at load time
+        Arya loader = newArya();
+        loader.register((AryaDeltaInput) store);
+        Polygon polygon2 = loader.load(arya.getIdentity(polygon), Polygon.class);
+        assertEquals(42.0, polygon2.getPoints()[3].getX(), 0.0);
+        assertEquals(polygon.getPoints()[3].getY(), polygon2.getPoints()[3].getY(), 0.0);
+        Dragon vermax2 = loader.load(new UUID(0L, 7L), Dragon.class);
+        assertNull(vermax2.getName());
+        assertSame(vermax2, vermax2.getMother());
+    }
+    
+    @Test
+    public void testClearAndEvict() {
+        MapStore store = new MapStore();
+        arya.register((AryaInput) store);
+        arya.register((AryaOutput) store);
+        Polygon polygon = new Polygon();
+        arya.save(polygon);
+        assertEquals(6, arya.getIdentityMap().size());
+        
+        // an evicted object is serialized again, under a new identity
+        Point point = polygon.getPoints()[2];
+        UUID uuid = arya.getIdentity(point);
+        assertTrue(arya.evict(point));
+        assertFalse(arya.evict(point));
+        assertNull(arya.getIdentity(point));
+        arya.save(point);
+        assertEquals(7, store.size());
+        assertFalse(uuid.equals(arya.getIdentity(point)));
+        
+        // an evicted identity is deserialized again, as a new object
+        UUID polygonId = arya.getIdentity(polygon);
+        assertTrue(arya.evict(polygonId));
+        Polygon polygon2 = arya.load(polygonId, Polygon.class);
+        assertNotSame(polygon, polygon2);
+        assertSame(polygon.getPoints()[0], polygon2.getPoints()[0]);
+        
+        // after clear(), everything is deserialized again
+        arya.clear();
+        assertEquals(0, arya.getIdentityMap().size());
+        Polygon polygon3 = arya.load(polygonId, Polygon.class);
+        assertNotSame(polygon2, polygon3);
+        assertNotSame(polygon.getPoints()[0], polygon3.getPoints()[0]);
+        assertEquals(polygon.getPoints()[0].getX(), polygon3.getPoints()[0].getX(), 0.0);
+    }
+    
+    @Test
+    public void testBoundedIdentityMap() {
+        MapStore store = new MapStore();
+        ReferenceIdentityMap identityMap = new ReferenceIdentityMap(ReferenceIdentityMap.Retention.WEAK, 20);
+        arya.setIdentityMap(identityMap);
+        arya.register((AryaOutput) store);
+        for(int i=0; i<10; i++) {
+            arya.save(new Polygon());
+        }
+        assertEquals(60, store.size());
+        assertTrue(identityMap.size() <= 20);
+        assertTrue(identityMap.getEvictionCount() >= 40);
+        
+        Arya loader = newArya();
+        loader.setIdentityMap(new ReferenceIdentityMap(ReferenceIdentityMap.Retention.SOFT, 20));
+        loader.register((AryaInput) store);
+        Polygon polygon = new Polygon();
+        arya.save(polygon);
+        Polygon polygon2 = loader.load(arya.getIdentity(polygon), Polygon.class);
+        assertEquals(polygon.getPoints()[3].getY(), polygon2.getPoints()[3].getY(), 0.0);
+    }
+    
+    @Test
+    public void testMappedIdentityMap() throws IOException {
+        MapStore store = new MapStore();
+        MappedIdentityMap saveMap = new MappedIdentityMap();
+        MappedIdentityMap loadMap = new MappedIdentityMap();
+        try {
+            arya.setIdentityMap(saveMap);
+            arya.register((AryaOutput) store);
+            Player player = new Player();
+            arya.save(player);
+            arya.save(player);
+            assertEquals(saveMap.size(), store.size());
+            
+            Arya loader = newArya();
+            loader.setIdentityMap(loadMap);
+            loader.register((AryaInput) store);
+            Player player2 = loader.load(arya.getIdentity(player), Player.class);
+            assertEquals(player.getName(), player2.getName());
+            assertSame(player2, loader.load(arya.getIdentity(player), Player.class));
+        } finally {
+            saveMap.close();
+            loadMap.close();
+        }
+    }
+    
+    @Test
+    public void testDeepGraph() {
+        // a chain of dragons, each the mother of the next, deep enough to
+        // overflow the stack if the graph were walked by recursion
+        int depth = 50000;
+        MapStore store = new MapStore();
+        arya.register((AryaOutput) store);
+        Dragon first = new Dragon(1L, "Dragon 1");
+        first.setMother(first);
+        Dragon last = first;
+        for(int i=2; i<=depth; i++) {
+            Dragon dragon = new Dragon(i, "Dragon " + i);
+            dragon.setMother(last);
+            last = dragon;
+        }
+        arya.save(last);
+        assertEquals(depth, store.size());
+        
+        Arya loader = newArya();
+        loader.register((AryaInput) store);
+        Dragon dragon = loader.load(new UUID(0L, depth), Dragon.class);
+        for(int i=depth; i>1; i--) {
+            assertEquals("Dragon " + i, dragon.getName());
+            dragon = dragon.getMother();
+        }
+        assertEquals(1L, dragon.getId());
+        assertSame(dragon, dragon.getMother());
+    }
+    
+    @Test
+    public void testDeferredSetAndMapKeys() {
+        MapStore store = new MapStore();
+        arya.register((AryaOutput) store);
+        Clutch clutch = new Clutch();
+        for(String color : new String[] { "red", "green", "gold" }) {
+            Egg egg = new Egg(color);
+            clutch.eggs.add(egg);
+            clutch.names.put(egg, color + " dragon");
+        }
+        arya.save(clutch);
+        
+        // the eggs are created after the clutch, but they must be complete
+        // before they go into the set and the map
+        Arya loader = newArya();
+        loader.register((AryaInput) store);
+        Clutch clutch2 = loader.load(arya.getIdentity(clutch), Clutch.class);
+        assertEquals(3, clutch2.eggs.size());
+        assertTrue(clutch2.eggs.contains(new Egg("gold")));
+        assertEquals("green dragon", clutch2.names.get(new Egg("green")));
+    }
+    
+    @Test
+    public void testConcurrentSaveAndLoad() throws Exception {
+        final int threads = 8;
+        final List<Polygon> polygons = new ArrayList();
+        for(int i=0; i<200; i++) {
+            polygons.add(new Polygon());
+        }
+        MapStore store = new MapStore();
+        arya.setConcurrent(true);
+        arya.register((AryaOutput) store);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // every thread saves the same graph at the same time
+            List<Future<List<UUID>>> saves = new ArrayList();
+            for(int i=0; i<threads; i++) {
+                saves.add(executor.submit(new Callable<List<UUID>>() {
+                    public List<UUID> call() {
+                        List<UUID> uuids = new ArrayList();
+                        for(Polygon polygon : polygons) {
+                            arya.save(polygon);
+                            uuids.add(arya.getIdentity(polygon));
+                        }
+                        return uuids;
+                    }
+                }));
+            }
+            // they must all agree on the identity of every object
+            final List<UUID> uuids = saves.get(0).get();
+            for(Future<List<UUID>> save : saves) {
+                assertEquals(uuids, save.get());
+            }
+            assertEquals(arya.getIdentityMap().size(), store.size());
+            
+            // every thread loads the same graph at the same time
+            final Arya loader = newArya();
+            loader.setConcurrent(true);
+            loader.register((AryaInput) store);
+            List<Future<List<Polygon>>> loads = new ArrayList();
+            for(int i=0; i<threads; i++) {
+                loads.add(executor.submit(new Callable<List<Polygon>>() {
+                    public List<Polygon> call() {
+                        List<Polygon> loaded = new ArrayList();
+                        for(UUID uuid : uuids) {
+                            loaded.add(loader.load(uuid, Polygon.class));
+                        }
+                        return loaded;
+                    }
+                }));
+            }
+            // they must all end up with the same objects
+            List<Polygon> loaded = loads.get(0).get();
+            for(Future<List<Polygon>> load : loads) {
+                List<Polygon> other = load.get();
+                for(int i=0; i<loaded.size(); i++) {
+                    assertSame(loaded.get(i), other.get(i));
+                }
+            }
+            for(int i=0; i<polygons.size(); i++) {
+                assertEquals(polygons.get(i).getPoints()[3].getY(), loaded.get(i).getPoints()[3].getY(), 0.0);
+            }
+            assertEquals(store.size(), loader.getIdentityMap().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void testFactorySessions() throws Exception {
+        final MapStore store = new MapStore();
+        arya.register((AryaOutput) store);
+        arya.register((AryaInput) store);
+        final AryaFactory factory = new AryaFactory(arya);
+        // sessions on different threads share the factory's serializers
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<UUID>> saves = new ArrayList();
+            for(int i=0; i<4; i++) {
+                final String name = "Player " + i;
+                saves.add(executor.submit(new Callable<UUID>() {
+                    public UUID call() {
+                        Arya session = factory.open();
+                        try {
+                            Player player = new Player();
+                            player.setName(name);
+                            session.save(player);
+                            return session.getIdentity(player);
+                        } finally {
+                            session.close();
+                        }
+                    }
+                }));
+            }
+            for(int i=0; i<4; i++) {
+                Arya session = factory.open();
+                Player player = session.load(saves.get(i).get(), Player.class);
+                assertEquals("Player " + i, player.getName());
+                // each session has its own identity map
+                assertNull(factory.open().getIdentity(player));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        
+        // a listener registered with one session is not registered with others
+        MapStore other = new MapStore();
+        Arya session = factory.open();
+        session.register((AryaOutput) other);
+        session.save(new Point(1.0, 2.0, 3.0));
+        factory.open().save(new Point(4.0, 5.0, 6.0));
+        assertEquals(1, other.size());
+    }
+    
+    @Test
+    public void testFactoryPool() {
+        MapStore store = new MapStore();
+        arya.register((AryaOutput) store);
+        AryaFactory factory = new AryaFactory(arya, 1);
+        assertEquals(1, factory.getPoolSize());
+        Arya session = factory.open();
+        MapStore extra = new MapStore();
+        session.register((AryaOutput) extra);
+        Player player = new Player();
+        session.save(player);
+        session.close();
+        session.close();
+        assertEquals(1, factory.getIdleCount());
+        
+        // the pooled session comes back cleared, with only the factory's
+        // listeners, and the pool holds only one
+        Arya reopened = factory.open();
+        assertSame(session, reopened);
+        assertEquals(0, factory.getIdleCount());
+        assertNull(reopened.getIdentity(player));
+        assertNotSame(reopened, factory.open());
+        int records = store.size();
+        reopened.save(player);
+        assertEquals(records * 2, store.size());
+        assertEquals(records, extra.size());
+    }
+    
+    @Test
+    public void testFactoryPrefetch() {
+        // save a list, an array, and a map through one session
+        MapStore store = new MapStore();
+        Arya template = newArya();
+        template.register((AryaOutput) store);
+        BatchStore batchStore = new BatchStore(store);
+        template.register(batchStore);
+        AryaFactory factory = new AryaFactory(template);
+        Arya saver = factory.open();
+        StarMap starMap = new StarMap();
+        Polygon polygon = new Polygon();
+        TopTen topTen = new TopTen();
+        saver.save(starMap);
+        saver.save(polygon);
+        saver.save(topTen);
+        assertEquals(store.size(), saver.getIdentityMap().size());
+        assertTrue(saver.getIdentityMap().containsObject(polygon.getPoints()[4]));
+        
+        // load them through another session; the elements are fetched in
+        // batches from the session's input, into the session's identity map
+        Arya loader = factory.open();
+        StarMap starMap2 = loader.load(saver.getIdentity(starMap), StarMap.class);
+        Polygon polygon2 = loader.load(saver.getIdentity(polygon), Polygon.class);
+        TopTen topTen2 = loader.load(saver.getIdentity(topTen), TopTen.class);
+        assertEquals(3, batchStore.singles);
+        assertEquals(3, batchStore.batches);
+        assertEquals(store.size(), loader.getIdentityMap().size());
+        Point star = starMap2.getStars().get(3);
+        assertEquals(starMap.getStars().get(3).getZ(), star.getZ(), 0.0);
+        assertEquals(saver.getIdentity(starMap.getStars().get(3)), loader.getIdentity(star));
+        Point point = polygon2.getPoints()[4];
+        assertEquals(polygon.getPoints()[4].getX(), point.getX(), 0.0);
+        assertTrue(loader.getIdentityMap().containsObject(point));
+        SongInfo song = topTen2.getBillboard().get(7);
+        assertEquals(topTen.getBillboard().get(7).getTitle(), song.getTitle());
+        assertTrue(loader.getIdentityMap().containsObject(song));
+        // nothing leaks into the identity map of a third session
+        assertNull(factory.open().getIdentity(point));
+        saver.close();
+        loader.close();
+    }
+    
+    @Test
+    public void testFactoryClosedSession() {
+        AryaFactory factory = new AryaFactory(arya, 1);
+        Arya session = factory.open();
+        session.save(new Point(1.0, 2.0, 3.0));
+        session.close();
+        // a closed session can't be used until it is opened again
+        try {
+            session.save(new Point(4.0, 5.0, 6.0));
+            fail();
+        } catch(IllegalStateException e) {
+            // expected
+        }
+        try {
+            session.load(UUID.randomUUID(), Point.class);
+            fail();
+        } catch(IllegalStateException e) {
+            // expected
+        }
+        assertSame(session, factory.open());
+        session.save(new Point(4.0, 5.0, 6.0));
+        assertEquals(1, session.getIdentityMap().size());
+        
+        // an Arya that isn't a session is still usable after close()
+        arya.close();
+        arya.save(new Point(7.0, 8.0, 9.0));
+        assertEquals(1, arya.getIdentityMap().size());
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testFactoryNegativePool() {
+        new AryaFactory(arya, -1);
+    }
+    
+    @Test
+    public void testSaveParallel() {
+        final List<UUID> order = new ArrayList();
+        MapStore store = new MapStore();
+        arya.register((AryaOutput) store);
+        arya.register(new AryaOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+                order.add(uuid);
+            }
+        });
+        MultiModel model = new MultiModel();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // ordered output starts with the root, and saves what save() would
+            arya.saveParallel(model, pool, Arya.ORDERED_OUTPUT);
+            assertEquals(arya.getIdentity(model), order.get(0));
+            assertEquals(order.size(), store.size());
+            assertEquals(arya.getIdentityMap().size(), store.size());
+            MapStore sequential = new MapStore();
+            Arya other = newArya();
+            other.register((AryaOutput) sequential);
+            other.save(new MultiModel());
+            assertEquals(sequential.size(), store.size());
+            // without change tracking, nothing is saved again
+            arya.saveParallel(model, pool, Arya.ORDERED_OUTPUT);
+            assertEquals(store.size(), order.size());
+            
+            Arya loader = newArya();
+            loader.register((AryaInput) store);
+            MultiModel model2 = loader.load(arya.getIdentity(model), MultiModel.class);
+            assertEquals(model.getPolygons()[1][0][1].getPoints()[2].getX(),
+                         model2.getPolygons()[1][0][1].getPoints()[2].getX(), 0.0);
+            
+            // unordered output, with change tracking
+            final AtomicInteger count = new AtomicInteger();
+            Arya tracker = newArya();
+            tracker.setChangeTracking(true);
+            tracker.register(new AryaOutput() {
+                public <T> void output(T t, UUID uuid, String json) {
+                    count.incrementAndGet();
+                }
+            });
+            tracker.saveParallel(model, pool, Arya.UNORDERED_OUTPUT);
+            assertEquals(store.size(), count.get());
+            model.getPolygons()[0][1][0].getPoints()[0].setX(99.0);
+            tracker.saveParallel(model, pool, Arya.UNORDERED_OUTPUT);
+            assertEquals(store.size() + 1, count.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    public void testLoadParallel() {
+        MapStore store = new MapStore();
+        arya.register((AryaOutput) store);
+        MultiModel model = new MultiModel();
+        arya.save(model);
+        UUID uuid = arya.getIdentity(model);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // the parallel load restores the same graph as load()
+            Arya loader = newArya();
+            loader.register((AryaInput) store);
+            MultiModel model2 = loader.loadParallel(uuid, MultiModel.class, pool);
+            assertNotNull(model2);
+            assertEquals(store.size(), loader.getIdentityMap().size());
+            for(int i=0; i<2; i++) {
+                for(int j=0; j<2; j++) {
+                    for(int k=0; k<2; k++) {
+                        Polygon polygon = model.getPolygons()[i][j][k];
+                        Polygon polygon2 = model2.getPolygons()[i][j][k];
+                        assertEquals(arya.getIdentity(polygon), loader.getIdentity(polygon2));
+                        assertEquals(polygon.getPoints()[1].getY(),
+                                     polygon2.getPoints()[1].getY(), 0.0);
+                    }
+                }
+            }
+            // loading it again gives back the same object
+            assertSame(model2, loader.loadParallel(uuid, MultiModel.class, pool));
+            assertSame(model2, loader.load(uuid, MultiModel.class));
+            // an unknown identity gives back nothing
+            assertNull(loader.loadParallel(UUID.randomUUID(), MultiModel.class, pool));
+            // nothing is left pending, so a later load() works as usual
+            Point p = new Point(4.0, 5.0, 6.0);
+            arya.save(p);
+            Point p2 = loader.load(arya.getIdentity(p), Point.class);
+            assertEquals(5.0, p2.getY(), 0.0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    public void testBatchInput() {
+        MapStore store = new MapStore();
+        arya.register((AryaOutput) store);
+        StarMap starMap = new StarMap();
+        Polygon polygon = new Polygon();
+        TopTen topTen = new TopTen();
+        arya.save(starMap);
+        arya.save(polygon);
+        arya.save(topTen);
+        
+        BatchStore batchStore = new BatchStore(store);
+        Arya loader = newArya();
+        loader.register(batchStore);
+        // the elements of a list are fetched in one call
+        StarMap starMap2 = loader.load(arya.getIdentity(starMap), StarMap.class);
+        assertEquals(1, batchStore.singles);
+        assertEquals(1, batchStore.batches);
+        assertEquals(starMap.getStars().get(3).getZ(), starMap2.getStars().get(3).getZ(), 0.0);
+        // so are the elements of an array
+        Polygon polygon2 = loader.load(arya.getIdentity(polygon), Polygon.class);
+        assertEquals(2, batchStore.singles);
+        assertEquals(2, batchStore.batches);
+        assertEquals(polygon.getPoints()[4].getX(), polygon2.getPoints()[4].getX(), 0.0);
+        // and the values of a map
+        TopTen topTen2 = loader.load(arya.getIdentity(topTen), TopTen.class);
+        assertEquals(3, batchStore.singles);
+        assertEquals(3, batchStore.batches);
+        assertEquals(topTen.getBillboard().get(7).getTitle(),
+                     topTen2.getBillboard().get(7).getTitle());
+        
+        // a provider registered earlier still takes precedence
+        MapStore first = new MapStore();
+        Point star = starMap.getStars().get(0);
+        first.output(star, arya.getIdentity(star), store.get(arya.getIdentity(star)).replace(
+                Double.toString(star.getX()), "42.0"));
+        Arya other = newArya();
+        other.register((AryaInput) first);
+        other.register(batchStore);
+        StarMap starMap3 = other.load(arya.getIdentity(starMap), StarMap.class);
+        assertEquals(3, batchStore.batches);
+        assertEquals(42.0, starMap3.getStars().get(0).getX(), 0.0);
+        
+        // the sessions of an AryaFactory fetch in batches too
+        BatchStore factoryStore = new BatchStore(store);
+        Arya template = newArya();
+        template.register(factoryStore);
+        Arya session = new AryaFactory(template).open();
+        Polygon polygon3 = session.load(arya.getIdentity(polygon), Polygon.class);
+        assertEquals(1, factoryStore.singles);
+        assertEquals(1, factoryStore.batches);
+        assertEquals(polygon.getPoints()[4].getX(), polygon3.getPoints()[4].getX(), 0.0);
+        session.close();
+    }
+    
+    @Test
+    public void testBatchOutput() {
+        final List<List<AryaRecord>> batches = new ArrayList();
+        MapStore store = new MapStore();
+        arya.register((AryaOutput) store);
+        arya.register(new AryaBatchOutput() {
+            public void outputBatch(List<AryaRecord> records) {
+                batches.add(records);
+            }
+        });
+        // the records of one save() arrive in one batch, root first
+        StarMap starMap = new StarMap();
+        arya.save(starMap);
+        assertEquals(1, batches.size());
+        assertEquals(6, batches.get(0).size());
+        assertEquals(6, store.size());
+        AryaRecord root = batches.get(0).get(0);
+        assertSame(starMap, root.getObject());
+        assertEquals(arya.getIdentity(starMap), root.getIdentity());
+        assertEquals(store.get(root.getIdentity()), root.getJson());
+        // a large save arrives in several batches
+        arya.setOutputBatchSize(4);
+        arya.save(new StarMap());
+        assertEquals(3, batches.size());
+        assertEquals(4, batches.get(1).size());
+        assertEquals(2, batches.get(2).size());
+        // as does a save with long records
+        arya.setOutputBatchSize(1000);
+        arya.setOutputBatchChars(1);
+        arya.save(new StarMap());
+        assertEquals(9, batches.size());
+        // nothing saved, nothing delivered
+        arya.save(starMap);
+        assertEquals(9, batches.size());
+        try {
+            arya.setOutputBatchSize(0);
+            fail();
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testTransaction() {
+        final List<String> events = new ArrayList();
+        final List<List<AryaRecord>> batches = new ArrayList();
+        arya.setChangeTracking(true);
+        arya.setOutputBatchSize(4);
+        arya.register(new AryaTransactionOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+                events.add("output");
+            }
+            public void transactionBegin() {
+                events.add("begin");
+            }
+            public void transactionEnd() {
+                events.add("end");
+            }
+            public void transactionRollback() {
+                events.add("rollback");
+            }
+        });
+        arya.register(new AryaBatchOutput() {
+            public void outputBatch(List<AryaRecord> records) {
+                batches.add(records);
+            }
+        });
+        // the records of a transaction arrive as one unit
+        final StarMap starMap = new StarMap();
+        final Polygon polygon = new Polygon();
+        arya.transaction(new Runnable() {
+            public void run() {
+                arya.save(starMap);
+                // a transaction within a transaction is part of it
+                arya.transaction(new Runnable() {
+                    public void run() {
+                        arya.save(polygon);
+                    }
+                });
+            }
+        });
+        assertEquals(14, events.size());
+        assertEquals("begin", events.get(0));
+        assertEquals("end", events.get(13));
+        assertEquals(1, batches.size());
+        assertEquals(12, batches.get(0).size());
+        
+        // a failed transaction is rolled back
+        events.clear();
+        final StarMap starMap2 = new StarMap();
+        try {
+            arya.transaction(new Runnable() {
+                public void run() {
+                    starMap.getStars().get(0).setX(42.0);
+                    arya.save(starMap);
+                    arya.save(starMap2);
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        } catch(IllegalStateException e) {
+            // expected
+        }
+        assertEquals("rollback", events.get(events.size()-1));
+        assertEquals(1, batches.size());
+        // the new objects have no identity, and the changed object
+        // is still changed
+        assertNull(arya.getIdentityMap().getId(starMap2));
+        assertNull(arya.getIdentityMap().getId(starMap2.getStars().get(0)));
+        assertEquals(12, arya.getIdentityMap().size());
+        arya.flush();
+        assertEquals(2, batches.size());
+        assertEquals(1, batches.get(1).size());
+        assertSame(starMap.getStars().get(0), batches.get(1).get(0).getObject());
+    }
+    
+    @Test
+    public void testTransactionRestoresHashes() {
+        final List<Object> emitted = new ArrayList();
+        RecordHashes recordHashes = new RecordHashes();
+        RecordHashes subgraphHashes = new RecordHashes();
+        arya.setRecordHashes(recordHashes);
+        arya.setSubgraphHashes(subgraphHashes);
+        arya.register(new AryaOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+                emitted.add(t);
+            }
+        });
+        final Polygon polygon = new Polygon();
+        arya.save(polygon);
+        final Point point = polygon.getPoints()[0];
+        UUID uuid = arya.getIdentity(point);
+        UUID root = arya.getIdentity(polygon);
+        Long recordHash = recordHashes.get(uuid);
+        Long subgraphHash = subgraphHashes.get(root);
+        final double x = point.getX();
+        try {
+            arya.transaction(new Runnable() {
+                public void run() {
+                    point.setX(x + 1.0);
+                    arya.save(polygon);
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        } catch(IllegalStateException e) {
+            // expected
+        }
+        // the hashes go back to what they were before the transaction
+        assertEquals(recordHash, recordHashes.get(uuid));
+        assertEquals(subgraphHash, subgraphHashes.get(root));
+        
+        // so once the change is undone, nothing is written again
+        emitted.clear();
+        point.setX(x);
+        arya.save(polygon);
+        assertEquals(0, emitted.size());
+    }
+    
+    @Test
+    public void testTransactionEndFails() {
+        final List<String> events = new ArrayList();
+        arya.setIdWriteBack(true);
+        arya.register(new AryaTransactionOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+            }
+            public void transactionBegin() {
+                events.add("begin A");
+            }
+            public void transactionEnd() {
+                events.add("end A");
+            }
+            public void transactionRollback() {
+                events.add("rollback A");
+            }
+        });
+        arya.register(new AryaTransactionOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+            }
+            public void transactionBegin() {
+                events.add("begin B");
+            }
+            public void transactionEnd() {
+                throw new IllegalStateException();
+            }
+            public void transactionRollback() {
+                events.add("rollback B");
+            }
+        });
+        final MagicSword magicSword = new MagicSword();
+        try {
+            arya.transaction(new Runnable() {
+                public void run() {
+                    arya.save(magicSword);
+                    assertNotNull(magicSword.getUuid());
+                }
+            });
+            fail();
+        } catch(IllegalStateException e) {
+            // expected
+        }
+        // the listener that committed isn't told to roll back
+        assertEquals("[begin A, begin B, end A, rollback B]", events.toString());
+        // the identity written back by the transaction is taken out again
+        assertNull(magicSword.getUuid());
+        assertNull(arya.getIdentityMap().getId(magicSword));
+    }
+    
+    @Test
+    public void testLoadUninstantiable() {
+        MapStore store = new MapStore();
+        UUID uuid = UUID.fromString("a3c1e5b0-7a2f-4d7e-9b61-0c5a4e6f2d10");
+        store.output(null, uuid, "{\"color\":\"red\"}");
+        arya.register((AryaInput) store);
+        // without a no-arg constructor, there is nothing to load into
+        assertNull(arya.load(uuid, Hatchling.class));
+        assertEquals(0, arya.getIdentityMap().size());
+        assertNull(arya.getIdentityMap().get(uuid));
+        // the identity map still works afterwards
+        Egg egg = new Egg("blue");
+        arya.save(egg);
+        assertEquals(1, arya.getIdentityMap().size());
+    }
+    
+    @Test
+    public void testClassCodecsRegistered() {
+        assertNotNull(ClassCodecs.of(CodecPoint.class));
+        assertNotNull(ClassCodecs.of(CodecPolygon.class));
+        assertNotNull(ClassCodecs.of(CodecPlayer.class));
+        // the shared fixtures go through reflection
+        assertNull(ClassCodecs.of(Point.class));
+        assertNull(ClassCodecs.of(Polygon.class));
+        assertNull(ClassCodecs.of(Player.class));
+        assertNull(ClassCodecs.of(Weapon.class));
+        assertNull(ClassCodecs.of(MagicSword.class));
+    }
+    
+    @Test
+    public void testClassCodecsRoundTrip() {
+        MapStore store = new MapStore();
+        arya.register((AryaOutput) store);
+        
+        CodecPolygon polygon = new CodecPolygon();
+        arya.save(polygon);
+        assertEquals(6, store.size());
+        
+        Arya loader = newArya();
+        loader.register((AryaInput) store);
+        CodecPolygon polygon2 = loader.load(arya.getIdentity(polygon), CodecPolygon.class);
+        assertNotNull(polygon2);
+        assertNotSame(polygon, polygon2);
+        assertEquals(polygon.getPoints().length, polygon2.getPoints().length);
+        for(int i=0; i<polygon.getPoints().length; i++) {
+            assertEquals(polygon.getPoints()[i].getX(), polygon2.getPoints()[i].getX(), 0.0);
+            assertEquals(polygon.getPoints()[i].getY(), polygon2.getPoints()[i].getY(), 0.0);
+            assertEquals(polygon.getPoints()[i].getZ(), polygon2.getPoints()[i].getZ(), 0.0);
+            // the codec fills the fields through the setters
+            assertEquals(isClassCodecUsed() ? 3 : 0, polygon2.getPoints()[i].getSetterCalls());
+        }
+        
+        // a codec delegates collections, maps, and enums as needed
+        CodecPlayer arya1 = new CodecPlayer();
+        arya1.setName("Arya Stark");
+        arya1.getWeapons().add(new Weapon());
+        CodecPlayer sandor = new CodecPlayer();
+        sandor.setName("Sandor Clegane");
+        sandor.setGender(Gender.MALE);
+        List<CodecPlayer> associates = new ArrayList();
+        associates.add(arya1);
+        arya1.getKnownAssociates().put(sandor, associates);
+        arya.save(arya1);
+        CodecPlayer arya2 = loader.load(arya.getIdentity(arya1), CodecPlayer.class);
+        assertEquals("Arya Stark", arya2.getName());
+        assertEquals(arya1.getDateCreated(), arya2.getDateCreated());
+        assertEquals(1, arya2.getWeapons().size());
+        CodecPlayer sandor2 = arya2.getKnownAssociates().keySet().iterator().next();
+        assertEquals("Sandor Clegane", sandor2.getName());
+        assertEquals(Gender.MALE, sandor2.getGender());
+        assertSame(arya2, arya2.getKnownAssociates().get(sandor2).get(0));
+    }
+    
+    @Test
+    public void testByteOutputRoundTrip() {
+        ByteStore store = new ByteStore();
+        arya.registerBytes((AryaByteOutput) store);
+        
+        Player zoe = new Player(); zoe.setName("Zo\u00eb \u00c6rya \ud83d\udc3a");
+        Polygon polygon = new Polygon();
+        arya.save(zoe);
+        arya.save(polygon);
+        assertEquals(7, store.size());
+        
+        Arya loader = newArya();
+        loader.registerBytes((AryaByteInput) store);
+        Player zoe2 = loader.load(arya.getIdentity(zoe), Player.class);
+        assertEquals(zoe.getName(), zoe2.getName());
+        assertEquals(zoe.getDateCreated(), zoe2.getDateCreated());
+        Polygon polygon2 = loader.load(arya.getIdentity(polygon), Polygon.class);
+        assertEquals(polygon.getPoints()[4].getZ(), polygon2.getPoints()[4].getZ(), 0.0);
+    }
+    
+    @Test
+    public void testStreamInput() {
+        final ByteStore store = new ByteStore();
+        arya.registerBytes((AryaByteOutput) store);
+        Player zoe = new Player(); zoe.setName("Zo\u00eb \u00c6rya \ud83d\udc3a");
+        arya.save(zoe);
+        
+        Arya loader = newArya();
+        loader.registerStream(new AryaStreamInput() {
+            public <T> InputStream input(UUID uuid, Class<T> type) {
+                ByteBuffer json = store.input(uuid, type);
+                return (json != null) ? new ByteArrayInputStream(json.array(), json.position(), json.remaining()) : null;
+            }
+        });
+        Player zoe2 = loader.load(arya.getIdentity(zoe), Player.class);
+        assertEquals(zoe.getName(), zoe2.getName());
+    }
+    
+    @Test
+    public void testStringAndByteOutputAgree() {
+        MapStore strings = new MapStore();
+        ByteStore bytes = new ByteStore();
+        arya.register((AryaOutput) strings);
+        arya.registerBytes((AryaByteOutput) bytes);
+        
+        Player zoe = new Player(); zoe.setName("Zo\u00eb \u00c6rya \ud83d\udc3a");
+        arya.save(zoe);
+        UUID uuid = arya.getIdentity(zoe);
+        ByteBuffer json = bytes.input(uuid, Player.class);
+        assertEquals(strings.get(uuid), new String(json.array(), json.position(), json.remaining(), Utf8Writer.UTF_8));
+    }
+    
+    @Test
+    public void testMethodReferenceRegistration() {
+        MapStore strings = new MapStore();
+        ByteStore bytes = new ByteStore();
+        arya.register(strings::output);
+        arya.registerBytes(bytes::output);
+        
+        Player zoe = new Player(); zoe.setName("Zo\u00eb");
+        arya.save(zoe);
+        assertEquals(1, strings.size());
+        assertEquals(1, bytes.size());
+        
+        Arya loader = newArya();
+        loader.register(strings::input);
+        Player zoe2 = loader.load(arya.getIdentity(zoe), Player.class);
+        assertEquals(zoe.getName(), zoe2.getName());
+    }
+    
+    @Test
+    public void testShadowedField() {
+        MapStore store = new MapStore();
+        arya.register((AryaOutput) store);
+        Square square = new Square();
+        square.name = "square";
+        ((Shape) square).name = "shape";
+        square.sides = 4;
+        arya.save(square);
+        // the most derived field wins
+        String json = store.get(arya.getIdentity(square));
+        assertTrue(json.contains("\"name\":\"square\""));
+        assertFalse(json.contains("shape"));
+        
+        // and only it is set from the JSON
+        Arya loader = newArya();
+        loader.register((AryaInput) store);
+        Square square2 = loader.load(arya.getIdentity(square), Square.class);
+        assertEquals("square", square2.name);
+        assertNull(((Shape) square2).name);
+        assertEquals(4, square2.sides);
+    }
+    
+    /**
+     * Shape has a field that Square hides.
+     */
+    public static class Shape
+    {
+        public String name;
+        public int sides;
+    }
+    
+    /**
+     * Square hides the name field of Shape with one of its own.
+     */
+    public static class Square extends Shape
+    {
+        public String name;
+    }
+    
+    /**
+     * EqualPoint is a Point that is equal to every other EqualPoint.
+     */
+    public static class EqualPoint extends Point
+    {
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof EqualPoint);
+        }
+        
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+    }
+    
+    /**
+     * Clutch holds eggs in a set, and as the keys of a map.
+     */
+    public static class Clutch
+    {
+        public Set<Egg> eggs = new HashSet();
+        public Map<Egg,String> names = new HashMap();
+    }
+    
+    /**
+     * Egg is equal to any other egg of the same color.
+     */
+    public static class Egg
+    {
+        public Egg() {
+        }
+        
+        public Egg(String color) {
+            this.color = color;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Egg) && color.equals(((Egg) o).color);
+        }
+        
+        @Override
+        public int hashCode() {
+            return color.hashCode();
+        }
+        
+        public String color;
+    }
+    
+    /**
+     * Ledger has fields whose edits collide under their 32-bit hashCode().
+     */
+    public static class Ledger
+    {
+        public long balance;
+        public double amount;
+        public String code;
+    }
+    
+    /**
+     * Hatchling has no no-arg constructor, so Arya can't instantiate it.
+     */
+    public static class Hatchling
+    {
+        public Hatchling(String color) {
+            this.color = color;
+        }
+        
+        public String color;
+    }
+    
+    /**
+     * MapStore is an AryaInput and AryaOutput backed by a Map. It allows
+     * tests to save a graph with one Arya and load it with another. The
+     * Map is concurrent, so that threads may share a MapStore.
+     */
+    static class MapStore implements AryaInput, AryaOutput
+    {
+        public <T> String input(UUID uuid, Class<T> type) {
+            return map.get(uuid);
+        }
+        
+        public <T> void output(T t, UUID uuid, String json) {
+            map.put(uuid, json);
+        }
+        
+        public String get(UUID uuid) {
+            return map.get(uuid);
+        }
+        
+        public int size() {
+            return map.size();
+        }
+        
+        private final Map<UUID,String> map = new ConcurrentHashMap();
+    }
+    
+    /**
+     * BatchStore is an AryaBatchInput backed by a MapStore. It counts the
+     * calls made to it.
+     */
+    static class BatchStore implements AryaBatchInput
+    {
+        BatchStore(MapStore store) {
+            this.store = store;
+        }
+        
+        public <T> String input(UUID uuid, Class<T> type) {
+            singles++;
+            return store.get(uuid);
+        }
+        
+        public <T> Map<UUID,String> inputAll(Collection<UUID> uuids, Class<T> type) {
+            batches++;
+            Map<UUID,String> found = new HashMap();
+            for(UUID uuid : uuids) {
+                found.put(uuid, store.get(uuid));
+            }
+            return found;
+        }
+        
+        private final MapStore store;
+        int singles;
+        int batches;
+    }
+    
+    /**
+     * DeltaStore is an AryaDeltaInput and AryaDeltaOutput backed by Maps.
+     * It keeps the full record and the list of patches for each object.
+     */
+    static class DeltaStore implements AryaDeltaInput, AryaDeltaOutput
+    {
+        public <T> String input(UUID uuid, Class<T> type) {
+            return map.get(uuid);
+        }
+        
+        public <T> List<String> patches(UUID uuid, Class<T> type) {
+            return patches.get(uuid);
+        }
+        
+        public <T> void output(T t, UUID uuid, String json) {
+            map.put(uuid, json);
+            patches.remove(uuid);
+        }
+        
+        public <T> void patch(T t, UUID uuid, String patch) {
+            if(patches.containsKey(uuid) == false) {
+                patches.put(uuid, new ArrayList<String>());
+            }
+            patches.get(uuid).add(patch);
+            patchCount++;
+        }
+        
+        public List<String> getPatches(UUID uuid) {
+            return patches.get(uuid);
+        }
+        
+        public int patchCount() {
+            return patchCount;
+        }
+        
+        public int size() {
+            return map.size();
+        }
+        
+        private final Map<UUID,String> map = new HashMap();
+        private final Map<UUID,List<String>> patches = new HashMap();
+        private int patchCount;
+    }
+    
+    /**
+     * ByteStore is an AryaByteInput and AryaByteOutput backed by a Map.
+     * It copies each record, because Arya reuses the buffers it provides.
+     */
+    static class ByteStore implements AryaByteInput, AryaByteOutput
+    {
+        public <T> ByteBuffer input(UUID uuid, Class<T> type) {
+            byte[] json = map.get(uuid);
+            return (json != null) ? ByteBuffer.wrap(json) : null;
+        }
+        
+        public <T> void output(T t, UUID uuid, ByteBuffer json) {
+            byte[] copy = new byte[json.remaining()];
+            json.get(copy);
+            map.put(uuid, copy);
+        }
+        
+        public int size() {
+            return map.size();
+        }
+        
+        private final Map<UUID,byte[]> map = new HashMap();
+    }
+    
 //    @Test
     public void testSaveIncompleteBooleanArray() {
 //        arya.register(new AryaOutput() {
@@ -0,0 +1,43 @@
+/*
+ * CodecPolygon.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pmeade.arya.domain;
+
+import com.pmeade.arya.annotation.Codec;
+
+@Codec
+public class CodecPolygon
+{
+    public CodecPolygon() {
+        points = new CodecPoint[5];
+        for(int i=0; i<points.length; i++) {
+            points[i] = new CodecPoint(Math.random(), Math.random(), Math.random());
+        }
+    }
+    
+    public CodecPoint[] getPoints() {
+        return points;
+    }
+
+    public void setPoints(CodecPoint[] points) {
+        this.points = points;
+    }
+    
+    private CodecPoint[] points;
+}
@@ -0,0 +1,148 @@
+/*
+ * ConcurrentIdentityMapTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ConcurrentIdentityMap.
+ * @author pmeade
+ */
+public class ConcurrentIdentityMapTest
+{
+    @Test
+    public void testIdentityNotEquality() {
+        ConcurrentIdentityMap map = new ConcurrentIdentityMap();
+        String a = new String("Arya");
+        String b = new String("Arya");
+        map.put(UUID.randomUUID(), a);
+        assertTrue(map.containsObject(a));
+        assertFalse(map.containsObject(b));
+        map.put(UUID.randomUUID(), b);
+        assertEquals(2, map.size());
+        assertFalse(map.getId(a).equals(map.getId(b)));
+        assertSame(a, map.get(map.getId(a)));
+    }
+
+    @Test
+    public void testPutReplaces() {
+        ConcurrentIdentityMap map = new ConcurrentIdentityMap();
+        Object a = new Object();
+        Object b = new Object();
+        UUID uuid1 = new UUID(0L, 1L);
+        UUID uuid2 = new UUID(0L, 2L);
+        map.put(uuid1, a);
+        map.put(uuid2, a);
+        assertEquals(uuid2, map.getId(a));
+        assertSame(a, map.get(uuid1));
+        map.put(uuid2, b);
+        assertSame(b, map.get(uuid2));
+        assertEquals(uuid2, map.getId(a));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        ConcurrentIdentityMap map = new ConcurrentIdentityMap(1);
+        Object a = new Object();
+        Object b = new Object();
+        UUID uuid1 = new UUID(0L, 1L);
+        UUID uuid2 = new UUID(0L, 2L);
+        assertEquals(uuid1, map.putObjectIfAbsent(uuid1, a));
+        assertEquals(uuid1, map.putObjectIfAbsent(uuid2, a));
+        assertNull(map.get(uuid2));
+        assertSame(a, map.putIdIfAbsent(uuid1, b));
+        assertFalse(map.containsObject(b));
+        assertSame(b, map.putIdIfAbsent(uuid2, b));
+        assertEquals(uuid2, map.getId(b));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        ConcurrentIdentityMap map = new ConcurrentIdentityMap();
+        Object a = new Object();
+        Object b = new Object();
+        UUID uuidA = UUID.randomUUID();
+        UUID uuidB = UUID.randomUUID();
+        map.put(uuidA, a);
+        map.put(uuidB, b);
+        map.setFingerprint(b, 42L);
+        assertEquals(42L, map.getFingerprint(b));
+        assertTrue(map.remove(uuidA));
+        assertFalse(map.containsObject(a));
+        assertFalse(map.remove(uuidA));
+        assertTrue(map.remove(b));
+        assertFalse(map.containsId(uuidB));
+        assertFalse(map.remove(b));
+        map.put(uuidA, a);
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(uuidA));
+        assertEquals(0L, map.getEvictionCount());
+    }
+
+    @Test
+    public void testRacingThreadsAgree() throws Exception {
+        final ConcurrentIdentityMap map = new ConcurrentIdentityMap();
+        final List<Object> objects = new ArrayList();
+        for(int i=0; i<1000; i++) {
+            objects.add(new Object());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<UUID>>> futures = new ArrayList();
+            for(int i=0; i<4; i++) {
+                futures.add(executor.submit(new Callable<List<UUID>>() {
+                    public List<UUID> call() {
+                        List<UUID> uuids = new ArrayList();
+                        for(Object o : objects) {
+                            uuids.add(map.putObjectIfAbsent(UUID.randomUUID(), o));
+                        }
+                        return uuids;
+                    }
+                }));
+            }
+            List<UUID> first = futures.get(0).get();
+            for(Future<List<UUID>> future : futures) {
+                assertEquals(first, future.get());
+            }
+            for(int i=0; i<objects.size(); i++) {
+                assertSame(objects.get(i), map.get(first.get(i)));
+            }
+            assertEquals(objects.size(), map.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testZeroConcurrencyLevel() {
+        new ConcurrentIdentityMap(0);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * IdGeneratorTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the IdGenerator implementations.
+ * @author pmeade
+ */
+public class IdGeneratorTest
+{
+    @Test
+    public void testRandom() {
+        UUID uuid = new RandomIdGenerator().next();
+        assertEquals(4, uuid.version());
+    }
+
+    @Test
+    public void testTimeOrderedIsOrdered() {
+        IdGenerator idGenerator = new TimeOrderedIdGenerator();
+        List<String> ids = new ArrayList();
+        long before = System.currentTimeMillis();
+        // more than 4096 per millisecond exercises the counter overflow
+        for(int i=0; i<20000; i++) {
+            UUID uuid = idGenerator.next();
+            assertEquals(7, uuid.version());
+            assertEquals(2, uuid.variant());
+            ids.add(uuid.toString());
+        }
+        List<String> sorted = new ArrayList(ids);
+        Collections.sort(sorted);
+        assertEquals(ids, sorted);
+        assertEquals(ids.size(), new HashSet(ids).size());
+        long timestamp = UUID.fromString(ids.get(0)).getMostSignificantBits() >>> 16;
+        assertTrue(timestamp >= before);
+    }
+
+    @Test
+    public void testTimeOrderedIsThreadSafe() throws InterruptedException {
+        final IdGenerator idGenerator = new TimeOrderedIdGenerator();
+        final Set<UUID> ids = Collections.synchronizedSet(new HashSet<UUID>());
+        List<Thread> threads = new ArrayList();
+        for(int i=0; i<4; i++) {
+            threads.add(new Thread() {
+                public void run() {
+                    for(int j=0; j<10000; j++) {
+                        ids.add(idGenerator.next());
+                    }
+                }
+            });
+        }
+        for(Thread thread : threads) { thread.start(); }
+        for(Thread thread : threads) { thread.join(); }
+        assertEquals(40000, ids.size());
+    }
+
+    @Test
+    public void testSequential() {
+        IdGenerator idGenerator = new SequentialIdGenerator();
+        for(long i=1; i<=3000; i++) {
+            assertEquals(new UUID(0L, i), idGenerator.next());
+        }
+    }
+
+    @Test
+    public void testSequentialSharedBlocks() {
+        SequentialIdGenerator.BlockSource blockSource = new SequentialIdGenerator.MemoryBlockSource(100L);
+        IdGenerator a = new SequentialIdGenerator(7L, blockSource, 10);
+        IdGenerator b = new SequentialIdGenerator(7L, blockSource, 10);
+        assertEquals(new UUID(7L, 100L), a.next());
+        assertEquals(new UUID(7L, 110L), b.next());
+        assertEquals(new UUID(7L, 101L), a.next());
+        Set<UUID> ids = new HashSet();
+        for(int i=0; i<100; i++) {
+            assertTrue(ids.add(a.next()));
+            assertTrue(ids.add(b.next()));
+        }
+    }
+
+    @Test
+    public void testCompactForm() {
+        assertEquals("42", UuidCodec.formatCompact(new UUID(0L, 42L)));
+        assertEquals(new UUID(0L, 42L), UuidCodec.parse("42"));
+        assertEquals(new UUID(0L, Long.MAX_VALUE), UuidCodec.parse(Long.toString(Long.MAX_VALUE)));
+        UUID large = new UUID(0L, -1L);
+        assertEquals(large.toString(), UuidCodec.formatCompact(large));
+        UUID random = UUID.randomUUID();
+        assertEquals(random.toString(), UuidCodec.formatCompact(random));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testCompactOverflow() {
+        UuidCodec.parse("9223372036854775808");
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * IdentityMapContractTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import com.pmeade.arya.identity.ReferenceIdentityMap.Retention;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.UUID;
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the IdentityMap contract, run against every implementation.
+ * @author pmeade
+ */
+@RunWith(Parameterized.class)
+public class IdentityMapContractTest
+{
+    @Parameters
+    public static Collection<Object[]> implementations() {
+        return Arrays.asList(new Object[][] {
+            { "IdentityTable" },
+            { "ReferenceIdentityMap" },
+            { "MappedIdentityMap" },
+            { "ConcurrentIdentityMap" },
+        });
+    }
+
+    public IdentityMapContractTest(String implementation) {
+        this.implementation = implementation;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        if(implementation.equals("IdentityTable")) {
+            map = new IdentityTable();
+        } else if(implementation.equals("ReferenceIdentityMap")) {
+            map = new ReferenceIdentityMap(Retention.STRONG);
+        } else if(implementation.equals("MappedIdentityMap")) {
+            map = new MappedIdentityMap();
+        } else {
+            map = new ConcurrentIdentityMap();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if(map instanceof MappedIdentityMap) {
+            ((MappedIdentityMap) map).close();
+        }
+    }
+
+    @Test
+    public void testPutObjectAgain() {
+        Object o = new Object();
+        UUID first = new UUID(0L, 1L);
+        UUID second = new UUID(0L, 2L);
+        map.put(first, o);
+        map.put(second, o);
+        // the object has the new identity; the old identity still finds it
+        assertEquals(1, map.size());
+        assertEquals(second, map.getId(o));
+        assertSame(o, map.get(first));
+        assertSame(o, map.get(second));
+        // the object is paired with the second identity, so removing the
+        // first identity leaves the object in place
+        assertTrue(map.remove(first));
+        assertEquals(second, map.getId(o));
+        assertTrue(map.remove(o));
+        assertFalse(map.containsId(second));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void testPutIdAgain() {
+        Object a = new Object();
+        Object b = new Object();
+        UUID uuid = new UUID(0L, 1L);
+        map.put(uuid, a);
+        map.put(uuid, b);
+        // the identity has the new object; the old object keeps it
+        assertEquals(2, map.size());
+        assertSame(b, map.get(uuid));
+        assertEquals(uuid, map.getId(a));
+        assertEquals(uuid, map.getId(b));
+        // the identity is paired with the new object, so removing the old
+        // object leaves the identity in place
+        assertTrue(map.remove(a));
+        assertSame(b, map.get(uuid));
+        assertTrue(map.remove(uuid));
+        assertFalse(map.containsObject(b));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        Object a = new Object();
+        Object b = new Object();
+        UUID uuid1 = new UUID(0L, 1L);
+        UUID uuid2 = new UUID(0L, 2L);
+        assertEquals(uuid1, map.putObjectIfAbsent(uuid1, a));
+        assertEquals(uuid1, map.putObjectIfAbsent(uuid2, a));
+        assertNull(map.get(uuid2));
+        assertSame(a, map.putIdIfAbsent(uuid1, b));
+        assertFalse(map.containsObject(b));
+        assertSame(b, map.putIdIfAbsent(uuid2, b));
+        assertEquals(uuid2, map.getId(b));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testIdentityNotEquality() {
+        String a = new String("Arya");
+        String b = new String("Arya");
+        map.put(new UUID(0L, 1L), a);
+        assertTrue(map.containsObject(a));
+        assertFalse(map.containsObject(b));
+        assertNull(map.getId(b));
+    }
+
+    @Test
+    public void testFingerprintAndClear() {
+        Object o = new Object();
+        UUID uuid = new UUID(0L, 1L);
+        map.setFingerprint(o, 42L);
+        assertEquals(0L, map.getFingerprint(o));
+        map.put(uuid, o);
+        map.setFingerprint(o, 42L);
+        assertEquals(42L, map.getFingerprint(o));
+        assertEquals(1, map.getObjects().size());
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(uuid));
+        assertNull(map.getId(o));
+        assertEquals(0L, map.getEvictionCount());
+    }
+
+    /**
+     * Name of the implementation under test.
+     */
+    private final String implementation;
+
+    /**
+     * IdentityMap under test.
+     */
+    private IdentityMap map;
+}
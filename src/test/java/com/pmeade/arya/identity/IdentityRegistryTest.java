@@ -0,0 +1,76 @@
+/*
+ * IdentityRegistryTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for IdentityRegistry.
+ * @author pmeade
+ */
+public class IdentityRegistryTest
+{
+    @Test
+    public void testPutAndGet() {
+        IdentityRegistry registry = new IdentityRegistry();
+        Object o = new Object();
+        assertNull(registry.get(o));
+        UUID uuid = UUID.randomUUID();
+        registry.put(o, uuid);
+        assertEquals(uuid, registry.get(o));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        IdentityRegistry registry = new IdentityRegistry();
+        Object o = new Object();
+        UUID first = UUID.randomUUID();
+        assertEquals(first, registry.putIfAbsent(o, first));
+        assertEquals(first, registry.putIfAbsent(o, UUID.randomUUID()));
+        assertEquals(first, registry.get(o));
+    }
+
+    @Test
+    public void testIdentityNotEquality() {
+        IdentityRegistry registry = new IdentityRegistry();
+        registry.put(new String("Arya"), UUID.randomUUID());
+        assertNull(registry.get(new String("Arya")));
+    }
+
+    @Test
+    public void testGrowth() {
+        IdentityRegistry registry = new IdentityRegistry();
+        List<Object> objects = new ArrayList();
+        for(int i=0; i<5000; i++) {
+            Object o = new Object();
+            objects.add(o);
+            registry.put(o, new UUID(0L, i));
+        }
+        assertEquals(5000, registry.size());
+        for(int i=0; i<5000; i++) {
+            assertEquals(new UUID(0L, i), registry.get(objects.get(i)));
+        }
+    }
+}
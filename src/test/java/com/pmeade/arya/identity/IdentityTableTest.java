@@ -0,0 +1,175 @@
+/*
+ * IdentityTableTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for IdentityTable.
+ * @author pmeade
+ */
+public class IdentityTableTest
+{
+    @Before
+    public void setUp() {
+        table = new IdentityTable();
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, table.size());
+        assertNull(table.getId(new Object()));
+        assertNull(table.get(UUID.randomUUID()));
+        assertNull(table.getId(null));
+        assertNull(table.get(null));
+    }
+
+    @Test
+    public void testPutAndGet() {
+        Object o = new Object();
+        UUID uuid = UUID.randomUUID();
+        table.put(uuid, o);
+        assertEquals(1, table.size());
+        assertTrue(table.containsObject(o));
+        assertTrue(table.containsId(uuid));
+        assertEquals(uuid, table.getId(o));
+        assertSame(o, table.get(uuid));
+        assertSame(o, table.get(new UUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits())));
+    }
+
+    @Test
+    public void testIdentityNotEquality() {
+        String a = new String("Arya");
+        String b = new String("Arya");
+        assertEquals(a, b);
+        table.put(UUID.randomUUID(), a);
+        assertTrue(table.containsObject(a));
+        assertFalse(table.containsObject(b));
+        table.put(UUID.randomUUID(), b);
+        assertEquals(2, table.size());
+        assertFalse(table.getId(a).equals(table.getId(b)));
+    }
+
+    @Test
+    public void testReplace() {
+        Object o = new Object();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        table.put(first, o);
+        table.put(second, o);
+        assertEquals(1, table.size());
+        assertEquals(second, table.getId(o));
+        assertSame(o, table.get(first));
+        assertSame(o, table.get(second));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testPutNull() {
+        table.put(UUID.randomUUID(), null);
+    }
+
+    @Test
+    public void testGrowth() {
+        List<Object> objects = new ArrayList();
+        List<UUID> uuids = new ArrayList();
+        for(int i=0; i<10000; i++) {
+            Object o = new Object();
+            // sequential identities differ only in their low bits
+            UUID uuid = new UUID(0x0123456789abcdefL, i);
+            objects.add(o);
+            uuids.add(uuid);
+            table.put(uuid, o);
+        }
+        assertEquals(10000, table.size());
+        for(int i=0; i<10000; i++) {
+            assertEquals(uuids.get(i), table.getId(objects.get(i)));
+            assertSame(objects.get(i), table.get(uuids.get(i)));
+        }
+    }
+
+    @Test
+    public void testClear() {
+        Object o = new Object();
+        UUID uuid = UUID.randomUUID();
+        table.put(uuid, o);
+        table.clear();
+        assertEquals(0, table.size());
+        assertFalse(table.containsObject(o));
+        assertFalse(table.containsId(uuid));
+    }
+
+    @Test
+    public void testRemove() {
+        List<Object> objects = new ArrayList();
+        List<UUID> uuids = new ArrayList();
+        for(int i=0; i<1000; i++) {
+            Object o = new Object();
+            UUID uuid = new UUID(0x0123456789abcdefL, i);
+            objects.add(o);
+            uuids.add(uuid);
+            table.put(uuid, o);
+            table.setFingerprint(o, i);
+        }
+        // remove every other entry, alternating between the two sides
+        for(int i=0; i<1000; i+=2) {
+            if(i % 4 == 0) {
+                assertTrue(table.remove(uuids.get(i)));
+            } else {
+                assertTrue(table.remove(objects.get(i)));
+            }
+        }
+        assertEquals(500, table.size());
+        assertFalse(table.remove(uuids.get(0)));
+        assertFalse(table.remove(objects.get(2)));
+        // the entries left behind can still be found, on both sides
+        for(int i=0; i<1000; i++) {
+            if(i % 2 == 0) {
+                assertNull(table.get(uuids.get(i)));
+                assertNull(table.getId(objects.get(i)));
+            } else {
+                assertSame(objects.get(i), table.get(uuids.get(i)));
+                assertEquals(uuids.get(i), table.getId(objects.get(i)));
+                assertEquals(i, table.getFingerprint(objects.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testRemoveReplaced() {
+        Object o = new Object();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        table.put(first, o);
+        table.put(second, o);
+        // the object is paired with the second identity, so removing the
+        // first identity leaves the object in place
+        assertTrue(table.remove(first));
+        assertEquals(second, table.getId(o));
+        assertTrue(table.remove(o));
+        assertFalse(table.containsId(second));
+        assertEquals(0, table.size());
+    }
+
+    private IdentityTable table;
+}
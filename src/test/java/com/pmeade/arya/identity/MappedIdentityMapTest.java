@@ -0,0 +1,170 @@
+/*
+ * MappedIdentityMapTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for MappedIdentityMap.
+ * @author pmeade
+ */
+public class MappedIdentityMapTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws IOException {
+        map = new MappedIdentityMap(folder.getRoot());
+    }
+
+    @After
+    public void tearDown() {
+        map.close();
+    }
+
+    @Test
+    public void testPutAndGet() {
+        Object o = new Object();
+        UUID uuid = UUID.randomUUID();
+        assertNull(map.get(uuid));
+        assertNull(map.getId(o));
+        map.put(uuid, o);
+        assertEquals(1, map.size());
+        assertTrue(map.containsObject(o));
+        assertTrue(map.containsId(uuid));
+        assertEquals(uuid, map.getId(o));
+        assertSame(o, map.get(uuid));
+        map.setFingerprint(o, -42L);
+        assertEquals(-42L, map.getFingerprint(o));
+    }
+
+    @Test
+    public void testReplace() {
+        Object o = new Object();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        map.put(first, o);
+        map.put(second, o);
+        assertEquals(1, map.size());
+        assertEquals(second, map.getId(o));
+        assertSame(o, map.get(first));
+        assertSame(o, map.get(second));
+        // the object is paired with the second identity, so removing the
+        // first identity leaves the object in place
+        assertTrue(map.remove(first));
+        assertEquals(second, map.getId(o));
+        assertTrue(map.remove(o));
+        assertFalse(map.containsId(second));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void testGrowthAndRemove() {
+        // enough entries to map several chunks, and grow both indexes
+        int count = 600000;
+        List<Object> objects = new ArrayList(count);
+        for(int i=0; i<count; i++) {
+            Object o = new Object();
+            objects.add(o);
+            map.put(new UUID(0x0123456789abcdefL, i), o);
+            map.setFingerprint(o, i);
+        }
+        assertEquals(count, map.size());
+        for(int i=0; i<count; i+=2) {
+            if(i % 4 == 0) {
+                assertTrue(map.remove(new UUID(0x0123456789abcdefL, i)));
+            } else {
+                assertTrue(map.remove(objects.get(i)));
+            }
+        }
+        assertEquals(count / 2, map.size());
+        for(int i=0; i<count; i++) {
+            UUID uuid = new UUID(0x0123456789abcdefL, i);
+            if(i % 2 == 0) {
+                assertNull(map.get(uuid));
+                assertNull(map.getId(objects.get(i)));
+            } else {
+                assertSame(objects.get(i), map.get(uuid));
+                assertEquals(uuid, map.getId(objects.get(i)));
+                assertEquals(i, map.getFingerprint(objects.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testClear() {
+        Object o = new Object();
+        UUID uuid = UUID.randomUUID();
+        map.put(uuid, o);
+        map.setFingerprint(o, 7L);
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsObject(o));
+        assertFalse(map.containsId(uuid));
+        // slots are reused after clear(), without their old fingerprints
+        Object p = new Object();
+        map.put(UUID.randomUUID(), p);
+        assertEquals(0L, map.getFingerprint(p));
+        map.put(uuid, o);
+        assertSame(o, map.get(uuid));
+    }
+
+    @Test
+    public void testIndexGrowsInPlace() throws IOException {
+        File directory = folder.newFolder();
+        MappedIdentityMap other = new MappedIdentityMap(directory);
+        // 10000 identities grow the index from 4096 to 16384 entries
+        for(int i=0; i<10000; i++) {
+            other.put(new UUID(0L, i), Integer.valueOf(i));
+        }
+        File[] indexFiles = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".idx");
+            }
+        });
+        assertEquals(1, indexFiles.length);
+        assertEquals(16384L * 4, indexFiles[0].length());
+        for(int i=0; i<10000; i++) {
+            assertEquals(Integer.valueOf(i), other.get(new UUID(0L, i)));
+        }
+        other.close();
+    }
+
+    @Test
+    public void testCloseDeletesFiles() throws IOException {
+        File directory = folder.newFolder();
+        MappedIdentityMap other = new MappedIdentityMap(directory);
+        other.put(UUID.randomUUID(), new Object());
+        assertEquals(2, directory.listFiles().length);
+        other.close();
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    private MappedIdentityMap map;
+}
@@ -0,0 +1,100 @@
+/*
+ * ReferenceIdentityMapTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import com.pmeade.arya.identity.ReferenceIdentityMap.Retention;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ReferenceIdentityMap.
+ * @author pmeade
+ */
+public class ReferenceIdentityMapTest
+{
+    @Test
+    public void testIdentityNotEquality() {
+        for(Retention retention : Retention.values()) {
+            ReferenceIdentityMap map = new ReferenceIdentityMap(retention);
+            String a = new String("Arya");
+            String b = new String("Arya");
+            map.put(UUID.randomUUID(), a);
+            assertTrue(map.containsObject(a));
+            assertFalse(map.containsObject(b));
+            map.put(UUID.randomUUID(), b);
+            assertEquals(2, map.size());
+            assertFalse(map.getId(a).equals(map.getId(b)));
+            assertSame(a, map.get(map.getId(a)));
+        }
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        ReferenceIdentityMap map = new ReferenceIdentityMap(Retention.WEAK);
+        Object a = new Object();
+        Object b = new Object();
+        UUID uuidA = UUID.randomUUID();
+        UUID uuidB = UUID.randomUUID();
+        map.put(uuidA, a);
+        map.put(uuidB, b);
+        map.setFingerprint(b, 42L);
+        assertEquals(42L, map.getFingerprint(b));
+        assertTrue(map.remove(uuidA));
+        assertFalse(map.containsObject(a));
+        assertFalse(map.remove(uuidA));
+        assertTrue(map.remove(b));
+        assertFalse(map.containsId(uuidB));
+        assertFalse(map.remove(b));
+        map.put(uuidA, a);
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(uuidA));
+        assertEquals(0L, map.getEvictionCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        ReferenceIdentityMap map = new ReferenceIdentityMap(Retention.STRONG, 10);
+        List<Object> objects = new ArrayList();
+        for(int i=0; i<10; i++) {
+            Object o = new Object();
+            objects.add(o);
+            map.put(new UUID(0L, i+1), o);
+        }
+        assertEquals(10, map.size());
+        assertEquals(0L, map.getEvictionCount());
+        // use the first object, so that the second one is least recently used
+        assertEquals(new UUID(0L, 1L), map.getId(objects.get(0)));
+        map.put(new UUID(0L, 11L), new Object());
+        assertEquals(10, map.size());
+        assertEquals(1L, map.getEvictionCount());
+        assertTrue(map.containsObject(objects.get(0)));
+        assertFalse(map.containsObject(objects.get(1)));
+        assertFalse(map.containsId(new UUID(0L, 2L)));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNegativeBound() {
+        new ReferenceIdentityMap(Retention.SOFT, -1L);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * UuidCodecTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.identity;
+
+import java.util.UUID;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for UuidCodec and UuidCache.
+ * @author pmeade
+ */
+public class UuidCodecTest
+{
+    private static final UUID[] SAMPLES = {
+        new UUID(0L, 0L),
+        new UUID(-1L, -1L),
+        new UUID(Long.MIN_VALUE, Long.MAX_VALUE),
+        UUID.fromString("de626224-a0b1-47e3-904d-a243eb4ca6b0"),
+        UUID.randomUUID(),
+    };
+
+    @Test
+    public void testFormatMatchesToString() {
+        for(UUID uuid : SAMPLES) {
+            assertEquals(uuid.toString(), UuidCodec.format(uuid));
+        }
+    }
+
+    @Test
+    public void testFormatIntoArrays() {
+        for(UUID uuid : SAMPLES) {
+            char[] chars = new char[UuidCodec.LENGTH + 2];
+            UuidCodec.format(uuid, chars, 1);
+            assertEquals(uuid.toString(), new String(chars, 1, UuidCodec.LENGTH));
+            byte[] bytes = new byte[UuidCodec.LENGTH + 2];
+            UuidCodec.format(uuid, bytes, 2);
+            assertEquals(uuid.toString(), new String(bytes, 2, UuidCodec.LENGTH));
+            assertEquals(uuid, UuidCodec.parse(bytes, 2));
+        }
+    }
+
+    @Test
+    public void testParseMatchesFromString() {
+        for(UUID uuid : SAMPLES) {
+            assertEquals(uuid, UuidCodec.parse(uuid.toString()));
+            assertEquals(uuid, UuidCodec.parse(uuid.toString().toUpperCase()));
+        }
+    }
+
+    @Test
+    public void testParseNonCanonical() {
+        assertEquals(UUID.fromString("1-2-3-4-5"), UuidCodec.parse("1-2-3-4-5"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testParseInvalidDigit() {
+        UuidCodec.parse("de626224-a0b1-47e3-904d-a243eb4ca6bg");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testParseInvalidDash() {
+        UuidCodec.parse("de626224-a0b1-47e3-904d+a243eb4ca6b0");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testParseInvalidBytes() {
+        byte[] bytes = "de626224-a0b1-47e3-904d-a243eb4ca6b0".getBytes();
+        bytes[35] = (byte) 0xc3;
+        UuidCodec.parse(bytes, 0);
+    }
+
+    @Test
+    public void testTryParse() {
+        for(UUID uuid : SAMPLES) {
+            assertEquals(uuid, UuidCodec.tryParse(uuid.toString(), false));
+        }
+        assertEquals(new UUID(0L, 42L), UuidCodec.tryParse("42", true));
+        assertNull(UuidCodec.tryParse("42", false));
+        assertNull(UuidCodec.tryParse("Arya Stark", true));
+        assertNull(UuidCodec.tryParse("de626224-a0b1-47e3-904d-a243eb4ca6bg", true));
+        assertNull(UuidCodec.tryParse("de626224-a0b1-47e3-904d+a243eb4ca6b0", true));
+    }
+
+    @Test
+    public void testCache() {
+        UuidCache cache = new UuidCache(16);
+        String s = SAMPLES[3].toString();
+        UUID first = cache.parse(s);
+        assertEquals(SAMPLES[3], first);
+        assertSame(first, cache.parse(new String(s)));
+        // filling the cache with other identities evicts the first one
+        for(int i=0; i<1000; i++) {
+            assertEquals(new UUID(i, i), cache.parse(new UUID(i, i).toString()));
+        }
+        assertEquals(first, cache.parse(s));
+        cache.clear();
+        assertEquals(first, cache.parse(s));
+    }
+}
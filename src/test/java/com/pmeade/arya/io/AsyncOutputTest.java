@@ -0,0 +1,214 @@
+/*
+ * AsyncOutputTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pmeade.arya.io;
+
+import com.pmeade.arya.AryaOutput;
+import com.pmeade.arya.io.AsyncOutput.Backpressure;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for AsyncOutput.
+ * @author pmeade
+ */
+public class AsyncOutputTest
+{
+    @Test
+    public void testDeliversInOrder() throws Exception {
+        Gate gate = new Gate(false);
+        AsyncOutput async = new AsyncOutput(gate);
+        try {
+            for(int i=0; i<100; i++) {
+                async.output(null, UUID.randomUUID(), "{\"i\":" + i + "}");
+            }
+            async.drain();
+            assertEquals(100, gate.received.size());
+            assertEquals("{\"i\":42}", gate.received.get(42));
+            assertEquals(100, async.getDelivered());
+            assertEquals(0, async.getLag());
+        } finally {
+            async.close();
+        }
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        Gate gate = new Gate(true);
+        final AsyncOutput async = new AsyncOutput(gate, 1, Backpressure.BLOCK);
+        try {
+            async.output(null, UUID.randomUUID(), "1");
+            gate.started.await();
+            async.output(null, UUID.randomUUID(), "2");
+            // the queue is full, so the next record waits for room
+            Thread producer = new Thread(new Runnable() {
+                public void run() {
+                    async.output(null, UUID.randomUUID(), "3");
+                }
+            });
+            producer.start();
+            producer.join(100L);
+            assertTrue(producer.isAlive());
+            assertFalse(async.awaitFlushed(10L, TimeUnit.MILLISECONDS));
+            gate.release.countDown();
+            producer.join();
+            assertTrue(async.awaitFlushed(10L, TimeUnit.SECONDS));
+            assertEquals(3, gate.received.size());
+            assertEquals(0, async.getDropped());
+        } finally {
+            async.close();
+        }
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        Gate gate = new Gate(true);
+        AsyncOutput async = new AsyncOutput(gate, 2, Backpressure.DROP_OLDEST);
+        try {
+            async.output(null, UUID.randomUUID(), "1");
+            gate.started.await();
+            async.output(null, UUID.randomUUID(), "2");
+            async.output(null, UUID.randomUUID(), "3");
+            async.output(null, UUID.randomUUID(), "4");
+            assertEquals(3, async.getLag());
+            gate.release.countDown();
+            async.drain();
+            assertEquals("[1, 3, 4]", gate.received.toString());
+            assertEquals(1, async.getDropped());
+            assertEquals(3, async.getDelivered());
+        } finally {
+            async.close();
+        }
+    }
+
+    @Test
+    public void testFail() throws Exception {
+        Gate gate = new Gate(true);
+        AsyncOutput async = new AsyncOutput(gate, 1, Backpressure.FAIL);
+        try {
+            async.output(null, UUID.randomUUID(), "1");
+            gate.started.await();
+            async.output(null, UUID.randomUUID(), "2");
+            try {
+                async.output(null, UUID.randomUUID(), "3");
+                fail();
+            } catch(IllegalStateException e) {
+                // expected
+            }
+            gate.release.countDown();
+            async.drain();
+            assertEquals("[1, 2]", gate.received.toString());
+        } finally {
+            async.close();
+        }
+    }
+
+    @Test
+    public void testListenerFailure() throws Exception {
+        AsyncOutput async = new AsyncOutput(new AryaOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+                if(json.equals("bad")) {
+                    throw new RuntimeException(json);
+                }
+                if(json.equals("worse")) {
+                    throw new Error(json);
+                }
+            }
+        });
+        async.output(null, UUID.randomUUID(), "good");
+        async.output(null, UUID.randomUUID(), "bad");
+        async.output(null, UUID.randomUUID(), "good");
+        async.output(null, UUID.randomUUID(), "worse");
+        async.output(null, UUID.randomUUID(), "good");
+        async.close();
+        assertEquals(3, async.getDelivered());
+        assertEquals(2, async.getFailed());
+        try {
+            async.output(null, UUID.randomUUID(), "late");
+            fail();
+        } catch(IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCloseWhileSubmitting() throws Exception {
+        Gate gate = new Gate(false);
+        final AsyncOutput async = new AsyncOutput(gate, 16, Backpressure.BLOCK);
+        final AtomicInteger accepted = new AtomicInteger();
+        Thread[] producers = new Thread[4];
+        for(int i=0; i<producers.length; i++) {
+            producers[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while(true) {
+                            async.output(null, UUID.randomUUID(), "x");
+                            accepted.incrementAndGet();
+                        }
+                    } catch(IllegalStateException e) {
+                        // closed
+                    }
+                }
+            });
+            producers[i].start();
+        }
+        Thread.sleep(50L);
+        async.close();
+        for(Thread producer : producers) {
+            producer.join();
+        }
+        // every record that was accepted was delivered before close()
+        // returned
+        assertEquals(accepted.get(), gate.received.size());
+        assertEquals(accepted.get(), async.getDelivered());
+        assertEquals(0, async.getLag());
+    }
+
+    /**
+     * Gate is an AryaOutput that records the JSON it receives. If it is
+     * closed, the first call waits until it is released.
+     */
+    static class Gate implements AryaOutput
+    {
+        Gate(boolean closed) {
+            release = new CountDownLatch(closed ? 1 : 0);
+        }
+
+        public <T> void output(T t, UUID uuid, String json) {
+            started.countDown();
+            try {
+                release.await();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.add(json);
+        }
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release;
+        final List<String> received = new CopyOnWriteArrayList();
+    }
+}
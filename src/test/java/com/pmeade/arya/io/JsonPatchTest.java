@@ -0,0 +1,68 @@
+/*
+ * JsonPatchTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.io;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for JsonPatch.
+ * @author pmeade
+ */
+public class JsonPatchTest
+{
+    @Test
+    public void testIdenticalRecords() {
+        JsonObject base = parse("{\"x\":1.0,\"list\":[1,2,3]}");
+        JsonObject current = parse("{\"x\":1.0,\"list\":[1,2,3]}");
+        assertTrue(JsonPatch.diff(base, current).entrySet().isEmpty());
+    }
+
+    @Test
+    public void testChangedAddedAndRemoved() {
+        JsonObject base = parse("{\"x\":1.0,\"y\":2.0,\"name\":\"Meraxes\"}");
+        JsonObject current = parse("{\"x\":1.0,\"y\":3.0,\"z\":4.0}");
+        JsonObject patch = JsonPatch.diff(base, current);
+        assertEquals(parse("{\"y\":3.0,\"z\":4.0,\"name\":null}"), patch);
+        assertFalse(patch.has("x"));
+    }
+
+    @Test
+    public void testNestedValuesReplacedWhole() {
+        JsonObject base = parse("{\"list\":[1,2,3],\"map\":{\"a\":1}}");
+        JsonObject current = parse("{\"list\":[1,2,4],\"map\":{\"a\":1}}");
+        assertEquals(parse("{\"list\":[1,2,4]}"), JsonPatch.diff(base, current));
+    }
+
+    @Test
+    public void testApplyRestoresCurrent() {
+        JsonObject base = parse("{\"x\":1.0,\"y\":2.0,\"name\":\"Meraxes\"}");
+        JsonObject current = parse("{\"x\":1.0,\"y\":3.0,\"z\":4.0}");
+        JsonObject patch = parse(JsonPatch.diff(base, current).toString());
+        JsonPatch.apply(base, patch);
+        assertEquals(current, base);
+    }
+
+    private static JsonObject parse(String json) {
+        return new JsonParser().parse(json).getAsJsonObject();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * RecordHashesTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for RecordHashes.
+ * @author pmeade
+ */
+public class RecordHashesTest
+{
+    @Test
+    public void testStringMatchesBytes() {
+        String json = "{\"name\":\"Zoë 🐺\",\"x\":1.0,\"y\":2.0,\"z\":3.0}";
+        for(int length=0; length<=json.length(); length++) {
+            String sub = json.substring(0, length);
+            byte[] utf8 = sub.getBytes(Utf8Writer.UTF_8);
+            ByteBuffer offset = ByteBuffer.allocate(utf8.length + 3);
+            offset.position(3);
+            offset.put(utf8);
+            offset.position(3);
+            assertEquals(RecordHashes.hash(sub), RecordHashes.hash(offset));
+            assertEquals(3, offset.position());
+        }
+    }
+
+    @Test
+    public void testDifferentRecordsDiffer() {
+        assertFalse(RecordHashes.hash("{\"x\":1}") == RecordHashes.hash("{\"x\":2}"));
+        assertFalse(RecordHashes.hash("") == RecordHashes.hash("\u0000"));
+        assertFalse(RecordHashes.hash("12345678") == RecordHashes.hash("123456780"));
+    }
+
+    @Test
+    public void testPutIfChanged() {
+        RecordHashes recordHashes = new RecordHashes();
+        UUID uuid = UUID.randomUUID();
+        assertTrue(recordHashes.putIfChanged(uuid, 42L));
+        assertFalse(recordHashes.putIfChanged(uuid, 42L));
+        assertTrue(recordHashes.putIfChanged(uuid, 43L));
+        assertFalse(recordHashes.putIfChanged(new UUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()), 43L));
+        assertTrue(recordHashes.putIfChanged(UUID.randomUUID(), 43L));
+        assertEquals(2, recordHashes.size());
+    }
+
+    @Test
+    public void testIsChangedDoesNotPut() {
+        RecordHashes recordHashes = new RecordHashes();
+        UUID uuid = UUID.randomUUID();
+        assertTrue(recordHashes.isChanged(uuid, 42L));
+        assertTrue(recordHashes.isChanged(uuid, 42L));
+        assertEquals(0, recordHashes.size());
+        assertNull(recordHashes.get(uuid));
+        recordHashes.put(uuid, 42L);
+        assertEquals(Long.valueOf(42L), recordHashes.get(uuid));
+        assertFalse(recordHashes.isChanged(uuid, 42L));
+        assertTrue(recordHashes.isChanged(uuid, 43L));
+        assertEquals(1, recordHashes.size());
+    }
+
+    @Test
+    public void testRemove() {
+        RecordHashes recordHashes = new RecordHashes();
+        List<UUID> uuids = new ArrayList();
+        for(int i=0; i<1000; i++) {
+            UUID uuid = UUID.randomUUID();
+            uuids.add(uuid);
+            recordHashes.putIfChanged(uuid, i);
+        }
+        // remove every other hash; the rest must still be found
+        for(int i=0; i<1000; i+=2) {
+            assertTrue(recordHashes.remove(uuids.get(i)));
+        }
+        assertFalse(recordHashes.remove(uuids.get(0)));
+        assertEquals(500, recordHashes.size());
+        for(int i=0; i<1000; i++) {
+            assertEquals(i % 2 == 0, recordHashes.putIfChanged(uuids.get(i), i));
+        }
+        assertEquals(1000, recordHashes.size());
+    }
+
+    @Test
+    public void testGrowth() {
+        RecordHashes recordHashes = new RecordHashes();
+        for(int i=0; i<5000; i++) {
+            assertTrue(recordHashes.putIfChanged(new UUID(0L, i), i));
+        }
+        for(int i=0; i<5000; i++) {
+            assertFalse(recordHashes.putIfChanged(new UUID(0L, i), i));
+        }
+        assertEquals(5000, recordHashes.size());
+        recordHashes.clear();
+        assertEquals(0, recordHashes.size());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Utf8WriterTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Utf8Writer and Utf8Reader.
+ * @author pmeade
+ */
+public class Utf8WriterTest
+{
+    private static final String[] SAMPLES = {
+        "",
+        "{\"name\":\"Arya\"}",
+        "Zoë Ærya €",
+        "wolf 🐺 and dragon 🐉",
+        "\u0000\u007f\u0080߿ࠀ￿",
+    };
+
+    @Test
+    public void testEncodeMatchesString() throws IOException {
+        for(String sample : SAMPLES) {
+            Utf8Writer writer = new Utf8Writer(16);
+            writer.write(sample);
+            ByteBuffer bytes = writer.toByteBuffer();
+            byte[] actual = new byte[bytes.remaining()];
+            bytes.get(actual);
+            assertTrue(sample, Arrays.equals(sample.getBytes("UTF-8"), actual));
+            assertEquals(sample, writer.toString());
+        }
+    }
+
+    @Test
+    public void testEncodeCharByChar() {
+        Utf8Writer writer = new Utf8Writer();
+        String sample = SAMPLES[3];
+        for(int i=0; i<sample.length(); i++) {
+            writer.write(sample.charAt(i));
+        }
+        assertEquals(sample, writer.toString());
+    }
+
+    @Test
+    public void testReset() {
+        Utf8Writer writer = new Utf8Writer();
+        writer.write("Valar morghulis");
+        writer.reset();
+        assertEquals(0, writer.size());
+        writer.write("Valar dohaeris");
+        assertEquals("Valar dohaeris", writer.toString());
+    }
+
+    @Test
+    public void testReadOnlyBuffer() {
+        Utf8Writer writer = new Utf8Writer();
+        writer.write("Needle");
+        assertTrue(writer.toByteBuffer().isReadOnly());
+    }
+
+    @Test
+    public void testDecode() throws IOException {
+        for(String sample : SAMPLES) {
+            ByteBuffer bytes = ByteBuffer.wrap(sample.getBytes("UTF-8"));
+            assertEquals(sample, readAll(new Utf8Reader(bytes), 1));
+            assertEquals(sample, readAll(new Utf8Reader(bytes), 1024));
+            assertEquals(0, bytes.position());
+        }
+    }
+
+    @Test
+    public void testDecodeDirectBuffer() throws IOException {
+        byte[] utf8 = SAMPLES[3].getBytes("UTF-8");
+        ByteBuffer bytes = ByteBuffer.allocateDirect(utf8.length);
+        bytes.put(utf8).flip();
+        assertEquals(SAMPLES[3], readAll(new Utf8Reader(bytes), 7));
+    }
+
+    @Test
+    public void testDecodeMalformed() throws IOException {
+        byte[] malformed = { 'a', (byte) 0xc3, 'b', (byte) 0xff, 'c' };
+        assertEquals("a�b�c", readAll(new Utf8Reader(ByteBuffer.wrap(malformed)), 16));
+    }
+
+    private String readAll(Utf8Reader reader, int chunk) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] cbuf = new char[chunk];
+        for(int n = reader.read(cbuf, 0, chunk); n != -1; n = reader.read(cbuf, 0, chunk)) {
+            sb.append(cbuf, 0, n);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * WriteBehindOutputTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.pmeade.arya.io;
+
+import com.pmeade.arya.AryaBatchOutput;
+import com.pmeade.arya.AryaOutput;
+import com.pmeade.arya.AryaRecord;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for WriteBehindOutput.
+ * @author pmeade
+ */
+public class WriteBehindOutputTest
+{
+    @Test
+    public void testCoalesce() {
+        Recorder recorder = new Recorder();
+        WriteBehindOutput writeBehind = new WriteBehindOutput(recorder, 100);
+        UUID hot = UUID.randomUUID();
+        UUID cold = UUID.randomUUID();
+        for(int i=0; i<100; i++) {
+            writeBehind.output(null, hot, "{\"i\":" + i + "}");
+            if(i == 50) {
+                writeBehind.output(null, cold, "{}");
+            }
+        }
+        assertEquals(0, recorder.received.size());
+        assertEquals(2, writeBehind.getPendingCount());
+        writeBehind.flush();
+        // the hot object is written once, with its latest record, in the
+        // order it was first saved
+        assertEquals("[{\"i\":99}, {}]", recorder.received.toString());
+        assertEquals(101, writeBehind.getSaveCount());
+        assertEquals(2, writeBehind.getWriteCount());
+        assertEquals(50.5, writeBehind.getCoalescingRatio(), 0.0);
+        // nothing held, nothing written
+        writeBehind.flush();
+        assertEquals(2, recorder.received.size());
+    }
+
+    @Test
+    public void testMaxEntries() {
+        Recorder recorder = new Recorder();
+        WriteBehindOutput writeBehind = new WriteBehindOutput(recorder, 3);
+        for(int i=0; i<7; i++) {
+            writeBehind.output(null, UUID.randomUUID(), Integer.toString(i));
+        }
+        assertEquals(6, recorder.received.size());
+        assertEquals(1, writeBehind.getPendingCount());
+        // closing writes what is left
+        writeBehind.close();
+        assertEquals(7, recorder.received.size());
+        assertEquals(0, writeBehind.getPendingCount());
+    }
+
+    @Test
+    public void testInterval() throws Exception {
+        Recorder recorder = new Recorder();
+        WriteBehindOutput writeBehind = new WriteBehindOutput(recorder, 1000, 10L, TimeUnit.MILLISECONDS);
+        try {
+            writeBehind.output(null, UUID.randomUUID(), "{}");
+            long deadline = System.currentTimeMillis() + 10000L;
+            while(recorder.received.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5L);
+            }
+            assertEquals(1, recorder.received.size());
+        } finally {
+            writeBehind.close();
+        }
+    }
+
+    @Test
+    public void testBatch() {
+        final List<List<AryaRecord>> batches = new ArrayList();
+        BatchRecorder recorder = new BatchRecorder(batches);
+        WriteBehindOutput writeBehind = new WriteBehindOutput(recorder, 100);
+        writeBehind.output(null, UUID.randomUUID(), "1");
+        writeBehind.output(null, UUID.randomUUID(), "2");
+        writeBehind.flush();
+        assertEquals(1, batches.size());
+        assertEquals("2", batches.get(0).get(1).getJson());
+    }
+
+    @Test
+    public void testFailedWrite() {
+        final List<String> received = new ArrayList();
+        final boolean[] broken = { true };
+        WriteBehindOutput writeBehind = new WriteBehindOutput(new AryaOutput() {
+            public <T> void output(T t, UUID uuid, String json) {
+                if(broken[0] && json.startsWith("b")) {
+                    throw new RuntimeException(json);
+                }
+                received.add(json);
+            }
+        }, 100);
+        UUID a = UUID.randomUUID();
+        UUID b = UUID.randomUUID();
+        UUID c = UUID.randomUUID();
+        writeBehind.output(null, a, "a1");
+        writeBehind.output(null, b, "b1");
+        writeBehind.output(null, c, "c1");
+        try {
+            writeBehind.flush();
+            fail();
+        } catch(RuntimeException e) {
+            // expected
+        }
+        // the records that weren't written are held again
+        assertEquals("[a1]", received.toString());
+        assertEquals(2, writeBehind.getPendingCount());
+        assertEquals(1, writeBehind.getWriteCount());
+        // a later record replaces one held again
+        writeBehind.output(null, c, "c2");
+        broken[0] = false;
+        writeBehind.flush();
+        assertEquals("[a1, b1, c2]", received.toString());
+        assertEquals(0, writeBehind.getPendingCount());
+        assertEquals(3, writeBehind.getWriteCount());
+        assertEquals(4, writeBehind.getSaveCount());
+    }
+
+    @Test
+    public void testFailedBatch() {
+        final List<List<AryaRecord>> batches = new ArrayList();
+        final boolean[] broken = { true };
+        WriteBehindOutput writeBehind = new WriteBehindOutput(new BatchRecorder(batches) {
+            public void outputBatch(List<AryaRecord> records) {
+                if(broken[0]) {
+                    throw new RuntimeException();
+                }
+                super.outputBatch(records);
+            }
+        }, 100);
+        writeBehind.output(null, UUID.randomUUID(), "1");
+        writeBehind.output(null, UUID.randomUUID(), "2");
+        try {
+            writeBehind.flush();
+            fail();
+        } catch(RuntimeException e) {
+            // expected
+        }
+        assertEquals(2, writeBehind.getPendingCount());
+        broken[0] = false;
+        writeBehind.flush();
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+    }
+
+    @Test
+    public void testClosed() {
+        Recorder recorder = new Recorder();
+        WriteBehindOutput writeBehind = new WriteBehindOutput(recorder, 100);
+        writeBehind.output(null, UUID.randomUUID(), "1");
+        writeBehind.close();
+        assertEquals(1, recorder.received.size());
+        try {
+            writeBehind.output(null, UUID.randomUUID(), "late");
+            fail();
+        } catch(IllegalStateException e) {
+            // expected
+        }
+        assertEquals(0, writeBehind.getPendingCount());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testZeroEntries() {
+        new WriteBehindOutput(new Recorder(), 0);
+    }
+
+    /**
+     * Recorder is an AryaOutput that records the JSON it receives.
+     */
+    static class Recorder implements AryaOutput
+    {
+        public <T> void output(T t, UUID uuid, String json) {
+            received.add(json);
+        }
+
+        final List<String> received = new CopyOnWriteArrayList();
+    }
+
+    /**
+     * BatchRecorder is an AryaOutput that also takes batches, and records
+     * them.
+     */
+    static class BatchRecorder implements AryaOutput, AryaBatchOutput
+    {
+        BatchRecorder(List<List<AryaRecord>> batches) {
+            this.batches = batches;
+        }
+
+        public <T> void output(T t, UUID uuid, String json) {
+            fail();
+        }
+
+        public void outputBatch(List<AryaRecord> records) {
+            batches.add(records);
+        }
+
+        final List<List<AryaRecord>> batches;
+    }
+}
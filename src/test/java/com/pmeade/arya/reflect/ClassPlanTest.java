@@ -0,0 +1,92 @@
+/*
+ * ClassPlanTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.reflect;
+
+import com.pmeade.arya.domain.GameOfArrays;
+import com.pmeade.arya.domain.MagicSword;
+import com.pmeade.arya.domain.Player;
+import com.pmeade.arya.domain.Point;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ClassPlanTest
+{
+    @Test
+    public void testPlanIsCached() {
+        assertSame(ClassPlan.of(Point.class), ClassPlan.of(Point.class));
+    }
+
+    @Test
+    public void testPointFields() {
+        List<FieldPlan> fields = ClassPlan.of(Point.class).getFields();
+        assertEquals(3, fields.size());
+        assertEquals("x", fields.get(0).getName());
+        assertEquals("y", fields.get(1).getName());
+        assertEquals("z", fields.get(2).getName());
+        for(FieldPlan fieldPlan : fields) {
+            assertEquals(FieldKind.DOUBLE, fieldPlan.getKind());
+        }
+    }
+
+    @Test
+    public void testPlayerKinds() {
+        for(FieldPlan fieldPlan : ClassPlan.of(Player.class).getFields()) {
+            if(fieldPlan.getName().equals("knownAssociates")) { assertEquals(FieldKind.PARAMETERIZED, fieldPlan.getKind()); }
+            if(fieldPlan.getName().equals("name")) { assertEquals(FieldKind.STRING, fieldPlan.getKind()); }
+            if(fieldPlan.getName().equals("dateCreated")) { assertEquals(FieldKind.DATE, fieldPlan.getKind()); }
+            if(fieldPlan.getName().equals("gender")) { assertEquals(FieldKind.ENUM, fieldPlan.getKind()); }
+            if(fieldPlan.getName().equals("weapons")) { assertEquals(FieldKind.PARAMETERIZED, fieldPlan.getKind()); }
+        }
+    }
+
+    @Test
+    public void testArrayKinds() {
+        for(FieldPlan fieldPlan : ClassPlan.of(GameOfArrays.class).getFields()) {
+            assertEquals(FieldKind.ARRAY, fieldPlan.getKind());
+        }
+    }
+
+    @Test
+    public void testInheritedId() {
+        ClassPlan plan = ClassPlan.of(MagicSword.class);
+        assertNotNull(plan.getIdField());
+        assertEquals("uuid", plan.getIdField().getName());
+        // fields of the class come before the fields of its superclasses
+        List<FieldPlan> fields = plan.getFields();
+        assertEquals("uuid", fields.get(fields.size()-1).getName());
+
+        MagicSword magicSword = new MagicSword();
+        assertNull(plan.getId(magicSword));
+        UUID uuid = UUID.fromString("de626224-a0b1-47e3-904d-a243eb4ca6b0");
+        magicSword.setUuid(uuid);
+        assertEquals(uuid, plan.getId(magicSword));
+        plan.clearId(magicSword);
+        assertNull(magicSword.getUuid());
+        assertNull(plan.getId(magicSword));
+    }
+
+    @Test
+    public void testNoId() {
+        ClassPlan plan = ClassPlan.of(Point.class);
+        assertNull(plan.getIdField());
+        assertNull(plan.getId(new Point(1.0, 2.0, 3.0)));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * FingerprintTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.reflect;
+
+import com.pmeade.arya.domain.MultiModel;
+import com.pmeade.arya.domain.Player;
+import com.pmeade.arya.domain.Point;
+import com.pmeade.arya.domain.Polygon;
+import com.pmeade.arya.domain.Sword;
+import com.pmeade.arya.domain.Weapon;
+import com.pmeade.arya.identity.IdentityTable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FingerprintTest
+{
+    @Test
+    public void testSameStateSameFingerprint() {
+        Point a = new Point(1, 2, 3);
+        Point b = new Point(1, 2, 3);
+        assertEquals(Fingerprint.of(a, null), Fingerprint.of(b, null));
+        b.setZ(3.5);
+        assertFalse(Fingerprint.of(a, null) == Fingerprint.of(b, null));
+    }
+
+    @Test
+    public void testReferencesByIdentity() {
+        Polygon polygon = new Polygon();
+        List<Object> references = new ArrayList();
+        long before = Fingerprint.of(polygon, references);
+        assertEquals(Arrays.asList((Object[]) polygon.getPoints()), references);
+        // a change inside a referenced object doesn't change the fingerprint
+        polygon.getPoints()[0].setX(-7.0);
+        assertEquals(before, Fingerprint.of(polygon, null));
+        // referring to a different object does
+        polygon.getPoints()[0] = new Point(-7.0, polygon.getPoints()[0].getY(), polygon.getPoints()[0].getZ());
+        assertFalse(before == Fingerprint.of(polygon, null));
+    }
+
+    @Test
+    public void testMultiDimensionalArrays() {
+        MultiModel model = new MultiModel();
+        List<Object> references = new ArrayList();
+        long before = Fingerprint.of(model, references);
+        // the inner arrays are part of the field; the polygons are objects
+        assertEquals(8, references.size());
+        assertTrue(references.contains(model.getPolygons()[1][1][0]));
+        model.getPolygons()[1][1][0] = new Polygon();
+        assertFalse(before == Fingerprint.of(model, null));
+    }
+
+    @Test
+    public void testLongsUseAllBits() {
+        Account account = new Account();
+        long before = Fingerprint.of(account, null);
+        // 0L and -1L have the same Long.hashCode()
+        account.balance = -1L;
+        assertFalse(before == Fingerprint.of(account, null));
+        // so do these two, which differ only in their high bits
+        account.balance = 0x0000000100000001L;
+        before = Fingerprint.of(account, null);
+        account.balance = 0L;
+        assertFalse(before == Fingerprint.of(account, null));
+        account.total = 0L;
+        before = Fingerprint.of(account, null);
+        account.total = -1L;
+        assertFalse(before == Fingerprint.of(account, null));
+        // a null wrapper isn't the same as zero
+        account.total = null;
+        assertFalse(before == Fingerprint.of(account, null));
+    }
+
+    @Test
+    public void testDoublesUseAllBits() {
+        Account account = new Account();
+        long before = Fingerprint.of(account, null);
+        // 0.0 and this value have the same Double.hashCode()
+        account.amount = Double.longBitsToDouble(0x0000000100000001L);
+        assertEquals(Double.hashCode(0.0), Double.hashCode(account.amount));
+        assertFalse(before == Fingerprint.of(account, null));
+    }
+
+    @Test
+    public void testStringsUse64BitHash() {
+        Account account = new Account();
+        account.code = "Aa";
+        long before = Fingerprint.of(account, null);
+        // "Aa" and "BB" have the same String.hashCode()
+        account.code = "BB";
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertFalse(before == Fingerprint.of(account, null));
+        account.code = "AaAa";
+        before = Fingerprint.of(account, null);
+        account.code = "BBBB";
+        assertFalse(before == Fingerprint.of(account, null));
+    }
+
+    @Test
+    public void testReferencesByUuid() {
+        IdentityTable identities = new IdentityTable();
+        Polygon polygon = new Polygon();
+        for(Point point : polygon.getPoints()) {
+            identities.put(UUID.randomUUID(), point);
+        }
+        long before = Fingerprint.of(polygon, null, identities);
+        assertEquals(before, Fingerprint.of(polygon, null, identities));
+        // swapping two referenced objects changes the fingerprint
+        Point[] points = polygon.getPoints();
+        Point swap = points[0]; points[0] = points[1]; points[1] = swap;
+        assertFalse(before == Fingerprint.of(polygon, null, identities));
+        swap = points[0]; points[0] = points[1]; points[1] = swap;
+        assertEquals(before, Fingerprint.of(polygon, null, identities));
+        // so does a new object without a UUID identity
+        points[2] = new Point(points[2].getX(), points[2].getY(), points[2].getZ());
+        assertFalse(before == Fingerprint.of(polygon, null, identities));
+    }
+
+    @Test
+    public void testCollections() {
+        Player player = new Player();
+        player.setName("Arya");
+        long before = Fingerprint.of(player, null);
+        Weapon needle = new Sword();
+        player.getWeapons().add(needle);
+        List<Object> references = new ArrayList();
+        assertFalse(before == Fingerprint.of(player, references));
+        assertTrue(references.contains(needle));
+    }
+
+    @Test
+    public void testUnorderedContainers() {
+        // "Aa" and "BB" have the same hashCode(), so a HashSet iterates
+        // over them in the order in which they were added
+        Tags a = new Tags();
+        a.tags.add("Aa"); a.tags.add("BB");
+        a.counts.put("Aa", 1); a.counts.put("BB", 2);
+        Tags b = new Tags();
+        b.tags.add("BB"); b.tags.add("Aa");
+        b.counts.put("BB", 2); b.counts.put("Aa", 1);
+        assertEquals(Fingerprint.of(a, null), Fingerprint.of(b, null));
+        // moving a value to another key is still a change
+        b.counts.put("BB", 1); b.counts.put("Aa", 2);
+        assertFalse(Fingerprint.of(a, null) == Fingerprint.of(b, null));
+        // in a list, the order matters
+        Player player = new Player();
+        player.getWeapons().add(new Sword());
+        player.getWeapons().add(new Sword());
+        IdentityTable identities = new IdentityTable();
+        for(Weapon weapon : player.getWeapons()) {
+            identities.put(UUID.randomUUID(), weapon);
+        }
+        long before = Fingerprint.of(player, null, identities);
+        player.getWeapons().add(player.getWeapons().remove(0));
+        assertFalse(before == Fingerprint.of(player, null, identities));
+    }
+
+    public static class Account
+    {
+        public long balance;
+        public Long total;
+        public double amount;
+        public String code;
+    }
+
+    public static class Tags
+    {
+        public Set<String> tags = new HashSet();
+        public Map<String,Integer> counts = new HashMap();
+    }
+}
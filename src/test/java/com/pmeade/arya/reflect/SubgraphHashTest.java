@@ -0,0 +1,171 @@
+/*
+ * SubgraphHashTest.java
+ * Copyright 2013 Patrick Meade.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.arya.reflect;
+
+import com.pmeade.arya.domain.Dragon;
+import com.pmeade.arya.domain.Point;
+import com.pmeade.arya.domain.Polygon;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SubgraphHashTest
+{
+    @Test
+    public void testSameGraphSameHashes() {
+        Polygon a = newPolygon();
+        Polygon b = newPolygon();
+        SubgraphHash hashA = new SubgraphHash(a);
+        SubgraphHash hashB = new SubgraphHash(b);
+        assertEquals(6, hashA.getObjects().size());
+        assertSame(a, hashA.getObjects().get(0));
+        assertEquals(hashA.getHash(a), hashB.getHash(b));
+        for(int i=0; i<5; i++) {
+            assertEquals(hashA.getHash(a.getPoints()[i]), hashB.getHash(b.getPoints()[i]));
+        }
+    }
+
+    @Test
+    public void testChangePropagatesToAncestors() {
+        Polygon a = newPolygon();
+        SubgraphHash before = new SubgraphHash(a);
+        a.getPoints()[2].setY(-1.0);
+        SubgraphHash after = new SubgraphHash(a);
+        assertFalse(before.getHash(a) == after.getHash(a));
+        assertFalse(before.getHash(a.getPoints()[2]) == after.getHash(a.getPoints()[2]));
+        assertEquals(before.getHash(a.getPoints()[1]), after.getHash(a.getPoints()[1]));
+    }
+
+    @Test
+    public void testReferences() {
+        Polygon a = newPolygon();
+        SubgraphHash hash = new SubgraphHash(a);
+        assertEquals(5, hash.getReferences(a).size());
+        assertSame(a.getPoints()[3], hash.getReferences(a).get(3));
+        assertTrue(hash.getReferences(a.getPoints()[3]).isEmpty());
+    }
+
+    @Test
+    public void testCycles() {
+        Dragon meraxes = newCycle();
+        SubgraphHash before = new SubgraphHash(meraxes);
+        assertEquals(3, before.getObjects().size());
+        Dragon other = newCycle();
+        assertEquals(before.getHash(meraxes), new SubgraphHash(other).getHash(other));
+        // members of a cycle have distinct hashes
+        Dragon vhagar = meraxes.getMother();
+        SubgraphHash current = new SubgraphHash(meraxes);
+        assertFalse(current.getHash(meraxes) == current.getHash(vhagar));
+        // a change anywhere in the cycle changes every member
+        long meraxesHash = current.getHash(meraxes);
+        long vhagarHash = current.getHash(vhagar);
+        vhagar.getMother().setName("Balerion the Black Dread");
+        SubgraphHash after = new SubgraphHash(meraxes);
+        assertFalse(meraxesHash == after.getHash(meraxes));
+        assertFalse(vhagarHash == after.getHash(vhagar));
+    }
+
+    @Test
+    public void testDeepGraph() {
+        // deep enough to overflow the stack, if the walk were recursive
+        Dragon dragon = new Dragon(0L, "0");
+        Dragon first = dragon;
+        for(int i=1; i<100000; i++) {
+            Dragon next = new Dragon(0L, Integer.toString(i));
+            dragon.setMother(next);
+            dragon = next;
+        }
+        assertEquals(100000, new SubgraphHash(first).getObjects().size());
+    }
+
+    @Test
+    public void testUnorderedContainers() {
+        // the iteration order of a HashSet or HashMap of plain objects
+        // follows their identity hash codes, which differ every time
+        Flock a = newFlock(false, false);
+        Flock b = newFlock(true, false);
+        assertEquals(new SubgraphHash(a).getHash(a), new SubgraphHash(b).getHash(b));
+        // a change to an element still changes the hash
+        SubgraphHash before = new SubgraphHash(a);
+        a.byName.get("bird7").name = "raven";
+        assertFalse(before.getHash(a) == new SubgraphHash(a).getHash(a));
+        // as does a change to the key under which it is kept
+        Flock c = newFlock(false, false);
+        c.byName.put("crow", c.byName.remove("bird3"));
+        assertFalse(new SubgraphHash(b).getHash(b) == new SubgraphHash(c).getHash(c));
+    }
+
+    @Test
+    public void testUnorderedContainersInCycles() {
+        Flock a = newFlock(false, true);
+        Flock b = newFlock(true, true);
+        SubgraphHash hashA = new SubgraphHash(a);
+        SubgraphHash hashB = new SubgraphHash(b);
+        assertEquals(hashA.getHash(a), hashB.getHash(b));
+        assertEquals(hashA.getHash(a.byName.get("bird5")), hashB.getHash(b.byName.get("bird5")));
+    }
+
+    private Flock newFlock(boolean reversed, boolean cyclic) {
+        Flock flock = new Flock();
+        for(int i=0; i<20; i++) {
+            int n = reversed ? 19 - i : i;
+            Bird bird = new Bird();
+            bird.name = "bird" + n;
+            bird.flock = cyclic ? flock : null;
+            flock.birds.add(bird);
+            flock.byName.put(bird.name, bird);
+            flock.byBird.put(bird, n);
+        }
+        return flock;
+    }
+
+    private Dragon newCycle() {
+        Dragon meraxes = new Dragon(0L, "Meraxes");
+        Dragon vhagar = new Dragon(0L, "Vhagar");
+        Dragon balerion = new Dragon(0L, "Balerion");
+        meraxes.setMother(vhagar);
+        vhagar.setMother(balerion);
+        balerion.setMother(meraxes);
+        return meraxes;
+    }
+
+    private Polygon newPolygon() {
+        Polygon polygon = new Polygon();
+        for(int i=0; i<5; i++) {
+            polygon.getPoints()[i] = new Point(i, i * 2, i * 3);
+        }
+        return polygon;
+    }
+
+    public static class Flock
+    {
+        public Set<Bird> birds = new HashSet();
+        public Map<String,Bird> byName = new HashMap();
+        public Map<Bird,Integer> byBird = new HashMap();
+    }
+
+    public static class Bird
+    {
+        public String name;
+        public Flock flock;
+    }
+}